@@ -0,0 +1,13 @@
+#!/bin/bash
+# Run StreamShift as built by the fast-start profile: AOT-processed context and AppCDS archive
+#
+# Usage: ./scripts/fast-start.sh [--name=value ...]
+# Build it first with: ./mvnw -B -Pfast-start package
+# The archive is only used with the exact jar and lib/ it was trained on; rebuild after changes.
+
+set -e
+
+cd "$(dirname "$0")/../target/fast-start"
+
+exec java -XX:SharedArchiveFile=streamshift.jsa -Dspring.aot.enabled=true $JAVA_OPTS \
+    -jar streamshift-*-fast-start.jar "$@"
@@ -0,0 +1,24 @@
+#!/bin/bash
+# Replay captured Debezium events through the StreamShift pipeline without Kafka
+#
+# Usage: ./scripts/replay.sh [--name=value ...]
+#   ./scripts/replay.sh --input=events.jsonl.gz --rate=5000 --keys=100000 --zipf=1.2
+#   ./scripts/replay.sh --target-url=jdbc:postgresql://localhost:5433/inventory_target
+#   ./scripts/replay.sh --compare=target/replay/<commit>-default.json
+#   ./scripts/replay.sh --target-url=jdbc:postgresql://localhost:5433/inventory_target --strategy=merge --label=merge
+#
+# Capture events from a running stack with:
+#   docker exec streamshift-kafka kafka-console-consumer --bootstrap-server kafka:29092 \
+#     --include 'dbserver1\.inventory\..*' --from-beginning --timeout-ms 10000 | gzip > events.jsonl.gz
+
+set -e
+
+cd "$(dirname "$0")/.."
+
+./mvnw -q -B test-compile
+CLASSPATH_FILE=target/replay-classpath.txt
+./mvnw -q -B dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile="$CLASSPATH_FILE"
+
+java -Xms1g -Xmx1g \
+    -cp "target/classes:target/test-classes:$(cat "$CLASSPATH_FILE")" \
+    com.jonathantong.StreamShift.benchmark.replay.ReplayHarness "$@"
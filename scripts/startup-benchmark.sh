@@ -0,0 +1,50 @@
+#!/bin/bash
+# Time from JVM launch to the first applied change, with and without the fast-start profile
+#
+# Usage: ./scripts/startup-benchmark.sh [runs]
+# Needs the docker-compose stack with the connector registered (./scripts/setup-postgres.sh start).
+# Each run starts StreamShift, inserts a row into the source and waits for the log line
+# "First change applied ... ms after JVM start".
+
+set -e
+
+cd "$(dirname "$0")/.."
+
+RUNS=${1:-5}
+SOURCE_DB_CONTAINER="streamshift-postgres-source"
+TARGET_ARGS="--streamshift.target.db.url=jdbc:postgresql://localhost:5433/inventory_target \
+--streamshift.target.db.username=postgres --streamshift.target.db.password=postgres"
+
+./mvnw -q -B -Pfast-start package -DskipTests
+DEFAULT_JAR=$(ls target/streamshift-*.jar | grep -v -- '-fast-start' | head -1)
+LOG=target/startup-benchmark.log
+
+run() {
+    local variant=$1
+    shift
+    "$@" $TARGET_ARGS > "$LOG" 2>&1 &
+    local pid=$!
+
+    docker exec $SOURCE_DB_CONTAINER psql -q -U postgres -d inventory -c "
+    INSERT INTO inventory.customers (first_name, last_name, email)
+    VALUES ('Startup', 'Benchmark', 'startup-$variant-$RANDOM@test.com');" > /dev/null
+
+    local first=""
+    for _ in $(seq 1 600); do
+        first=$(grep -o 'First change applied .* ms after JVM start' "$LOG" | grep -o '[0-9]* ms' | head -1)
+        [ -n "$first" ] && break
+        sleep 0.2
+    done
+    local started
+    started=$(grep -o 'Started StreamShiftApplication in [0-9.]* seconds' "$LOG" | grep -o '[0-9.]* seconds' | head -1)
+
+    kill $pid
+    wait $pid 2>/dev/null || true
+    printf "%-10s %20s %22s\n" "$variant" "${started:-n/a}" "${first:-timed out}"
+}
+
+printf "%-10s %20s %22s\n" "variant" "context started" "first applied"
+for i in $(seq 1 "$RUNS"); do
+    run default java -jar "$DEFAULT_JAR"
+    run fast-start ./scripts/fast-start.sh
+done
@@ -2,6 +2,8 @@ package com.jonathantong.StreamShift;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 import org.springframework.kafka.annotation.EnableKafka;
 
 /**
@@ -13,12 +15,16 @@ import org.springframework.kafka.annotation.EnableKafka;
  * 	- Basic change event processing
  * 	- Logging and monitoring
  */
-@SpringBootApplication
+// The target's R2DBC connections are built by DatabaseConfig, only for streamshift.target.writer=r2dbc
+@SpringBootApplication(exclude = R2dbcAutoConfiguration.class)
 @EnableKafka
 public class StreamShiftApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(StreamShiftApplication.class, args);
+		SpringApplication application = new SpringApplication(StreamShiftApplication.class);
+		// Startup steps for GET /actuator/startup
+		application.setApplicationStartup(new BufferingApplicationStartup(4096));
+		application.run(args);
 	}
 
 }
@@ -0,0 +1,186 @@
+package com.jonathantong.StreamShift.cache;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing long-to-long hash map with CLOCK eviction.
+ *
+ * Keys and values live in primitive arrays so lookups never allocate. The map
+ * holds at most {@code maxEntries} entries; once full, inserting a new key
+ * evicts the first entry the clock hand finds without its referenced bit.
+ * Not thread-safe - callers are expected to guard each instance with a lock.
+ */
+final class LongClockMap {
+
+    private static final long EMPTY = 0L;
+
+    // Substitute for a real key of 0, which would collide with the EMPTY marker
+    private static final long ZERO_KEY = 0x9E3779B97F4A7C15L;
+
+    private final long[] keys;
+    private final long[] values;
+    private final byte[] referenced;
+    private final int mask;
+    private final int maxEntries;
+
+    private int size;
+    private int hand;
+    private long evictions;
+
+    LongClockMap(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        // Keep the load factor at or below 0.75 so probe chains stay short
+        int capacity = Integer.highestOneBit(Math.max(4, maxEntries + maxEntries / 3) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.referenced = new byte[capacity];
+        this.mask = capacity - 1;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Return true if {@code key} is present and mapped to {@code value}.
+     * A hit marks the entry as recently referenced.
+     */
+    boolean containsEntry(long key, long value) {
+        int index = indexOf(normalize(key));
+        if (index < 0) {
+            return false;
+        }
+        referenced[index] = 1;
+        return values[index] == value;
+    }
+
+    /**
+     * Insert or replace the mapping for {@code key}, evicting an entry if full
+     */
+    void put(long key, long value) {
+        long k = normalize(key);
+        int index = indexOf(k);
+        if (index >= 0) {
+            values[index] = value;
+            referenced[index] = 1;
+            return;
+        }
+
+        if (size >= maxEntries) {
+            evictOne();
+        }
+
+        int i = slot(k);
+        while (keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = k;
+        values[i] = value;
+        referenced[i] = 0;
+        size++;
+    }
+
+    /**
+     * Remove the mapping for {@code key} if present
+     */
+    void remove(long key) {
+        int index = indexOf(normalize(key));
+        if (index >= 0) {
+            deleteAt(index);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, 0L);
+        Arrays.fill(referenced, (byte) 0);
+        size = 0;
+        hand = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Bytes retained by the backing arrays
+     */
+    long footprintBytes() {
+        return (long) keys.length * (Long.BYTES + Long.BYTES + 1);
+    }
+
+    private int indexOf(long k) {
+        int i = slot(k);
+        while (true) {
+            long current = keys[i];
+            if (current == k) {
+                return i;
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void evictOne() {
+        while (true) {
+            int i = hand;
+            if (keys[i] != EMPTY) {
+                if (referenced[i] != 0) {
+                    referenced[i] = 0;
+                } else {
+                    // The backward shift may move a later entry into slot i,
+                    // so the hand stays put and examines it next time
+                    deleteAt(i);
+                    evictions++;
+                    return;
+                }
+            }
+            hand = (hand + 1) & mask;
+        }
+    }
+
+    /**
+     * Delete the entry at {@code index} using backward-shift deletion so
+     * that no tombstones are needed for linear probing
+     */
+    private void deleteAt(int index) {
+        int hole = index;
+        int j = index;
+        while (true) {
+            j = (j + 1) & mask;
+            long k = keys[j];
+            if (k == EMPTY) {
+                break;
+            }
+            int home = slot(k);
+            // Move the entry into the hole unless its home lies cyclically in (hole, j]
+            boolean stays = hole <= j
+                    ? (home > hole && home <= j)
+                    : (home > hole || home <= j);
+            if (!stays) {
+                keys[hole] = k;
+                values[hole] = values[j];
+                referenced[hole] = referenced[j];
+                hole = j;
+            }
+        }
+        keys[hole] = EMPTY;
+        values[hole] = 0L;
+        referenced[hole] = 0;
+        size--;
+    }
+
+    private int slot(long k) {
+        long h = k * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static long normalize(long key) {
+        return key == EMPTY ? ZERO_KEY : key;
+    }
+}
@@ -0,0 +1,473 @@
+package com.jonathantong.StreamShift.cache;
+
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of the last row image written to the target for each (table, primary key).
+ *
+ * Only 64-bit fingerprints are stored, so memory per entry is fixed regardless of row width.
+ * A write whose row fingerprint matches the cached one is redundant and can be skipped
+ * before any SQL is built.
+ *
+ * Warm-up and invalidation policy (safe by default):
+ * 	- The cache starts empty and is never pre-loaded from the target; an entry only
+ * 	  exists after this process successfully wrote that exact row image
+ * 	- Writes inside a Spring transaction are recorded only once it commits; until then the
+ * 	  key is dropped, so a rolled back write can never make a later one look redundant
+ * 	- Deletes, failed writes and updates that touched no rows drop the key
+ * 	- {@link #invalidateTable(String)} drops every entry of a table in O(1) by bumping
+ * 	  the table's epoch, which is mixed into every key fingerprint
+ * 	- After a consumer rebalance only tables whose partitions were held continuously
+ * 	  keep their entries, since another node may have written the others meanwhile
+ *
+ * Disabled by default (streamshift.fingerprint-cache.enabled=false). Do not enable it if the
+ * target tables are also written outside StreamShift.
+ */
+@Component
+public class RowFingerprintCache implements ConsumerRebalanceListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(RowFingerprintCache.class);
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private static final long NULL_HASH = 0x2545F4914F6CDD1DL;
+    private static final long TRUE_HASH = 0x6A09E667F3BCC909L;
+    private static final long FALSE_HASH = 0xBB67AE8584CAA73BL;
+
+    private final boolean enabled;
+    private final LongClockMap[] segments;
+    private final ReentrantLock[] locks;
+    private final Map<String, AtomicLong> tableEpochs = new ConcurrentHashMap<>();
+    private final Set<TopicPartition> ownedPartitions = ConcurrentHashMap.newKeySet();
+    private final Set<TopicPartition> revokedPartitions = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<PendingWrites> pendingWrites = ThreadLocal.withInitial(PendingWrites::new);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder skippedWrites = new LongAdder();
+
+    @Autowired
+    public RowFingerprintCache(
+            @Value("${streamshift.fingerprint-cache.enabled:false}") boolean enabled,
+            @Value("${streamshift.fingerprint-cache.max-entries:1048576}") int maxEntries,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.segments = new LongClockMap[SEGMENT_COUNT];
+        this.locks = new ReentrantLock[SEGMENT_COUNT];
+
+        int perSegment = Math.max(1, maxEntries / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new LongClockMap(perSegment);
+            locks[i] = new ReentrantLock();
+        }
+
+        registerMetrics(meterRegistry);
+        logger.info("Row fingerprint cache {} with capacity {} entries ({} bytes)",
+                enabled ? "enabled" : "disabled", perSegment * SEGMENT_COUNT, footprintBytes());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Fingerprint of a table's primary key. Independent of column iteration order.
+     */
+    public long keyFingerprint(String tableName, Map<String, Object> keyValues) {
+        long hash = tableSeed(tableName);
+        for (Map.Entry<String, Object> entry : keyValues.entrySet()) {
+            hash += mix(hashString(entry.getKey()) ^ hashValue(entry.getValue()));
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Fingerprint of the key columns of {@code data}. Equal to {@link #keyFingerprint(String, Map)}
+     * over the same key values.
+     */
+    public long keyFingerprint(String tableName, Iterable<String> keyColumns, Map<String, Object> data) {
+        long hash = tableSeed(tableName);
+        for (String column : keyColumns) {
+            hash += mix(hashString(column) ^ hashValue(data.get(column)));
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Fingerprint of a full row image. Independent of column iteration order.
+     */
+    public long rowFingerprint(Map<String, Object> data) {
+        long hash = data.size();
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            hash += mix(hashString(entry.getKey()) * 31 + hashValue(entry.getValue()));
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Fingerprint of the key columns of a row buffer. Equal to the map-based fingerprints
+     * over the same key values.
+     */
+    public long keyFingerprint(String tableName, List<String> keyColumns, RowBuffer row) {
+        long hash = tableSeed(tableName);
+        for (int i = 0; i < keyColumns.size(); i++) {
+            String column = keyColumns.get(i);
+            hash += mix(hashString(column) ^ hashValue(row.get(column)));
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Fingerprint of a full row buffer. Equal to {@link #rowFingerprint(Map)} over the same row.
+     */
+    public long rowFingerprint(RowBuffer row) {
+        long hash = row.size();
+        for (int i = 0; i < row.size(); i++) {
+            hash += mix(hashString(row.column(i)) * 31 + hashValue(row.value(i)));
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Return true if the row image last written for this key has the same fingerprint,
+     * meaning the write would leave the target unchanged
+     */
+    public boolean isUnchanged(long keyFingerprint, long rowFingerprint) {
+        if (!enabled) {
+            return false;
+        }
+
+        int segment = segmentOf(keyFingerprint);
+        boolean hit;
+        locks[segment].lock();
+        try {
+            hit = segments[segment].containsEntry(keyFingerprint, rowFingerprint);
+        } finally {
+            locks[segment].unlock();
+        }
+
+        if (hit) {
+            hits.increment();
+            skippedWrites.increment();
+        } else {
+            misses.increment();
+        }
+        return hit;
+    }
+
+    /**
+     * Remember the row image just written for this key. Inside a transaction it is remembered
+     * once the transaction commits, and the key is forgotten until then.
+     */
+    public void recordWrite(long keyFingerprint, long rowFingerprint) {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(keyFingerprint);
+            PendingWrites pending = pendingWrites.get();
+            if (pending.suspended) {
+                // The thread's buffer belongs to an outer transaction; leave the key uncached
+                return;
+            }
+            if (!pending.registered) {
+                TransactionSynchronizationManager.registerSynchronization(pending);
+                pending.registered = true;
+            }
+            pending.add(keyFingerprint, rowFingerprint);
+            return;
+        }
+        put(keyFingerprint, rowFingerprint);
+    }
+
+    private void put(long keyFingerprint, long rowFingerprint) {
+        int segment = segmentOf(keyFingerprint);
+        locks[segment].lock();
+        try {
+            segments[segment].put(keyFingerprint, rowFingerprint);
+        } finally {
+            locks[segment].unlock();
+        }
+    }
+
+    /**
+     * Forget the row image for this key, e.g. after a delete or a failed write
+     */
+    public void invalidate(long keyFingerprint) {
+        if (!enabled) {
+            return;
+        }
+
+        int segment = segmentOf(keyFingerprint);
+        locks[segment].lock();
+        try {
+            segments[segment].remove(keyFingerprint);
+        } finally {
+            locks[segment].unlock();
+        }
+    }
+
+    /**
+     * Forget every row image of a table. Old entries become unreachable and are
+     * reclaimed by normal eviction.
+     */
+    public void invalidateTable(String tableName) {
+        tableEpochs.computeIfAbsent(tableName, t -> new AtomicLong()).incrementAndGet();
+        logger.info("Invalidated row fingerprints for table {}", tableName);
+    }
+
+    /**
+     * Forget everything
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            locks[i].lock();
+            try {
+                segments[i].clear();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        logger.info("Invalidated all row fingerprints");
+    }
+
+    /**
+     * Key and row fingerprints written in the current transaction of one thread, recorded in
+     * write order after commit. Reused for every transaction of the thread, so recording a
+     * write allocates nothing once the arrays have grown to the largest transaction.
+     */
+    private final class PendingWrites implements TransactionSynchronization {
+
+        private long[] keys = new long[16];
+        private long[] rows = new long[16];
+        private int size;
+        private boolean registered;
+        private boolean suspended;
+
+        void add(long keyFingerprint, long rowFingerprint) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            keys[size] = keyFingerprint;
+            rows[size] = rowFingerprint;
+            size++;
+        }
+
+        @Override
+        public void suspend() {
+            suspended = true;
+        }
+
+        @Override
+        public void resume() {
+            suspended = false;
+        }
+
+        @Override
+        public void afterCommit() {
+            for (int i = 0; i < size; i++) {
+                put(keys[i], rows[i]);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            size = 0;
+            registered = false;
+            suspended = false;
+        }
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        revokedPartitions.addAll(partitions);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        // Revoked and not handed back: another node owns these writes now
+        for (TopicPartition partition : revokedPartitions) {
+            if (!partitions.contains(partition)) {
+                ownedPartitions.remove(partition);
+            }
+        }
+        revokedPartitions.clear();
+
+        // Newly gained: another node may have written these rows since we last saw them
+        Set<String> staleTables = new HashSet<>();
+        for (TopicPartition partition : partitions) {
+            if (ownedPartitions.add(partition)) {
+                staleTables.add(tableOf(partition.topic()));
+            }
+        }
+        staleTables.forEach(this::invalidateTable);
+    }
+
+    public long footprintBytes() {
+        long bytes = 0;
+        for (LongClockMap segment : segments) {
+            bytes += segment.footprintBytes();
+        }
+        return bytes;
+    }
+
+    public double hitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private long entries() {
+        long count = 0;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            locks[i].lock();
+            try {
+                count += segments[i].size();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return count;
+    }
+
+    private long evictions() {
+        long count = 0;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            locks[i].lock();
+            try {
+                count += segments[i].evictions();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return count;
+    }
+
+    private void registerMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("streamshift.fingerprint.lookups", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("streamshift.fingerprint.lookups", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("streamshift.fingerprint.skipped.writes", skippedWrites, LongAdder::sum)
+                .description("Target writes skipped because the row image was unchanged")
+                .register(registry);
+        FunctionCounter.builder("streamshift.fingerprint.evictions", this, RowFingerprintCache::evictions)
+                .register(registry);
+        Gauge.builder("streamshift.fingerprint.hit.ratio", this, RowFingerprintCache::hitRatio)
+                .register(registry);
+        Gauge.builder("streamshift.fingerprint.entries", this, RowFingerprintCache::entries)
+                .register(registry);
+        Gauge.builder("streamshift.fingerprint.memory", this, RowFingerprintCache::footprintBytes)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Table part of a key fingerprint. Mixes in the target database the current thread writes
+     * to, so a write to one fan-out target never makes the same row look unchanged on another.
+     */
+    private long tableSeed(String tableName) {
+        return hashString(tableName) + epochOf(tableName) * 0x9E3779B97F4A7C15L
+                + ShardContext.current().getShard() * 0xC2B2AE3D27D4EB4FL;
+    }
+
+    private long epochOf(String tableName) {
+        AtomicLong epoch = tableEpochs.get(tableName);
+        return epoch != null ? epoch.get() : 0L;
+    }
+
+    private static int segmentOf(long keyFingerprint) {
+        return (int) (keyFingerprint >>> 60) & (SEGMENT_COUNT - 1);
+    }
+
+    /**
+     * Debezium topics are named {@code <server>.<schema>.<table>}
+     */
+    static String tableOf(String topic) {
+        int dot = topic.lastIndexOf('.');
+        return dot >= 0 ? topic.substring(dot + 1) : topic;
+    }
+
+    private static long hashValue(Object value) {
+        if (value == null) {
+            return NULL_HASH;
+        }
+        if (value instanceof String s) {
+            return hashString(s);
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return mix(((Number) value).longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return mix(Double.doubleToLongBits(((Number) value).doubleValue()) ^ 0x5851F42D4C957F2DL);
+        }
+        if (value instanceof Boolean b) {
+            return b ? TRUE_HASH : FALSE_HASH;
+        }
+        if (value instanceof byte[] bytes) {
+            return hashBytes(bytes, 0, bytes.length);
+        }
+        if (value instanceof LargeValue large) {
+            return hashBytes(large.array(), large.offset(), large.length());
+        }
+        return hashString(value.toString());
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units of {@code s}
+     */
+    private static long hashString(String s) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static long hashBytes(byte[] bytes, int offset, int length) {
+        long hash = 0x84222325CBF29CE4L;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Finalizer from SplitMix64 to spread bits before combining
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,14 +1,31 @@
 package com.jonathantong.StreamShift.config;
 
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.fanout.FanoutTargets;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.R2dbcTargetWriter;
+import com.jonathantong.StreamShift.sharding.ShardRoutingDataSource;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Database configuration for source and target PostgreSQL databases
@@ -36,6 +53,35 @@ public class DatabaseConfig {
     @Value("${streamshift.target.db.password:password}")
     private String targetDbPassword;
 
+    // Sharded target: one JDBC URL per shard, comma separated, sharing the target credentials.
+    // Empty for a single target database at streamshift.target.db.url.
+    @Value("${streamshift.target.shard-urls:}")
+    private String targetShardUrls;
+
+    @Value("${streamshift.target.shard-pool-size:10}")
+    private int targetShardPoolSize;
+
+    // Fan-out: further targets that receive every change, as name:jdbc-url pairs, comma separated,
+    // sharing the target credentials
+    @Value("${streamshift.fanout.targets:}")
+    private String fanoutTargetUrls;
+
+    @Value("${streamshift.fanout.pool-size:10}")
+    private int fanoutPoolSize;
+
+    // False to start pools without connecting, e.g. for the fast-start training run; they connect
+    // in the background and on first use
+    @Value("${streamshift.db.connect-on-start:true}")
+    private boolean connectOnStart;
+
+    // Pipelined writer (streamshift.target.writer=r2dbc): connections to the target and statements
+    // in flight on each
+    @Value("${streamshift.target.r2dbc.connections:4}")
+    private int r2dbcConnections;
+
+    @Value("${streamshift.target.r2dbc.pipeline-depth:64}")
+    private int r2dbcPipelineDepth;
+
     /**
      * Source database DataSource
      */
@@ -59,25 +105,53 @@ public class DatabaseConfig {
         config.setValidationTimeout(5000);
 
         config.setPoolName("SourceDB-Pool");
+        config.setInitializationFailTimeout(connectOnStart ? 1 : -1);
 
         return new HikariDataSource(config);
     }
 
     /**
-     * Target database DataSource
+     * Target database DataSource; routes to the shard or fan-out target of the calling thread
+     * when shards or fan-out targets are configured
      */
     @Bean(name = "targetDataSource")
     @Primary
     public DataSource targetDataSource() {
+        List<String> shardUrls = shardUrls();
+        Map<String, String> fanoutUrls = FanoutTargets.parseByTarget(fanoutTargetUrls);
+        if (shardUrls.isEmpty() && fanoutUrls.isEmpty()) {
+            return targetPool(targetDbUrl, 20, "TargetDB-Pool"); // More connections for target (writes)
+        }
+
+        List<DataSource> shards = new ArrayList<>();
+        if (shardUrls.isEmpty()) {
+            shards.add(targetPool(targetDbUrl, 20, "TargetDB-Pool"));
+        }
+        for (int i = 0; i < shardUrls.size(); i++) {
+            shards.add(targetPool(shardUrls.get(i), targetShardPoolSize, "TargetDB-Shard-" + i + "-Pool"));
+        }
+        Map<String, DataSource> fanoutTargets = new LinkedHashMap<>();
+        fanoutUrls.forEach((name, url) -> fanoutTargets.put(name, targetPool(url, fanoutPoolSize, "Target-" + name + "-Pool")));
+        return new ShardRoutingDataSource(shards, fanoutTargets);
+    }
+
+    private List<String> shardUrls() {
+        return Arrays.stream(targetShardUrls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .toList();
+    }
+
+    private HikariDataSource targetPool(String url, int maximumPoolSize, String poolName) {
         HikariConfig config = new HikariConfig();
-        config.setJdbcUrl(targetDbUrl);
+        config.setJdbcUrl(url);
         config.setUsername(targetDbUsername);
         config.setPassword(targetDbPassword);
         config.setDriverClassName("org.postgresql.Driver");
 
         // Connection pool settings
-        config.setMaximumPoolSize(20); // More connections for target (writes)
-        config.setMinimumIdle(5);
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setMinimumIdle(Math.min(5, maximumPoolSize));
         config.setConnectionTimeout(30000);
         config.setIdleTimeout(600000);
         config.setMaxLifetime(1800000);
@@ -86,7 +160,8 @@ public class DatabaseConfig {
         config.setConnectionTestQuery("SELECT 1");
         config.setValidationTimeout(5000);
 
-        config.setPoolName("TargetDB-Pool");
+        config.setPoolName(poolName);
+        config.setInitializationFailTimeout(connectOnStart ? 1 : -1);
 
         return new HikariDataSource(config);
     }
@@ -107,4 +182,33 @@ public class DatabaseConfig {
     public JdbcTemplate targetJdbcTemplate() {
         return new JdbcTemplate(targetDataSource());
     }
-}
\ No newline at end of file
+
+    /**
+     * Transactions on the target database; plain JDBC, there is no JPA
+     */
+    @Bean(name = "transactionManager")
+    public PlatformTransactionManager transactionManager() {
+        return new DataSourceTransactionManager(targetDataSource());
+    }
+
+    /**
+     * Pipelined row writer on the target database, or its first shard, at the JDBC URL as an r2dbc: URL
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "streamshift.target.writer", havingValue = "r2dbc")
+    public R2dbcTargetWriter r2dbcTargetWriter(
+            DatabaseUpdateService databaseUpdateService,
+            RowFingerprintCache rowFingerprintCache,
+            DependencyScheduler dependencyScheduler,
+            MeterRegistry meterRegistry) {
+        List<String> shardUrls = shardUrls();
+        String url = shardUrls.isEmpty() ? targetDbUrl : shardUrls.get(0);
+        ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(url.replaceFirst("^jdbc:", "r2dbc:"))
+                .mutate()
+                .option(ConnectionFactoryOptions.USER, targetDbUsername)
+                .option(ConnectionFactoryOptions.PASSWORD, targetDbPassword)
+                .build();
+        return new R2dbcTargetWriter(ConnectionFactories.get(options), r2dbcConnections, r2dbcPipelineDepth,
+                databaseUpdateService, rowFingerprintCache, dependencyScheduler, meterRegistry);
+    }
+}
@@ -1,22 +1,28 @@
 package com.jonathantong.StreamShift.consumer;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.jonathantong.StreamShift.model.ChangeEvent;
-import com.jonathantong.StreamShift.service.DatabaseUpdateService;
-import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import com.jonathantong.StreamShift.hotkeys.HotKeyTracker;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.pipeline.ChangeEventPipeline;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.service.ChangeEventApplier;
+import com.jonathantong.StreamShift.service.ChangeEventDecoder;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import com.jonathantong.StreamShift.tracing.AckEvent;
+import com.jonathantong.StreamShift.tracing.DecodeEvent;
+import com.jonathantong.StreamShift.tracing.TraceContext;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.AbstractConsumerSeekAware;
+import org.springframework.kafka.listener.ConsumerSeekAware.ConsumerSeekCallback;
 import org.springframework.kafka.support.Acknowledgment;
-import org.springframework.kafka.support.KafkaHeaders;
-import org.springframework.messaging.handler.annotation.Header;
-import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,186 +30,135 @@ import java.util.Map;
  * and applies them to the target database
  */
 @Component
-public class ChangeEventConsumer {
+public class ChangeEventConsumer extends AbstractConsumerSeekAware {
 
     private static final Logger logger = LoggerFactory.getLogger(ChangeEventConsumer.class);
 
-    private final ObjectMapper objectMapper;
-    private final DatabaseUpdateService databaseUpdateService;
-    private final SchemaMetadataService schemaMetadataService;
+    /**
+     * Listener container id, used to pause and resume partitions of the live consumer
+     */
+    public static final String LISTENER_ID = "changeEventListener";
+
+    // Decode buffer reused for every record a listener thread handles
+    private static final ThreadLocal<DecodedChange> CHANGES = ThreadLocal.withInitial(DecodedChange::new);
+
+    private final ChangeEventDecoder changeEventDecoder;
+    private final ChangeEventApplier changeEventApplier;
+    private final ChangeEventPipeline changeEventPipeline;
+    private final ShardRouter shardRouter;
+    private final HotKeyTracker hotKeyTracker;
+    private final KeyRouting keyRouting;
 
     @Autowired
     public ChangeEventConsumer(
-            ObjectMapper objectMapper,
-            DatabaseUpdateService databaseUpdateService,
-            SchemaMetadataService schemaMetadataService) {
-        this.objectMapper = objectMapper;
-        this.databaseUpdateService = databaseUpdateService;
-        this.schemaMetadataService = schemaMetadataService;
+            ChangeEventDecoder changeEventDecoder,
+            ChangeEventApplier changeEventApplier,
+            ChangeEventPipeline changeEventPipeline,
+            ShardRouter shardRouter,
+            HotKeyTracker hotKeyTracker,
+            KeyRouting keyRouting) {
+        this.changeEventDecoder = changeEventDecoder;
+        this.changeEventApplier = changeEventApplier;
+        this.changeEventPipeline = changeEventPipeline;
+        this.shardRouter = shardRouter;
+        this.hotKeyTracker = hotKeyTracker;
+        this.keyRouting = keyRouting;
     }
 
     @KafkaListener(
-            topicPattern = "dbserver1\\.inventory\\..*",
+            id = LISTENER_ID,
+            topicPattern = "${streamshift.apply.topic-pattern:dbserver1\\.inventory\\..*}",
             groupId = "streamshift-consumer-group"
     )
-    public void handleChangeEvent(
-            @Payload(required = false) String message,
-            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-            Acknowledgment acknowledgment) {
+    public void handleChangeEvent(ConsumerRecord<String, byte[]> record, Acknowledgment acknowledgment) {
 
-        try {
-            logger.info("Received event from topic: {}", topic);
+        // Staged mode: the pipeline decodes, applies and acknowledges in order on its own threads
+        if (changeEventPipeline.isEnabled()) {
+            changeEventPipeline.publish(record, acknowledgment);
+            return;
+        }
+
+        byte[] message = record.value();
+        String topic = record.topic();
+        TraceContext.current().record(topic, record.partition(), record.offset(),
+                Math.max(record.serializedValueSize(), 0));
 
+        try {
             // Handle tombstone records (null payloads after DELETE operations)
-            if (message == null || message.isEmpty()) {
+            if (message == null || message.length == 0) {
                 logger.debug("Received tombstone record, skipping processing");
-                acknowledgment.acknowledge();
+                acknowledge(acknowledgment);
                 return;
             }
 
-            // Parse the message
-            ChangeEvent changeEvent = objectMapper.readValue(message, ChangeEvent.class);
-
-            if (changeEvent != null) {
-                String operation = changeEvent.getOperation();
-                String tableName = changeEvent.getTableName();
-                String databaseName = changeEvent.getDatabaseName();
-
-                logger.info("Processing {} operation on table: {}", getOperationName(operation), tableName);
-
-                // Ensure target table exists
-                schemaMetadataService.ensureTargetTableExists(databaseName, tableName, changeEvent);
+            // Excluded tables are known from the topic, without parsing the message
+            if (keyRouting.excludes(keyRouting.tableOf(topic))) {
+                acknowledge(acknowledgment);
+                return;
+            }
 
-                // Process the change event
-                processChangeEvent(changeEvent);
+            // Parse the message
+            DecodeEvent decode = new DecodeEvent();
+            decode.begin();
+            DecodedChange change = CHANGES.get();
+            boolean decoded = changeEventDecoder.decode(message, record.headers(), change, topic);
+            decode.end();
+            if (decode.shouldCommit() && decoded) {
+                decode.setTable(change.getTableName());
+                decode.setOperation(change.getOperation());
+                decode.describe(TraceContext.current());
+                decode.commit();
+            }
 
-                logger.info("Successfully processed {} operation", getOperationName(operation));
+            if (decoded && !keyRouting.excludes(change.getTableName())) {
+                // Pick the target shard, then ensure the target table exists there and apply the
+                // change; counted by ActivitySummary
+                if (shardRouter.isSharded()) {
+                    ShardContext.current().setShard(shardRouter.shardFor(change));
+                }
+                // Each record is applied and acknowledged on its own here, so hot keys are only tracked
+                hotKeyTracker.record(change);
+                changeEventApplier.apply(change);
+                changeEventApplier.awaitWrites();
             }
 
-            acknowledgment.acknowledge();
+            acknowledge(acknowledgment);
 
         } catch (Exception e) {
             logger.error("Error processing message from topic {}: {}", topic, e.getMessage(), e);
             // For production, you might want to send to a dead letter queue instead
-            acknowledgment.acknowledge();
-        }
-    }
-
-    private void processChangeEvent(ChangeEvent changeEvent) {
-        String operation = changeEvent.getOperation();
-        String tableName = changeEvent.getTableName();
-
-        switch (operation) {
-            case "c": // CREATE (INSERT)
-                handleInsert(tableName, changeEvent);
-                break;
-            case "u": // UPDATE
-                handleUpdate(tableName, changeEvent);
-                break;
-            case "d": // DELETE
-                handleDelete(tableName, changeEvent);
-                break;
-            case "r": // READ (snapshot)
-                handleInsert(tableName, changeEvent); // Treat snapshot as insert
-                break;
-            default:
-                logger.warn("Unknown operation type: {}", operation);
+            acknowledge(acknowledgment);
         }
     }
 
-    private void handleInsert(String tableName, ChangeEvent changeEvent) {
-        JsonNode afterData = changeEvent.getAfter();
-        if (afterData != null) {
-            Map<String, Object> data = convertJsonToMap(afterData);
-
-            // Use upsert to handle out-of-order events
-            List<String> conflictColumns = schemaMetadataService
-                    .extractPrimaryKeyValues(tableName, new HashMap<>(), data)
-                    .keySet()
-                    .stream()
-                    .toList();
-
-            if (!conflictColumns.isEmpty()) {
-                databaseUpdateService.upsert(tableName, data, conflictColumns);
+    /**
+     * Move the live consumer back to earlier offsets, e.g. to replay events for a resumed fan-out
+     * target. Seeks happen on the consumer thread before its next poll.
+     *
+     * @return partitions that are not assigned to this instance and were not moved
+     */
+    public Map<TopicPartition, Long> seek(Map<TopicPartition, Long> offsets) {
+        Map<TopicPartition, Long> unassigned = new HashMap<>();
+        offsets.forEach((partition, offset) -> {
+            ConsumerSeekCallback callback = getSeekCallbackFor(partition);
+            if (callback != null) {
+                callback.seek(partition.topic(), partition.partition(), offset);
+                logger.info("Seeking live consumer of {} back to offset {}", partition, offset);
             } else {
-                // Fallback to regular insert if no primary key
-                databaseUpdateService.insert(tableName, data);
-            }
-        }
-    }
-
-    private void handleUpdate(String tableName, ChangeEvent changeEvent) {
-        JsonNode afterData = changeEvent.getAfter();
-        JsonNode beforeData = changeEvent.getBefore();
-
-        if (afterData != null) {
-            Map<String, Object> newData = convertJsonToMap(afterData);
-            Map<String, Object> oldData = beforeData != null ? convertJsonToMap(beforeData) : new HashMap<>();
-
-            // Extract primary key for WHERE clause
-            Map<String, Object> whereClause = schemaMetadataService
-                    .extractPrimaryKeyValues(tableName, oldData, newData);
-
-            if (!whereClause.isEmpty()) {
-                databaseUpdateService.update(tableName, newData, whereClause);
-            } else {
-                logger.warn("No primary key found for update operation on table: {}", tableName);
-                // Fallback to upsert
-                handleInsert(tableName, changeEvent);
-            }
-        }
-    }
-
-    private void handleDelete(String tableName, ChangeEvent changeEvent) {
-        JsonNode beforeData = changeEvent.getBefore();
-
-        if (beforeData != null) {
-            Map<String, Object> oldData = convertJsonToMap(beforeData);
-
-            // Extract primary key for WHERE clause
-            Map<String, Object> whereClause = schemaMetadataService
-                    .extractPrimaryKeyValues(tableName, oldData, new HashMap<>());
-
-            if (!whereClause.isEmpty()) {
-                databaseUpdateService.delete(tableName, whereClause);
-            } else {
-                logger.warn("No primary key found for delete operation on table: {}", tableName);
-            }
-        }
-    }
-
-    private Map<String, Object> convertJsonToMap(JsonNode jsonNode) {
-        Map<String, Object> map = new HashMap<>();
-
-        jsonNode.fields().forEachRemaining(entry -> {
-            String key = entry.getKey();
-            JsonNode value = entry.getValue();
-
-            if (value.isNull()) {
-                map.put(key, null);
-            } else if (value.isBoolean()) {
-                map.put(key, value.booleanValue());
-            } else if (value.isInt()) {
-                map.put(key, value.intValue());
-            } else if (value.isLong()) {
-                map.put(key, value.longValue());
-            } else if (value.isDouble()) {
-                map.put(key, value.doubleValue());
-            } else {
-                map.put(key, value.asText());
+                unassigned.put(partition, offset);
             }
         });
-
-        return map;
+        return unassigned;
     }
 
-    private String getOperationName(String operation) {
-        switch (operation) {
-            case "c": return "INSERT";
-            case "u": return "UPDATE";
-            case "d": return "DELETE";
-            case "r": return "SNAPSHOT";
-            default: return "UNKNOWN";
+    private void acknowledge(Acknowledgment acknowledgment) {
+        AckEvent ack = new AckEvent();
+        ack.begin();
+        acknowledgment.acknowledge();
+        ack.end();
+        if (ack.shouldCommit()) {
+            ack.describe(TraceContext.current());
+            ack.commit();
         }
     }
-}
\ No newline at end of file
+}
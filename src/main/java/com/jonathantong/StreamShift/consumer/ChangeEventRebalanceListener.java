@@ -0,0 +1,44 @@
+package com.jonathantong.StreamShift.consumer;
+
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.pipeline.ChangeEventPipeline;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * Rebalance hooks for the live listener container
+ */
+@Component
+public class ChangeEventRebalanceListener implements ConsumerAwareRebalanceListener {
+
+    private final ChangeEventPipeline changeEventPipeline;
+    private final RowFingerprintCache fingerprintCache;
+
+    @Value("${streamshift.pipeline.drain-timeout-ms:30000}")
+    private long drainTimeoutMs;
+
+    @Autowired
+    public ChangeEventRebalanceListener(ChangeEventPipeline changeEventPipeline, RowFingerprintCache fingerprintCache) {
+        this.changeEventPipeline = changeEventPipeline;
+        this.fingerprintCache = fingerprintCache;
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // Let in-flight events finish so their acks are committed before the partitions move
+        changeEventPipeline.drain(Duration.ofMillis(drainTimeoutMs));
+        fingerprintCache.onPartitionsRevoked(partitions);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        fingerprintCache.onPartitionsAssigned(partitions);
+    }
+}
@@ -0,0 +1,81 @@
+package com.jonathantong.StreamShift.controller;
+
+import com.jonathantong.StreamShift.coordination.BulkPhase;
+import com.jonathantong.StreamShift.coordination.BulkPhaseService;
+import com.jonathantong.StreamShift.coordination.WorkProgress;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admin API for bulk phases shared between nodes
+ *
+ * 	POST /admin/bulk/{phase}?tables=customers,orders   (plan and join; every source table if omitted)
+ * 	POST /admin/bulk/{phase}/join                      (join already planned work)
+ * 	GET  /admin/bulk/{phase}
+ *
+ * where phase is copy or verify.
+ */
+@RestController
+@RequestMapping("/admin/bulk")
+public class BulkPhaseController {
+
+    private final BulkPhaseService bulkPhaseService;
+
+    @Autowired
+    public BulkPhaseController(BulkPhaseService bulkPhaseService) {
+        this.bulkPhaseService = bulkPhaseService;
+    }
+
+    @PostMapping("/{phase}")
+    public ResponseEntity<?> start(@PathVariable String phase,
+                                   @RequestParam(value = "tables", required = false) List<String> tables) {
+        try {
+            BulkPhase bulkPhase = BulkPhase.forName(phase);
+            return accepted(bulkPhase, bulkPhaseService.start(bulkPhase, tables));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/{phase}/join")
+    public ResponseEntity<?> join(@PathVariable String phase) {
+        try {
+            BulkPhase bulkPhase = BulkPhase.forName(phase);
+            return accepted(bulkPhase, bulkPhaseService.join(bulkPhase));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{phase}")
+    public ResponseEntity<?> progress(@PathVariable String phase) {
+        try {
+            return ResponseEntity.ok(bulkPhaseService.progress(BulkPhase.forName(phase)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    private ResponseEntity<?> accepted(BulkPhase phase, boolean started) {
+        if (!started) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "This node is already working on bulk " + phase.getName()));
+        }
+        WorkProgress progress = bulkPhaseService.progress(phase);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(progress);
+    }
+}
@@ -0,0 +1,80 @@
+package com.jonathantong.StreamShift.controller;
+
+import com.jonathantong.StreamShift.cutover.ConsumerLag;
+import com.jonathantong.StreamShift.cutover.CutoverService;
+import com.jonathantong.StreamShift.model.CutoverStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Admin API for cutting over from the source to the target database
+ *
+ * 	GET    /admin/cutover/lag
+ * 	POST   /admin/cutover?lag-threshold=1000
+ * 	POST   /admin/cutover/fence   (once writes to the source are stopped)
+ * 	GET    /admin/cutover
+ * 	DELETE /admin/cutover
+ */
+@RestController
+@RequestMapping("/admin/cutover")
+public class CutoverController {
+
+    private final CutoverService cutoverService;
+
+    @Autowired
+    public CutoverController(CutoverService cutoverService) {
+        this.cutoverService = cutoverService;
+    }
+
+    @GetMapping("/lag")
+    public ResponseEntity<?> lag() {
+        try {
+            ConsumerLag.Snapshot snapshot = cutoverService.lag();
+            return ResponseEntity.ok(Map.of("lag", snapshot.getLag(), "tables", snapshot.getLagByTable()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping
+    public ResponseEntity<?> start(@RequestParam(value = "lag-threshold", required = false) Long lagThreshold) {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(cutoverService.start(lagThreshold));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/fence")
+    public ResponseEntity<?> fence() {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(cutoverService.fence());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<CutoverStatus> status() {
+        CutoverStatus status = cutoverService.getStatus();
+        return status != null ? ResponseEntity.ok(status) : ResponseEntity.notFound().build();
+    }
+
+    @DeleteMapping
+    public ResponseEntity<Void> cancel() {
+        return cutoverService.cancel()
+                ? ResponseEntity.accepted().build()
+                : ResponseEntity.notFound().build();
+    }
+}
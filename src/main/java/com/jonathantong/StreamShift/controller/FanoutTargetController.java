@@ -0,0 +1,61 @@
+package com.jonathantong.StreamShift.controller;
+
+import com.jonathantong.StreamShift.fanout.FanoutTargetService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admin API for fan-out targets
+ *
+ * 	GET  /admin/targets
+ * 	POST /admin/targets/{name}/pause
+ * 	POST /admin/targets/{name}/resume
+ */
+@RestController
+@RequestMapping("/admin/targets")
+public class FanoutTargetController {
+
+    private final FanoutTargetService fanoutTargetService;
+
+    @Autowired
+    public FanoutTargetController(FanoutTargetService fanoutTargetService) {
+        this.fanoutTargetService = fanoutTargetService;
+    }
+
+    @GetMapping
+    public List<Map<String, Object>> list() {
+        return fanoutTargetService.describe();
+    }
+
+    @PostMapping("/{name}/pause")
+    public ResponseEntity<?> pause(@PathVariable("name") String name) {
+        try {
+            return ResponseEntity.ok(fanoutTargetService.pause(name).describe());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/{name}/resume")
+    public ResponseEntity<?> resume(@PathVariable("name") String name) {
+        try {
+            return ResponseEntity.ok(fanoutTargetService.resume(name).describe());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", "Interrupted"));
+        }
+    }
+}
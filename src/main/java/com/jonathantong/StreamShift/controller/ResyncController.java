@@ -0,0 +1,80 @@
+package com.jonathantong.StreamShift.controller;
+
+import com.jonathantong.StreamShift.model.ResyncStatus;
+import com.jonathantong.StreamShift.service.TableResyncService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Admin API for resyncing a single target table from its CDC topic
+ *
+ * 	POST   /admin/resync/{table}?from=2024-01-01T00:00:00Z   (or epoch millis)
+ * 	POST   /admin/resync/{table}?offset=12345
+ * 	GET    /admin/resync[/{table}]
+ * 	DELETE /admin/resync/{table}
+ */
+@RestController
+@RequestMapping("/admin/resync")
+public class ResyncController {
+
+    private final TableResyncService tableResyncService;
+
+    @Autowired
+    public ResyncController(TableResyncService tableResyncService) {
+        this.tableResyncService = tableResyncService;
+    }
+
+    @PostMapping("/{table}")
+    public ResponseEntity<?> start(
+            @PathVariable("table") String table,
+            @RequestParam(value = "from", required = false) String from,
+            @RequestParam(value = "offset", required = false) Long offset) {
+        try {
+            Instant fromTimestamp = from != null ? parseTimestamp(from) : null;
+            ResyncStatus status = tableResyncService.start(table, fromTimestamp, offset);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping
+    public Collection<ResyncStatus> list() {
+        return tableResyncService.getAll();
+    }
+
+    @GetMapping("/{table}")
+    public ResponseEntity<ResyncStatus> status(@PathVariable("table") String table) {
+        ResyncStatus status = tableResyncService.getStatus(table);
+        return status != null ? ResponseEntity.ok(status) : ResponseEntity.notFound().build();
+    }
+
+    @DeleteMapping("/{table}")
+    public ResponseEntity<Void> cancel(@PathVariable("table") String table) {
+        return tableResyncService.cancel(table)
+                ? ResponseEntity.accepted().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    private Instant parseTimestamp(String value) {
+        if (value.chars().allMatch(Character::isDigit)) {
+            return Instant.ofEpochMilli(Long.parseLong(value));
+        }
+        return Instant.parse(value);
+    }
+}
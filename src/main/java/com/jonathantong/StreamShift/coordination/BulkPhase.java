@@ -0,0 +1,26 @@
+package com.jonathantong.StreamShift.coordination;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Bulk phases whose per-table work is shared between nodes
+ */
+public enum BulkPhase {
+    // Copy source rows into the target by upsert
+    COPY,
+    // Compare row counts and checksums between source and target
+    VERIFY;
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static BulkPhase forName(String name) {
+        return Arrays.stream(values())
+                .filter(phase -> phase.getName().equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown bulk phase " + name
+                        + ", expected one of " + Arrays.toString(values()).toLowerCase(Locale.ROOT)));
+    }
+}
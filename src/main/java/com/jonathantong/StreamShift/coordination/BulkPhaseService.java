@@ -0,0 +1,468 @@
+package com.jonathantong.StreamShift.coordination;
+
+import com.jonathantong.StreamShift.cutover.TableVerifier;
+import com.jonathantong.StreamShift.model.CutoverStatus.TableCheck;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.projection.ProjectionRules;
+import com.jonathantong.StreamShift.projection.TableProjection;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs bulk phases on every node that joins them, sharing the work through {@link WorkCoordinator}.
+ *
+ * 	streamshift.coordination.workers=2
+ * 	streamshift.coordination.heartbeat-ms=5000
+ * 	streamshift.coordination.chunk-keys=100000
+ * 	streamshift.coordination.batch-rows=1000
+ *
+ * Tables with a single integer primary key are split into key ranges of chunk-keys keys, other
+ * tables are one chunk. Each node runs workers that claim chunks until none are left, so a phase
+ * spreads over however many nodes join it, and chunks of a node that dies are picked up by the
+ * others. Tables are read from the captured source schema, streamshift.source.db.schema.
+ *
+ * Copying inserts with ON CONFLICT DO NOTHING, so a chunk copied twice after a reclaim is still
+ * correct and a row live apply already wrote is not overwritten by an older copy. A copy is not a
+ * consistent snapshot of the source, though, and a row deleted while its chunk is read may be
+ * copied back after live apply removed it. Run COPY before live apply starts on the copied
+ * tables, with the live consumer group's offsets at or before the point the copy starts:
+ * replaying from there upserts and deletes every row the copy read at an older image.
+ */
+@Service
+public class BulkPhaseService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkPhaseService.class);
+
+    // Sparse keys widen chunks instead of planning more than this many per table
+    static final int MAX_CHUNKS = 10_000;
+
+    private static final String TABLES_SQL = """
+            SELECT table_name
+            FROM information_schema.tables
+            WHERE table_schema = ? AND table_type = 'BASE TABLE'
+            ORDER BY table_name
+            """;
+
+    private static final String KEY_SQL = """
+            SELECT a.attname AS column_name, format_type(a.atttypid, a.atttypmod) AS data_type
+            FROM pg_index i
+            JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = ANY(i.indkey)
+            WHERE i.indrelid = to_regclass(quote_ident(?) || '.' || quote_ident(?)) AND i.indisprimary
+            """;
+
+    private static final Set<String> INTEGER_TYPES = Set.of("smallint", "integer", "bigint");
+
+    private final WorkCoordinator coordinator;
+    private final TableVerifier tableVerifier;
+    private final SchemaMetadataService schemaMetadataService;
+    private final DatabaseUpdateService databaseUpdateService;
+    private final ProjectionRules projectionRules;
+    private final ShardRouter shardRouter;
+    private final KeyRouting keyRouting;
+    private final JdbcTemplate sourceJdbcTemplate;
+    private final String sourceSchema;
+    private final int workers;
+    private final long heartbeatMs;
+    private final long chunkKeys;
+    private final int batchRows;
+
+    private final Set<BulkPhase> running = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private final AtomicBoolean heartbeating = new AtomicBoolean();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bulk-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean stopping;
+
+    @Autowired
+    public BulkPhaseService(
+            WorkCoordinator coordinator,
+            TableVerifier tableVerifier,
+            SchemaMetadataService schemaMetadataService,
+            DatabaseUpdateService databaseUpdateService,
+            ProjectionRules projectionRules,
+            ShardRouter shardRouter,
+            KeyRouting keyRouting,
+            @Qualifier("sourceJdbcTemplate") JdbcTemplate sourceJdbcTemplate,
+            @Value("${streamshift.source.db.schema:inventory}") String sourceSchema,
+            @Value("${streamshift.coordination.workers:2}") int workers,
+            @Value("${streamshift.coordination.heartbeat-ms:5000}") long heartbeatMs,
+            @Value("${streamshift.coordination.chunk-keys:100000}") long chunkKeys,
+            @Value("${streamshift.coordination.batch-rows:1000}") int batchRows) {
+        this.coordinator = coordinator;
+        this.tableVerifier = tableVerifier;
+        this.schemaMetadataService = schemaMetadataService;
+        this.databaseUpdateService = databaseUpdateService;
+        this.projectionRules = projectionRules;
+        this.shardRouter = shardRouter;
+        this.keyRouting = keyRouting;
+        this.sourceJdbcTemplate = sourceJdbcTemplate;
+        this.sourceSchema = sourceSchema;
+        this.workers = workers;
+        this.heartbeatMs = heartbeatMs;
+        this.chunkKeys = chunkKeys;
+        this.batchRows = batchRows;
+    }
+
+    /**
+     * Plan the chunks of a phase for the given tables, or every source table, and have this
+     * node's workers join in
+     *
+     * @return whether workers were started; false if this node already works on the phase
+     */
+    public boolean start(BulkPhase phase, List<String> tables) {
+        List<String> planned = tables == null || tables.isEmpty()
+                ? sourceJdbcTemplate.queryForList(TABLES_SQL, String.class, sourceSchema)
+                : tables;
+        List<WorkItem> items = new ArrayList<>();
+        for (String table : planned) {
+            if (!keyRouting.excludes(table)) {
+                items.addAll(plan(phase, table));
+            }
+        }
+        int added = coordinator.plan(items);
+        logger.info("Planned {} chunks of {} tables for bulk {} ({} new)", items.size(), planned.size(),
+                phase.getName(), added);
+        return join(phase);
+    }
+
+    /**
+     * Start this node's workers on already planned chunks of a phase
+     */
+    public boolean join(BulkPhase phase) {
+        if (!running.add(phase)) {
+            return false;
+        }
+        if (heartbeating.compareAndSet(false, true)) {
+            heartbeats.scheduleWithFixedDelay(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        }
+        CountDownLatch done = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    work(phase);
+                } finally {
+                    done.countDown();
+                }
+            }, "bulk-" + phase.getName() + "-" + threadCounter.incrementAndGet());
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Thread watcher = new Thread(() -> {
+            try {
+                done.await();
+                WorkProgress progress = coordinator.progress(phase.getName());
+                logger.info("Bulk {} finished on node {}: {} of {} chunks done, {} failed, {} rows",
+                        phase.getName(), coordinator.getNodeId(), progress.getDone(), progress.getTotal(),
+                        progress.getFailed(), progress.getRowsDone());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.warn("Bulk {} finished on node {}", phase.getName(), coordinator.getNodeId());
+            } finally {
+                running.remove(phase);
+            }
+        }, "bulk-" + phase.getName() + "-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        return true;
+    }
+
+    public boolean isRunning(BulkPhase phase) {
+        return running.contains(phase);
+    }
+
+    public WorkProgress progress(BulkPhase phase) {
+        return coordinator.progress(phase.getName());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        heartbeats.shutdownNow();
+    }
+
+    /**
+     * Claim and process chunks until every chunk of the phase is done or failed. While other
+     * nodes hold the last chunks this keeps polling, to take them over if those nodes die.
+     */
+    void work(BulkPhase phase) {
+        while (!stopping) {
+            WorkItem item;
+            try {
+                item = coordinator.claim(phase.getName());
+                if (item == null) {
+                    if (coordinator.progress(phase.getName()).isFinished()) {
+                        return;
+                    }
+                    TimeUnit.MILLISECONDS.sleep(heartbeatMs);
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Failed to claim bulk {} work: {}", phase.getName(), e.getMessage());
+                sleepQuietly();
+                continue;
+            }
+
+            try {
+                String result = process(phase, item);
+                if (item.isLost()) {
+                    logger.warn("Dropped result of work item {} ({}), its lease was lost", item.getId(), item);
+                } else {
+                    coordinator.complete(item, result);
+                }
+            } catch (RuntimeException e) {
+                if (item.isLost()) {
+                    logger.warn("Stopped work item {} ({}), its lease was lost", item.getId(), item);
+                    continue;
+                }
+                logger.error("Work item {} ({}) failed: {}", item.getId(), item, e.getMessage());
+                try {
+                    coordinator.fail(item, e.getMessage());
+                } catch (RuntimeException failError) {
+                    logger.warn("Failed to release work item {}: {}", item.getId(), failError.getMessage());
+                }
+            }
+        }
+    }
+
+    String process(BulkPhase phase, WorkItem item) {
+        return switch (phase) {
+            case COPY -> copy(item);
+            case VERIFY -> verify(item);
+        };
+    }
+
+    /**
+     * Chunks of a table: key ranges when it has a single integer primary key, else the whole table
+     */
+    List<WorkItem> plan(BulkPhase phase, String table) {
+        List<Map<String, Object>> key = sourceJdbcTemplate.queryForList(KEY_SQL, sourceSchema, table);
+        if (key.size() == 1 && INTEGER_TYPES.contains((String) key.get(0).get("data_type"))) {
+            String column = (String) key.get(0).get("column_name");
+            Map<String, Object> bounds = sourceJdbcTemplate.queryForMap(
+                    "SELECT min(\"" + column + "\") AS low, max(\"" + column + "\") AS high FROM " + sourceTable(table));
+            if (bounds.get("low") != null) {
+                return chunks(phase.getName(), table, column, ((Number) bounds.get("low")).longValue(),
+                        ((Number) bounds.get("high")).longValue(), chunkKeys);
+            }
+        }
+        return List.of(WorkItem.planned(phase.getName(), table, 0, null, null, null));
+    }
+
+    /**
+     * Split keys [low, high] into ranges of at least chunkKeys keys. The first and last range are
+     * open-ended, so keys added outside the bounds after planning still belong to a chunk.
+     */
+    static List<WorkItem> chunks(String phase, String table, String column, long low, long high, long chunkKeys) {
+        long span = high - low + 1;
+        if (span <= 0) {
+            // The key range overflows a long, take the table whole
+            return List.of(WorkItem.planned(phase, table, 0, null, null, null));
+        }
+        long size = Math.max(chunkKeys, span / MAX_CHUNKS + 1);
+        List<WorkItem> items = new ArrayList<>();
+        long start = Long.MIN_VALUE;
+        for (long next = low + size; ; next += size) {
+            boolean last = next > high || next < low;
+            long end = last ? Long.MAX_VALUE : next;
+            items.add(WorkItem.planned(phase, table, items.size(), column, start, end));
+            if (last) {
+                return items;
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Stream a chunk from the source and insert it into the target in batches, keeping rows it
+     * already has
+     */
+    private String copy(WorkItem item) {
+        String table = item.getTableName();
+        TableProjection projection = projectionRules.forTable(table);
+        if (projection != null && projection.hasFilters()) {
+            throw new IllegalStateException("Row filters of table " + table + " only apply to change events");
+        }
+
+        String sql = "SELECT * FROM " + sourceTable(table)
+                + (item.isRange() ? " WHERE " + item.rangeCondition(item.getKeyColumn()) : "");
+        List<Map<String, Object>> batch = new ArrayList<>(batchRows);
+        long copied = sourceJdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            // Without a transaction the driver reads the whole result instead of batchRows at a time
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setFetchSize(batchRows);
+                long rows = 0;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    String[] columns = new String[metaData.getColumnCount()];
+                    for (int i = 0; i < columns.length; i++) {
+                        String column = metaData.getColumnLabel(i + 1);
+                        columns[i] = projection != null ? projection.outputName(column) : column;
+                    }
+                    while (resultSet.next()) {
+                        Map<String, Object> row = new LinkedHashMap<>();
+                        for (int i = 0; i < columns.length; i++) {
+                            if (columns[i] != null) {
+                                row.put(columns[i], resultSet.getObject(i + 1));
+                            }
+                        }
+                        batch.add(row);
+                        if (batch.size() >= batchRows) {
+                            rows += write(item, batch);
+                        }
+                    }
+                }
+                return rows + write(item, batch);
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+        return copied + " rows";
+    }
+
+    private int write(WorkItem item, List<Map<String, Object>> batch) {
+        if (item.isLost()) {
+            throw new IllegalStateException("Lease on work item " + item.getId() + " was lost");
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        String table = item.getTableName();
+        int shards = shardRouter.isSharded() ? shardRouter.getShardCount() : 1;
+        List<List<Map<String, Object>>> perShard = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            perShard.add(new ArrayList<>());
+        }
+        for (Map<String, Object> row : batch) {
+            perShard.get(shards > 1 ? shardRouter.shardFor(table, asChangeEvent(row)) : 0).add(row);
+        }
+
+        DecodedChange sample = new DecodedChange();
+        RowBuffer after = sample.afterBuffer();
+        batch.get(0).forEach(after::add);
+
+        ShardContext context = ShardContext.current();
+        int previous = context.getShard();
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                if (perShard.get(shard).isEmpty()) {
+                    continue;
+                }
+                context.setShard(shard);
+                schemaMetadataService.ensureTargetTableExists(null, table, sample);
+                List<String> primaryKeys = schemaMetadataService.getPrimaryKeyColumns(table);
+                if (primaryKeys.isEmpty()) {
+                    throw new IllegalStateException("Bulk copy requires a primary key on table " + table);
+                }
+                databaseUpdateService.insertTypedBatch(table, perShard.get(shard), primaryKeys);
+            }
+        } finally {
+            context.setShard(previous);
+        }
+
+        int written = batch.size();
+        item.addRows(written);
+        batch.clear();
+        return written;
+    }
+
+    /**
+     * A row read over JDBC with its values as change events carry them, so it hashes to the shard
+     * live apply writes the row's changes to: uuid as text, bytea and numeric as Debezium's base64
+     * bytes (decimal.handling.mode=precise). Temporal keys are not converted.
+     */
+    static Map<String, Object> asChangeEvent(Map<String, Object> row) {
+        Map<String, Object> converted = null;
+        for (Map.Entry<String, Object> column : row.entrySet()) {
+            Object value = column.getValue();
+            Object eventValue;
+            if (value instanceof UUID) {
+                eventValue = value.toString();
+            } else if (value instanceof BigDecimal decimal) {
+                eventValue = Base64.getEncoder().encodeToString(decimal.unscaledValue().toByteArray());
+            } else if (value instanceof byte[] bytes) {
+                eventValue = Base64.getEncoder().encodeToString(bytes);
+            } else {
+                continue;
+            }
+            if (converted == null) {
+                converted = new LinkedHashMap<>(row);
+            }
+            converted.put(column.getKey(), eventValue);
+        }
+        return converted != null ? converted : row;
+    }
+
+    private String verify(WorkItem item) {
+        TableCheck check = item.isRange()
+                ? tableVerifier.verify(item.getTableName(), item.getKeyColumn(), item.getRangeStart(), item.getRangeEnd())
+                : tableVerifier.verify(item.getTableName());
+        if (check.getResult() == TableCheck.Result.FAILED) {
+            throw new IllegalStateException(check.getError());
+        }
+        item.addRows(check.getSourceRows());
+        return check.getResult() + " (" + check.getSourceRows() + " source rows, " + check.getTargetRows() + " target rows)";
+    }
+
+    private String sourceTable(String table) {
+        return "\"" + sourceSchema + "\".\"" + table + "\"";
+    }
+
+    private void heartbeat() {
+        try {
+            coordinator.heartbeat();
+        } catch (RuntimeException e) {
+            logger.warn("Work item heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    private void sleepQuietly() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(heartbeatMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopping = true;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.jonathantong.StreamShift.coordination;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares bulk work between StreamShift nodes through the target database.
+ *
+ * 	streamshift.coordination.table=streamshift_work_items
+ * 	streamshift.coordination.node-id=             (defaults to host:pid)
+ * 	streamshift.coordination.lease-timeout-ms=30000
+ * 	streamshift.coordination.max-attempts=3
+ *
+ * Work items are rows of a shared table. A node leases an item with a session-level
+ * pg_try_advisory_lock on its own connection, keyed by {@link #leaseKey(long)}, and then marks
+ * the row claimed; heartbeats keep
+ * the row's heartbeat_at fresh. When a node dies its session ends and PostgreSQL drops its
+ * locks, so once the heartbeat is older than lease-timeout-ms another node can take the lock
+ * and reclaim the item. A node that is only slow still holds the lock and keeps its items.
+ * A node that loses its connection loses its leases and stops working on them. With sharded
+ * targets the work items live on the first shard.
+ */
+@Component
+public class WorkCoordinator {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkCoordinator.class);
+
+    // Namespace of the advisory locks, so leases do not collide with other lock users
+    static final int LOCK_CLASS = 0x5354_5348;
+    // Second key of the two-key lock guarding table creation
+    private static final int SETUP_LOCK = 0;
+    // Work item ids that fit the low half of a lease key
+    static final long MAX_LEASED_ID = 0xFFFF_FFFFL;
+
+    private final DataSource targetDataSource;
+    private final String table;
+    private final String nodeId;
+    private final long leaseTimeoutMs;
+    private final int maxAttempts;
+
+    // Items leased by this node, by id
+    private final Map<Long, WorkItem> leased = new ConcurrentHashMap<>();
+    private Connection leaseConnection;
+    private JdbcTemplate lease;
+    private volatile boolean tableReady;
+
+    @Autowired
+    public WorkCoordinator(
+            @Qualifier("targetDataSource") DataSource targetDataSource,
+            @Value("${streamshift.coordination.table:streamshift_work_items}") String table,
+            @Value("${streamshift.coordination.node-id:}") String nodeId,
+            @Value("${streamshift.coordination.lease-timeout-ms:30000}") long leaseTimeoutMs,
+            @Value("${streamshift.coordination.max-attempts:3}") int maxAttempts) {
+        this.targetDataSource = targetDataSource;
+        this.table = table;
+        this.nodeId = nodeId.isBlank() ? defaultNodeId() : nodeId;
+        this.leaseTimeoutMs = leaseTimeoutMs;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Add work items for a phase unless they exist; every node may plan the same items
+     *
+     * @return number of items added by this call
+     */
+    public synchronized int plan(List<WorkItem> items) {
+        JdbcTemplate jdbc = leaseTemplate();
+        String sql = "INSERT INTO \"" + table + "\" (phase, table_name, chunk, key_column, range_start, range_end)"
+                + " VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (phase, table_name, chunk) DO NOTHING";
+        int added = 0;
+        for (WorkItem item : items) {
+            added += jdbc.update(sql, item.getPhase(), item.getTableName(), item.getChunk(), item.getKeyColumn(),
+                    item.getRangeStart(), item.getRangeEnd());
+        }
+        return added;
+    }
+
+    /**
+     * Lease the next pending item of a phase, or one whose owner stopped heartbeating
+     *
+     * @return the leased item, or null if none can be claimed right now
+     */
+    public synchronized WorkItem claim(String phase) {
+        JdbcTemplate jdbc = leaseTemplate();
+        String claimable = "phase = ? AND (state = 'PENDING' OR (state = 'CLAIMED'"
+                + " AND heartbeat_at < now() - make_interval(secs => ?)))";
+        double leaseSeconds = leaseTimeoutMs / 1000.0;
+        List<Long> candidates = jdbc.queryForList("SELECT id FROM \"" + table + "\" WHERE " + claimable
+                + " ORDER BY id LIMIT 32", Long.class, phase, leaseSeconds);
+
+        for (long id : candidates) {
+            if (!Boolean.TRUE.equals(jdbc.queryForObject("SELECT pg_try_advisory_lock(?)", Boolean.class, leaseKey(id)))) {
+                continue; // Leased by a live node
+            }
+            // The lock only excludes live owners; the row tells whether the item is still claimable
+            List<WorkItem> claimed = jdbc.query("UPDATE \"" + table + "\" SET state = 'CLAIMED', owner = ?,"
+                            + " heartbeat_at = now(), attempts = attempts + 1, rows_done = 0, error = NULL"
+                            + " WHERE id = ? AND " + claimable
+                            + " RETURNING id, phase, table_name, chunk, key_column, range_start, range_end, attempts",
+                    (rs, rowNum) -> new WorkItem(rs.getLong("id"), rs.getString("phase"), rs.getString("table_name"),
+                            rs.getInt("chunk"), rs.getString("key_column"), (Long) rs.getObject("range_start"),
+                            (Long) rs.getObject("range_end"), rs.getInt("attempts")),
+                    nodeId, id, phase, leaseSeconds);
+            if (claimed.isEmpty()) {
+                unlockLease(jdbc, id);
+                continue;
+            }
+            WorkItem item = claimed.get(0);
+            leased.put(id, item);
+            if (item.getAttempts() > 1) {
+                logger.info("Reclaimed work item {} ({}), attempt {}", id, item, item.getAttempts());
+            }
+            return item;
+        }
+        return null;
+    }
+
+    /**
+     * Refresh the heartbeat of every leased item; items whose row no longer belongs to this node
+     * or whose lease connection broke are marked lost
+     */
+    public synchronized void heartbeat() {
+        if (leased.isEmpty()) {
+            return;
+        }
+        JdbcTemplate jdbc;
+        try {
+            jdbc = leaseTemplate();
+        } catch (RuntimeException e) {
+            loseAll(e.getMessage());
+            return;
+        }
+        for (WorkItem item : leased.values()) {
+            try {
+                int updated = jdbc.update("UPDATE \"" + table + "\" SET heartbeat_at = now(), rows_done = ?"
+                        + " WHERE id = ? AND owner = ? AND state = 'CLAIMED'", item.getRowsDone(), item.getId(), nodeId);
+                if (updated == 0) {
+                    logger.warn("Lost lease on work item {} ({})", item.getId(), item);
+                    item.markLost();
+                    leased.remove(item.getId());
+                    unlockLease(jdbc, item.getId());
+                }
+            } catch (RuntimeException e) {
+                loseAll(e.getMessage());
+                return;
+            }
+        }
+    }
+
+    public synchronized void complete(WorkItem item, String result) {
+        finish(item, "state = 'DONE', finished_at = now(), result = ?", result);
+    }
+
+    /**
+     * Give an item back for another attempt, or mark it failed after max-attempts
+     */
+    public synchronized void fail(WorkItem item, String error) {
+        String state = item.getAttempts() >= maxAttempts ? "FAILED" : "PENDING";
+        finish(item, "state = '" + state + "', owner = NULL, error = ?", error);
+    }
+
+    /**
+     * Counts per state, rows done and chunks held per live node, over every node
+     */
+    public synchronized WorkProgress progress(String phase) {
+        JdbcTemplate jdbc = leaseTemplate();
+        Map<String, Long> states = new TreeMap<>();
+        long[] totals = new long[2];
+        jdbc.query("SELECT state, count(*) AS items, coalesce(sum(rows_done), 0) AS rows_done,"
+                + " count(*) FILTER (WHERE result LIKE 'MISMATCH%') AS mismatched"
+                + " FROM \"" + table + "\" WHERE phase = ? GROUP BY state", rs -> {
+            states.put(rs.getString("state"), rs.getLong("items"));
+            totals[0] += rs.getLong("rows_done");
+            totals[1] += rs.getLong("mismatched");
+        }, phase);
+
+        Map<String, Long> nodes = new TreeMap<>();
+        jdbc.query("SELECT owner, count(*) AS items FROM \"" + table + "\" WHERE phase = ? AND state = 'CLAIMED'"
+                        + " AND heartbeat_at >= now() - make_interval(secs => ?) GROUP BY owner",
+                rs -> { nodes.put(rs.getString("owner"), rs.getLong("items")); }, phase, leaseTimeoutMs / 1000.0);
+
+        return new WorkProgress(phase, states.getOrDefault("PENDING", 0L), states.getOrDefault("CLAIMED", 0L),
+                states.getOrDefault("DONE", 0L), states.getOrDefault("FAILED", 0L), totals[1], totals[0], nodes);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        leased.values().forEach(WorkItem::markLost);
+        leased.clear();
+        closeConnection();
+    }
+
+    /**
+     * Update a leased item's row and release its lock. The lease is kept until the lease
+     * connection is at hand: if it cannot be had, the next heartbeat loses the lease with the
+     * connection and PostgreSQL drops the lock.
+     */
+    private void finish(WorkItem item, String assignments, String message) {
+        if (!leased.containsKey(item.getId())) {
+            return; // Lost in the meantime; the item belongs to whoever reclaimed it
+        }
+        JdbcTemplate jdbc = leaseTemplate();
+        if (!leased.containsKey(item.getId())) {
+            return; // Lost with a broken lease connection, which dropped the lock
+        }
+        try {
+            int updated = jdbc.update("UPDATE \"" + table + "\" SET " + assignments + ", rows_done = ?, heartbeat_at = now()"
+                    + " WHERE id = ? AND owner = ? AND state = 'CLAIMED'", message, item.getRowsDone(), item.getId(), nodeId);
+            if (updated == 0) {
+                logger.warn("Work item {} ({}) was reclaimed before it finished here", item.getId(), item);
+            }
+        } finally {
+            // A row left claimed is reclaimed once its heartbeat is stale
+            leased.remove(item.getId());
+            try {
+                unlockLease(jdbc, item.getId());
+            } catch (RuntimeException e) {
+                loseAll("failed to release work item " + item.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Single-key advisory lock of a work item: {@link #LOCK_CLASS} in the high half, the id in the low half
+     */
+    static long leaseKey(long id) {
+        if (id < 1 || id > MAX_LEASED_ID) {
+            throw new IllegalStateException("Work item id " + id + " is out of the range of lease locks");
+        }
+        return ((long) LOCK_CLASS << 32) | id;
+    }
+
+    private void unlockLease(JdbcTemplate jdbc, long id) {
+        jdbc.queryForObject("SELECT pg_advisory_unlock(?)", Boolean.class, leaseKey(id));
+    }
+
+    /**
+     * Template on this node's lease connection, which holds its advisory locks. A new connection
+     * holds no locks, so items leased on a broken one are lost.
+     */
+    private JdbcTemplate leaseTemplate() {
+        try {
+            if (leaseConnection != null && !leaseConnection.isValid(5)) {
+                loseAll("lease connection is no longer valid");
+            }
+            if (leaseConnection == null) {
+                leaseConnection = targetDataSource.getConnection();
+                leaseConnection.setAutoCommit(true);
+                lease = new JdbcTemplate(new SingleConnectionDataSource(leaseConnection, true));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to open the coordination connection: " + e.getMessage(), e);
+        }
+        if (!tableReady) {
+            createTable(lease);
+            tableReady = true;
+        }
+        return lease;
+    }
+
+    private void createTable(JdbcTemplate jdbc) {
+        // Serialized across nodes, as concurrent CREATE TABLE IF NOT EXISTS may still collide
+        jdbc.execute("SELECT pg_advisory_lock(" + LOCK_CLASS + ", " + SETUP_LOCK + ")");
+        try {
+            jdbc.execute("CREATE TABLE IF NOT EXISTS \"" + table + "\" ("
+                    + "id BIGSERIAL PRIMARY KEY, "
+                    + "phase TEXT NOT NULL, "
+                    + "table_name TEXT NOT NULL, "
+                    + "chunk INT NOT NULL, "
+                    + "key_column TEXT, "
+                    + "range_start BIGINT, "
+                    + "range_end BIGINT, "
+                    + "state TEXT NOT NULL DEFAULT 'PENDING', "
+                    + "owner TEXT, "
+                    + "attempts INT NOT NULL DEFAULT 0, "
+                    + "rows_done BIGINT NOT NULL DEFAULT 0, "
+                    + "heartbeat_at TIMESTAMPTZ, "
+                    + "finished_at TIMESTAMPTZ, "
+                    + "result TEXT, "
+                    + "error TEXT, "
+                    + "UNIQUE (phase, table_name, chunk))");
+        } finally {
+            jdbc.queryForObject("SELECT pg_advisory_unlock(?, ?)", Boolean.class, LOCK_CLASS, SETUP_LOCK);
+        }
+    }
+
+    private void loseAll(String reason) {
+        if (!leased.isEmpty()) {
+            logger.warn("Lost {} work item leases: {}", leased.size(), reason);
+        }
+        leased.values().forEach(WorkItem::markLost);
+        leased.clear();
+        closeConnection();
+    }
+
+    private void closeConnection() {
+        if (leaseConnection == null) {
+            return;
+        }
+        try {
+            leaseConnection.close();
+        } catch (SQLException e) {
+            logger.debug("Failed to close the coordination connection: {}", e.getMessage());
+        }
+        leaseConnection = null;
+        lease = null;
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + ":" + ProcessHandle.current().pid();
+    }
+}
@@ -0,0 +1,91 @@
+package com.jonathantong.StreamShift.coordination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One chunk of a bulk phase claimed by this node: a whole table, or the primary key range
+ * [rangeStart, rangeEnd) of a table with a single integer key
+ */
+public class WorkItem {
+
+    private final long id;
+    private final String phase;
+    private final String tableName;
+    private final int chunk;
+    private final String keyColumn;
+    private final Long rangeStart;
+    private final Long rangeEnd;
+    private final int attempts;
+    private final AtomicLong rowsDone = new AtomicLong();
+    private volatile boolean lost;
+
+    public WorkItem(long id, String phase, String tableName, int chunk, String keyColumn, Long rangeStart, Long rangeEnd,
+                    int attempts) {
+        this.id = id;
+        this.phase = phase;
+        this.tableName = tableName;
+        this.chunk = chunk;
+        this.keyColumn = keyColumn;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+        this.attempts = attempts;
+    }
+
+    /**
+     * An item to plan; the coordinator assigns its id
+     */
+    public static WorkItem planned(String phase, String tableName, int chunk, String keyColumn, Long rangeStart, Long rangeEnd) {
+        return new WorkItem(0, phase, tableName, chunk, keyColumn, rangeStart, rangeEnd, 0);
+    }
+
+    public boolean isRange() {
+        return keyColumn != null && rangeStart != null && rangeEnd != null;
+    }
+
+    /**
+     * SQL condition selecting this chunk's rows by the given key column; the first and last
+     * chunks of a table are open-ended
+     */
+    public String rangeCondition(String column) {
+        List<String> bounds = new ArrayList<>();
+        if (rangeStart != Long.MIN_VALUE) {
+            bounds.add("\"" + column + "\" >= " + rangeStart);
+        }
+        if (rangeEnd != Long.MAX_VALUE) {
+            bounds.add("\"" + column + "\" < " + rangeEnd);
+        }
+        return bounds.isEmpty() ? "TRUE" : String.join(" AND ", bounds);
+    }
+
+    public void addRows(long rows) {
+        rowsDone.addAndGet(rows);
+    }
+
+    /**
+     * The lease was lost, e.g. its heartbeat failed; another node may have claimed the chunk
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    void markLost() {
+        this.lost = true;
+    }
+
+    public long getId() { return id; }
+    public String getPhase() { return phase; }
+    public String getTableName() { return tableName; }
+    public int getChunk() { return chunk; }
+    public String getKeyColumn() { return keyColumn; }
+    public Long getRangeStart() { return rangeStart; }
+    public Long getRangeEnd() { return rangeEnd; }
+    public int getAttempts() { return attempts; }
+    public long getRowsDone() { return rowsDone.get(); }
+
+    @Override
+    public String toString() {
+        return phase + " " + tableName + (isRange() ? " " + keyColumn + " [" + rangeStart + ", " + rangeEnd + ")" : "");
+    }
+}
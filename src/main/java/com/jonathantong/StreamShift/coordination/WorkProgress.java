@@ -0,0 +1,51 @@
+package com.jonathantong.StreamShift.coordination;
+
+import java.util.Map;
+
+/**
+ * Progress of a bulk phase over every node, from the shared work-item table
+ */
+public class WorkProgress {
+
+    private final String phase;
+    private final long pending;
+    private final long claimed;
+    private final long done;
+    private final long failed;
+    private final long mismatched;
+    private final long rowsDone;
+    // Chunks held per node with a live heartbeat
+    private final Map<String, Long> nodes;
+
+    public WorkProgress(String phase, long pending, long claimed, long done, long failed, long mismatched,
+                        long rowsDone, Map<String, Long> nodes) {
+        this.phase = phase;
+        this.pending = pending;
+        this.claimed = claimed;
+        this.done = done;
+        this.failed = failed;
+        this.mismatched = mismatched;
+        this.rowsDone = rowsDone;
+        this.nodes = nodes;
+    }
+
+    /**
+     * No chunk left to claim or being worked on
+     */
+    public boolean isFinished() {
+        return pending == 0 && claimed == 0;
+    }
+
+    public long getTotal() {
+        return pending + claimed + done + failed;
+    }
+
+    public String getPhase() { return phase; }
+    public long getPending() { return pending; }
+    public long getClaimed() { return claimed; }
+    public long getDone() { return done; }
+    public long getFailed() { return failed; }
+    public long getMismatched() { return mismatched; }
+    public long getRowsDone() { return rowsDone; }
+    public Map<String, Long> getNodes() { return nodes; }
+}
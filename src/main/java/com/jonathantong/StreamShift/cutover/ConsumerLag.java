@@ -0,0 +1,162 @@
+package com.jonathantong.StreamShift.cutover;
+
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Lag of the live consumer group per table: events in the applied topics past the group's
+ * committed offsets. Offsets are committed once events are applied, so lag counts events not
+ * yet on the target.
+ */
+@Component
+public class ConsumerLag {
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final KeyRouting keyRouting;
+    private final String bootstrapServers;
+    private final String groupId;
+    private final Pattern topicPattern;
+    private AdminClient admin;
+
+    @Autowired
+    public ConsumerLag(
+            KeyRouting keyRouting,
+            @Value("${spring.kafka.bootstrap-servers:localhost:9092}") String bootstrapServers,
+            @Value("${spring.kafka.consumer.group-id:streamshift-consumer-group}") String groupId,
+            @Value("${streamshift.apply.topic-pattern:dbserver1\\.inventory\\..*}") String topicPattern) {
+        this.keyRouting = keyRouting;
+        this.bootstrapServers = bootstrapServers;
+        this.groupId = groupId;
+        this.topicPattern = Pattern.compile(topicPattern);
+    }
+
+    /**
+     * Current log end and committed offsets of every applied partition
+     */
+    public Snapshot snapshot() {
+        try {
+            AdminClient admin = admin();
+            List<String> topics = admin.listTopics().names().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).stream()
+                    .filter(topic -> topicPattern.matcher(topic).matches())
+                    .toList();
+            Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+            Map<TopicPartition, OffsetSpec> earliest = new HashMap<>();
+            for (TopicDescription topic : admin.describeTopics(topics).allTopicNames()
+                    .get(TIMEOUT_SECONDS, TimeUnit.SECONDS).values()) {
+                for (TopicPartitionInfo partition : topic.partitions()) {
+                    TopicPartition topicPartition = new TopicPartition(topic.name(), partition.partition());
+                    latest.put(topicPartition, OffsetSpec.latest());
+                    earliest.put(topicPartition, OffsetSpec.earliest());
+                }
+            }
+
+            Map<TopicPartition, Long> endOffsets = offsets(admin.listOffsets(latest));
+            Map<TopicPartition, Long> committed = new HashMap<>();
+            Map<TopicPartition, OffsetAndMetadata> groupOffsets = admin.listConsumerGroupOffsets(groupId)
+                    .partitionsToOffsetAndMetadata().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            groupOffsets.forEach((partition, offset) -> {
+                if (offset != null && endOffsets.containsKey(partition)) {
+                    committed.put(partition, offset.offset());
+                }
+            });
+            // Partitions the group has not committed yet are consumed from the start of the log
+            if (committed.size() < endOffsets.size()) {
+                offsets(admin.listOffsets(earliest)).forEach(committed::putIfAbsent);
+            }
+            return new Snapshot(endOffsets, committed, keyRouting);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading consumer lag", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Could not read consumer lag of group " + groupId + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Map<TopicPartition, Long> offsets(ListOffsetsResult result)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        result.all().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).forEach((partition, info) -> offsets.put(partition, info.offset()));
+        return offsets;
+    }
+
+    private synchronized AdminClient admin() {
+        if (admin == null) {
+            admin = AdminClient.create(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers));
+        }
+        return admin;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (admin != null) {
+            admin.close();
+            admin = null;
+        }
+    }
+
+    /**
+     * Log end and committed offsets at one point in time
+     */
+    public static final class Snapshot {
+
+        private final Map<TopicPartition, Long> endOffsets;
+        private final Map<TopicPartition, Long> committed;
+        private final Map<String, Long> lagByTable = new TreeMap<>();
+        private long lag;
+
+        public Snapshot(Map<TopicPartition, Long> endOffsets, Map<TopicPartition, Long> committed, KeyRouting keyRouting) {
+            this.endOffsets = endOffsets;
+            this.committed = committed;
+            endOffsets.forEach((partition, end) -> {
+                String table = keyRouting.tableOf(partition.topic());
+                if (keyRouting.excludes(table)) {
+                    return;
+                }
+                long partitionLag = Math.max(0, end - committed.getOrDefault(partition, 0L));
+                lagByTable.merge(table, partitionLag, Long::sum);
+                lag += partitionLag;
+            });
+        }
+
+        public Map<TopicPartition, Long> getEndOffsets() {
+            return endOffsets;
+        }
+
+        public Map<String, Long> getLagByTable() {
+            return lagByTable;
+        }
+
+        public long getLag() {
+            return lag;
+        }
+
+        /**
+         * True if every event up to this snapshot's log end is applied, and the log end has not
+         * moved since {@code earlier}
+         */
+        public boolean isDrainedSince(Snapshot earlier) {
+            return lag == 0 && endOffsets.equals(earlier.endOffsets);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.jonathantong.StreamShift.cutover;
+
+import com.jonathantong.StreamShift.model.CutoverStatus;
+import com.jonathantong.StreamShift.model.CutoverStatus.TableCheck;
+import com.jonathantong.StreamShift.pipeline.ChangeEventPipeline;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a cutover from the source to the target database.
+ *
+ * 	streamshift.cutover.lag-threshold=1000
+ * 	streamshift.cutover.poll-ms=1000
+ * 	streamshift.cutover.drain-quiet-ms=2000
+ * 	streamshift.cutover.drain-timeout-ms=600000
+ * 	streamshift.cutover.fence-sql=
+ *
+ * While writes are open it reports the live consumer's lag per table, and once the total drops
+ * to lag-threshold it is ready to fence: the operator stops writes on the source and confirms,
+ * or fence-sql is run on the source right away. From then on writes are frozen. The pipeline
+ * drains without holding hot keys until every event is applied and the topics' log end has not
+ * moved for drain-quiet-ms, as Debezium may still publish changes committed before the fence.
+ * Every table is then verified by row count and checksum, target sequences are synced, and the
+ * freeze window is reported with the time each step took.
+ */
+@Service
+public class CutoverService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CutoverService.class);
+
+    private final ConsumerLag consumerLag;
+    private final TableVerifier tableVerifier;
+    private final SequenceSynchronizer sequenceSynchronizer;
+    private final ChangeEventPipeline pipeline;
+    private final JdbcTemplate sourceJdbcTemplate;
+    private final long defaultLagThreshold;
+    private final long pollMs;
+    private final long drainQuietMs;
+    private final long drainTimeoutMs;
+    private final String fenceSql;
+    private final Timer freezeTimer;
+
+    private final AtomicReference<CutoverStatus> current = new AtomicReference<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "cutover");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public CutoverService(
+            ConsumerLag consumerLag,
+            TableVerifier tableVerifier,
+            SequenceSynchronizer sequenceSynchronizer,
+            ChangeEventPipeline pipeline,
+            @Qualifier("sourceJdbcTemplate") JdbcTemplate sourceJdbcTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${streamshift.cutover.lag-threshold:1000}") long defaultLagThreshold,
+            @Value("${streamshift.cutover.poll-ms:1000}") long pollMs,
+            @Value("${streamshift.cutover.drain-quiet-ms:2000}") long drainQuietMs,
+            @Value("${streamshift.cutover.drain-timeout-ms:600000}") long drainTimeoutMs,
+            @Value("${streamshift.cutover.fence-sql:}") String fenceSql) {
+        this.consumerLag = consumerLag;
+        this.tableVerifier = tableVerifier;
+        this.sequenceSynchronizer = sequenceSynchronizer;
+        this.pipeline = pipeline;
+        this.sourceJdbcTemplate = sourceJdbcTemplate;
+        this.defaultLagThreshold = defaultLagThreshold;
+        this.pollMs = pollMs;
+        this.drainQuietMs = drainQuietMs;
+        this.drainTimeoutMs = drainTimeoutMs;
+        this.fenceSql = fenceSql;
+        this.freezeTimer = Timer.builder("streamshift.cutover.freeze")
+                .description("Time source writes were frozen during a cutover")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start watching lag for a cutover; one at a time
+     *
+     * @param lagThreshold total lag at which writes may be fenced, or null for the configured one
+     */
+    public CutoverStatus start(Long lagThreshold) {
+        long threshold = lagThreshold != null ? lagThreshold : defaultLagThreshold;
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Lag threshold must not be negative");
+        }
+        CutoverStatus status = new CutoverStatus(threshold);
+        CutoverStatus previous = current.get();
+        if (previous != null && previous.isActive()) {
+            throw new IllegalStateException("A cutover is already in progress (" + previous.getState() + ")");
+        }
+        if (!current.compareAndSet(previous, status)) {
+            throw new IllegalStateException("A cutover was started concurrently");
+        }
+        logger.info("Cutover started: ready to fence writes at a lag of {} events", threshold);
+        executor.submit(() -> run(status));
+        return status;
+    }
+
+    /**
+     * Confirm that writes to the source are fenced; the freeze window starts now
+     */
+    public CutoverStatus fence() {
+        CutoverStatus status = current.get();
+        if (status == null || !status.isActive()) {
+            throw new IllegalStateException("No cutover in progress");
+        }
+        if (status.isFenceRequested()) {
+            throw new IllegalStateException("Writes are already fenced");
+        }
+        status.setFencedAt(Instant.now());
+        status.requestFence();
+        logger.info("Cutover: source writes fenced at a lag of {} events", status.getLag());
+        return status;
+    }
+
+    public CutoverStatus getStatus() {
+        return current.get();
+    }
+
+    public boolean cancel() {
+        CutoverStatus status = current.get();
+        if (status == null || !status.isActive()) {
+            return false;
+        }
+        status.requestCancel();
+        return true;
+    }
+
+    /**
+     * Live lag per table, outside of a cutover
+     */
+    public ConsumerLag.Snapshot lag() {
+        return consumerLag.snapshot();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    void run(CutoverStatus status) {
+        try {
+            if (!awaitFence(status)) {
+                return;
+            }
+
+            status.setState(CutoverStatus.State.DRAINING);
+            pipeline.setDraining(true);
+            try {
+                if (!drain(status)) {
+                    return;
+                }
+            } finally {
+                pipeline.setDraining(false);
+            }
+            status.setDrainedAt(Instant.now());
+            logger.info("Cutover: drained in {} ms", status.getDrainMillis());
+
+            status.setState(CutoverStatus.State.VERIFYING);
+            List<String> tables = new ArrayList<>(status.getTableLag().keySet());
+            boolean verified = true;
+            for (String table : tables) {
+                if (status.isCancelRequested()) {
+                    finish(status, CutoverStatus.State.CANCELLED, null);
+                    return;
+                }
+                TableCheck check = tableVerifier.verify(table);
+                status.getTableChecks().add(check);
+                verified &= check.getResult() == TableCheck.Result.MATCH || check.getResult() == TableCheck.Result.FILTERED;
+            }
+            status.setVerifiedAt(Instant.now());
+
+            status.setState(CutoverStatus.State.SYNCING_SEQUENCES);
+            for (String table : tables) {
+                status.getSequences().addAll(sequenceSynchronizer.sync(table));
+            }
+
+            finish(status, verified ? CutoverStatus.State.COMPLETED : CutoverStatus.State.VERIFICATION_FAILED,
+                    verified ? null : "Row counts or checksums differ; see tableChecks");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(status, CutoverStatus.State.CANCELLED, null);
+        } catch (Exception e) {
+            logger.error("Cutover failed: {}", e.getMessage(), e);
+            finish(status, CutoverStatus.State.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * Report lag until writes are fenced, by the operator or by fence-sql once lag is low enough
+     */
+    private boolean awaitFence(CutoverStatus status) throws InterruptedException {
+        while (!status.isFenceRequested()) {
+            if (status.isCancelRequested()) {
+                finish(status, CutoverStatus.State.CANCELLED, null);
+                return false;
+            }
+            status.updateLag(consumerLag.snapshot().getLagByTable());
+            if (status.getLag() <= status.getLagThreshold() && status.getState() == CutoverStatus.State.MONITORING) {
+                status.setReadyAt(Instant.now());
+                status.setState(CutoverStatus.State.READY_TO_FENCE);
+                logger.info("Cutover: lag is {} events, fence writes on the source now", status.getLag());
+                if (!fenceSql.isBlank()) {
+                    sourceJdbcTemplate.execute(fenceSql);
+                    fence();
+                    break;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(pollMs);
+        }
+        return true;
+    }
+
+    /**
+     * Wait until every event is applied and no new ones arrived for drain-quiet-ms
+     */
+    private boolean drain(CutoverStatus status) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs);
+        ConsumerLag.Snapshot quietSince = null;
+        long quietFrom = 0;
+        while (true) {
+            if (status.isCancelRequested()) {
+                finish(status, CutoverStatus.State.CANCELLED, null);
+                return false;
+            }
+            ConsumerLag.Snapshot snapshot = consumerLag.snapshot();
+            status.updateLag(snapshot.getLagByTable());
+            if (quietSince != null && snapshot.isDrainedSince(quietSince)) {
+                if (System.nanoTime() - quietFrom >= TimeUnit.MILLISECONDS.toNanos(drainQuietMs)) {
+                    return true;
+                }
+            } else {
+                quietSince = snapshot.getLag() == 0 ? snapshot : null;
+                quietFrom = System.nanoTime();
+            }
+            if (System.nanoTime() > deadline) {
+                finish(status, CutoverStatus.State.FAILED, "Not drained within " + drainTimeoutMs + " ms, "
+                        + status.getLag() + " events left");
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(Math.min(pollMs, Math.max(1, drainQuietMs / 4)));
+        }
+    }
+
+    private void finish(CutoverStatus status, CutoverStatus.State state, String error) {
+        status.setError(error);
+        status.setFinishedAt(Instant.now());
+        status.setState(state);
+        if (status.isFenced()) {
+            freezeTimer.record(Duration.ofMillis(status.getFreezeMillis()));
+            logger.info("Cutover {}: writes frozen for {} ms (drain {} ms, verify {} ms, sequences {} ms)",
+                    state.name().toLowerCase(), status.getFreezeMillis(), status.getDrainMillis(),
+                    status.getVerifyMillis(), status.getSequenceMillis());
+        } else {
+            logger.info("Cutover {} before writes were fenced", state.name().toLowerCase());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.jonathantong.StreamShift.cutover;
+
+import com.jonathantong.StreamShift.model.CutoverStatus.SequenceSync;
+import com.jonathantong.StreamShift.projection.ProjectionRules;
+import com.jonathantong.StreamShift.projection.TableProjection;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sets target sequences past the values their source sequences handed out, so rows inserted on
+ * the target after cutover do not collide with migrated ones.
+ *
+ * 	streamshift.cutover.create-sequences=true
+ *
+ * Target tables are created without column defaults, so a SERIAL or identity column of the source
+ * has no sequence on the target; with create-sequences one is created, owned by the column and
+ * set as its default. Each sequence is set past the larger of the source sequence's last value and
+ * the column's maximum on the target. On a sharded target every shard's sequence steps by the
+ * shard count from its own offset, so shards never hand out the same value. Source tables are
+ * looked up in the captured schema, streamshift.source.db.schema.
+ *
+ * Fan-out targets are not synced: they are fed by the pipeline and not written to after cutover.
+ */
+@Component
+public class SequenceSynchronizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SequenceSynchronizer.class);
+
+    // Columns of a source table backed by a sequence: SERIAL defaults and identity columns
+    private static final String SEQUENCE_COLUMNS_SQL = """
+            SELECT a.attname AS column_name,
+                   pg_get_serial_sequence(quote_ident(n.nspname) || '.' || quote_ident(c.relname), a.attname) AS sequence_name
+            FROM pg_class c
+            JOIN pg_namespace n ON n.oid = c.relnamespace
+            JOIN pg_attribute a ON a.attrelid = c.oid
+            WHERE c.relname = ? AND n.nspname = ? AND c.relkind IN ('r', 'p')
+              AND a.attnum > 0 AND NOT a.attisdropped
+              AND pg_get_serial_sequence(quote_ident(n.nspname) || '.' || quote_ident(c.relname), a.attname) IS NOT NULL
+            ORDER BY a.attnum
+            """;
+
+    private final JdbcTemplate sourceJdbcTemplate;
+    private final JdbcTemplate targetJdbcTemplate;
+    private final ProjectionRules projectionRules;
+    private final ShardRouter shardRouter;
+    private final boolean createSequences;
+    private final String sourceSchema;
+
+    @Autowired
+    public SequenceSynchronizer(
+            @Qualifier("sourceJdbcTemplate") JdbcTemplate sourceJdbcTemplate,
+            @Qualifier("targetJdbcTemplate") JdbcTemplate targetJdbcTemplate,
+            ProjectionRules projectionRules,
+            ShardRouter shardRouter,
+            @Value("${streamshift.cutover.create-sequences:true}") boolean createSequences,
+            @Value("${streamshift.source.db.schema:inventory}") String sourceSchema) {
+        this.sourceJdbcTemplate = sourceJdbcTemplate;
+        this.targetJdbcTemplate = targetJdbcTemplate;
+        this.projectionRules = projectionRules;
+        this.shardRouter = shardRouter;
+        this.createSequences = createSequences;
+        this.sourceSchema = sourceSchema;
+    }
+
+    /**
+     * Sync the sequences of a table's SERIAL and identity columns
+     */
+    public List<SequenceSync> sync(String tableName) {
+        List<SequenceSync> synced = new ArrayList<>();
+        TableProjection projection = projectionRules.forTable(tableName);
+        for (Map<String, Object> column : sourceJdbcTemplate.queryForList(SEQUENCE_COLUMNS_SQL, tableName, sourceSchema)) {
+            String sourceColumn = (String) column.get("column_name");
+            String targetColumn = projection != null ? projection.outputName(sourceColumn) : sourceColumn;
+            if (targetColumn == null) {
+                continue;
+            }
+            long sourceValue = lastValue((String) column.get("sequence_name"));
+
+            int shards = shardRouter.getShardCount();
+            String[] sequences = new String[shards];
+            String sequence = null;
+            boolean created = false;
+            long targetValue = sourceValue;
+            ShardContext context = ShardContext.current();
+            int previous = context.getShard();
+            try {
+                for (int shard = 0; shard < shards; shard++) {
+                    context.setShard(shard);
+                    String shardSequence = targetJdbcTemplate.queryForObject(
+                            "SELECT pg_get_serial_sequence(quote_ident(?), ?)", String.class, tableName, targetColumn);
+                    if (shardSequence == null) {
+                        if (!createSequences) {
+                            logger.warn("Target column {}.{} has no sequence; not created (create-sequences=false)",
+                                    tableName, targetColumn);
+                            break;
+                        }
+                        shardSequence = createSequence(tableName, targetColumn);
+                        created = true;
+                    }
+                    Number max = targetJdbcTemplate.queryForObject(
+                            "SELECT max(\"" + targetColumn + "\") FROM \"" + tableName + "\"", Number.class);
+                    sequences[shard] = shardSequence;
+                    targetValue = Math.max(targetValue, max != null ? max.longValue() : 0);
+                }
+                for (int shard = 0; shard < shards && sequences[shard] != null; shard++) {
+                    context.setShard(shard);
+                    if (shards > 1) {
+                        // Shards hand out disjoint values, each its own residue modulo the shard count
+                        targetJdbcTemplate.execute("ALTER SEQUENCE " + sequences[shard] + " INCREMENT BY " + shards);
+                        targetJdbcTemplate.queryForObject("SELECT setval(?::regclass, ?, false)", Long.class,
+                                sequences[shard], firstValue(targetValue, shard, shards));
+                    } else if (targetValue > 0) {
+                        targetJdbcTemplate.queryForObject("SELECT setval(?::regclass, ?, true)", Long.class,
+                                sequences[shard], targetValue);
+                    } else {
+                        targetJdbcTemplate.queryForObject("SELECT setval(?::regclass, 1, false)", Long.class, sequences[shard]);
+                    }
+                    sequence = sequences[shard];
+                }
+            } finally {
+                context.setShard(previous);
+            }
+            if (sequence != null) {
+                logger.info("Synced sequence {} of {}.{} to {} (source at {})", sequence, tableName, targetColumn,
+                        targetValue, sourceValue);
+                synced.add(new SequenceSync(tableName, targetColumn, sequence, sourceValue, targetValue, created));
+            }
+        }
+        return synced;
+    }
+
+    /**
+     * First value past {@code base} that a shard's sequence hands out, stepping by the shard count
+     */
+    static long firstValue(long base, int shard, int shards) {
+        return base + 1 + Math.floorMod(shard - (base + 1), (long) shards);
+    }
+
+    /**
+     * Last value a source sequence handed out, 0 if it has not been used
+     */
+    private long lastValue(String sequence) {
+        Map<String, Object> state = sourceJdbcTemplate.queryForMap("SELECT last_value, is_called FROM " + sequence);
+        long lastValue = ((Number) state.get("last_value")).longValue();
+        return Boolean.TRUE.equals(state.get("is_called")) ? lastValue : lastValue - 1;
+    }
+
+    private String createSequence(String tableName, String column) {
+        String sequence = "\"" + tableName + "_" + column + "_seq\"";
+        targetJdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + sequence
+                + " OWNED BY \"" + tableName + "\".\"" + column + "\"");
+        targetJdbcTemplate.execute("ALTER TABLE \"" + tableName + "\" ALTER COLUMN \"" + column
+                + "\" SET DEFAULT nextval('" + sequence + "')");
+        logger.info("Created sequence {} for target column {}.{}", sequence, tableName, column);
+        return sequence;
+    }
+}
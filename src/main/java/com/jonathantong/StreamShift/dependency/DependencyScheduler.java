@@ -0,0 +1,167 @@
+package com.jonathantong.StreamShift.dependency;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders writes by the source's foreign keys, so a row is not written before the row it references.
+ *
+ * 	streamshift.dependencies.enabled=true
+ * 	streamshift.dependencies.defer-constraints=false
+ * 	streamshift.source.db.schema=inventory
+ *
+ * The foreign key graph is read from the source catalog on first use, between tables of the
+ * captured schema; the source connection's search_path does not include it.
+ * Related tables are routed by key like any other, so they apply in parallel over every lane;
+ * only the writes within one lane's batch are ordered. A lane writes its staged batch parents
+ * first for upserts and children first for deletes, and writes staged rows before a row by row
+ * change to a related table. With defer-constraints the related tables of a batch are written in
+ * one transaction with {@code SET CONSTRAINTS ALL DEFERRED} instead, so the target's DEFERRABLE
+ * foreign keys are checked once at commit, whatever the order.
+ *
+ * A referenced row routed to another lane may not be on the target yet. A lane keeps a related
+ * row whose write fails on a foreign key, with any later change to its key, and writes it again
+ * with backoff; the lane acknowledges nothing from that row's event on until it is written.
+ */
+@Component
+public class DependencyScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(DependencyScheduler.class);
+
+    private static final String FOREIGN_KEYS_SQL = """
+            SELECT child.relname AS child_table, parent.relname AS parent_table
+            FROM pg_constraint c
+            JOIN pg_class child ON child.oid = c.conrelid
+            JOIN pg_namespace child_ns ON child_ns.oid = child.relnamespace
+            JOIN pg_class parent ON parent.oid = c.confrelid
+            JOIN pg_namespace parent_ns ON parent_ns.oid = parent.relnamespace
+            WHERE c.contype = 'f'
+              AND child_ns.nspname = ?
+              AND parent_ns.nspname = ?
+            """;
+
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final String FOREIGN_KEY_VIOLATION = "23503";
+
+    private final JdbcTemplate sourceJdbcTemplate;
+    private final String sourceSchema;
+    private final boolean enabled;
+    private final boolean deferConstraints;
+    private volatile ForeignKeyGraph graph;
+    private volatile long retryAtNanos = System.nanoTime();
+    // Not a monitor: loading runs a query on apply lanes, which may be virtual threads
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    @Autowired
+    public DependencyScheduler(
+            @Qualifier("sourceJdbcTemplate") JdbcTemplate sourceJdbcTemplate,
+            @Value("${streamshift.source.db.schema:inventory}") String sourceSchema,
+            @Value("${streamshift.dependencies.enabled:false}") boolean enabled,
+            @Value("${streamshift.dependencies.defer-constraints:false}") boolean deferConstraints) {
+        this.sourceJdbcTemplate = sourceJdbcTemplate;
+        this.sourceSchema = sourceSchema;
+        this.enabled = enabled;
+        this.deferConstraints = deferConstraints;
+    }
+
+    /**
+     * Scheduler over a known graph
+     */
+    public DependencyScheduler(ForeignKeyGraph graph, boolean deferConstraints) {
+        this(null, null, true, deferConstraints);
+        this.graph = graph;
+    }
+
+    /**
+     * Scheduler that leaves writes unordered
+     */
+    public static DependencyScheduler disabled() {
+        return new DependencyScheduler(null, null, false, false);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean defersConstraints() {
+        return deferConstraints;
+    }
+
+    /**
+     * True if the table has foreign keys to or from other tables, so its writes are ordered
+     */
+    public boolean isScheduled(String tableName) {
+        return enabled && graph().contains(tableName);
+    }
+
+    /**
+     * Write order of a scheduled table: parents rank lower than the tables referencing them
+     */
+    public int rank(String tableName) {
+        return graph().rank(tableName);
+    }
+
+    private ForeignKeyGraph graph() {
+        ForeignKeyGraph current = graph;
+        if (current != null) {
+            return current;
+        }
+        if (System.nanoTime() - retryAtNanos < 0) {
+            return ForeignKeyGraph.empty();
+        }
+        return load();
+    }
+
+    /**
+     * True if a related table's write failed on a foreign key, i.e. a row it references is not
+     * on the target yet, so the write is to be kept and made again rather than dropped
+     */
+    public boolean isParentMissing(String tableName, Throwable failure) {
+        return isScheduled(tableName) && isForeignKeyViolation(failure);
+    }
+
+    static boolean isForeignKeyViolation(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && FOREIGN_KEY_VIOLATION.equals(sqlException.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ForeignKeyGraph load() {
+        loadLock.lock();
+        try {
+            if (graph != null) {
+                return graph;
+            }
+            List<String[]> references = sourceJdbcTemplate.query(FOREIGN_KEYS_SQL,
+                    (rs, rowNum) -> new String[] {rs.getString("child_table"), rs.getString("parent_table")},
+                    sourceSchema, sourceSchema);
+            ForeignKeyGraph loaded = ForeignKeyGraph.of(references);
+            logger.info("Ordering writes by {} foreign keys between {} tables of schema {}",
+                    references.size(), loaded.tables().size(), sourceSchema);
+            graph = loaded;
+            return loaded;
+        } catch (Exception e) {
+            // Unordered until the catalog can be read
+            logger.warn("Could not read foreign keys from the source, retrying in {} s: {}",
+                    TimeUnit.NANOSECONDS.toSeconds(RETRY_NANOS), e.getMessage());
+            retryAtNanos = System.nanoTime() + RETRY_NANOS;
+            return ForeignKeyGraph.empty();
+        } finally {
+            loadLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.jonathantong.StreamShift.dependency;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Foreign key dependencies between tables: which tables reference which, and each table's rank
+ * (parents rank lower than the tables referencing them). Tables without foreign keys, either way, are not in the graph. Self references are ignored,
+ * since a single statement may insert a row and the row it references.
+ */
+public class ForeignKeyGraph {
+
+    private static final ForeignKeyGraph EMPTY = new ForeignKeyGraph(Map.of(), Map.of());
+
+    private final Map<String, Set<String>> parents;
+    private final Map<String, Integer> ranks;
+
+    private ForeignKeyGraph(Map<String, Set<String>> parents, Map<String, Integer> ranks) {
+        this.parents = parents;
+        this.ranks = ranks;
+    }
+
+    public static ForeignKeyGraph empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Graph of foreign keys given as (referencing table, referenced table) pairs
+     */
+    public static ForeignKeyGraph of(List<String[]> references) {
+        Map<String, Set<String>> parents = new HashMap<>();
+        Map<String, Set<String>> children = new HashMap<>();
+        for (String[] reference : references) {
+            String child = reference[0];
+            String parent = reference[1];
+            if (child.equals(parent)) {
+                continue;
+            }
+            parents.computeIfAbsent(child, t -> new HashSet<>()).add(parent);
+            parents.computeIfAbsent(parent, t -> new HashSet<>());
+            children.computeIfAbsent(parent, t -> new HashSet<>()).add(child);
+            children.computeIfAbsent(child, t -> new HashSet<>());
+        }
+        if (parents.isEmpty()) {
+            return EMPTY;
+        }
+        return new ForeignKeyGraph(parents, ranks(parents, children));
+    }
+
+    public boolean contains(String tableName) {
+        return tableName != null && ranks.containsKey(tableName);
+    }
+
+    /**
+     * 0 for tables that reference none in the graph, otherwise one more than the highest
+     * ranked table they reference. Tables on a reference cycle rank after everything else.
+     */
+    public int rank(String tableName) {
+        Integer rank = ranks.get(tableName);
+        return rank != null ? rank : 0;
+    }
+
+    public Set<String> parentsOf(String tableName) {
+        Set<String> tableParents = parents.get(tableName);
+        return tableParents != null ? tableParents : Set.of();
+    }
+
+    public Set<String> tables() {
+        return Collections.unmodifiableSet(ranks.keySet());
+    }
+
+    public boolean isEmpty() {
+        return ranks.isEmpty();
+    }
+
+    // Kahn's algorithm over referenced-before-referencing
+    private static Map<String, Integer> ranks(Map<String, Set<String>> parents, Map<String, Set<String>> children) {
+        Map<String, Integer> remaining = new HashMap<>();
+        Map<String, Integer> ranks = new HashMap<>();
+        Deque<String> ready = new ArrayDeque<>();
+        for (Map.Entry<String, Set<String>> entry : parents.entrySet()) {
+            remaining.put(entry.getKey(), entry.getValue().size());
+            if (entry.getValue().isEmpty()) {
+                ready.add(entry.getKey());
+                ranks.put(entry.getKey(), 0);
+            }
+        }
+        int maxRank = 0;
+        while (!ready.isEmpty()) {
+            String table = ready.poll();
+            int rank = ranks.get(table);
+            for (String child : children.get(table)) {
+                ranks.merge(child, rank + 1, Math::max);
+                maxRank = Math.max(maxRank, rank + 1);
+                if (remaining.merge(child, -1, Integer::sum) == 0) {
+                    ready.add(child);
+                }
+            }
+        }
+        for (String table : parents.keySet()) {
+            if (remaining.get(table) > 0) {
+                ranks.put(table, maxRank + 1);
+            }
+        }
+        return ranks;
+    }
+}
@@ -0,0 +1,128 @@
+package com.jonathantong.StreamShift.fanout;
+
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Durable progress of every fan-out target, kept in the primary target (shard 0) so it can be
+ * written while a fan-out target is slow or down:
+ *
+ * 	streamshift_checkpoint (target, topic, kafka_partition, applied_offset, resume_offset, updated_at)
+ *
+ * A row with a resume offset belongs to a detached target. After a restart that target starts
+ * detached and replays from its resume offsets once resumed.
+ */
+@Component
+public class CheckpointStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointStore.class);
+
+    static final String TABLE = "streamshift_checkpoint";
+
+    private final JdbcTemplate targetJdbcTemplate;
+    private final long intervalMs;
+
+    @Autowired
+    public CheckpointStore(
+            @Qualifier("targetJdbcTemplate") JdbcTemplate targetJdbcTemplate,
+            @Value("${streamshift.fanout.checkpoint-interval-ms:1000}") long intervalMs) {
+        this.targetJdbcTemplate = targetJdbcTemplate;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Create the checkpoint table if needed and restore every target's saved progress
+     */
+    public void restore(FanoutTargets targets) {
+        inPrimary(() -> {
+            targetJdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                    + "target varchar(32) NOT NULL, topic text NOT NULL, kafka_partition int NOT NULL, "
+                    + "applied_offset bigint, resume_offset bigint, updated_at timestamptz NOT NULL DEFAULT now(), "
+                    + "PRIMARY KEY (target, topic, kafka_partition))");
+            targetJdbcTemplate.query("SELECT target, topic, kafka_partition, applied_offset, resume_offset FROM " + TABLE,
+                    (RowCallbackHandler) rs -> {
+                        FanoutTarget target = targets.get(rs.getString(1));
+                        if (target != null) {
+                            target.restore(rs.getString(2), rs.getInt(3),
+                                    rs.getObject(4, Long.class), rs.getObject(5, Long.class));
+                        }
+                    });
+        });
+
+        for (FanoutTarget target : targets.getTargets()) {
+            if (target.isDetached()) {
+                logger.warn("Fan-out target {} was detached when StreamShift stopped and stays detached until resumed; "
+                        + "replay offsets {}", target.getName(), target.getResumeOffsets());
+            }
+        }
+    }
+
+    /**
+     * Save a target's progress if the checkpoint interval has passed since {@code lastSaveMillis}
+     *
+     * @return the time of this save, or {@code lastSaveMillis} if it was not due
+     */
+    public long saveIfDue(FanoutTarget target, long lastSaveMillis) {
+        long now = System.currentTimeMillis();
+        if (now - lastSaveMillis < intervalMs) {
+            return lastSaveMillis;
+        }
+        try {
+            save(target);
+        } catch (RuntimeException e) {
+            // Progress is saved again at the next interval; Kafka offsets do not depend on it
+            logger.warn("Saving checkpoint of target {} failed: {}", target.getName(), e.getMessage());
+        }
+        return now;
+    }
+
+    public void save(FanoutTarget target) {
+        Map<String, Map<Integer, Long>> applied = target.getAppliedOffsets();
+        Map<String, Map<Integer, Long>> resume = target.getResumeOffsets();
+
+        Set<String> topics = new HashSet<>(applied.keySet());
+        topics.addAll(resume.keySet());
+        List<Object[]> rows = new ArrayList<>();
+        for (String topic : topics) {
+            Set<Integer> partitions = new HashSet<>(applied.getOrDefault(topic, Map.of()).keySet());
+            partitions.addAll(resume.getOrDefault(topic, Map.of()).keySet());
+            for (Integer partition : partitions) {
+                rows.add(new Object[] {target.getName(), topic, partition,
+                        applied.getOrDefault(topic, Map.of()).get(partition),
+                        resume.getOrDefault(topic, Map.of()).get(partition)});
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        inPrimary(() -> targetJdbcTemplate.batchUpdate("INSERT INTO " + TABLE
+                + " (target, topic, kafka_partition, applied_offset, resume_offset) VALUES (?, ?, ?, ?, ?) "
+                + "ON CONFLICT (target, topic, kafka_partition) DO UPDATE SET applied_offset = EXCLUDED.applied_offset, "
+                + "resume_offset = EXCLUDED.resume_offset, updated_at = now()", rows));
+    }
+
+    private static void inPrimary(Runnable work) {
+        ShardContext context = ShardContext.current();
+        int previous = context.getShard();
+        context.setShard(0);
+        try {
+            work.run();
+        } finally {
+            context.setShard(previous);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.jonathantong.StreamShift.fanout;
+
+import com.jonathantong.StreamShift.service.ApplyStrategy;
+import com.jonathantong.StreamShift.service.ChangeEventApplier;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One destination of the change stream: the primary target (all of its shards) or a fan-out
+ * target. Holds the target's apply policy and its progress through the stream.
+ *
+ * Progress is tracked per topic and partition by the target's checkpoint stage:
+ * 	- applied offsets: the last offset the target has applied
+ * 	- resume offsets: while detached, the first offset the target skipped; replayed on resume
+ * 	- skip-through offsets: after a replay for another target, offsets this target already
+ * 	  applied, so redelivered events are not applied twice
+ */
+public class FanoutTarget {
+
+    public static final String PRIMARY = "primary";
+
+    private final String name;
+    private final int firstSlot;
+    private final int slotCount;
+    private final ApplyStrategy strategy;
+    private final int maxBatchRows;
+
+    // Ring sequence from which this target skips events; Long.MAX_VALUE while attached
+    private volatile long detachedFrom = Long.MAX_VALUE;
+    private final Map<String, Map<Integer, Long>> appliedOffsets = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, Long>> resumeOffsets = new ConcurrentHashMap<>();
+    private volatile Map<String, Map<Integer, Long>> skipThrough;
+    private final LongAdder applied = new LongAdder();
+
+    /**
+     * @param strategy     apply strategy of every table, null for the configured table strategies
+     * @param maxBatchRows staged rows per lane before a flush, 0 for the pipeline default
+     */
+    public FanoutTarget(String name, int firstSlot, int slotCount, ApplyStrategy strategy, int maxBatchRows) {
+        this.name = name;
+        this.firstSlot = firstSlot;
+        this.slotCount = slotCount;
+        this.strategy = strategy;
+        this.maxBatchRows = maxBatchRows;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isPrimary() {
+        return PRIMARY.equals(name);
+    }
+
+    /**
+     * First {@link com.jonathantong.StreamShift.sharding.ShardRoutingDataSource} slot of the target
+     */
+    public int getFirstSlot() {
+        return firstSlot;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public ApplyStrategy strategyFor(String tableName, ChangeEventApplier changeEventApplier) {
+        return strategy != null ? strategy : changeEventApplier.strategyFor(tableName);
+    }
+
+    public int maxBatchRows(int defaultRows) {
+        return maxBatchRows > 0 ? maxBatchRows : defaultRows;
+    }
+
+    public boolean isDetached() {
+        return detachedFrom != Long.MAX_VALUE;
+    }
+
+    /**
+     * Stop applying events from a ring sequence on; events before it are still applied
+     */
+    public void detach(long fromSequence) {
+        detachedFrom = fromSequence;
+    }
+
+    /**
+     * Apply events again. Resume offsets stay until the replay has passed them.
+     */
+    public void attach() {
+        detachedFrom = Long.MAX_VALUE;
+    }
+
+    /**
+     * True if the target's lanes pass this event without applying it
+     */
+    public boolean skips(long sequence, String topic, int partition, long offset) {
+        if (sequence >= detachedFrom) {
+            return true;
+        }
+        Map<String, Map<Integer, Long>> through = skipThrough;
+        if (through != null) {
+            Long last = offsetOf(through, topic, partition);
+            return last != null && offset <= last;
+        }
+        return false;
+    }
+
+    /**
+     * Record that the target's lanes have passed an event; called by its checkpoint stage in sequence order
+     */
+    public void passed(long sequence, String topic, int partition, long offset) {
+        if (sequence >= detachedFrom) {
+            resumeOffsets.computeIfAbsent(topic, t -> new ConcurrentHashMap<>()).putIfAbsent(partition, offset);
+            return;
+        }
+        appliedOffsets.computeIfAbsent(topic, t -> new ConcurrentHashMap<>()).put(partition, offset);
+
+        // A replay reached the first offset skipped while detached
+        Long resumeFrom = offsetOf(resumeOffsets, topic, partition);
+        if (resumeFrom != null && offset >= resumeFrom) {
+            resumeOffsets.get(topic).remove(partition);
+        }
+        Map<String, Map<Integer, Long>> through = skipThrough;
+        if (through != null) {
+            Long last = offsetOf(through, topic, partition);
+            if (last != null && offset >= last) {
+                through.get(topic).remove(partition);
+                if (through.values().stream().allMatch(Map::isEmpty)) {
+                    skipThrough = null;
+                }
+            }
+        }
+    }
+
+    public Map<String, Map<Integer, Long>> getAppliedOffsets() {
+        return appliedOffsets;
+    }
+
+    public Map<String, Map<Integer, Long>> getResumeOffsets() {
+        return resumeOffsets;
+    }
+
+    /**
+     * Skip redelivered events up to the offsets this target has applied so far
+     */
+    public void skipThroughApplied() {
+        Map<String, Map<Integer, Long>> through = new ConcurrentHashMap<>();
+        appliedOffsets.forEach((topic, partitions) -> through.put(topic, new ConcurrentHashMap<>(partitions)));
+        skipThrough = through.isEmpty() ? null : through;
+    }
+
+    /**
+     * Restore progress saved by an earlier run
+     */
+    public void restore(String topic, int partition, Long appliedOffset, Long resumeOffset) {
+        if (appliedOffset != null) {
+            appliedOffsets.computeIfAbsent(topic, t -> new ConcurrentHashMap<>()).put(partition, appliedOffset);
+        }
+        if (resumeOffset != null) {
+            resumeOffsets.computeIfAbsent(topic, t -> new ConcurrentHashMap<>()).put(partition, resumeOffset);
+            detach(0);
+        }
+    }
+
+    public void applied() {
+        applied.increment();
+    }
+
+    public long getApplied() {
+        return applied.sum();
+    }
+
+    /**
+     * Status for the admin API
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("name", name);
+        status.put("detached", isDetached());
+        status.put("applied", getApplied());
+        status.put("appliedOffsets", appliedOffsets);
+        status.put("resumeOffsets", resumeOffsets);
+        return status;
+    }
+
+    private static Long offsetOf(Map<String, Map<Integer, Long>> offsets, String topic, int partition) {
+        Map<Integer, Long> partitions = offsets.get(topic);
+        return partitions != null ? partitions.get(partition) : null;
+    }
+}
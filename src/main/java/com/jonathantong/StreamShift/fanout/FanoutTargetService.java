@@ -0,0 +1,124 @@
+package com.jonathantong.StreamShift.fanout;
+
+import com.jonathantong.StreamShift.consumer.ChangeEventConsumer;
+import com.jonathantong.StreamShift.pipeline.ChangeEventPipeline;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pauses and resumes fan-out targets.
+ *
+ * Resuming replays what the target missed: the live consumer is paused and the pipeline
+ * drained, so the target's resume offsets are complete. Every other attached target is told
+ * to skip events up to what it has already applied, the live consumer seeks back to the
+ * resume offsets and consumption continues. Replayed events are then applied only by the
+ * resumed target, and Kafka offsets are committed from the replayed positions onwards.
+ */
+@Service
+public class FanoutTargetService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanoutTargetService.class);
+
+    private final FanoutTargets fanoutTargets;
+    private final ChangeEventPipeline changeEventPipeline;
+    private final ChangeEventConsumer changeEventConsumer;
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+
+    @Value("${streamshift.fanout.resume-timeout-ms:30000}")
+    private long resumeTimeoutMs;
+
+    @Autowired
+    public FanoutTargetService(
+            FanoutTargets fanoutTargets,
+            ChangeEventPipeline changeEventPipeline,
+            ChangeEventConsumer changeEventConsumer,
+            KafkaListenerEndpointRegistry listenerRegistry) {
+        this.fanoutTargets = fanoutTargets;
+        this.changeEventPipeline = changeEventPipeline;
+        this.changeEventConsumer = changeEventConsumer;
+        this.listenerRegistry = listenerRegistry;
+    }
+
+    public List<Map<String, Object>> describe() {
+        return fanoutTargets.getTargets().stream().map(FanoutTarget::describe).toList();
+    }
+
+    /**
+     * Detach a fan-out target; it stops slowing the others and replays what it skipped once resumed
+     */
+    public synchronized FanoutTarget pause(String name) {
+        FanoutTarget target = require(name);
+        changeEventPipeline.detach(target);
+        logger.info("Fan-out target {} paused", name);
+        return target;
+    }
+
+    /**
+     * Attach a detached fan-out target and replay the events it skipped
+     */
+    public synchronized FanoutTarget resume(String name) throws InterruptedException {
+        FanoutTarget target = require(name);
+        if (!target.isDetached()) {
+            throw new IllegalStateException("Fan-out target " + name + " is not paused");
+        }
+
+        MessageListenerContainer container = listenerRegistry.getListenerContainer(ChangeEventConsumer.LISTENER_ID);
+        if (container == null) {
+            throw new IllegalStateException("Live listener container not found");
+        }
+        container.pause();
+        try {
+            // The container pauses after finishing the records of its current poll
+            long deadline = System.currentTimeMillis() + resumeTimeoutMs;
+            while (!container.isContainerPaused()) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Timed out pausing the live consumer");
+                }
+                Thread.sleep(50);
+            }
+            if (!changeEventPipeline.drain(Duration.ofMillis(resumeTimeoutMs))) {
+                throw new IllegalStateException("Timed out draining the pipeline");
+            }
+
+            for (FanoutTarget other : fanoutTargets.getTargets()) {
+                if (other != target && !other.isDetached()) {
+                    other.skipThroughApplied();
+                }
+            }
+
+            Map<TopicPartition, Long> replay = new HashMap<>();
+            target.getResumeOffsets().forEach((topic, partitions) ->
+                    partitions.forEach((partition, offset) -> replay.put(new TopicPartition(topic, partition), offset)));
+            target.attach();
+
+            Map<TopicPartition, Long> unassigned = changeEventConsumer.seek(replay);
+            if (!unassigned.isEmpty()) {
+                logger.warn("Partitions {} of fan-out target {} are not assigned to this instance and were not replayed; "
+                        + "resume the target where they are assigned", unassigned, name);
+            }
+            logger.info("Fan-out target {} resumed, replaying {} partitions", name, replay.size() - unassigned.size());
+        } finally {
+            container.resume();
+        }
+        return target;
+    }
+
+    private FanoutTarget require(String name) {
+        FanoutTarget target = fanoutTargets.get(name);
+        if (target == null) {
+            throw new IllegalArgumentException("Unknown fan-out target: " + name);
+        }
+        return target;
+    }
+}
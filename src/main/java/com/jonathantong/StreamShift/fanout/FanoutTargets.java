@@ -0,0 +1,147 @@
+package com.jonathantong.StreamShift.fanout;
+
+import com.jonathantong.StreamShift.service.ApplyStrategy;
+import com.jonathantong.StreamShift.sharding.ShardRoutingDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Destinations every decoded change is applied to: the primary target, then the fan-out
+ * targets of {@code streamshift.fanout.targets}, each with its own apply policy.
+ */
+@Component
+public class FanoutTargets {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanoutTargets.class);
+
+    private static final Pattern TARGET_NAME = Pattern.compile("[a-z0-9_-]{1,32}");
+
+    private final List<FanoutTarget> targets = new ArrayList<>();
+    private final long detachAfterMs;
+
+    @Autowired
+    public FanoutTargets(
+            @Qualifier("targetDataSource") DataSource targetDataSource,
+            @Value("${streamshift.fanout.strategies:}") String strategies,
+            @Value("${streamshift.fanout.max-batch-rows:}") String maxBatchRows,
+            @Value("${streamshift.fanout.detach-after-ms:60000}") long detachAfterMs) {
+        this(ShardRoutingDataSource.shardCount(targetDataSource),
+                targetDataSource instanceof ShardRoutingDataSource routing ? routing.getFanoutTargets() : List.of(),
+                strategies, maxBatchRows, detachAfterMs);
+    }
+
+    /**
+     * @param shardCount    shards of the primary target, which take the first slots
+     * @param fanoutTargets fan-out target names, in slot order after the shards
+     */
+    public FanoutTargets(int shardCount, List<String> fanoutTargets, String strategies, String maxBatchRows,
+                         long detachAfterMs) {
+        this.detachAfterMs = detachAfterMs;
+
+        Map<String, String> targetStrategies = parseByTarget(strategies);
+        Map<String, String> targetBatchRows = parseByTarget(maxBatchRows);
+        for (String name : targetStrategies.keySet()) {
+            requireTarget(name, fanoutTargets);
+        }
+        for (String name : targetBatchRows.keySet()) {
+            requireTarget(name, fanoutTargets);
+        }
+
+        targets.add(new FanoutTarget(FanoutTarget.PRIMARY, 0, shardCount,
+                strategyOf(targetStrategies.get(FanoutTarget.PRIMARY)), rowsOf(targetBatchRows.get(FanoutTarget.PRIMARY))));
+        for (int i = 0; i < fanoutTargets.size(); i++) {
+            String name = fanoutTargets.get(i);
+            if (!TARGET_NAME.matcher(name).matches() || FanoutTarget.PRIMARY.equals(name)) {
+                throw new IllegalArgumentException("Invalid fan-out target name: " + name);
+            }
+            targets.add(new FanoutTarget(name, shardCount + i, 1,
+                    strategyOf(targetStrategies.get(name)), rowsOf(targetBatchRows.get(name))));
+        }
+
+        if (isFanout()) {
+            logger.info("Fanning out changes to {} targets: {}", targets.size(),
+                    targets.stream().map(FanoutTarget::getName).toList());
+        }
+    }
+
+    /**
+     * Parse per-target settings of the form {@code reporting:merge,archive:batch}. Only the first
+     * colon separates, so values may be JDBC URLs.
+     */
+    public static Map<String, String> parseByTarget(String settings) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (settings == null || settings.isBlank()) {
+            return values;
+        }
+        for (String entry : settings.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected target:value, got: " + entry.trim());
+            }
+            values.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+        }
+        return values;
+    }
+
+    /**
+     * All targets, the primary first
+     */
+    public List<FanoutTarget> getTargets() {
+        return targets;
+    }
+
+    public FanoutTarget getPrimary() {
+        return targets.get(0);
+    }
+
+    public FanoutTarget get(String name) {
+        for (FanoutTarget target : targets) {
+            if (target.getName().equals(name)) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True if changes go to more than the primary target
+     */
+    public boolean isFanout() {
+        return targets.size() > 1;
+    }
+
+    /**
+     * How long the ring may stay full before the slowest fan-out target is detached; 0 never detaches
+     */
+    public long getDetachAfterMs() {
+        return detachAfterMs;
+    }
+
+    private static void requireTarget(String name, List<String> fanoutTargets) {
+        if (!FanoutTarget.PRIMARY.equals(name) && !fanoutTargets.contains(name)) {
+            throw new IllegalArgumentException("Unknown fan-out target: " + name);
+        }
+    }
+
+    private static ApplyStrategy strategyOf(String name) {
+        return name != null ? ApplyStrategy.forName(name) : null;
+    }
+
+    private static int rowsOf(String rows) {
+        return rows != null ? Integer.parseInt(rows) : 0;
+    }
+}
@@ -0,0 +1,58 @@
+package com.jonathantong.StreamShift.format;
+
+/**
+ * Encoding of a change event value. Every format carries the same Debezium envelope, with or
+ * without the converter's schema block.
+ */
+public enum EventFormat {
+
+    JSON,
+    SMILE,
+    CBOR,
+    /**
+     * Detected from the value's first bytes
+     */
+    AUTO;
+
+    /**
+     * Parse a configured format or content type, e.g. {@code smile} or {@code application/cbor}
+     */
+    public static EventFormat of(String name) {
+        String format = name.trim().toLowerCase();
+        int parameters = format.indexOf(';');
+        if (parameters >= 0) {
+            format = format.substring(0, parameters).trim();
+        }
+        switch (format) {
+            case "json":
+            case "application/json":
+                return JSON;
+            case "smile":
+            case "application/x-jackson-smile":
+                return SMILE;
+            case "cbor":
+            case "application/cbor":
+                return CBOR;
+            case "auto":
+                return AUTO;
+            default:
+                throw new IllegalArgumentException("Unknown change event format: " + name);
+        }
+    }
+
+    /**
+     * Detect a value's format: Smile by its {@code :)\n} header, CBOR by a map, null or
+     * self-describe tag as first byte, anything else is JSON
+     */
+    public static EventFormat detect(byte[] value) {
+        if (value.length >= 3 && value[0] == ':' && value[1] == ')' && value[2] == '\n') {
+            return SMILE;
+        }
+        int first = value.length > 0 ? value[0] & 0xFF : 0;
+        // Major type 5 (map), simple value null, or tag 55799 (0xD9D9F7)
+        if ((first >= 0xA0 && first <= 0xBF) || first == 0xF6 || first == 0xD9) {
+            return CBOR;
+        }
+        return JSON;
+    }
+}
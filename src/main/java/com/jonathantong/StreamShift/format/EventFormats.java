@@ -0,0 +1,97 @@
+package com.jonathantong.StreamShift.format;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the format of each change event value: the record's format header if it has one,
+ * else the format configured for its topic, else the default; {@code auto} detects the format
+ * from the value's first bytes.
+ *
+ * 	streamshift.format.header=content-type
+ * 	streamshift.format.topics=dbserver1.inventory.orders:smile,customers:cbor
+ * 	streamshift.format.default=auto
+ *
+ * Topics are named in full or by their last segment, the table.
+ */
+@Component
+public class EventFormats {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventFormats.class);
+
+    private final String header;
+    private final EventFormat defaultFormat;
+    private final Map<String, EventFormat> configured = new HashMap<>();
+    private final Map<String, EventFormat> topicFormats = new ConcurrentHashMap<>();
+    private final Map<String, EventFormat> headerFormats = new ConcurrentHashMap<>();
+
+    @Autowired
+    public EventFormats(
+            @Value("${streamshift.format.header:content-type}") String header,
+            @Value("${streamshift.format.topics:}") String topicFormats,
+            @Value("${streamshift.format.default:auto}") String defaultFormat) {
+        this.header = header == null || header.isBlank() ? null : header.trim();
+        this.defaultFormat = EventFormat.of(defaultFormat);
+        if (topicFormats != null) {
+            for (String entry : topicFormats.split(",")) {
+                if (entry.isBlank()) {
+                    continue;
+                }
+                int separator = entry.lastIndexOf(':');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("Expected topic:format, got: " + entry.trim());
+                }
+                configured.put(entry.substring(0, separator).trim(), EventFormat.of(entry.substring(separator + 1)));
+            }
+        }
+        if (!configured.isEmpty() || this.defaultFormat != EventFormat.AUTO) {
+            logger.info("Change event formats: {} by topic, {} otherwise, overridden by header {}",
+                    configured, this.defaultFormat, this.header);
+        }
+    }
+
+    /**
+     * Formats detected from the value alone, for tools and tests
+     */
+    public static EventFormats detecting() {
+        return new EventFormats("", "", "auto");
+    }
+
+    /**
+     * Format of one record's value; never {@link EventFormat#AUTO}
+     *
+     * @param headers the record's headers, or null
+     */
+    public EventFormat formatOf(String topic, Headers headers, byte[] value) {
+        EventFormat format = null;
+        if (header != null && headers != null) {
+            Header formatHeader = headers.lastHeader(header);
+            if (formatHeader != null && formatHeader.value() != null) {
+                format = headerFormats.computeIfAbsent(
+                        new String(formatHeader.value(), StandardCharsets.UTF_8), EventFormat::of);
+            }
+        }
+        if (format == null) {
+            format = topic != null ? topicFormats.computeIfAbsent(topic, this::configuredFormat) : defaultFormat;
+        }
+        return format == EventFormat.AUTO ? EventFormat.detect(value) : format;
+    }
+
+    private EventFormat configuredFormat(String topic) {
+        EventFormat format = configured.get(topic);
+        if (format == null) {
+            format = configured.get(topic.substring(topic.lastIndexOf('.') + 1));
+        }
+        return format != null ? format : defaultFormat;
+    }
+}
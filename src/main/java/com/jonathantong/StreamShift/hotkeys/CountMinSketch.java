@@ -0,0 +1,64 @@
+package com.jonathantong.StreamShift.hotkeys;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch over 64-bit key hashes, with conservative update: an add raises only the
+ * counters that hold the current minimum, which keeps over-estimates for cold keys low when
+ * a few hot keys dominate. Estimates never under-count. Not thread safe.
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int mask;
+    private final long[] counters;
+
+    /**
+     * @param width counters per row, rounded up to a power of two
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || width < 1) {
+            throw new IllegalArgumentException("Sketch depth and width must be positive");
+        }
+        int rowWidth = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = rowWidth - 1;
+        this.counters = new long[depth * rowWidth];
+    }
+
+    /**
+     * Count one occurrence of a key
+     *
+     * @return the key's estimate after counting it
+     */
+    public long add(long hash) {
+        long estimate = estimate(hash) + 1;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int row = 0; row < depth; row++) {
+            int index = row * (mask + 1) + ((h1 + row * h2) & mask);
+            if (counters[index] < estimate) {
+                counters[index] = estimate;
+            }
+        }
+        return estimate;
+    }
+
+    public long estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[row * (mask + 1) + ((h1 + row * h2) & mask)]);
+        }
+        return min;
+    }
+
+    public void clear() {
+        Arrays.fill(counters, 0);
+    }
+
+    public long footprintBytes() {
+        return 8L * counters.length;
+    }
+}
@@ -0,0 +1,302 @@
+package com.jonathantong.StreamShift.hotkeys;
+
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Streaming hot-key detection per table over the primary key values of each change.
+ *
+ * Each table counts keys in a {@link CountMinSketch} per time window and estimates a key's
+ * events over the last window as its count in the current window plus the unexpired share of
+ * its count in the previous one. A key whose estimate reaches the hot rate is hot. The top
+ * keys by estimate are kept per table for the hotkeys actuator endpoint.
+ *
+ * Recording allocates nothing unless a key enters a table's top keys.
+ */
+@Component
+public class HotKeyTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotKeyTracker.class);
+
+    private final boolean enabled;
+    private final SchemaMetadataService schemaMetadataService;
+    private final int topK;
+    private final int sketchDepth;
+    private final int sketchWidth;
+    private final long windowMs;
+    private final long hotCount;
+    private final long holdMs;
+    private final LongSupplier clock;
+    private final Map<String, TableHotKeys> tables = new ConcurrentHashMap<>();
+
+    @Autowired
+    public HotKeyTracker(
+            @Value("${streamshift.hotkeys.enabled:false}") boolean enabled,
+            SchemaMetadataService schemaMetadataService,
+            @Value("${streamshift.hotkeys.top-k:20}") int topK,
+            @Value("${streamshift.hotkeys.sketch-depth:4}") int sketchDepth,
+            @Value("${streamshift.hotkeys.sketch-width:2048}") int sketchWidth,
+            @Value("${streamshift.hotkeys.window-ms:10000}") long windowMs,
+            @Value("${streamshift.hotkeys.hot-rate:20}") double hotRate,
+            @Value("${streamshift.hotkeys.hold-ms:50}") long holdMs,
+            MeterRegistry meterRegistry) {
+        this(enabled, schemaMetadataService, topK, sketchDepth, sketchWidth, windowMs, hotRate, holdMs,
+                System::currentTimeMillis);
+        Gauge.builder("streamshift.hotkeys.footprint", this, HotKeyTracker::footprintBytes)
+                .description("Memory held by hot-key sketches")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param hotRate events per second at which a key is hot
+     * @param holdMs  how long apply lanes may hold changes to hot keys for write-combining
+     * @param clock   milliseconds, for tests
+     */
+    public HotKeyTracker(boolean enabled, SchemaMetadataService schemaMetadataService, int topK,
+                         int sketchDepth, int sketchWidth, long windowMs, double hotRate, long holdMs,
+                         LongSupplier clock) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("Hot-key window must be positive");
+        }
+        this.enabled = enabled;
+        this.schemaMetadataService = schemaMetadataService;
+        this.topK = topK;
+        this.sketchDepth = sketchDepth;
+        this.sketchWidth = sketchWidth;
+        this.windowMs = windowMs;
+        this.hotCount = Math.max(1, (long) Math.ceil(hotRate * windowMs / 1000.0));
+        this.holdMs = holdMs;
+        this.clock = clock;
+
+        if (enabled) {
+            logger.info("Tracking hot keys: hot at {} events per {} ms, held up to {} ms, top {} per table",
+                    hotCount, windowMs, holdMs, topK);
+        }
+    }
+
+    /**
+     * A tracker that tracks nothing
+     */
+    public static HotKeyTracker disabled() {
+        return new HotKeyTracker(false, null, 0, 1, 1, 1, 0, 0, System::currentTimeMillis);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * How long apply lanes may hold changes to hot keys; 0 does not hold them
+     */
+    public long getHoldMs() {
+        return holdMs;
+    }
+
+    /**
+     * Count a change against its table's key and tell whether the key is hot. Reads key columns
+     * from the target, so the table must exist on the shard this thread reads.
+     *
+     * @return false for changes without a row image or primary key, and when tracking is off
+     */
+    public boolean record(DecodedChange change) {
+        if (!enabled) {
+            return false;
+        }
+        RowBuffer row = change.getAfter() != null ? change.getAfter() : change.getBefore();
+        if (row == null || change.getTableName() == null) {
+            return false;
+        }
+        String tableName = change.getTableName();
+        schemaMetadataService.ensureTargetTableExists(change.getDatabaseName(), tableName, change);
+        List<String> keyColumns = schemaMetadataService.getPrimaryKeyColumns(tableName);
+        if (keyColumns.isEmpty()) {
+            return false;
+        }
+        return record(tableName, row, keyColumns);
+    }
+
+    /**
+     * Count a row's key; {@code row} must carry the key columns
+     */
+    public boolean record(String tableName, RowBuffer row, List<String> keyColumns) {
+        if (!enabled) {
+            return false;
+        }
+        TableHotKeys table = tables.get(tableName);
+        if (table == null) {
+            table = tables.computeIfAbsent(tableName, t -> new TableHotKeys());
+        }
+        return table.record(keyHash(row, keyColumns), row, keyColumns, clock.getAsLong());
+    }
+
+    /**
+     * Top keys of every table, hottest first
+     */
+    public Map<String, List<Map<String, Object>>> topKeys() {
+        Map<String, List<Map<String, Object>>> top = new TreeMap<>();
+        tables.forEach((tableName, table) -> top.put(tableName, table.top(clock.getAsLong())));
+        return top;
+    }
+
+    /**
+     * Top keys of one table, hottest first; empty if the table has no changes yet
+     */
+    public List<Map<String, Object>> topKeys(String tableName) {
+        TableHotKeys table = tables.get(tableName);
+        return table != null ? table.top(clock.getAsLong()) : List.of();
+    }
+
+    public long footprintBytes() {
+        long bytes = 0;
+        for (TableHotKeys table : tables.values()) {
+            bytes += table.footprintBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Hash of a row's key values. Integral values hash alike whether decoded as int or long.
+     */
+    static long keyHash(RowBuffer row, List<String> keyColumns) {
+        long hash = 0;
+        for (int i = 0; i < keyColumns.size(); i++) {
+            Object value = row.get(keyColumns.get(i));
+            long valueHash;
+            if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+                valueHash = ((Number) value).longValue();
+            } else {
+                valueHash = value != null ? value.hashCode() : 0;
+            }
+            hash = (hash + valueHash) * 0x9E3779B97F4A7C15L;
+        }
+        // SplitMix64 finalizer, so the sketch's row indexes get independent bits
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Sketches and top keys of one table; guarded by its own lock
+     */
+    private final class TableHotKeys {
+
+        private CountMinSketch current = new CountMinSketch(sketchDepth, sketchWidth);
+        private CountMinSketch previous = new CountMinSketch(sketchDepth, sketchWidth);
+        private long windowStart = clock.getAsLong();
+
+        // Top keys, unordered; the entry with the lowest estimate is replaced first
+        private final long[] topHashes = new long[topK];
+        private final long[] topEstimates = new long[topK];
+        private final String[] topKeys = new String[topK];
+        private int topSize;
+
+        synchronized boolean record(long hash, RowBuffer row, List<String> keyColumns, long now) {
+            rotate(now);
+            current.add(hash);
+            long estimate = estimate(hash, now);
+            offer(hash, estimate, row, keyColumns);
+            return estimate >= hotCount;
+        }
+
+        synchronized List<Map<String, Object>> top(long now) {
+            rotate(now);
+            List<Map<String, Object>> keys = new ArrayList<>();
+            for (int i = 0; i < topSize; i++) {
+                long estimate = estimate(topHashes[i], now);
+                Map<String, Object> key = new LinkedHashMap<>();
+                key.put("key", topKeys[i]);
+                key.put("events", estimate);
+                key.put("eventsPerSecond", estimate * 1000.0 / windowMs);
+                key.put("hot", estimate >= hotCount);
+                keys.add(key);
+            }
+            keys.sort(Comparator.comparingLong((Map<String, Object> key) -> (Long) key.get("events")).reversed());
+            return keys;
+        }
+
+        long footprintBytes() {
+            return current.footprintBytes() + previous.footprintBytes();
+        }
+
+        /**
+         * Events over the last window: this window's count plus the unexpired share of the previous one
+         */
+        private long estimate(long hash, long now) {
+            long elapsed = Math.min(windowMs, Math.max(0, now - windowStart));
+            return current.estimate(hash) + previous.estimate(hash) * (windowMs - elapsed) / windowMs;
+        }
+
+        private void rotate(long now) {
+            if (now - windowStart < windowMs) {
+                return;
+            }
+            CountMinSketch expired = previous;
+            expired.clear();
+            if (now - windowStart < 2 * windowMs) {
+                previous = current;
+                current = expired;
+                windowStart += windowMs;
+            } else {
+                // Idle for more than a window: both are stale
+                current.clear();
+                windowStart = now;
+            }
+            for (int i = 0; i < topSize; i++) {
+                topEstimates[i] = estimate(topHashes[i], now);
+            }
+        }
+
+        private void offer(long hash, long estimate, RowBuffer row, List<String> keyColumns) {
+            int min = -1;
+            for (int i = 0; i < topSize; i++) {
+                if (topHashes[i] == hash) {
+                    topEstimates[i] = estimate;
+                    return;
+                }
+                if (min < 0 || topEstimates[i] < topEstimates[min]) {
+                    min = i;
+                }
+            }
+            int slot;
+            if (topSize < topK) {
+                slot = topSize++;
+            } else if (min >= 0 && estimate > topEstimates[min]) {
+                slot = min;
+            } else {
+                return;
+            }
+            topHashes[slot] = hash;
+            topEstimates[slot] = estimate;
+            topKeys[slot] = describe(row, keyColumns);
+        }
+
+        private String describe(RowBuffer row, List<String> keyColumns) {
+            StringBuilder key = new StringBuilder();
+            for (String column : keyColumns) {
+                if (key.length() > 0) {
+                    key.append(", ");
+                }
+                key.append(column).append('=').append(row.get(column));
+            }
+            return key.toString();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.jonathantong.StreamShift.hotkeys;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint with each table's hottest keys and their event rates
+ *
+ * 	GET /actuator/hotkeys
+ * 	GET /actuator/hotkeys/{table}
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class HotKeysEndpoint {
+
+    private final HotKeyTracker hotKeyTracker;
+
+    @Autowired
+    public HotKeysEndpoint(HotKeyTracker hotKeyTracker) {
+        this.hotKeyTracker = hotKeyTracker;
+    }
+
+    @ReadOperation
+    public Map<String, List<Map<String, Object>>> hotKeys() {
+        return hotKeyTracker.topKeys();
+    }
+
+    @ReadOperation
+    public List<Map<String, Object>> tableHotKeys(@Selector String table) {
+        return hotKeyTracker.topKeys(table);
+    }
+}
@@ -0,0 +1,362 @@
+package com.jonathantong.StreamShift.memory;
+
+import com.jonathantong.StreamShift.consumer.ChangeEventConsumer;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the heap held by events the pipeline has polled but not yet acknowledged.
+ *
+ * 	streamshift.memory.enabled=true
+ * 	streamshift.memory.budget=256MB
+ * 	streamshift.memory.table-budgets=documents:64MB
+ * 	streamshift.memory.low-watermark=0.75
+ *
+ * Each event reserves its estimated retained size when published and again once its row is
+ * decoded, and releases both when acknowledged; see {@link RetainedSize}. When the total reaches
+ * the budget every assigned partition of the live consumer is paused, and when a table reaches
+ * its own budget the partitions of its topics are; they are resumed once usage falls below
+ * low-watermark times the budget. A pause takes effect at the consumer's next poll, so usage can
+ * overshoot by the records of the current poll. Partitions paused by others, e.g. a resync
+ * handover, are left alone.
+ */
+@Component
+public class MemoryGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryGovernor.class);
+
+    private final boolean enabled;
+    private final double lowWatermark;
+    private final Map<String, Long> tableBudgets;
+    private final Supplier<MessageListenerContainer> container;
+    private final KeyRouting keyRouting;
+    private final MeterRegistry meterRegistry;
+
+    private final Usage total;
+    private final Map<String, Usage> tables = new ConcurrentHashMap<>();
+    // Partitions this governor paused, with the budgets holding each one paused
+    private final Map<TopicPartition, Set<Usage>> pausedBy = new HashMap<>();
+    private volatile int pausedBudgets;
+    private long pausedSinceNanos;
+    private long pausedNanos;
+
+    @Autowired
+    public MemoryGovernor(
+            @Value("${streamshift.memory.enabled:true}") boolean enabled,
+            @Value("${streamshift.memory.budget:0}") String budget,
+            @Value("${streamshift.memory.table-budgets:}") String tableBudgets,
+            @Value("${streamshift.memory.low-watermark:0.75}") double lowWatermark,
+            KafkaListenerEndpointRegistry listenerRegistry,
+            KeyRouting keyRouting,
+            MeterRegistry meterRegistry) {
+        this(enabled, parseBudget(budget), parseTableBudgets(tableBudgets), lowWatermark,
+                () -> listenerRegistry.getListenerContainer(ChangeEventConsumer.LISTENER_ID), keyRouting, meterRegistry);
+    }
+
+    /**
+     * Governor pausing partitions of the given container
+     *
+     * @param budget bytes, or 0 for a quarter of the maximum heap
+     */
+    public MemoryGovernor(boolean enabled, long budget, Map<String, Long> tableBudgets, double lowWatermark,
+                          Supplier<MessageListenerContainer> container, KeyRouting keyRouting,
+                          MeterRegistry meterRegistry) {
+        if (lowWatermark <= 0 || lowWatermark > 1) {
+            throw new IllegalArgumentException("streamshift.memory.low-watermark must be in (0, 1]: " + lowWatermark);
+        }
+        this.enabled = enabled;
+        this.lowWatermark = lowWatermark;
+        this.tableBudgets = tableBudgets;
+        this.container = container;
+        this.keyRouting = keyRouting;
+        this.meterRegistry = meterRegistry;
+        this.total = new Usage(null, budget > 0 ? budget : Runtime.getRuntime().maxMemory() / 4);
+
+        if (enabled) {
+            registerMetrics();
+            logger.info("In-flight memory budget {} MB, per table {}, resuming below {}%",
+                    total.budget >> 20, tableBudgets, Math.round(lowWatermark * 100));
+        }
+    }
+
+    /**
+     * Governor that neither counts nor pauses
+     */
+    public static MemoryGovernor unbounded() {
+        return new MemoryGovernor(false, Long.MAX_VALUE, Map.of(), 1.0, () -> null, KeyRouting.valueFirst(),
+                new SimpleMeterRegistry());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Count bytes held for an event of a topic, pausing consumption if a budget is reached
+     */
+    public void reserve(String topic, long bytes) {
+        if (!enabled || bytes == 0) {
+            return;
+        }
+        Usage table = table(topic);
+        boolean over = total.add(bytes) >= total.budget && !total.paused;
+        if (table != null && table.add(bytes) >= table.budget && !table.paused) {
+            pause(table);
+        }
+        if (over) {
+            pause(total);
+        }
+    }
+
+    /**
+     * Return bytes reserved for an acknowledged event, resuming consumption once usage is low enough
+     */
+    public void release(String topic, long bytes) {
+        if (!enabled || bytes == 0) {
+            return;
+        }
+        Usage table = table(topic);
+        total.add(-bytes);
+        if (table != null) {
+            table.add(-bytes);
+        }
+        if (pausedBudgets > 0) {
+            resumeBelowLowWatermark();
+        }
+    }
+
+    public long used() {
+        return total.used.get();
+    }
+
+    public long used(String tableName) {
+        Usage usage = tables.get(tableName);
+        return usage != null ? usage.used.get() : 0;
+    }
+
+    public long getBudget() {
+        return total.budget;
+    }
+
+    /**
+     * True while any budget holds partitions paused
+     */
+    public boolean isPaused() {
+        return pausedBudgets > 0;
+    }
+
+    private Usage table(String topic) {
+        String tableName = keyRouting.tableOf(topic);
+        if (tableName == null) {
+            return null;
+        }
+        Usage usage = tables.get(tableName);
+        if (usage == null) {
+            usage = tables.computeIfAbsent(tableName, t -> {
+                Usage created = new Usage(t, tableBudgets.getOrDefault(t, Long.MAX_VALUE));
+                registerTableMetrics(created);
+                return created;
+            });
+        }
+        return usage;
+    }
+
+    private synchronized void pause(Usage usage) {
+        if (usage.paused) {
+            return;
+        }
+        MessageListenerContainer listener = container.get();
+        if (listener == null) {
+            return;
+        }
+        Collection<TopicPartition> assigned = listener.getAssignedPartitions();
+        if (assigned == null) {
+            return;
+        }
+
+        List<TopicPartition> paused = new ArrayList<>();
+        for (TopicPartition partition : assigned) {
+            if (usage.table != null && !usage.table.equals(keyRouting.tableOf(partition.topic()))) {
+                continue;
+            }
+            Set<Usage> budgets = pausedBy.get(partition);
+            if (budgets == null) {
+                if (listener.isPartitionPauseRequested(partition)) {
+                    continue;
+                }
+                listener.pausePartition(partition);
+                paused.add(partition);
+                budgets = new HashSet<>();
+                pausedBy.put(partition, budgets);
+            }
+            budgets.add(usage);
+        }
+        if (pausedBudgets == 0) {
+            pausedSinceNanos = System.nanoTime();
+        }
+        usage.paused = true;
+        pausedBudgets++;
+        logger.info("{} holds {} MB of in-flight events, budget {} MB: paused {}",
+                usage.table != null ? "Table " + usage.table : "Pipeline", usage.used.get() >> 20,
+                usage.budget >> 20, paused);
+    }
+
+    private synchronized void resumeBelowLowWatermark() {
+        for (Usage usage : pausedUsages()) {
+            if (usage.used.get() > usage.budget * lowWatermark) {
+                continue;
+            }
+            usage.paused = false;
+            pausedBudgets--;
+
+            MessageListenerContainer listener = container.get();
+            List<TopicPartition> resumed = new ArrayList<>();
+            for (var it = pausedBy.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<TopicPartition, Set<Usage>> entry = it.next();
+                if (entry.getValue().remove(usage) && entry.getValue().isEmpty()) {
+                    it.remove();
+                    if (listener != null) {
+                        listener.resumePartition(entry.getKey());
+                    }
+                    resumed.add(entry.getKey());
+                }
+            }
+            logger.info("{} in-flight events down to {} MB: resumed {}",
+                    usage.table != null ? "Table " + usage.table : "Pipeline", usage.used.get() >> 20, resumed);
+        }
+        if (pausedBudgets == 0 && pausedSinceNanos != 0) {
+            pausedNanos += System.nanoTime() - pausedSinceNanos;
+            pausedSinceNanos = 0;
+        }
+    }
+
+    private List<Usage> pausedUsages() {
+        List<Usage> paused = new ArrayList<>();
+        if (total.paused) {
+            paused.add(total);
+        }
+        for (Usage usage : tables.values()) {
+            if (usage.paused) {
+                paused.add(usage);
+            }
+        }
+        return paused;
+    }
+
+    private synchronized double pausedSeconds() {
+        long nanos = pausedNanos + (pausedSinceNanos != 0 ? System.nanoTime() - pausedSinceNanos : 0);
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private synchronized int pausedPartitions() {
+        return pausedBy.size();
+    }
+
+    private void registerMetrics() {
+        Gauge.builder("streamshift.memory.used", total.used, AtomicLong::get)
+                .description("Estimated heap held by in-flight events")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("streamshift.memory.peak", total.peak, AtomicLong::get)
+                .description("Highest estimated heap held by in-flight events")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("streamshift.memory.budget", total, usage -> usage.budget)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("streamshift.memory.paused.partitions", this, MemoryGovernor::pausedPartitions)
+                .description("Live consumer partitions paused for memory")
+                .register(meterRegistry);
+        FunctionCounter.builder("streamshift.memory.paused", this, MemoryGovernor::pausedSeconds)
+                .description("Time consumption was paused for memory")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    private void registerTableMetrics(Usage usage) {
+        Gauge.builder("streamshift.memory.table.used", usage.used, AtomicLong::get)
+                .tag("table", usage.table)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("streamshift.memory.table.peak", usage.peak, AtomicLong::get)
+                .tag("table", usage.table)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Bytes from a size like 256MB; a plain number is bytes
+     */
+    static long parseBudget(String budget) {
+        return budget == null || budget.isBlank() ? 0 : DataSize.parse(budget.trim()).toBytes();
+    }
+
+    /**
+     * Per-table budgets from table:size pairs, e.g. documents:64MB,orders:16MB
+     */
+    static Map<String, Long> parseTableBudgets(String tableBudgets) {
+        Map<String, Long> budgets = new LinkedHashMap<>();
+        if (tableBudgets == null || tableBudgets.isBlank()) {
+            return budgets;
+        }
+        for (String entry : tableBudgets.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid table memory budget '" + entry + "', expected table:size");
+            }
+            budgets.put(parts[0].trim(), parseBudget(parts[1]));
+        }
+        return budgets;
+    }
+
+    /**
+     * Bytes held against one budget, and the most it has held
+     */
+    private static final class Usage {
+
+        private final String table;
+        private final long budget;
+        private final AtomicLong used = new AtomicLong();
+        private final AtomicLong peak = new AtomicLong();
+        // Guarded by the governor
+        private volatile boolean paused;
+
+        Usage(String table, long budget) {
+            this.table = table;
+            this.budget = budget;
+        }
+
+        long add(long bytes) {
+            long now = used.addAndGet(bytes);
+            if (now > peak.get()) {
+                peak.accumulateAndGet(now, Math::max);
+            }
+            return now;
+        }
+    }
+}
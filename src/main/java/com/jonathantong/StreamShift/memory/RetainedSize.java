@@ -0,0 +1,98 @@
+package com.jonathantong.StreamShift.memory;
+
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Estimates of the heap an in-flight event keeps reachable, from the lengths of its arrays and
+ * strings plus 64-bit JVM object headers. Shared objects, e.g. canonical column names and
+ * cached boxed values, are not counted.
+ */
+public final class RetainedSize {
+
+    static final int OBJECT_HEADER = 16;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 8;
+    // String object with its byte[], before the characters
+    static final int STRING_OVERHEAD = 24 + ARRAY_HEADER;
+    // Headers, key and acknowledgment referenced by a pipeline slot
+    static final int RECORD_OVERHEAD = 96;
+
+    private RetainedSize() {
+    }
+
+    /**
+     * A polled record's value, key and headers
+     */
+    public static long of(ConsumerRecord<String, byte[]> record) {
+        long size = RECORD_OVERHEAD + of(record.value()) + of(record.key());
+        for (Header header : record.headers()) {
+            size += OBJECT_HEADER + REFERENCE * 2 + of(header.key()) + of(header.value());
+        }
+        return size;
+    }
+
+    /**
+     * A decoded change's row images. Large values sliced from {@code recordValue} are already
+     * counted with the record.
+     */
+    public static long of(DecodedChange change, byte[] recordValue) {
+        return of(change.getBefore(), recordValue) + of(change.getAfter(), recordValue);
+    }
+
+    public static long of(RowBuffer row, byte[] recordValue) {
+        if (row == null) {
+            return 0;
+        }
+        long size = 0;
+        for (int i = 0; i < row.size(); i++) {
+            size += REFERENCE * 2 + of(row.value(i), recordValue);
+        }
+        return size;
+    }
+
+    static long of(Object value, byte[] recordValue) {
+        if (value == null || value instanceof Boolean) {
+            return 0;
+        }
+        if (value instanceof String string) {
+            return of(string);
+        }
+        if (value instanceof LargeValue large) {
+            return OBJECT_HEADER + REFERENCE + 16 + (large.array() == recordValue ? 0 : of(large.array()));
+        }
+        if (value instanceof byte[] bytes) {
+            return of(bytes);
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Float) {
+            return OBJECT_HEADER;
+        }
+        if (value instanceof BigDecimal decimal) {
+            return OBJECT_HEADER + 8 + of(decimal.unscaledValue());
+        }
+        if (value instanceof BigInteger integer) {
+            return of(integer);
+        }
+        // Long, Double and small value objects
+        return OBJECT_HEADER + 8;
+    }
+
+    static long of(String string) {
+        // Latin-1 strings take a byte per character; others two, which this undercounts
+        return string != null ? STRING_OVERHEAD + string.length() : 0;
+    }
+
+    static long of(BigInteger integer) {
+        return OBJECT_HEADER + 24 + ARRAY_HEADER + (integer.bitLength() / 32 + 1) * 4L;
+    }
+
+    static long of(byte[] bytes) {
+        return bytes != null ? ARRAY_HEADER + bytes.length : 0;
+    }
+}
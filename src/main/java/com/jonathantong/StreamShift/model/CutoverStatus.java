@@ -0,0 +1,217 @@
+package com.jonathantong.StreamShift.model;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Progress of a cutover: lag while writes are open, then the freeze window from fencing writes
+ * on the source until the target is drained, verified and its sequences are synced
+ */
+public class CutoverStatus {
+
+    public enum State {
+        MONITORING,
+        READY_TO_FENCE,
+        DRAINING,
+        VERIFYING,
+        SYNCING_SEQUENCES,
+        COMPLETED,
+        VERIFICATION_FAILED,
+        CANCELLED,
+        FAILED
+    }
+
+    private final long lagThreshold;
+    private final Instant startedAt = Instant.now();
+
+    private volatile State state = State.MONITORING;
+    private volatile long lag = -1;
+    private volatile Instant readyAt;
+    private volatile Instant fencedAt;
+    private volatile Instant drainedAt;
+    private volatile Instant verifiedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile boolean fenceRequested;
+    private volatile boolean cancelRequested;
+
+    // Events not yet applied per table, from the live consumer group's committed offsets
+    private final Map<String, Long> tableLag = new ConcurrentHashMap<>();
+    private final List<TableCheck> tableChecks = new CopyOnWriteArrayList<>();
+    private final List<SequenceSync> sequences = new CopyOnWriteArrayList<>();
+
+    public CutoverStatus(long lagThreshold) {
+        this.lagThreshold = lagThreshold;
+    }
+
+    public boolean isActive() {
+        return state == State.MONITORING || state == State.READY_TO_FENCE || state == State.DRAINING
+                || state == State.VERIFYING || state == State.SYNCING_SEQUENCES;
+    }
+
+    public boolean isFenced() {
+        return fencedAt != null;
+    }
+
+    /**
+     * Time writes have been frozen so far, or in total once finished; zero before fencing
+     */
+    public long getFreezeMillis() {
+        if (fencedAt == null) {
+            return 0;
+        }
+        return Duration.between(fencedAt, finishedAt != null ? finishedAt : Instant.now()).toMillis();
+    }
+
+    public long getDrainMillis() {
+        return fencedAt != null && drainedAt != null ? Duration.between(fencedAt, drainedAt).toMillis() : 0;
+    }
+
+    public long getVerifyMillis() {
+        return drainedAt != null && verifiedAt != null ? Duration.between(drainedAt, verifiedAt).toMillis() : 0;
+    }
+
+    public long getSequenceMillis() {
+        return verifiedAt != null && finishedAt != null ? Duration.between(verifiedAt, finishedAt).toMillis() : 0;
+    }
+
+    public void requestFence() {
+        this.fenceRequested = true;
+    }
+
+    public boolean isFenceRequested() {
+        return fenceRequested;
+    }
+
+    public void requestCancel() {
+        this.cancelRequested = true;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public void updateLag(Map<String, Long> lagByTable) {
+        tableLag.putAll(lagByTable);
+        tableLag.keySet().retainAll(lagByTable.keySet());
+        long total = 0;
+        for (long tableLagValue : lagByTable.values()) {
+            total += tableLagValue;
+        }
+        this.lag = total;
+    }
+
+    // Getters and Setters
+    public long getLagThreshold() { return lagThreshold; }
+    public Instant getStartedAt() { return startedAt; }
+
+    public State getState() { return state; }
+    public void setState(State state) { this.state = state; }
+
+    public long getLag() { return lag; }
+    public Map<String, Long> getTableLag() { return tableLag; }
+
+    public Instant getReadyAt() { return readyAt; }
+    public void setReadyAt(Instant readyAt) { this.readyAt = readyAt; }
+
+    public Instant getFencedAt() { return fencedAt; }
+    public void setFencedAt(Instant fencedAt) { this.fencedAt = fencedAt; }
+
+    public Instant getDrainedAt() { return drainedAt; }
+    public void setDrainedAt(Instant drainedAt) { this.drainedAt = drainedAt; }
+
+    public Instant getVerifiedAt() { return verifiedAt; }
+    public void setVerifiedAt(Instant verifiedAt) { this.verifiedAt = verifiedAt; }
+
+    public Instant getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(Instant finishedAt) { this.finishedAt = finishedAt; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public List<TableCheck> getTableChecks() { return tableChecks; }
+    public List<SequenceSync> getSequences() { return sequences; }
+
+    /**
+     * Row count and checksum of a table on the source and the target
+     */
+    public static class TableCheck {
+
+        public enum Result {
+            MATCH,
+            MISMATCH,
+            // Row filters drop source rows on purpose, so counts are reported but not compared
+            FILTERED,
+            FAILED
+        }
+
+        private final String tableName;
+        private final Result result;
+        private final long sourceRows;
+        private final long targetRows;
+        private final BigDecimal sourceChecksum;
+        private final BigDecimal targetChecksum;
+        private final int columns;
+        private final String error;
+
+        public TableCheck(String tableName, Result result, long sourceRows, long targetRows,
+                          BigDecimal sourceChecksum, BigDecimal targetChecksum, int columns, String error) {
+            this.tableName = tableName;
+            this.result = result;
+            this.sourceRows = sourceRows;
+            this.targetRows = targetRows;
+            this.sourceChecksum = sourceChecksum;
+            this.targetChecksum = targetChecksum;
+            this.columns = columns;
+            this.error = error;
+        }
+
+        public static TableCheck failed(String tableName, String error) {
+            return new TableCheck(tableName, Result.FAILED, -1, -1, null, null, 0, error);
+        }
+
+        public String getTableName() { return tableName; }
+        public Result getResult() { return result; }
+        public long getSourceRows() { return sourceRows; }
+        public long getTargetRows() { return targetRows; }
+        public BigDecimal getSourceChecksum() { return sourceChecksum; }
+        public BigDecimal getTargetChecksum() { return targetChecksum; }
+        public int getColumns() { return columns; }
+        public String getError() { return error; }
+    }
+
+    /**
+     * A target sequence set past the values the source sequence handed out
+     */
+    public static class SequenceSync {
+
+        private final String tableName;
+        private final String column;
+        private final String sequence;
+        private final long sourceValue;
+        private final long targetValue;
+        private final boolean created;
+
+        public SequenceSync(String tableName, String column, String sequence, long sourceValue, long targetValue,
+                            boolean created) {
+            this.tableName = tableName;
+            this.column = column;
+            this.sequence = sequence;
+            this.sourceValue = sourceValue;
+            this.targetValue = targetValue;
+            this.created = created;
+        }
+
+        public String getTableName() { return tableName; }
+        public String getColumn() { return column; }
+        public String getSequence() { return sequence; }
+        public long getSourceValue() { return sourceValue; }
+        public long getTargetValue() { return targetValue; }
+        public boolean isCreated() { return created; }
+    }
+}
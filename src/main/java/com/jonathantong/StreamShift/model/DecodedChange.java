@@ -0,0 +1,89 @@
+package com.jonathantong.StreamShift.model;
+
+/**
+ * Reusable decoded Debezium change event: operation, source table and the before and after
+ * row images. The hot-path counterpart of {@link ChangeEvent}, filled in place by
+ * {@code ChangeEventDecoder} without building JSON trees or maps.
+ */
+public class DecodedChange {
+
+    private String operation;
+    private String databaseName;
+    private String tableName;
+    private long timestampMs;
+
+    private final RowBuffer before = new RowBuffer();
+    private final RowBuffer after = new RowBuffer();
+    private boolean hasBefore;
+    private boolean hasAfter;
+    private Object[] filterValues = new Object[0];
+
+    public void reset() {
+        operation = null;
+        databaseName = null;
+        tableName = null;
+        timestampMs = 0;
+        before.clear();
+        after.clear();
+        hasBefore = false;
+        hasAfter = false;
+    }
+
+    public String getOperation() { return operation; }
+    public void setOperation(String operation) { this.operation = operation; }
+
+    public String getDatabaseName() { return databaseName; }
+    public void setDatabaseName(String databaseName) { this.databaseName = databaseName; }
+
+    public String getTableName() { return tableName; }
+    public void setTableName(String tableName) { this.tableName = tableName; }
+
+    public long getTimestampMs() { return timestampMs; }
+    public void setTimestampMs(long timestampMs) { this.timestampMs = timestampMs; }
+
+    /**
+     * Before image, or null if the event has none
+     */
+    public RowBuffer getBefore() { return hasBefore ? before : null; }
+
+    /**
+     * After image, or null if the event has none
+     */
+    public RowBuffer getAfter() { return hasAfter ? after : null; }
+
+    /**
+     * Buffer to decode the before image into; marks it present
+     */
+    public RowBuffer beforeBuffer() {
+        hasBefore = true;
+        before.clear();
+        return before;
+    }
+
+    /**
+     * Buffer to decode the after image into; marks it present
+     */
+    public RowBuffer afterBuffer() {
+        hasAfter = true;
+        after.clear();
+        return after;
+    }
+
+    /**
+     * Drop the after image, e.g. when a projection turns an update into a delete
+     */
+    public void removeAfter() {
+        hasAfter = false;
+        after.clear();
+    }
+
+    /**
+     * Reusable scratch for the values row filters read, which need not be part of the images
+     */
+    public Object[] filterValues(int size) {
+        if (filterValues.length < size) {
+            filterValues = new Object[size];
+        }
+        return filterValues;
+    }
+}
@@ -0,0 +1,142 @@
+package com.jonathantong.StreamShift.model;
+
+import org.springframework.jdbc.core.SqlTypeValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * A column value above the decoder's large-value threshold, held as the bytes it arrived in
+ * instead of a String: UTF-8 text sliced from the record's JSON, or raw bytes from a binary
+ * format. The record is not copied when its text needs no unescaping.
+ *
+ * Bound by the column's type, passed as the parameter's type name from the target's cached table
+ * metadata: bytea columns stream the bytes, decoding Debezium's base64 text on the fly; json and
+ * jsonb columns take the document as is, and other columns take it as text. Without a type name,
+ * raw bytes bind as bytea and text is sent untyped for the server to read as the column's type.
+ */
+public final class LargeValue implements SqlTypeValue {
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final boolean binary;
+
+    private LargeValue(byte[] bytes, int offset, int length, boolean binary) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.binary = binary;
+    }
+
+    /**
+     * UTF-8 text, e.g. a JSON document or Debezium's base64 encoding of a bytea value
+     */
+    public static LargeValue text(byte[] utf8, int offset, int length) {
+        return new LargeValue(utf8, offset, length, false);
+    }
+
+    /**
+     * Raw bytes, as binary formats carry a bytea value
+     */
+    public static LargeValue binary(byte[] bytes) {
+        return new LargeValue(bytes, 0, bytes.length, true);
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Backing array of the value's bytes, from {@link #offset()} for {@link #length()} bytes
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * The value's bytes for a bytea column: raw bytes, or decoded from base64 text
+     */
+    public InputStream binaryStream() {
+        InputStream stream = new ByteArrayInputStream(bytes, offset, length);
+        return binary ? stream : Base64.getDecoder().wrap(stream);
+    }
+
+    /**
+     * Length of {@link #binaryStream()}
+     */
+    public int binaryLength() {
+        if (binary) {
+            return length;
+        }
+        int padding = 0;
+        for (int i = offset + length - 1; i >= offset && padding < 2 && bytes[i] == '='; i--) {
+            padding++;
+        }
+        return length / 4 * 3 - padding;
+    }
+
+    /**
+     * The value's bytes as UTF-8 text: the text itself, or the base64 encoding of raw bytes
+     */
+    public byte[] textBytes() {
+        if (binary) {
+            return Base64.getEncoder().encode(bytes);
+        }
+        return offset == 0 && length == bytes.length ? bytes : Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+
+    @Override
+    public void setTypeValue(PreparedStatement ps, int paramIndex, int sqlType, String typeName) throws SQLException {
+        if ("bytea".equals(typeName) || typeName == null && binary) {
+            ps.setBinaryStream(paramIndex, binaryStream(), binaryLength());
+        } else if (typeName == null || "json".equals(typeName) || "jsonb".equals(typeName)) {
+            ps.setObject(paramIndex, toString(), Types.OTHER);
+        } else {
+            // The driver reads character streams into a String before sending them
+            ps.setString(paramIndex, toString());
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LargeValue other) || binary != other.binary) {
+            return false;
+        }
+        return Arrays.equals(bytes, offset, offset + length, other.bytes, other.offset, other.offset + other.length);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = binary ? 1 : 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    /**
+     * The value as text; materializes it, as row filters and logging need
+     */
+    @Override
+    public String toString() {
+        return binary ? Base64.getEncoder().encodeToString(bytes) : new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,81 @@
+package com.jonathantong.StreamShift.model;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Progress of a single-table resync
+ */
+public class ResyncStatus {
+
+    public enum State {
+        STARTING,
+        CATCHING_UP,
+        HANDING_OVER,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    private final String tableName;
+    private final String topic;
+    private final Instant requestedFrom;
+    private final Long requestedOffset;
+    private final Instant startedAt = Instant.now();
+
+    private volatile State state = State.STARTING;
+    private volatile long eventsRead;
+    private volatile long rowsApplied;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile boolean cancelRequested;
+
+    // Per partition: the resync consumer's position and the live consumer's committed offset
+    private final Map<Integer, Long> positions = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> liveOffsets = new ConcurrentHashMap<>();
+
+    public ResyncStatus(String tableName, String topic, Instant requestedFrom, Long requestedOffset) {
+        this.tableName = tableName;
+        this.topic = topic;
+        this.requestedFrom = requestedFrom;
+        this.requestedOffset = requestedOffset;
+    }
+
+    public boolean isActive() {
+        return state == State.STARTING || state == State.CATCHING_UP || state == State.HANDING_OVER;
+    }
+
+    public void requestCancel() {
+        this.cancelRequested = true;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    // Getters and Setters
+    public String getTableName() { return tableName; }
+    public String getTopic() { return topic; }
+    public Instant getRequestedFrom() { return requestedFrom; }
+    public Long getRequestedOffset() { return requestedOffset; }
+    public Instant getStartedAt() { return startedAt; }
+
+    public State getState() { return state; }
+    public void setState(State state) { this.state = state; }
+
+    public long getEventsRead() { return eventsRead; }
+    public void setEventsRead(long eventsRead) { this.eventsRead = eventsRead; }
+
+    public long getRowsApplied() { return rowsApplied; }
+    public void setRowsApplied(long rowsApplied) { this.rowsApplied = rowsApplied; }
+
+    public Instant getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(Instant finishedAt) { this.finishedAt = finishedAt; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public Map<Integer, Long> getPositions() { return positions; }
+    public Map<Integer, Long> getLiveOffsets() { return liveOffsets; }
+}
@@ -0,0 +1,145 @@
+package com.jonathantong.StreamShift.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reusable row image: column names and values in event order.
+ *
+ * Grows to the widest row it has held and is then refilled in place, so a buffer owned by a
+ * thread or a pipeline slot stops allocating once the stream reaches steady state.
+ */
+public class RowBuffer {
+
+    private String[] columns;
+    private Object[] values;
+    private int size;
+
+    public RowBuffer() {
+        this(16);
+    }
+
+    public RowBuffer(int capacity) {
+        this.columns = new String[capacity];
+        this.values = new Object[capacity];
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    public void add(String column, Object value) {
+        if (size == columns.length) {
+            ensureCapacity(size * 2);
+        }
+        columns[size] = column;
+        values[size] = value;
+        size++;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > columns.length) {
+            columns = Arrays.copyOf(columns, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String column(int index) {
+        return columns[index];
+    }
+
+    public Object value(int index) {
+        return values[index];
+    }
+
+    /**
+     * Position of a column, or -1. Column names from the decoder are canonical instances,
+     * so the identity check usually succeeds before equals is needed.
+     */
+    public int indexOf(String column) {
+        for (int i = 0; i < size; i++) {
+            if (columns[i] == column) {
+                return i;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public Object get(String column) {
+        int index = indexOf(column);
+        return index >= 0 ? values[index] : null;
+    }
+
+    /**
+     * True if this row has exactly these columns in this order
+     */
+    public boolean hasColumns(String[] expected) {
+        if (expected.length != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (columns[i] != expected[i] && !columns[i].equals(expected[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy of the column names, for building statements on a cache miss
+     */
+    public List<String> columnList() {
+        return List.of(Arrays.copyOf(columns, size));
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(columns[i], values[i]);
+        }
+        return map;
+    }
+
+    /**
+     * Refill from a Debezium row image, with the same value types as
+     * {@code ChangeEventApplier.convertJsonToMap}
+     */
+    public RowBuffer fill(JsonNode row) {
+        clear();
+        row.fields().forEachRemaining(entry -> {
+            JsonNode value = entry.getValue();
+            if (value.isNull()) {
+                add(entry.getKey(), null);
+            } else if (value.isBoolean()) {
+                add(entry.getKey(), value.booleanValue());
+            } else if (value.isInt()) {
+                add(entry.getKey(), value.intValue());
+            } else if (value.isLong()) {
+                add(entry.getKey(), value.longValue());
+            } else if (value.isDouble()) {
+                add(entry.getKey(), value.doubleValue());
+            } else {
+                add(entry.getKey(), value.asText());
+            }
+        });
+        return this;
+    }
+}
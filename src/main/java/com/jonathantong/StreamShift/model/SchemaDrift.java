@@ -0,0 +1,74 @@
+package com.jonathantong.StreamShift.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differences between a source table and its target table, in target column names:
+ * columns to add and columns to retype with their target types, and columns gone from the source.
+ */
+public class SchemaDrift {
+
+    private final String tableName;
+    private final Map<String, String> addedColumns;
+    private final Map<String, String> retypedColumns;
+    private final List<String> droppedColumns;
+
+    public SchemaDrift(String tableName, Map<String, String> addedColumns,
+                       Map<String, String> retypedColumns, List<String> droppedColumns) {
+        this.tableName = tableName;
+        this.addedColumns = addedColumns;
+        this.retypedColumns = retypedColumns;
+        this.droppedColumns = droppedColumns;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public Map<String, String> getAddedColumns() {
+        return addedColumns;
+    }
+
+    public Map<String, String> getRetypedColumns() {
+        return retypedColumns;
+    }
+
+    public List<String> getDroppedColumns() {
+        return droppedColumns;
+    }
+
+    public boolean isEmpty() {
+        return addedColumns.isEmpty() && retypedColumns.isEmpty() && droppedColumns.isEmpty();
+    }
+
+    /**
+     * One ALTER TABLE statement for the whole drift, so the table is locked once. Added columns are
+     * nullable, as existing rows have no value for them. Dropped columns are dropped, or kept with
+     * their values and made nullable so rows without them can still be written.
+     */
+    public String alterTableSql(boolean dropColumns) {
+        List<String> actions = new ArrayList<>();
+        addedColumns.forEach((column, type) ->
+                actions.add("ADD COLUMN IF NOT EXISTS \"" + column + "\" " + type));
+        retypedColumns.forEach((column, type) ->
+                actions.add("ALTER COLUMN \"" + column + "\" TYPE " + type + " USING \"" + column + "\"::" + type));
+        for (String column : droppedColumns) {
+            actions.add(dropColumns
+                    ? "DROP COLUMN IF EXISTS \"" + column + "\""
+                    : "ALTER COLUMN \"" + column + "\" DROP NOT NULL");
+        }
+        return "ALTER TABLE \"" + tableName + "\" " + String.join(", ", actions);
+    }
+
+    @Override
+    public String toString() {
+        return "SchemaDrift{" +
+                "tableName='" + tableName + '\'' +
+                ", addedColumns=" + addedColumns +
+                ", retypedColumns=" + retypedColumns +
+                ", droppedColumns=" + droppedColumns +
+                '}';
+    }
+}
@@ -1,6 +1,8 @@
 package com.jonathantong.StreamShift.model;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Metadata for a database table
@@ -9,10 +11,22 @@ public class TableMetadata {
 
     private final String tableName;
     private final List<String> primaryKeyColumns;
+    // Column types by name, and columns that are NOT NULL without a default; empty when unknown
+    private final Map<String, String> columnTypes;
+    private final Set<String> requiredColumns;
+    // Last row layout seen to fit the columns, compared by identity first
+    private volatile String[] knownLayout = new String[0];
 
     public TableMetadata(String tableName, List<String> primaryKeyColumns) {
+        this(tableName, primaryKeyColumns, Map.of(), Set.of());
+    }
+
+    public TableMetadata(String tableName, List<String> primaryKeyColumns,
+                         Map<String, String> columnTypes, Set<String> requiredColumns) {
         this.tableName = tableName;
         this.primaryKeyColumns = primaryKeyColumns;
+        this.columnTypes = columnTypes;
+        this.requiredColumns = requiredColumns;
     }
 
     public String getTableName() {
@@ -23,6 +37,22 @@ public class TableMetadata {
         return primaryKeyColumns;
     }
 
+    public Map<String, String> getColumnTypes() {
+        return columnTypes;
+    }
+
+    public Set<String> getRequiredColumns() {
+        return requiredColumns;
+    }
+
+    public String[] getKnownLayout() {
+        return knownLayout;
+    }
+
+    public void setKnownLayout(String[] knownLayout) {
+        this.knownLayout = knownLayout;
+    }
+
     public boolean hasPrimaryKey() {
         return primaryKeyColumns != null && !primaryKeyColumns.isEmpty();
     }
@@ -32,6 +62,7 @@ public class TableMetadata {
         return "TableMetadata{" +
                 "tableName='" + tableName + '\'' +
                 ", primaryKeyColumns=" + primaryKeyColumns +
+                ", columnTypes=" + columnTypes +
                 '}';
     }
 }
\ No newline at end of file
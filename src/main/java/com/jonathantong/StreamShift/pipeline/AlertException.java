@@ -0,0 +1,15 @@
+package com.jonathantong.StreamShift.pipeline;
+
+/**
+ * Thrown to a waiting stage when the pipeline is shutting down
+ */
+public class AlertException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    static final AlertException INSTANCE = new AlertException();
+
+    private AlertException() {
+        super("Pipeline alerted", null, false, false);
+    }
+}
@@ -0,0 +1,171 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import com.jonathantong.StreamShift.sharding.ShardRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates apply lane threads and bounds how many lanes may hold a target connection at once.
+ *
+ * With {@code streamshift.pipeline.apply-threads=virtual} on a Java 21+ runtime, apply lanes run
+ * on virtual threads, so thousands of lanes cost a few hundred bytes of heap each instead of a
+ * platform thread stack. The build still targets Java 17, so virtual threads are created
+ * reflectively and the executor falls back to platform threads on older runtimes.
+ *
+ * Either way, a semaphore sized to the TargetDB-Pool maximum gates every apply, so lanes queue
+ * here in FIFO order rather than piling up inside Hikari's getConnection with its timeout.
+ * With a sharded target or fan-out targets each pool has its own semaphore sized to it, so
+ * lanes stuck on a slow database never hold permits that another database's lanes wait for.
+ *
+ * Monitors held across blocking calls pin a virtual thread to its carrier. On the apply path:
+ * 	- StreamShift code locks with ReentrantLock: fingerprint cache, wait strategies, publish, the
+ * 	  lane-side value decode, the R2DBC writer's connections and the foreign key graph load
+ * 	- The one monitor left, MemoryGovernor's pause bookkeeping when a lane decodes a key-routed
+ * 	  value over budget, only updates memory and requests a pause, no I/O
+ * 	- HikariCP 5 borrow/return and pgjdbc 42.6 statement execution use j.u.c locks, not monitors;
+ * 	  the remaining synchronized blocks in QueryExecutorImpl only guard binary OID sets, no I/O
+ * 	- Logback 1.4 appenders lock with ReentrantLock
+ * Verify on a live run with {@code -Djdk.tracePinnedThreads=short} or the JFR event
+ * {@code jdk.VirtualThreadPinned}.
+ */
+@Component
+public class ApplyExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApplyExecutor.class);
+
+    private final boolean virtual;
+    // One per target shard
+    private final Semaphore[] permits;
+    private final int[] maxPermits;
+
+    @Autowired
+    public ApplyExecutor(
+            @Value("${streamshift.pipeline.apply-threads:platform}") String mode,
+            @Qualifier("targetDataSource") DataSource targetDataSource,
+            MeterRegistry meterRegistry) {
+        this(mode, targetPoolSizes(targetDataSource));
+
+        for (int shard = 0; shard < permits.length; shard++) {
+            Gauge.builder("streamshift.apply.permits.available", permits[shard], Semaphore::availablePermits)
+                    .tag("shard", String.valueOf(shard))
+                    .register(meterRegistry);
+            Gauge.builder("streamshift.apply.permits.waiting", permits[shard], Semaphore::getQueueLength)
+                    .tag("shard", String.valueOf(shard))
+                    .description("Apply lanes waiting for a target connection permit")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * @param maxPermits concurrent applies allowed per target shard, 0 for unbounded
+     */
+    public ApplyExecutor(String mode, int... maxPermits) {
+        boolean wantVirtual = "virtual".equalsIgnoreCase(mode.trim());
+        if (wantVirtual && !virtualThreadsAvailable()) {
+            logger.warn("Virtual apply threads need Java 21+, running on {} - using platform threads",
+                    Runtime.version());
+            wantVirtual = false;
+        }
+        this.virtual = wantVirtual;
+        this.maxPermits = new int[maxPermits.length];
+        this.permits = new Semaphore[maxPermits.length];
+        for (int shard = 0; shard < maxPermits.length; shard++) {
+            this.maxPermits[shard] = maxPermits[shard] > 0 ? maxPermits[shard] : Integer.MAX_VALUE;
+            this.permits[shard] = new Semaphore(this.maxPermits[shard], true);
+        }
+
+        logger.info("Apply lanes use {} threads, at most {} concurrent applies{}",
+                virtual ? "virtual" : "platform",
+                maxPermits[0] > 0 ? Arrays.toString(maxPermits).replaceAll("[\\[\\]]", "") : "unbounded",
+                maxPermits.length > 1 ? " per shard" : "");
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public int getMaxPermits(int shard) {
+        return maxPermits[shard];
+    }
+
+    /**
+     * Create an unstarted apply lane thread
+     */
+    public Thread newThread(String name, Runnable runnable) {
+        if (virtual) {
+            Thread thread = VirtualThreads.factory().newThread(runnable);
+            thread.setName(name);
+            return thread;
+        }
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Take a connection permit of a target shard; pair with {@link #release(int)} in a finally block
+     */
+    public void acquire(int shard) throws InterruptedException {
+        permits[shard].acquire();
+    }
+
+    public void release(int shard) {
+        permits[shard].release();
+    }
+
+    public static boolean virtualThreadsAvailable() {
+        return VirtualThreads.factory() != null;
+    }
+
+    private static int[] targetPoolSizes(DataSource dataSource) {
+        if (dataSource instanceof ShardRoutingDataSource routing) {
+            int[] sizes = new int[routing.getSlotCount()];
+            for (int slot = 0; slot < sizes.length; slot++) {
+                sizes[slot] = targetPoolSize(routing.getSlot(slot));
+            }
+            return sizes;
+        }
+        return new int[] {targetPoolSize(dataSource)};
+    }
+
+    private static int targetPoolSize(DataSource dataSource) {
+        if (dataSource instanceof HikariDataSource hikari) {
+            return hikari.getMaximumPoolSize();
+        }
+        return 0;
+    }
+
+    /**
+     * Looks up Thread.ofVirtual().factory() once; null on runtimes without virtual threads
+     */
+    private static final class VirtualThreads {
+        private static final ThreadFactory FACTORY = lookup();
+
+        static ThreadFactory factory() {
+            return FACTORY;
+        }
+
+        private static ThreadFactory lookup() {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+                return (ThreadFactory) factory.invoke(builder);
+            } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+                return null;
+            }
+        }
+    }
+}
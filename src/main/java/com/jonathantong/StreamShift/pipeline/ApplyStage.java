@@ -0,0 +1,331 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.fanout.FanoutTarget;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.service.ApplyStrategy;
+import com.jonathantong.StreamShift.service.ChangeBatch;
+import com.jonathantong.StreamShift.service.ChangeEventApplier;
+import com.jonathantong.StreamShift.tracing.TraceContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Apply stage of the {@link ChangeEventPipeline}: the lanes of every target, which apply or stage
+ * the events routed to them, flush staged changes at the end of each batch and hold changes to
+ * hot keys. Lanes share the applier and the per-shard connection permits.
+ *
+ * A lane also holds rows of related tables whose write failed because the row they reference,
+ * routed to another lane, is not on the target yet, and writes them again with backoff. Held rows
+ * pin the lane's sequence, so they are never acknowledged before they are written.
+ */
+final class ApplyStage {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApplyStage.class);
+
+    private static final long RETRY_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long MAX_RETRY_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ChangeEventApplier changeEventApplier;
+    private final ApplyExecutor applyExecutor;
+    private final DependencyScheduler dependencyScheduler;
+    private final DecodeStage decodeStage;
+    private final long holdNanos;
+    private final int maxBatchRows;
+    private final int ringSize;
+    private final BooleanSupplier draining;
+
+    private final Counter hotHeld;
+    private final Counter hotCombined;
+    private final Counter dependencyHeld;
+    // Per primary target shard
+    private final LongAdder[] shardApplied;
+    private final Timer[] shardLatency;
+
+    ApplyStage(ChangeEventApplier changeEventApplier, ApplyExecutor applyExecutor,
+               DependencyScheduler dependencyScheduler, DecodeStage decodeStage, long holdMs, int maxBatchRows,
+               int ringSize, int shards, BooleanSupplier draining, MeterRegistry meterRegistry) {
+        this.changeEventApplier = changeEventApplier;
+        this.applyExecutor = applyExecutor;
+        this.dependencyScheduler = dependencyScheduler;
+        this.decodeStage = decodeStage;
+        this.holdNanos = TimeUnit.MILLISECONDS.toNanos(holdMs);
+        this.maxBatchRows = maxBatchRows;
+        this.ringSize = ringSize;
+        this.draining = draining;
+
+        hotHeld = Counter.builder("streamshift.hotkeys.held")
+                .description("Changes to hot keys held back for write-combining")
+                .register(meterRegistry);
+        hotCombined = Counter.builder("streamshift.hotkeys.combined")
+                .description("Held changes combined into a later change to the same key")
+                .register(meterRegistry);
+        dependencyHeld = Counter.builder("streamshift.dependencies.held")
+                .description("Related rows held back until the rows they reference are on the target")
+                .register(meterRegistry);
+        shardApplied = new LongAdder[shards];
+        shardLatency = new Timer[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            LongAdder applied = shardApplied[shard] = new LongAdder();
+            String tag = String.valueOf(shard);
+            FunctionCounter.builder("streamshift.shard.applied", applied, LongAdder::sum)
+                    .tag("shard", tag)
+                    .description("Events applied or staged by the shard's lanes")
+                    .register(meterRegistry);
+            shardLatency[shard] = Timer.builder("streamshift.shard.latency")
+                    .tag("shard", tag)
+                    .description("Time from publish to apply on the shard")
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * A lane of a target writing to one ShardRoutingDataSource slot
+     *
+     * @param routes which events are the lane's
+     */
+    EventHandler lane(FanoutTarget target, int slot, Predicate<PipelineEvent> routes) {
+        return new Lane(target, slot, routes);
+    }
+
+    long applied(int shard) {
+        return shardApplied[shard].sum();
+    }
+
+    private boolean apply(Lane lane, PipelineEvent event, long sequence, boolean endOfBatch)
+            throws InterruptedException {
+        FanoutTarget target = lane.target;
+        int slot = lane.slot;
+        boolean routed = lane.routes.test(event)
+                && !target.skips(sequence, event.getTopic(), event.getPartition(), event.getOffset());
+        boolean mine = routed && decodeStage.ensureDecoded(event);
+        if (lane.batchFrom == Long.MAX_VALUE) {
+            lane.batchFrom = sequence;
+        }
+        if (mine) {
+            TraceContext.current().record(event.getTopic(), event.getPartition(), event.getOffset(), event.getValueSize());
+            DecodedChange change = event.getChange();
+            ApplyStrategy strategy = target.strategyFor(change.getTableName(), changeEventApplier);
+            if (lane.holds(event)) {
+                // Row-by-row tables combine hot keys with batched statements
+                lane.hold(change, sequence, strategy == ApplyStrategy.ROW ? ApplyStrategy.BATCH : strategy);
+            } else if (strategy == ApplyStrategy.ROW) {
+                if (!lane.staged.isEmpty() && dependencyScheduler.isScheduled(change.getTableName())) {
+                    // Staged rows it may reference go first
+                    flush(lane, lane.staged);
+                }
+                apply(lane, event, sequence);
+            } else {
+                try {
+                    changeEventApplier.stage(lane.staged, change, sequence, strategy);
+                } catch (Exception e) {
+                    logger.error("Error processing message from topic {} partition {} offset {}: {}",
+                            event.getTopic(), event.getPartition(), event.getOffset(), e.getMessage(), e);
+                }
+            }
+        }
+
+        if (!lane.staged.isEmpty() && (endOfBatch || lane.staged.size() >= target.maxBatchRows(maxBatchRows))) {
+            flush(lane, lane.staged);
+        }
+        if (endOfBatch) {
+            // Pipelined row writes are on the target before the lane publishes its sequence
+            awaitWrites(lane, event);
+            lane.batchFrom = Long.MAX_VALUE;
+            lane.releaseIfDue(sequence);
+        }
+        if (routed && !mine && target.isPrimary()) {
+            // Key-routed, but its value had nothing to apply
+            shardApplied[slot].increment();
+        }
+        if (mine) {
+            target.applied();
+            if (target.isPrimary()) {
+                shardApplied[slot].increment();
+                shardLatency[slot].record(System.nanoTime() - event.getPublishedNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        return mine;
+    }
+
+    private void apply(Lane lane, PipelineEvent event, long sequence) throws InterruptedException {
+        int held = lane.held.size();
+        applyExecutor.acquire(lane.slot);
+        try {
+            // A row whose referenced row is not on the target yet is held by the lane
+            changeEventApplier.apply(event.getChange(), lane.held, sequence);
+        } catch (Exception e) {
+            // Same policy as the synchronous listener: log and move on
+            logger.error("Error processing message from topic {} partition {} offset {}: {}",
+                    event.getTopic(), event.getPartition(), event.getOffset(), e.getMessage(), e);
+        } finally {
+            applyExecutor.release(lane.slot);
+        }
+        lane.waitForParents(held);
+    }
+
+    private void awaitWrites(Lane lane, PipelineEvent event) {
+        int held = lane.held.size();
+        try {
+            changeEventApplier.awaitWrites(lane.held, lane.batchFrom);
+        } catch (RuntimeException e) {
+            logger.error("Error waiting for writes up to topic {} partition {} offset {}: {}",
+                    event.getTopic(), event.getPartition(), event.getOffset(), e.getMessage(), e);
+        }
+        lane.waitForParents(held);
+    }
+
+    private void flush(Lane lane, ChangeBatch batch) throws InterruptedException {
+        int held = lane.held.size();
+        applyExecutor.acquire(lane.slot);
+        try {
+            // Staged rows may follow row by row writes of the same keys still in flight
+            changeEventApplier.awaitWrites(lane.held, lane.batchFrom);
+            changeEventApplier.flush(batch, lane.held);
+        } catch (Exception e) {
+            logger.error("Error flushing {} staged changes: {}", batch.size(), e.getMessage(), e);
+        } finally {
+            applyExecutor.release(lane.slot);
+        }
+        if (batch != lane.held) {
+            lane.waitForParents(held);
+        }
+    }
+
+    /**
+     * One apply lane: applies or stages the events routed to it and holds changes to hot keys and
+     * rows waiting for the rows they reference. Lane state is only touched by the lane's own thread.
+     */
+    private final class Lane implements EventHandler {
+
+        private final FanoutTarget target;
+        // ShardRoutingDataSource slot the lane writes to
+        private final int slot;
+        private final Predicate<PipelineEvent> routes;
+        private final ChangeBatch staged = new ChangeBatch();
+        private final ChangeBatch held = new ChangeBatch();
+        private long heldFrom = Long.MAX_VALUE;
+        private long releaseAtNanos;
+        // First sequence of the batch being processed, or Long.MAX_VALUE between batches
+        private long batchFrom = Long.MAX_VALUE;
+        // Held rows include rows whose referenced rows are not on the target yet
+        private boolean waiting;
+        private int attempts;
+        private long retryAtNanos;
+
+        Lane(FanoutTarget target, int slot, Predicate<PipelineEvent> routes) {
+            this.target = target;
+            this.slot = slot;
+            this.routes = routes;
+        }
+
+        @Override
+        public boolean onEvent(PipelineEvent event, long sequence, boolean endOfBatch) throws Exception {
+            return apply(this, event, sequence, endOfBatch);
+        }
+
+        @Override
+        public long heldFrom() {
+            return heldFrom;
+        }
+
+        @Override
+        public void onIdle() throws InterruptedException {
+            releaseIfDue(heldFrom);
+        }
+
+        /**
+         * True for hot keys, and for any key with changes already held so its changes stay in order
+         */
+        boolean holds(PipelineEvent event) {
+            if (holdNanos > 0 && event.isHot() && !draining.getAsBoolean()) {
+                return true;
+            }
+            if (held.isEmpty()) {
+                return false;
+            }
+            DecodedChange change = event.getChange();
+            RowBuffer row = "d".equals(change.getOperation()) ? change.getBefore() : change.getAfter();
+            return row != null && held.contains(change.getTableName(), row);
+        }
+
+        void hold(DecodedChange change, long sequence, ApplyStrategy strategy) {
+            int size = held.size();
+            try {
+                changeEventApplier.stage(held, change, sequence, strategy);
+            } catch (Exception e) {
+                logger.error("Error processing change to table {} at sequence {}: {}",
+                        change.getTableName(), sequence, e.getMessage(), e);
+            }
+            if (held.size() > size) {
+                (waiting ? dependencyHeld : hotHeld).increment();
+                if (heldFrom == Long.MAX_VALUE) {
+                    heldFrom = sequence;
+                    releaseAtNanos = System.nanoTime() + holdNanos;
+                }
+            }
+        }
+
+        /**
+         * Hold the rows added to held since it had {@code size} changes, whose referenced rows are
+         * not on the target yet
+         */
+        void waitForParents(int size) {
+            if (held.size() <= size) {
+                return;
+            }
+            dependencyHeld.increment(held.size() - size);
+            if (!waiting) {
+                waiting = true;
+                attempts = 0;
+                retryAtNanos = System.nanoTime() + RETRY_BACKOFF_NANOS;
+            }
+            heldFrom = Math.min(heldFrom, held.firstSequence());
+        }
+
+        /**
+         * Write held changes once held for hold-ms, at max-batch-rows, or before they pin half the
+         * ring; rows waiting for the rows they reference are written again with backoff until written
+         */
+        void releaseIfDue(long sequence) throws InterruptedException {
+            if (held.isEmpty()) {
+                return;
+            }
+            if (waiting) {
+                if (System.nanoTime() - retryAtNanos < 0) {
+                    return;
+                }
+            } else if (!draining.getAsBoolean() && System.nanoTime() - releaseAtNanos < 0
+                    && held.size() < target.maxBatchRows(maxBatchRows) && sequence - heldFrom < ringSize / 2) {
+                return;
+            }
+            hotCombined.increment(held.size() - held.netSize());
+            // Rows that still reference missing rows are staged back into held
+            flush(this, held);
+            if (held.isEmpty()) {
+                heldFrom = Long.MAX_VALUE;
+                waiting = false;
+                return;
+            }
+            waiting = true;
+            heldFrom = held.firstSequence();
+            attempts++;
+            if (attempts == 1 || attempts % 60 == 0) {
+                logger.warn("{} related rows still reference rows not on the target after {} attempts; "
+                        + "holding the lane from sequence {}", held.netSize(), attempts, heldFrom);
+            }
+            retryAtNanos = System.nanoTime() + Math.min(RETRY_BACKOFF_NANOS << Math.min(attempts, 6), MAX_RETRY_BACKOFF_NANOS);
+        }
+    }
+}
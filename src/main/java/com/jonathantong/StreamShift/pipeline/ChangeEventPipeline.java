@@ -0,0 +1,615 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.fanout.CheckpointStore;
+import com.jonathantong.StreamShift.fanout.FanoutTarget;
+import com.jonathantong.StreamShift.fanout.FanoutTargets;
+import com.jonathantong.StreamShift.hotkeys.HotKeyTracker;
+import com.jonathantong.StreamShift.memory.MemoryGovernor;
+import com.jonathantong.StreamShift.memory.RetainedSize;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.service.ChangeEventApplier;
+import com.jonathantong.StreamShift.service.ChangeEventDecoder;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import com.jonathantong.StreamShift.tracing.AckEvent;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Staged apply pipeline connected by a single preallocated ring buffer.
+ *
+ * 	poll (listener thread) -> decode x N -> route -> apply x M lanes -> ack
+ *
+ * Every stage owns a sequence and waits, with its own wait strategy, until the stages it
+ * depends on have passed a slot. Decode workers split slots by sequence, the router assigns
+ * each event a lane from the hash of (table, record key) so all changes to a row are applied
+ * by one lane in offset order, and the ack stage only acknowledges slots every lane has
+ * passed, so offsets are committed to Kafka strictly in order. The poll stage cannot wrap
+ * past the ack stage, which bounds the number of in-flight events to the ring size.
+ * {@link DecodeStage}, {@link RouteStage} and {@link ApplyStage} do the stages' work; this class
+ * wires them to the ring, publishes, checkpoints and acknowledges.
+ *
+ * Tables with a set-wise apply strategy are staged per lane and written when the lane reaches
+ * the end of the batch its barrier handed it (or max-batch-rows), before the lane publishes its
+ * sequence. Staged rows stay in their ring slots until then, and nothing is acknowledged early.
+ * A pipelined target writer's row writes are likewise awaited at the end of each batch.
+ *
+ * With a sharded target every shard gets its own apply-lanes lanes and connection permits, and
+ * the router picks the shard from the row's primary key before picking a lane within it, so a
+ * slow shard only holds up its own lanes. It can still fall at most a ring's worth of events
+ * behind the others: offsets are committed in order, so the ack stage waits for every lane.
+ *
+ * With fan-out targets every event is applied once per target, each target by its own lanes
+ * and batch policy, followed by a per-target checkpoint stage that records and saves how far
+ * the target got. The ack stage waits for every checkpoint stage, so Kafka offsets advance at
+ * the pace of the slowest target. If the ring stays full for detach-after-ms because of one
+ * fan-out target, that target is detached: its lanes pass events without applying them and its
+ * checkpoint keeps the first skipped offset per partition, replayed when the target is resumed.
+ *
+ * 	... -> route -> apply x M (primary) -> checkpoint (primary) -> ack
+ * 	             -> apply x M (reporting) -> checkpoint (reporting) ->
+ *
+ * With hot-key tracking the router also marks changes whose key is hot. Lanes hold those in a
+ * second batch across ring batches for up to hold-ms, so bursts of changes to a few keys combine
+ * into one write per key while cold keys still go out at the end of each batch. A lane holding
+ * changes publishes only up to the first held slot, so held slots are neither reused nor acknowledged.
+ *
+ * With key-first routing the decode stage reads only each record's topic and key: it drops
+ * tombstones and excluded tables, and routes the rest by table and primary key. The value is
+ * decoded by the first apply lane to reach the slot, so value parsing is spread over the lanes
+ * and skipped entirely for records that are not applied. Records without an object key are
+ * decoded in the decode stage as before.
+ *
+ * With dependency scheduling, tables related by foreign keys are still routed by key and never
+ * held; each lane writes its staged rows parents first; see {@link DependencyScheduler}.
+ *
+ * The ring bounds the number of in-flight events, not their size. Each event's estimated heap is
+ * reserved with the {@link MemoryGovernor} when published and decoded, and released when
+ * acknowledged, and the governor pauses the live consumer's partitions while a budget is exceeded.
+ */
+@Component
+public class ChangeEventPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangeEventPipeline.class);
+
+    private final boolean enabled;
+    private final int ringSize;
+    private final int decodeWorkers;
+    private final int applyLanes;
+    private final int maxBatchRows;
+    private final Map<String, String> waitStrategyNames;
+
+    private final ChangeEventDecoder changeEventDecoder;
+    private final ChangeEventApplier changeEventApplier;
+    private final ApplyExecutor applyExecutor;
+    private final ShardRouter shardRouter;
+    private final FanoutTargets fanoutTargets;
+    private final CheckpointStore checkpointStore;
+    private final HotKeyTracker hotKeyTracker;
+    private final KeyRouting keyRouting;
+    private final DependencyScheduler dependencyScheduler;
+    private final MemoryGovernor memoryGovernor;
+    private final MeterRegistry meterRegistry;
+
+    private RingBuffer<PipelineEvent> ringBuffer;
+    private final Sequence cursor = new Sequence(-1L);
+    private SequenceBarrier producerBarrier;
+    private final List<WaitStrategy> decodeWaitStrategies = new ArrayList<>();
+    private final ReentrantLock publishLock = new ReentrantLock();
+    private final LongAdder publishWaitNanos = new LongAdder();
+    // System.nanoTime() since which the poll stage has waited for a full ring, 0 while not waiting
+    private volatile long publishBlockedSince;
+    private volatile boolean draining;
+    // Next offset to consume per topic and partition, as of the last acknowledgement
+    private final Map<String, Map<Integer, Long>> acknowledgedOffsets = new ConcurrentHashMap<>();
+
+    private final List<StageWorker> decoders = new ArrayList<>();
+    private StageWorker router;
+    private final List<StageWorker> lanes = new ArrayList<>();
+    private final Map<FanoutTarget, List<StageWorker>> targetLanes = new LinkedHashMap<>();
+    private final List<StageWorker> checkpointers = new ArrayList<>();
+    private StageWorker acker;
+    private final List<Thread> threads = new ArrayList<>();
+    private ScheduledExecutorService watchdog;
+
+    private DecodeStage decodeStage;
+    private RouteStage routeStage;
+    private ApplyStage applyStage;
+
+    private Timer endToEndLatency;
+
+    @Autowired
+    public ChangeEventPipeline(
+            @Value("${streamshift.pipeline.enabled:false}") boolean enabled,
+            @Value("${streamshift.pipeline.ring-size:4096}") int ringSize,
+            @Value("${streamshift.pipeline.decode-workers:2}") int decodeWorkers,
+            @Value("${streamshift.pipeline.apply-lanes:4}") int applyLanes,
+            @Value("${streamshift.apply.max-batch-rows:1000}") int maxBatchRows,
+            @Value("${streamshift.pipeline.wait-strategy.poll:blocking}") String pollWaitStrategy,
+            @Value("${streamshift.pipeline.wait-strategy.decode:sleeping}") String decodeWaitStrategy,
+            @Value("${streamshift.pipeline.wait-strategy.route:sleeping}") String routeWaitStrategy,
+            @Value("${streamshift.pipeline.wait-strategy.apply:blocking}") String applyWaitStrategy,
+            @Value("${streamshift.pipeline.wait-strategy.ack:blocking}") String ackWaitStrategy,
+            ChangeEventDecoder changeEventDecoder,
+            ChangeEventApplier changeEventApplier,
+            ApplyExecutor applyExecutor,
+            ShardRouter shardRouter,
+            FanoutTargets fanoutTargets,
+            CheckpointStore checkpointStore,
+            HotKeyTracker hotKeyTracker,
+            KeyRouting keyRouting,
+            DependencyScheduler dependencyScheduler,
+            MemoryGovernor memoryGovernor,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.ringSize = ringSize;
+        this.decodeWorkers = decodeWorkers;
+        this.applyLanes = applyLanes;
+        this.maxBatchRows = maxBatchRows;
+        this.waitStrategyNames = Map.of(
+                "poll", pollWaitStrategy,
+                "decode", decodeWaitStrategy,
+                "route", routeWaitStrategy,
+                "apply", applyWaitStrategy,
+                "ack", ackWaitStrategy);
+        this.changeEventDecoder = changeEventDecoder;
+        this.changeEventApplier = changeEventApplier;
+        this.applyExecutor = applyExecutor;
+        this.shardRouter = shardRouter;
+        this.fanoutTargets = fanoutTargets;
+        this.checkpointStore = checkpointStore;
+        this.hotKeyTracker = hotKeyTracker;
+        this.keyRouting = keyRouting;
+        this.dependencyScheduler = dependencyScheduler;
+        this.memoryGovernor = memoryGovernor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            if (fanoutTargets.isFanout()) {
+                throw new IllegalStateException("Fan-out targets need the staged pipeline (streamshift.pipeline.enabled=true)");
+            }
+            return;
+        }
+        boolean fanout = fanoutTargets.isFanout();
+        if (fanout) {
+            checkpointStore.restore(fanoutTargets);
+        }
+
+        ringBuffer = new RingBuffer<>(ringSize, PipelineEvent::new);
+        int shards = shardRouter.getShardCount();
+        decodeStage = new DecodeStage(changeEventDecoder, keyRouting, memoryGovernor);
+        routeStage = new RouteStage(shardRouter, hotKeyTracker, keyRouting, dependencyScheduler, applyLanes);
+        applyStage = new ApplyStage(changeEventApplier, applyExecutor, dependencyScheduler, decodeStage,
+                hotKeyTracker.getHoldMs(), maxBatchRows, ringSize, shards, () -> draining, meterRegistry);
+
+        // Decode: worker k takes every slot whose sequence is k modulo N
+        for (int k = 0; k < decodeWorkers; k++) {
+            WaitStrategy waitStrategy = waitStrategy("decode");
+            decodeWaitStrategies.add(waitStrategy);
+            final int worker = k;
+            decoders.add(new StageWorker("decode-" + k, ringBuffer,
+                    new SequenceBarrier(waitStrategy, cursor),
+                    (event, sequence, endOfBatch) -> sequence % decodeWorkers == worker && decodeStage.decode(event),
+                    meterRegistry));
+        }
+
+        // Route: single thread, sees every slot after all decoders
+        router = new StageWorker("route", ringBuffer,
+                new SequenceBarrier(waitStrategy("route"), sequencesOf(decoders)),
+                routeStage,
+                meterRegistry);
+
+        // Apply: lane k of shard s applies only the slots routed to it, flushing staged changes
+        // at the end of each batch. Lane i writes to ShardRoutingDataSource slot i / applyLanes.
+        FanoutTarget primary = fanoutTargets.getPrimary();
+        for (int s = 0; s < shards; s++) {
+            for (int k = 0; k < applyLanes; k++) {
+                final int lane = s * applyLanes + k;
+                lanes.add(new StageWorker(shards > 1 ? "apply-" + s + "-" + k : "apply-" + k, ringBuffer,
+                        new SequenceBarrier(waitStrategy("apply"), router.getSequence()),
+                        applyStage.lane(primary, s, event -> event.getLane() == lane),
+                        meterRegistry));
+            }
+        }
+        targetLanes.put(primary, List.copyOf(lanes));
+
+        // Fan-out targets apply every event the primary's lanes do, split over their lanes by the
+        // same routing hash; events that were skipped or failed routing are applied by none
+        for (FanoutTarget target : fanoutTargets.getTargets()) {
+            if (target.isPrimary()) {
+                continue;
+            }
+            List<StageWorker> ownLanes = new ArrayList<>();
+            for (int k = 0; k < applyLanes; k++) {
+                final int lane = k;
+                ownLanes.add(new StageWorker("apply-" + target.getName() + "-" + k, ringBuffer,
+                        new SequenceBarrier(waitStrategy("apply"), router.getSequence()),
+                        applyStage.lane(target, target.getFirstSlot(),
+                                event -> event.getLane() >= 0 && Math.floorMod(event.getRoutingHash(), applyLanes) == lane),
+                        meterRegistry));
+            }
+            lanes.addAll(ownLanes);
+            targetLanes.put(target, ownLanes);
+        }
+
+        // Checkpoint: one per target, records its progress once all of its lanes passed a slot
+        if (fanout) {
+            for (Map.Entry<FanoutTarget, List<StageWorker>> entry : targetLanes.entrySet()) {
+                FanoutTarget target = entry.getKey();
+                long[] lastSave = {System.currentTimeMillis()};
+                checkpointers.add(new StageWorker("checkpoint-" + target.getName(), ringBuffer,
+                        new SequenceBarrier(waitStrategy("ack"), sequencesOf(entry.getValue())),
+                        (event, sequence, endOfBatch) -> checkpoint(target, event, sequence, endOfBatch, lastSave),
+                        meterRegistry));
+            }
+        }
+
+        // Ack: acknowledges in sequence order once every lane, or every target's checkpoint, has passed a slot
+        Map<String, Map<Integer, PipelineEvent>> pendingAcks = new HashMap<>();
+        acker = new StageWorker("ack", ringBuffer,
+                new SequenceBarrier(waitStrategy("ack"), sequencesOf(fanout ? checkpointers : lanes)),
+                (event, sequence, endOfBatch) -> acknowledge(event, endOfBatch, pendingAcks),
+                meterRegistry);
+
+        // The poll stage may not overwrite slots the ack stage has not released
+        producerBarrier = new SequenceBarrier(waitStrategy("poll"), acker.getSequence());
+
+        for (StageWorker decoder : decoders) {
+            decoder.setDownstream(List.of(router.getBarrier().getWaitStrategy()));
+        }
+        router.setDownstream(lanes.stream().map(l -> l.getBarrier().getWaitStrategy()).toList());
+        int t = 0;
+        for (List<StageWorker> ownLanes : targetLanes.values()) {
+            StageWorker next = fanout ? checkpointers.get(t++) : acker;
+            for (StageWorker lane : ownLanes) {
+                lane.setDownstream(List.of(next.getBarrier().getWaitStrategy()));
+            }
+        }
+        for (StageWorker checkpointer : checkpointers) {
+            checkpointer.setDownstream(List.of(acker.getBarrier().getWaitStrategy()));
+        }
+        acker.setDownstream(List.of(producerBarrier.getWaitStrategy()));
+
+        registerMetrics();
+
+        List<StageWorker> workers = new ArrayList<>(decoders);
+        workers.add(router);
+        workers.addAll(lanes);
+        workers.addAll(checkpointers);
+        workers.add(acker);
+        for (StageWorker worker : workers) {
+            String threadName = "streamshift-" + worker.getName();
+            Thread thread;
+            int lane = lanes.indexOf(worker);
+            if (lane >= 0) {
+                // Apply lanes block on JDBC, may run on virtual threads, and write to one shard or target
+                int slot = lane / applyLanes;
+                thread = applyExecutor.newThread(threadName, () -> {
+                    ShardContext.current().setShard(slot);
+                    worker.run();
+                });
+            } else {
+                thread = new Thread(worker, threadName);
+                thread.setDaemon(true);
+            }
+            thread.start();
+            threads.add(thread);
+        }
+
+        if (fanout && fanoutTargets.getDetachAfterMs() > 0) {
+            watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "streamshift-fanout-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watchdog.scheduleWithFixedDelay(this::detachSlowTarget, 1, 1, TimeUnit.SECONDS);
+        }
+
+        logger.info("Change event pipeline started: ring size {}, {} {} workers, {} {} apply lanes{}{}, wait strategies {}",
+                ringSize, decodeWorkers, keyRouting.isKeyFirst() ? "key decode" : "decode",
+                applyLanes, applyExecutor.isVirtual() ? "virtual" : "platform",
+                shards > 1 ? " on each of " + shards + " shards" : "",
+                fanout ? " per target, targets " + targetLanes.keySet().stream().map(FanoutTarget::getName).toList() : "",
+                waitStrategyNames);
+    }
+
+    /**
+     * Poll stage: copy a record into the next free slot, waiting if the ring is full.
+     * The record is acknowledged by the ack stage once applied.
+     */
+    public void publish(ConsumerRecord<String, byte[]> record, Acknowledgment acknowledgment) {
+        publishLock.lock();
+        try {
+            long sequence = cursor.get() + 1;
+            long wrapPoint = sequence - ringBuffer.size();
+            if (producerBarrier.available() < wrapPoint) {
+                long waitStart = System.nanoTime();
+                publishBlockedSince = waitStart;
+                try {
+                    producerBarrier.waitFor(wrapPoint);
+                } finally {
+                    publishBlockedSince = 0;
+                }
+                publishWaitNanos.add(System.nanoTime() - waitStart);
+            }
+
+            PipelineEvent event = ringBuffer.get(sequence);
+            event.reset();
+            event.setTopic(record.topic());
+            event.setPartition(record.partition());
+            event.setOffset(record.offset());
+            event.setKey(record.key());
+            event.setValue(record.value());
+            event.setHeaders(record.headers());
+            event.setValueSize(Math.max(record.serializedValueSize(), 0));
+            event.setAcknowledgment(acknowledgment);
+            event.setPublishedNanos(System.nanoTime());
+            if (memoryGovernor.isEnabled()) {
+                long bytes = RetainedSize.of(record);
+                event.addRetainedBytes(bytes);
+                memoryGovernor.reserve(record.topic(), bytes);
+            }
+
+            cursor.set(sequence);
+            for (WaitStrategy waitStrategy : decodeWaitStrategies) {
+                waitStrategy.signalAllWhenBlocking();
+            }
+        } catch (AlertException e) {
+            throw new IllegalStateException("Change event pipeline is stopped");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for pipeline capacity", e);
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * While draining, e.g. for a cutover, lanes stop holding hot keys and write held changes at
+     * the end of each batch, so every event is applied as soon as it arrives
+     */
+    public void setDraining(boolean draining) {
+        this.draining = draining;
+        logger.info("Pipeline {} draining", draining ? "started" : "stopped");
+    }
+
+    /**
+     * Wait until every event published before the call has been applied and acknowledged.
+     * Events published meanwhile are not waited for, so the wait ends under continuous load.
+     *
+     * @return true if the pipeline drained within the timeout
+     */
+    public boolean drain(Duration timeout) {
+        if (!enabled) {
+            return true;
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        long published = cursor.get();
+        while (acker.getSequence().get() < published) {
+            if (System.nanoTime() > deadline) {
+                logger.warn("Pipeline did not drain within {}: {} events in flight", timeout, inFlight());
+                return false;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!enabled) {
+            return;
+        }
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+        drain(Duration.ofSeconds(10));
+
+        List<StageWorker> workers = new ArrayList<>(decoders);
+        workers.add(router);
+        workers.addAll(lanes);
+        workers.addAll(checkpointers);
+        workers.add(acker);
+        workers.forEach(StageWorker::halt);
+        producerBarrier.alert();
+
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        logger.info("Change event pipeline stopped");
+    }
+
+    /**
+     * Next offset to consume per partition of a topic, as acknowledged by the ack stage. The
+     * listener container commits acknowledgements asynchronously, so these can be ahead of
+     * the consumer group's committed offsets.
+     */
+    public Map<Integer, Long> acknowledgedOffsets(String topic) {
+        Map<Integer, Long> offsets = acknowledgedOffsets.get(topic);
+        return offsets != null ? Map.copyOf(offsets) : Map.of();
+    }
+
+    public long inFlight() {
+        return cursor.get() - acker.getSequence().get();
+    }
+
+    /**
+     * Stop applying events to a fan-out target. Events its lanes have not reached yet are
+     * skipped and replayed from its resume offsets once it is attached again.
+     */
+    public void detach(FanoutTarget target) {
+        if (target.isPrimary()) {
+            throw new IllegalArgumentException("The primary target cannot be detached");
+        }
+        if (!target.isDetached()) {
+            target.detach(minSequence(targetLanes.get(target)) + 1);
+        }
+    }
+
+    /**
+     * Detach the fan-out target holding up the ring once the poll stage has waited detach-after-ms for it
+     */
+    private void detachSlowTarget() {
+        long blockedSince = publishBlockedSince;
+        if (blockedSince == 0
+                || System.nanoTime() - blockedSince < TimeUnit.MILLISECONDS.toNanos(fanoutTargets.getDetachAfterMs())) {
+            return;
+        }
+
+        FanoutTarget slowest = null;
+        long slowestSequence = Long.MAX_VALUE;
+        for (Map.Entry<FanoutTarget, List<StageWorker>> entry : targetLanes.entrySet()) {
+            long sequence = minSequence(entry.getValue());
+            if (sequence < slowestSequence) {
+                slowestSequence = sequence;
+                slowest = entry.getKey();
+            }
+        }
+        // The primary target is never detached; a detached target's lanes may still finish an in-flight write
+        if (slowest == null || slowest.isPrimary() || slowest.isDetached()) {
+            return;
+        }
+        slowest.detach(slowestSequence + 1);
+        logger.warn("Fan-out target {} held the pipeline full for over {} ms and was detached at sequence {}; "
+                        + "resume it with POST /admin/targets/{}/resume",
+                slowest.getName(), fanoutTargets.getDetachAfterMs(), slowestSequence + 1, slowest.getName());
+    }
+
+    private static long minSequence(List<StageWorker> workers) {
+        long min = Long.MAX_VALUE;
+        for (StageWorker worker : workers) {
+            min = Math.min(min, worker.getSequence().get());
+        }
+        return min;
+    }
+
+    private boolean checkpoint(FanoutTarget target, PipelineEvent event, long sequence, boolean endOfBatch,
+                               long[] lastSave) {
+        target.passed(sequence, event.getTopic(), event.getPartition(), event.getOffset());
+        if (endOfBatch) {
+            lastSave[0] = checkpointStore.saveIfDue(target, lastSave[0]);
+        }
+        return true;
+    }
+
+    private boolean acknowledge(PipelineEvent event, boolean endOfBatch,
+                                Map<String, Map<Integer, PipelineEvent>> pendingAcks) {
+        pendingAcks.computeIfAbsent(event.getTopic(), t -> new HashMap<>()).put(event.getPartition(), event);
+        endToEndLatency.record(System.nanoTime() - event.getPublishedNanos(), TimeUnit.NANOSECONDS);
+        event.release();
+        memoryGovernor.release(event.getTopic(), event.getRetainedBytes());
+
+        if (endOfBatch) {
+            // Acknowledging the last record of a partition commits everything before it
+            for (Map<Integer, PipelineEvent> partitions : pendingAcks.values()) {
+                for (PipelineEvent last : partitions.values()) {
+                    acknowledgedOffsets.computeIfAbsent(last.getTopic(), t -> new ConcurrentHashMap<>())
+                            .put(last.getPartition(), last.getOffset() + 1);
+                    if (last.getAcknowledgment() != null) {
+                        AckEvent ack = new AckEvent();
+                        ack.begin();
+                        last.getAcknowledgment().acknowledge();
+                        ack.end();
+                        if (ack.shouldCommit()) {
+                            ack.setRecord(last.getTopic(), last.getPartition(), last.getOffset(), last.getValueSize());
+                            ack.commit();
+                        }
+                    }
+                }
+                partitions.clear();
+            }
+        }
+        return true;
+    }
+
+    private WaitStrategy waitStrategy(String stage) {
+        return WaitStrategies.forName(waitStrategyNames.get(stage));
+    }
+
+    private static Sequence[] sequencesOf(List<StageWorker> workers) {
+        return workers.stream().map(StageWorker::getSequence).toArray(Sequence[]::new);
+    }
+
+    private void registerMetrics() {
+        Gauge.builder("streamshift.pipeline.occupancy", this, ChangeEventPipeline::inFlight)
+                .tag("stage", "ring")
+                .description("Published events not yet acknowledged")
+                .register(meterRegistry);
+        FunctionCounter.builder("streamshift.pipeline.publish.wait", publishWaitNanos,
+                        n -> n.sum() / (double) TimeUnit.SECONDS.toNanos(1))
+                .description("Time the poll stage waited for free ring slots")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        endToEndLatency = Timer.builder("streamshift.pipeline.latency")
+                .description("Time from publish to acknowledgement")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(meterRegistry);
+
+        for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+            final int s = shard;
+            Gauge.builder("streamshift.shard.pending", () -> routeStage.routed(s) - applyStage.applied(s))
+                    .tag("shard", String.valueOf(shard))
+                    .description("Events routed to the shard but not yet applied")
+                    .register(meterRegistry);
+        }
+
+        if (fanoutTargets.isFanout()) {
+            for (Map.Entry<FanoutTarget, List<StageWorker>> entry : targetLanes.entrySet()) {
+                FanoutTarget target = entry.getKey();
+                List<StageWorker> ownLanes = entry.getValue();
+                Gauge.builder("streamshift.target.behind", () -> router.getSequence().get() - minSequence(ownLanes))
+                        .tag("target", target.getName())
+                        .description("Routed events the target's slowest lane has not passed yet")
+                        .register(meterRegistry);
+                FunctionCounter.builder("streamshift.target.applied", target, FanoutTarget::getApplied)
+                        .tag("target", target.getName())
+                        .register(meterRegistry);
+                Gauge.builder("streamshift.target.detached", target, t -> t.isDetached() ? 1 : 0)
+                        .tag("target", target.getName())
+                        .register(meterRegistry);
+            }
+        }
+    }
+}
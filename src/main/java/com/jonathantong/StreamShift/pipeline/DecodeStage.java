@@ -0,0 +1,123 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import com.jonathantong.StreamShift.memory.MemoryGovernor;
+import com.jonathantong.StreamShift.memory.RetainedSize;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.service.ChangeEventDecoder;
+import com.jonathantong.StreamShift.tracing.DecodeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decoding of a slot's record for the {@link ChangeEventPipeline}. The decode stage reads each
+ * record and gives it a routing hash; with key-first routing it reads only the key, and the
+ * value is decoded by the first apply lane to reach the slot.
+ */
+final class DecodeStage {
+
+    private static final Logger logger = LoggerFactory.getLogger(DecodeStage.class);
+
+    private final ChangeEventDecoder changeEventDecoder;
+    private final KeyRouting keyRouting;
+    private final MemoryGovernor memoryGovernor;
+
+    DecodeStage(ChangeEventDecoder changeEventDecoder, KeyRouting keyRouting, MemoryGovernor memoryGovernor) {
+        this.changeEventDecoder = changeEventDecoder;
+        this.keyRouting = keyRouting;
+        this.memoryGovernor = memoryGovernor;
+    }
+
+    boolean decode(PipelineEvent event) {
+        byte[] value = event.getValue();
+
+        // Tombstone records (null payloads after DELETE operations) are only acknowledged
+        if (value == null || value.length == 0) {
+            return true;
+        }
+        String tableName = keyRouting.tableOf(event.getTopic());
+        if (keyRouting.excludes(tableName)) {
+            return true;
+        }
+
+        if (keyRouting.isKeyFirst()) {
+            try {
+                if (changeEventDecoder.decodeKey(event.getKey(), event.getKeyRow())) {
+                    event.setRouteTable(tableName);
+                    event.setKeyRouted(true);
+                    event.setDecoded(true);
+                    event.setRoutingHash(RouteStage.routingHash(tableName, event.getKey()));
+                    return true;
+                }
+            } catch (Exception e) {
+                // Not a Debezium key: routed by its value instead
+                logger.debug("Record key at topic {} partition {} offset {} is not a JSON object: {}",
+                        event.getTopic(), event.getPartition(), event.getOffset(), e.getMessage());
+            }
+        }
+
+        if (decodeValue(event)) {
+            event.setDecoded(true);
+            event.setRoutingHash(RouteStage.routingHash(event.getChange().getTableName(), event.getKey()));
+        }
+        return true;
+    }
+
+    /**
+     * Decode a key-routed event's value, once, on the first apply lane to reach it
+     *
+     * @return false if the event has nothing to apply
+     */
+    boolean ensureDecoded(PipelineEvent event) {
+        if (!event.isKeyRouted()) {
+            return true;
+        }
+        ReentrantLock lock = event.getDecodeLock();
+        lock.lock();
+        try {
+            if (event.isValuePending()) {
+                if (!decodeValue(event)) {
+                    event.setDecoded(false);
+                }
+                event.setValuePending(false);
+            }
+            return !event.isSkipped();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decode an event's value into its change
+     *
+     * @return false if there is nothing to apply
+     */
+    private boolean decodeValue(PipelineEvent event) {
+        try {
+            DecodeEvent decode = new DecodeEvent();
+            decode.begin();
+            DecodedChange change = event.getChange();
+            boolean decoded = changeEventDecoder.decode(event.getValue(), event.getHeaders(), change, event.getTopic());
+            decode.end();
+            if (decoded && decode.shouldCommit()) {
+                decode.setTable(change.getTableName());
+                decode.setOperation(change.getOperation());
+                decode.setRecord(event.getTopic(), event.getPartition(), event.getOffset(), event.getValueSize());
+                decode.commit();
+            }
+            if (decoded && memoryGovernor.isEnabled()) {
+                long bytes = RetainedSize.of(change, event.getValue());
+                event.addRetainedBytes(bytes);
+                memoryGovernor.reserve(event.getTopic(), bytes);
+            }
+            return decoded && !keyRouting.excludes(change.getTableName());
+        } catch (Exception e) {
+            event.setDecodeError(e);
+            logger.error("Error decoding message from topic {} partition {} offset {}: {}",
+                    event.getTopic(), event.getPartition(), event.getOffset(), e.getMessage());
+            return false;
+        }
+    }
+}
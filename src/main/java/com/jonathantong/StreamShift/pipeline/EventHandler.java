@@ -0,0 +1,32 @@
+package com.jonathantong.StreamShift.pipeline;
+
+/**
+ * Work a stage performs on each slot it is given
+ */
+@FunctionalInterface
+public interface EventHandler {
+
+    /**
+     * Process one slot of the current batch
+     *
+     * @param endOfBatch true for the last slot available in this batch
+     * @return true if this stage did work on the slot, false if it only passed it by
+     */
+    boolean onEvent(PipelineEvent event, long sequence, boolean endOfBatch) throws Exception;
+
+    /**
+     * Earliest sequence the handler still holds, e.g. changes kept back for write-combining, or
+     * Long.MAX_VALUE. The stage does not publish past a held sequence, so downstream stages do not
+     * release the slot before the handler is done with it.
+     */
+    default long heldFrom() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Called while events are held and no new slots are available, so the handler can release
+     * held events on time
+     */
+    default void onIdle() throws Exception {
+    }
+}
@@ -0,0 +1,161 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reusable ring buffer slot carrying one Kafka record through the pipeline stages.
+ * Each field is written by exactly one stage and read only by stages after it, except the
+ * change of a key-routed event, which the first apply lane to reach it decodes under the slot's lock.
+ * The ack stage drops the record and row images of the events it has acknowledged.
+ */
+public class PipelineEvent {
+
+    // Written by the poll stage
+    private String topic;
+    private int partition;
+    private long offset;
+    private String key;
+    private byte[] value;
+    private Headers headers;
+    private int valueSize;
+    private Acknowledgment acknowledgment;
+    private long publishedNanos;
+    // Estimated heap the slot holds for the event, reserved with the memory governor
+    private long retainedBytes;
+
+    // Written by the decode stage, into a change buffer the slot keeps for its lifetime
+    private final DecodedChange change = new DecodedChange();
+    private boolean decoded;
+    private int routingHash;
+    private Exception decodeError;
+    // Key-first routing: the table from the topic and the decoded record key; the value is decoded by a lane
+    private String routeTable;
+    private final RowBuffer keyRow = new RowBuffer();
+    private boolean keyRouted;
+    private boolean valuePending;
+    // Guards the lane-side value decode; not a monitor, as lanes may be virtual threads
+    private final ReentrantLock decodeLock = new ReentrantLock();
+
+    // Written by the route stage
+    private int lane;
+    private boolean hot;
+
+    void reset() {
+        topic = null;
+        partition = 0;
+        offset = 0;
+        key = null;
+        value = null;
+        headers = null;
+        valueSize = 0;
+        acknowledgment = null;
+        publishedNanos = 0;
+        retainedBytes = 0;
+        decoded = false;
+        routingHash = 0;
+        decodeError = null;
+        routeTable = null;
+        keyRow.clear();
+        keyRouted = false;
+        valuePending = false;
+        lane = 0;
+        hot = false;
+    }
+
+    /**
+     * Drop the record and row images once acknowledged, so a slot waiting for reuse holds no event data
+     */
+    void release() {
+        value = null;
+        headers = null;
+        change.reset();
+        keyRow.clear();
+    }
+
+    /**
+     * True for tombstones, excluded tables and records that failed to decode; they are
+     * acknowledged but not applied. A key-routed event whose value turns out to have nothing to
+     * apply is skipped once decoded.
+     */
+    public boolean isSkipped() {
+        return !decoded;
+    }
+
+    public String getTopic() { return topic; }
+    void setTopic(String topic) { this.topic = topic; }
+
+    public int getPartition() { return partition; }
+    void setPartition(int partition) { this.partition = partition; }
+
+    public long getOffset() { return offset; }
+    void setOffset(long offset) { this.offset = offset; }
+
+    public String getKey() { return key; }
+    void setKey(String key) { this.key = key; }
+
+    public byte[] getValue() { return value; }
+    void setValue(byte[] value) { this.value = value; }
+
+    public Headers getHeaders() { return headers; }
+    void setHeaders(Headers headers) { this.headers = headers; }
+
+    public int getValueSize() { return valueSize; }
+    void setValueSize(int valueSize) { this.valueSize = valueSize; }
+
+    public Acknowledgment getAcknowledgment() { return acknowledgment; }
+    void setAcknowledgment(Acknowledgment acknowledgment) { this.acknowledgment = acknowledgment; }
+
+    public long getPublishedNanos() { return publishedNanos; }
+    void setPublishedNanos(long publishedNanos) { this.publishedNanos = publishedNanos; }
+
+    public long getRetainedBytes() { return retainedBytes; }
+    void addRetainedBytes(long bytes) { this.retainedBytes += bytes; }
+
+    /**
+     * The decoded change; only meaningful when the event is not skipped
+     */
+    public DecodedChange getChange() { return change; }
+
+    void setDecoded(boolean decoded) { this.decoded = decoded; }
+
+    public String getRouteTable() { return routeTable; }
+    void setRouteTable(String routeTable) { this.routeTable = routeTable; }
+
+    /**
+     * Buffer the record key is decoded into for key-first routing
+     */
+    public RowBuffer getKeyRow() { return keyRow; }
+
+    /**
+     * True if the event was routed by its record key and its value is decoded by an apply lane
+     */
+    public boolean isKeyRouted() { return keyRouted; }
+    void setKeyRouted(boolean keyRouted) {
+        this.keyRouted = keyRouted;
+        this.valuePending = keyRouted;
+    }
+
+    ReentrantLock getDecodeLock() { return decodeLock; }
+    boolean isValuePending() { return valuePending; }
+    void setValuePending(boolean valuePending) { this.valuePending = valuePending; }
+
+    public int getRoutingHash() { return routingHash; }
+    void setRoutingHash(int routingHash) { this.routingHash = routingHash; }
+
+    public Exception getDecodeError() { return decodeError; }
+    void setDecodeError(Exception decodeError) { this.decodeError = decodeError; }
+
+    public int getLane() { return lane; }
+    void setLane(int lane) { this.lane = lane; }
+
+    /**
+     * True if the change's key is hot, so apply lanes hold it back for write-combining
+     */
+    public boolean isHot() { return hot; }
+    void setHot(boolean hot) { this.hot = hot; }
+}
@@ -0,0 +1,35 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import java.util.function.Supplier;
+
+/**
+ * Fixed-size ring of preallocated, reusable slots addressed by a monotonic sequence.
+ *
+ * The ring only stores slots; which stage may touch which slot is decided by the
+ * {@link Sequence}s of the stages and the barriers between them.
+ */
+public class RingBuffer<E> {
+
+    private final Object[] entries;
+    private final int mask;
+
+    public RingBuffer(int size, Supplier<E> factory) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring buffer size must be a power of 2: " + size);
+        }
+        this.entries = new Object[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            entries[i] = factory.get();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & mask];
+    }
+
+    public int size() {
+        return entries.length;
+    }
+}
@@ -0,0 +1,91 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.hotkeys.HotKeyTracker;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Route stage of the {@link ChangeEventPipeline}: picks each event's shard from its primary key,
+ * then a lane within the shard from its routing hash, and marks changes to hot keys. Runs on a
+ * single thread.
+ */
+final class RouteStage implements EventHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(RouteStage.class);
+
+    private final ShardRouter shardRouter;
+    private final HotKeyTracker hotKeyTracker;
+    private final KeyRouting keyRouting;
+    private final DependencyScheduler dependencyScheduler;
+    private final int applyLanes;
+    // Events routed per shard
+    private final LongAdder[] routed;
+
+    RouteStage(ShardRouter shardRouter, HotKeyTracker hotKeyTracker, KeyRouting keyRouting,
+               DependencyScheduler dependencyScheduler, int applyLanes) {
+        this.shardRouter = shardRouter;
+        this.hotKeyTracker = hotKeyTracker;
+        this.keyRouting = keyRouting;
+        this.dependencyScheduler = dependencyScheduler;
+        this.applyLanes = applyLanes;
+        this.routed = new LongAdder[shardRouter.getShardCount()];
+        for (int shard = 0; shard < routed.length; shard++) {
+            routed[shard] = new LongAdder();
+        }
+    }
+
+    @Override
+    public boolean onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+        if (event.isSkipped()) {
+            event.setLane(-1);
+            return true;
+        }
+        try {
+            int shard;
+            String tableName;
+            if (event.isKeyRouted()) {
+                tableName = event.getRouteTable();
+                RowBuffer key = event.getKeyRow();
+                List<String> keyColumns = keyRouting.keyColumns(tableName, key);
+                shard = shardRouter.shardForKey(tableName, key, keyColumns);
+                event.setHot(hotKeyTracker.record(tableName, key, keyColumns));
+            } else {
+                tableName = event.getChange().getTableName();
+                shard = shardRouter.shardFor(event.getChange());
+                event.setHot(hotKeyTracker.record(event.getChange()));
+            }
+            if (event.isHot() && dependencyScheduler.isScheduled(tableName)) {
+                // A held parent would be written after the lane's later changes referencing it
+                event.setHot(false);
+            }
+            event.setLane(shard * applyLanes + Math.floorMod(event.getRoutingHash(), applyLanes));
+            routed[shard].increment();
+        } catch (Exception e) {
+            // No shard to write to: acknowledged without applying, like a failed apply
+            event.setLane(-1);
+            logger.error("Error routing message from topic {} partition {} offset {}: {}",
+                    event.getTopic(), event.getPartition(), event.getOffset(), e.getMessage(), e);
+        }
+        return true;
+    }
+
+    long routed(int shard) {
+        return routed[shard].sum();
+    }
+
+    /**
+     * Events for the same row share a lane. Debezium keys records by primary key,
+     * so (table, record key) identifies a row.
+     */
+    static int routingHash(String tableName, String key) {
+        int h = 31 * (tableName != null ? tableName.hashCode() : 0) + (key != null ? key.hashCode() : 0);
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,56 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Monotonic position of a producer or stage in the ring buffer.
+ * Padded on both sides so neighbouring sequences do not share a cache line.
+ */
+public class Sequence {
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(Sequence.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7;
+    private volatile long value;
+    @SuppressWarnings("unused")
+    private long p9, p10, p11, p12, p13, p14, p15;
+
+    public Sequence(long initialValue) {
+        this.value = initialValue;
+    }
+
+    public long get() {
+        return value;
+    }
+
+    /**
+     * Publish a new position. Writes to the slots up to this position happen-before
+     * any reader that observes it.
+     */
+    public void set(long newValue) {
+        VALUE.setRelease(this, newValue);
+    }
+
+    static long minimum(Sequence[] sequences, long fallback) {
+        long min = fallback;
+        for (Sequence sequence : sequences) {
+            min = Math.min(min, sequence.get());
+        }
+        return min;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
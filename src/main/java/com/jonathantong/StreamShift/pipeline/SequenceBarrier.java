@@ -0,0 +1,50 @@
+package com.jonathantong.StreamShift.pipeline;
+
+/**
+ * Lets a stage wait until all the stages it depends on have passed a sequence
+ */
+public class SequenceBarrier {
+
+    private final WaitStrategy waitStrategy;
+    private final Sequence[] dependencies;
+    private volatile boolean alerted;
+
+    public SequenceBarrier(WaitStrategy waitStrategy, Sequence... dependencies) {
+        this.waitStrategy = waitStrategy;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * Wait until {@code sequence} is available and return the highest available sequence,
+     * which may be larger so the caller can process a whole batch at once
+     */
+    public long waitFor(long sequence) throws AlertException, InterruptedException {
+        long available = available();
+        if (available >= sequence) {
+            return available;
+        }
+        return waitStrategy.waitFor(sequence, this);
+    }
+
+    /**
+     * Highest sequence every dependency has passed
+     */
+    public long available() {
+        return Sequence.minimum(dependencies, Long.MAX_VALUE);
+    }
+
+    public void checkAlert() throws AlertException {
+        if (alerted) {
+            throw AlertException.INSTANCE;
+        }
+    }
+
+    public void alert() {
+        alerted = true;
+        waitStrategy.signalAllWhenBlocking();
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+}
@@ -0,0 +1,171 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs one pipeline stage: waits on its barrier, hands every newly available slot to its
+ * handler as one batch, then publishes its own sequence and wakes downstream stages.
+ * While the handler holds events, the stage publishes only up to the first held one and polls
+ * its barrier instead of blocking, giving the handler the chance to release them.
+ *
+ * Metrics per stage (tag {@code stage}):
+ * 	- streamshift.pipeline.occupancy: slots available upstream but not yet passed by this stage
+ * 	- streamshift.pipeline.batch.size: slots handled per batch
+ * 	- streamshift.pipeline.events: slots this stage did work on
+ * 	- streamshift.pipeline.busy / .idle: seconds spent handling vs waiting
+ */
+public class StageWorker implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StageWorker.class);
+
+    private static final long HOLD_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final String name;
+    private final RingBuffer<PipelineEvent> ringBuffer;
+    private final SequenceBarrier barrier;
+    private final EventHandler handler;
+    private final Sequence sequence = new Sequence(-1L);
+    private volatile List<WaitStrategy> downstream = List.of();
+    private volatile boolean running = true;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder idleNanos = new LongAdder();
+    private final DistributionSummary batchSize;
+
+    public StageWorker(String name, RingBuffer<PipelineEvent> ringBuffer, SequenceBarrier barrier,
+                       EventHandler handler, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.ringBuffer = ringBuffer;
+        this.barrier = barrier;
+        this.handler = handler;
+
+        this.batchSize = DistributionSummary.builder("streamshift.pipeline.batch.size")
+                .tag("stage", name)
+                .register(meterRegistry);
+        Gauge.builder("streamshift.pipeline.occupancy", this, StageWorker::occupancy)
+                .tag("stage", name)
+                .register(meterRegistry);
+        FunctionCounter.builder("streamshift.pipeline.events", events, LongAdder::sum)
+                .tag("stage", name)
+                .register(meterRegistry);
+        FunctionCounter.builder("streamshift.pipeline.busy", busyNanos, n -> n.sum() / (double) TimeUnit.SECONDS.toNanos(1))
+                .tag("stage", name)
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        FunctionCounter.builder("streamshift.pipeline.idle", idleNanos, n -> n.sum() / (double) TimeUnit.SECONDS.toNanos(1))
+                .tag("stage", name)
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void run() {
+        long next = sequence.get() + 1;
+        while (running) {
+            try {
+                long waitStart = System.nanoTime();
+                long available;
+                if (handler.heldFrom() == Long.MAX_VALUE) {
+                    available = barrier.waitFor(next);
+                } else {
+                    available = barrier.available();
+                    if (available < next) {
+                        barrier.checkAlert();
+                        handler.onIdle();
+                        publish(next - 1);
+                        if (handler.heldFrom() != Long.MAX_VALUE) {
+                            LockSupport.parkNanos(HOLD_POLL_NANOS);
+                        }
+                        idleNanos.add(System.nanoTime() - waitStart);
+                        continue;
+                    }
+                }
+                long busyStart = System.nanoTime();
+                idleNanos.add(busyStart - waitStart);
+
+                int handled = 0;
+                for (long s = next; s <= available; s++) {
+                    try {
+                        if (handler.onEvent(ringBuffer.get(s), s, s == available)) {
+                            handled++;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (Exception e) {
+                        logger.error("Stage {} failed on sequence {}: {}", name, s, e.getMessage(), e);
+                    }
+                }
+
+                publish(available);
+
+                if (handled > 0) {
+                    events.add(handled);
+                    batchSize.record(handled);
+                }
+                busyNanos.add(System.nanoTime() - busyStart);
+                next = available + 1;
+            } catch (AlertException e) {
+                // Shutting down
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Stage {} failed releasing held events: {}", name, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Publish up to a sequence, or to just before the first event the handler holds
+     */
+    private void publish(long upTo) {
+        long published = Math.min(upTo, handler.heldFrom() - 1);
+        if (published > sequence.get()) {
+            sequence.set(published);
+            for (WaitStrategy waitStrategy : downstream) {
+                waitStrategy.signalAllWhenBlocking();
+            }
+        }
+    }
+
+    public void halt() {
+        running = false;
+        barrier.alert();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Sequence getSequence() {
+        return sequence;
+    }
+
+    public SequenceBarrier getBarrier() {
+        return barrier;
+    }
+
+    /**
+     * Stages to wake after this stage publishes its sequence
+     */
+    void setDownstream(List<WaitStrategy> downstream) {
+        this.downstream = downstream;
+    }
+
+    private double occupancy() {
+        long upstream = barrier.available();
+        return upstream == Long.MAX_VALUE ? 0 : Math.max(0, upstream - sequence.get());
+    }
+}
@@ -0,0 +1,156 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Built-in wait strategies, selectable by name from configuration
+ */
+public final class WaitStrategies {
+
+    private WaitStrategies() {
+    }
+
+    /**
+     * Resolve a strategy from its configuration name: busy-spin, yielding, sleeping or blocking
+     */
+    public static WaitStrategy forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "busy-spin": return new BusySpin();
+            case "yielding": return new Yielding();
+            case "sleeping": return new Sleeping();
+            case "blocking": return new Blocking();
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy: " + name);
+        }
+    }
+
+    /**
+     * Lowest latency, burns a full core while idle
+     */
+    public static final class BusySpin implements WaitStrategy {
+        @Override
+        public long waitFor(long sequence, SequenceBarrier barrier) throws AlertException {
+            long available;
+            while ((available = barrier.available()) < sequence) {
+                barrier.checkAlert();
+                Thread.onSpinWait();
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+        }
+    }
+
+    /**
+     * Spins briefly, then yields the core to other runnable threads
+     */
+    public static final class Yielding implements WaitStrategy {
+        private static final int SPIN_TRIES = 100;
+
+        @Override
+        public long waitFor(long sequence, SequenceBarrier barrier) throws AlertException {
+            long available;
+            int counter = SPIN_TRIES;
+            while ((available = barrier.available()) < sequence) {
+                barrier.checkAlert();
+                if (counter > 0) {
+                    counter--;
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+        }
+    }
+
+    /**
+     * Spins, yields, then parks for short intervals. Low idle CPU without producer signalling.
+     */
+    public static final class Sleeping implements WaitStrategy {
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 100;
+        private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+        @Override
+        public long waitFor(long sequence, SequenceBarrier barrier) throws AlertException {
+            long available;
+            int counter = SPIN_TRIES + YIELD_TRIES;
+            while ((available = barrier.available()) < sequence) {
+                barrier.checkAlert();
+                if (counter > YIELD_TRIES) {
+                    counter--;
+                    Thread.onSpinWait();
+                } else if (counter > 0) {
+                    counter--;
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(SLEEP_NANOS);
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+        }
+    }
+
+    /**
+     * Parks on a condition until signalled. No idle CPU; wake-up costs a lock handoff.
+     */
+    public static final class Blocking implements WaitStrategy {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition advanced = lock.newCondition();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        @Override
+        public long waitFor(long sequence, SequenceBarrier barrier) throws AlertException, InterruptedException {
+            long available;
+            if ((available = barrier.available()) < sequence) {
+                lock.lock();
+                try {
+                    waiters.incrementAndGet();
+                    try {
+                        while ((available = barrier.available()) < sequence) {
+                            barrier.checkAlert();
+                            advanced.await();
+                        }
+                    } finally {
+                        waiters.decrementAndGet();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+            // Publishers write their sequence before reading waiters, waiters register before
+            // re-reading the sequence, so at least one side always sees the other. The fence
+            // keeps the release-store of the sequence from moving past the read of waiters.
+            VarHandle.fullFence();
+            if (waiters.get() > 0) {
+                lock.lock();
+                try {
+                    advanced.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.jonathantong.StreamShift.pipeline;
+
+/**
+ * How a stage waits for its upstream stages. Trades CPU for wake-up latency:
+ * busy-spin and yielding burn a core, sleeping and blocking give it back.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Wait until the barrier's dependencies have reached {@code sequence}
+     *
+     * @return the highest available sequence, at least {@code sequence}
+     */
+    long waitFor(long sequence, SequenceBarrier barrier) throws AlertException, InterruptedException;
+
+    /**
+     * Wake stages parked in this strategy after a dependency advanced
+     */
+    void signalAllWhenBlocking();
+}
@@ -0,0 +1,54 @@
+package com.jonathantong.StreamShift.projection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A table projection compiled for one column layout of a row image, i.e. one schema version:
+ * for each position, the target column name (null to drop the value) and the row-filter slot
+ * (-1 if no filter reads it). Decoding a row that still has this layout needs no lookups by name.
+ */
+public final class ColumnLayout {
+
+    private final String[] columns;
+    private final String[] outputs;
+    private final int[] filterSlots;
+
+    ColumnLayout(List<String> columns, TableProjection projection) {
+        this.columns = columns.toArray(new String[0]);
+        this.outputs = new String[this.columns.length];
+        this.filterSlots = new int[this.columns.length];
+        for (int i = 0; i < this.columns.length; i++) {
+            outputs[i] = projection.outputName(this.columns[i]);
+            filterSlots[i] = projection.filterSlot(this.columns[i]);
+        }
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * True if the source column at this position is {@code column}; decoded names are canonical,
+     * so the identity check usually decides
+     */
+    public boolean matches(int index, String column) {
+        return index < columns.length && (columns[index] == column || columns[index].equals(column));
+    }
+
+    public String output(int index) {
+        return outputs[index];
+    }
+
+    public int filterSlot(int index) {
+        return filterSlots[index];
+    }
+
+    /**
+     * The first {@code count} source columns, for compiling a layout that diverges after them
+     */
+    public List<String> prefix(int count) {
+        return new ArrayList<>(Arrays.asList(columns).subList(0, count));
+    }
+}
@@ -0,0 +1,165 @@
+package com.jonathantong.StreamShift.projection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-table column projection and row filters, applied by the decoder so dropped columns and
+ * filtered rows are never materialized or written:
+ *
+ * 	streamshift.projection.include-columns=orders:id|customer_id|total|status
+ * 	streamshift.projection.exclude-columns=customers:audit_blob|notes
+ * 	streamshift.projection.rename-columns=customers:fname=first_name|lname=last_name
+ * 	streamshift.projection.row-filters=orders:status!=archived&before.total>=0
+ *
+ * Rules name source columns; filters may read columns that are not projected.
+ */
+@Component
+public class ProjectionRules {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProjectionRules.class);
+
+    private final Map<String, TableProjection> tables = new HashMap<>();
+    private final Map<String, String> topicTables = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ProjectionRules(
+            @Value("${streamshift.projection.include-columns:}") String includeColumns,
+            @Value("${streamshift.projection.exclude-columns:}") String excludeColumns,
+            @Value("${streamshift.projection.rename-columns:}") String renameColumns,
+            @Value("${streamshift.projection.row-filters:}") String rowFilters) {
+        Map<String, String> includes = parseByTable(includeColumns);
+        Map<String, String> excludes = parseByTable(excludeColumns);
+        Map<String, String> renames = parseByTable(renameColumns);
+        Map<String, String> filters = parseByTable(rowFilters);
+
+        Set<String> tableNames = new LinkedHashSet<>(includes.keySet());
+        tableNames.addAll(excludes.keySet());
+        tableNames.addAll(renames.keySet());
+        tableNames.addAll(filters.keySet());
+        for (String tableName : tableNames) {
+            TableProjection projection = new TableProjection(tableName,
+                    includes.containsKey(tableName) ? columnsOf(includes.get(tableName)) : null,
+                    excludes.containsKey(tableName) ? columnsOf(excludes.get(tableName)) : Set.of(),
+                    renamesOf(tableName, renames.get(tableName)),
+                    predicatesOf(filters.get(tableName)));
+            tables.put(tableName, projection);
+            logger.info("Projection of table {}", projection);
+        }
+    }
+
+    /**
+     * Rules that project nothing
+     */
+    public static ProjectionRules none() {
+        return new ProjectionRules("", "", "", "");
+    }
+
+    public boolean isEmpty() {
+        return tables.isEmpty();
+    }
+
+    /**
+     * Projection of a table, or null if it has no rules
+     */
+    public TableProjection forTable(String tableName) {
+        return tableName != null ? tables.get(tableName) : null;
+    }
+
+    /**
+     * Projection of the table a Debezium topic carries, named by the topic's last segment
+     */
+    public TableProjection forTopic(String topic) {
+        if (tables.isEmpty() || topic == null) {
+            return null;
+        }
+        return tables.get(topicTables.computeIfAbsent(topic, ProjectionRules::tableOf));
+    }
+
+    /**
+     * Parse per-table settings of the form {@code orders:id|total,customers:email}
+     */
+    static Map<String, String> parseByTable(String settings) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (settings == null || settings.isBlank()) {
+            return values;
+        }
+        for (String entry : settings.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected table:rules, got: " + entry.trim());
+            }
+            String tableName = entry.substring(0, separator).trim();
+            if (values.put(tableName, entry.substring(separator + 1).trim()) != null) {
+                throw new IllegalArgumentException("Table " + tableName + " is listed twice: " + settings);
+            }
+        }
+        return values;
+    }
+
+    private static Set<String> columnsOf(String columns) {
+        Set<String> names = new HashSet<>();
+        for (String column : columns.split("\\|")) {
+            if (!column.isBlank()) {
+                names.add(column.trim());
+            }
+        }
+        return names;
+    }
+
+    private static Map<String, String> renamesOf(String tableName, String renames) {
+        Map<String, String> targetNames = new HashMap<>();
+        if (renames == null) {
+            return targetNames;
+        }
+        for (String rename : renames.split("\\|")) {
+            if (rename.isBlank()) {
+                continue;
+            }
+            int separator = rename.indexOf('=');
+            if (separator <= 0 || separator == rename.length() - 1) {
+                throw new IllegalArgumentException("Expected source=target column, got: " + rename.trim());
+            }
+            String target = rename.substring(separator + 1).trim();
+            if (targetNames.containsValue(target)) {
+                throw new IllegalArgumentException("Two columns of table " + tableName + " are renamed to " + target);
+            }
+            targetNames.put(rename.substring(0, separator).trim(), target);
+        }
+        return targetNames;
+    }
+
+    private static List<RowPredicate> predicatesOf(String filters) {
+        List<RowPredicate> predicates = new ArrayList<>();
+        if (filters == null) {
+            return predicates;
+        }
+        for (String filter : filters.split("&")) {
+            if (!filter.isBlank()) {
+                predicates.add(RowPredicate.parse(filter));
+            }
+        }
+        return predicates;
+    }
+
+    static String tableOf(String topic) {
+        int dot = topic.lastIndexOf('.');
+        return dot >= 0 ? topic.substring(dot + 1) : topic;
+    }
+}
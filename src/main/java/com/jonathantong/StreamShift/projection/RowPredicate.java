@@ -0,0 +1,155 @@
+package com.jonathantong.StreamShift.projection;
+
+/**
+ * One comparison of a row filter, e.g. {@code status!=archived} or {@code before.total>=100}.
+ *
+ * The literal is compared with the decoded value's type: integral values as long, other numbers
+ * as double, booleans as booleans and anything else as text. The literal {@code null} matches
+ * only {@code =} and {@code !=}.
+ */
+public class RowPredicate {
+
+    /**
+     * Row image a predicate reads
+     */
+    public enum Image {
+        // The image the operation writes: after for inserts and updates, before for deletes
+        ROW,
+        BEFORE,
+        AFTER
+    }
+
+    enum Operator {
+        EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    private final Image image;
+    private final String column;
+    private final Operator operator;
+    private final String literal;
+    private final Long longLiteral;
+    private final Double doubleLiteral;
+
+    RowPredicate(Image image, String column, Operator operator, String literal) {
+        this.image = image;
+        this.column = column;
+        this.operator = operator;
+        this.literal = literal;
+        this.longLiteral = literal != null ? parseLong(literal) : null;
+        this.doubleLiteral = literal != null ? parseDouble(literal) : null;
+    }
+
+    /**
+     * Parse {@code [before.|after.]column<op>literal} with op one of = != &lt; &lt;= &gt; &gt;=
+     */
+    public static RowPredicate parse(String expression) {
+        String text = expression.trim();
+        int at = -1;
+        for (int i = 0; i < text.length(); i++) {
+            if ("!<>=".indexOf(text.charAt(i)) >= 0) {
+                at = i;
+                break;
+            }
+        }
+        if (at <= 0) {
+            throw new IllegalArgumentException("Expected column<op>value, got: " + text);
+        }
+
+        boolean orEqual = at + 1 < text.length() && text.charAt(at + 1) == '=';
+        Operator operator;
+        switch (text.charAt(at)) {
+            case '=': operator = Operator.EQ; orEqual = false; break;
+            case '!':
+                if (!orEqual) {
+                    throw new IllegalArgumentException("Expected != in row filter: " + text);
+                }
+                operator = Operator.NE;
+                break;
+            case '<': operator = orEqual ? Operator.LE : Operator.LT; break;
+            default: operator = orEqual ? Operator.GE : Operator.GT;
+        }
+
+        String column = text.substring(0, at).trim();
+        String value = text.substring(at + (orEqual ? 2 : 1)).trim();
+        Image image = Image.ROW;
+        if (column.startsWith("before.")) {
+            image = Image.BEFORE;
+            column = column.substring("before.".length());
+        } else if (column.startsWith("after.")) {
+            image = Image.AFTER;
+            column = column.substring("after.".length());
+        }
+        if (column.isEmpty()) {
+            throw new IllegalArgumentException("Row filter has no column: " + text);
+        }
+        return new RowPredicate(image, column, operator, "null".equals(value) ? null : value);
+    }
+
+    public Image getImage() {
+        return image;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * Test a decoded value; {@link TableProjection#MISSING} (the image lacks the column) passes
+     */
+    public boolean test(Object value) {
+        if (value == TableProjection.MISSING) {
+            return true;
+        }
+        if (literal == null || value == null) {
+            boolean equal = literal == null && value == null;
+            return operator == Operator.EQ ? equal : operator == Operator.NE && !equal;
+        }
+
+        int comparison;
+        if ((value instanceof Integer || value instanceof Long) && longLiteral != null) {
+            comparison = Long.compare(((Number) value).longValue(), longLiteral);
+        } else if (value instanceof Number number && doubleLiteral != null) {
+            comparison = Double.compare(number.doubleValue(), doubleLiteral);
+        } else if (value instanceof Boolean bool) {
+            comparison = Boolean.compare(bool, Boolean.parseBoolean(literal));
+        } else {
+            comparison = value.toString().compareTo(literal);
+        }
+
+        switch (operator) {
+            case EQ: return comparison == 0;
+            case NE: return comparison != 0;
+            case LT: return comparison < 0;
+            case LE: return comparison <= 0;
+            case GT: return comparison > 0;
+            default: return comparison >= 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (image == Image.ROW ? "" : image.name().toLowerCase() + ".") + column + operator.symbol + literal;
+    }
+
+    private static Long parseLong(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Double parseDouble(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.jonathantong.StreamShift.projection;
+
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Projection rules of one table: which source columns reach the target, under which names, and
+ * which rows. Compiled into a {@link ColumnLayout} per row image the first time a layout is seen,
+ * and again when the source schema changes.
+ *
+ * Row filter semantics, so the target holds exactly the rows that pass:
+ * 	- inserts and snapshot reads that fail are dropped
+ * 	- updates whose new row fails become a delete of the key, unless the old row failed as well
+ * 	- deletes are dropped only if the old row is known to have failed
+ * A predicate on a column the image does not carry passes.
+ */
+public class TableProjection {
+
+    private static final Logger logger = LoggerFactory.getLogger(TableProjection.class);
+
+    /**
+     * Filter value of a column the decoded image did not carry
+     */
+    public static final Object MISSING = new Object();
+
+    private final String tableName;
+    private final Set<String> includedColumns;
+    private final Set<String> excludedColumns;
+    private final Map<String, String> renamedColumns;
+    private final List<RowPredicate> predicates;
+    private final Map<String, Integer> filterSlots = new HashMap<>();
+    private final int[] predicateSlots;
+
+    private volatile ColumnLayout beforeLayout;
+    private volatile ColumnLayout afterLayout;
+
+    /**
+     * @param includedColumns source columns to keep, or null for all
+     * @param excludedColumns source columns to drop
+     * @param renamedColumns  target names by source column
+     */
+    public TableProjection(String tableName, Set<String> includedColumns, Set<String> excludedColumns,
+                           Map<String, String> renamedColumns, List<RowPredicate> predicates) {
+        this.tableName = tableName;
+        this.includedColumns = includedColumns;
+        this.excludedColumns = excludedColumns;
+        this.renamedColumns = renamedColumns;
+        this.predicates = predicates;
+        this.predicateSlots = new int[predicates.size()];
+        for (int i = 0; i < predicates.size(); i++) {
+            String column = predicates.get(i).getColumn();
+            predicateSlots[i] = filterSlots.computeIfAbsent(column, c -> filterSlots.size());
+        }
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Target name of a source column, or null if the column is not projected
+     */
+    public String outputName(String column) {
+        if ((includedColumns != null && !includedColumns.contains(column)) || excludedColumns.contains(column)) {
+            return null;
+        }
+        return renamedColumns.getOrDefault(column, column);
+    }
+
+    /**
+     * Slot of a source column among the values row filters read, or -1
+     */
+    public int filterSlot(String column) {
+        Integer slot = filterSlots.get(column);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Filter values per image; the decoder keeps before values first, then after values
+     */
+    public int filterColumnCount() {
+        return filterSlots.size();
+    }
+
+    public boolean hasFilters() {
+        return !predicates.isEmpty();
+    }
+
+    /**
+     * Compiled layout last seen for the before or after image, or null
+     */
+    public ColumnLayout layout(boolean before) {
+        return before ? beforeLayout : afterLayout;
+    }
+
+    /**
+     * Compile and remember the layout of a row image whose columns differ from the cached one
+     */
+    public ColumnLayout compile(boolean before, List<String> columns) {
+        ColumnLayout layout = new ColumnLayout(columns, this);
+        if (before) {
+            beforeLayout = layout;
+        } else {
+            afterLayout = layout;
+        }
+        logger.debug("Compiled projection of table {} for {} image columns {}",
+                tableName, before ? "before" : "after", columns);
+        return layout;
+    }
+
+    /**
+     * Apply the row filters to a decoded change, turning an update that leaves the filter into a delete
+     *
+     * @param filterValues values of the filter columns, before image then after image
+     * @return false if the change is filtered out
+     */
+    public boolean accept(DecodedChange change, Object[] filterValues) {
+        if (predicates.isEmpty()) {
+            return true;
+        }
+        String operation = change.getOperation();
+        if ("d".equals(operation)) {
+            return matches(filterValues, true);
+        }
+        if (!"u".equals(operation)) {
+            return matches(filterValues, false);
+        }
+        if (matches(filterValues, false)) {
+            return true;
+        }
+        if (change.getBefore() != null && !matches(filterValues, true)) {
+            return false;
+        }
+
+        // The row no longer qualifies: remove it from the target by key
+        RowBuffer after = change.getAfter();
+        if (change.getBefore() == null && after != null) {
+            RowBuffer before = change.beforeBuffer();
+            for (int i = 0; i < after.size(); i++) {
+                before.add(after.column(i), after.value(i));
+            }
+        }
+        change.removeAfter();
+        change.setOperation("d");
+        return true;
+    }
+
+    private boolean matches(Object[] filterValues, boolean before) {
+        int afterOffset = filterSlots.size();
+        for (int i = 0; i < predicateSlots.length; i++) {
+            RowPredicate predicate = predicates.get(i);
+            boolean fromBefore = predicate.getImage() == RowPredicate.Image.ROW ? before
+                    : predicate.getImage() == RowPredicate.Image.BEFORE;
+            if (!predicate.test(filterValues[(fromBefore ? 0 : afterOffset) + predicateSlots[i]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return tableName + "{include=" + includedColumns + ", exclude=" + excludedColumns
+                + ", rename=" + renamedColumns + ", filters=" + predicates + "}";
+    }
+}
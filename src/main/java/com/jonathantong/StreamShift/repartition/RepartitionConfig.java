@@ -0,0 +1,75 @@
+package com.jonathantong.StreamShift.repartition;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Producer and batch listener container of the {@link Repartitioner}
+ */
+@Configuration
+public class RepartitionConfig {
+
+    @Value("${spring.kafka.bootstrap-servers:localhost:9092}")
+    private String bootstrapServers;
+
+    @Value("${streamshift.repartition.compression:lz4}")
+    private String compression;
+
+    @Value("${streamshift.repartition.linger-ms:10}")
+    private int lingerMs;
+
+    @Value("${streamshift.repartition.batch-bytes:262144}")
+    private int batchBytes;
+
+    @Bean
+    public ProducerFactory<String, byte[]> repartitionProducerFactory() {
+        return new DefaultKafkaProducerFactory<>(producerConfig(bootstrapServers, compression, lingerMs, batchBytes));
+    }
+
+    @Bean
+    public KafkaTemplate<String, byte[]> repartitionKafkaTemplate() {
+        return new KafkaTemplate<>(repartitionProducerFactory());
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> repartitionListenerContainerFactory(
+            ConsumerFactory<String, byte[]> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        // Each poll is produced and flushed as one batch, then its offsets are committed
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        return factory;
+    }
+
+    /**
+     * Idempotent, batched and compressed production. Idempotence keeps up to five in-flight
+     * batches per partition in order across retries, so per-key order survives broker errors.
+     */
+    static Map<String, Object> producerConfig(String bootstrapServers, String compression, int lingerMs, int batchBytes) {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        configProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        configProps.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, batchBytes);
+        return configProps;
+    }
+}
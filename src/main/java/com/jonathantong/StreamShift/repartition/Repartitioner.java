@@ -0,0 +1,154 @@
+package com.jonathantong.StreamShift.repartition;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Optional repartition stage: consumes low-partition CDC topics and produces every record again,
+ * keyed by its primary key, to an internal topic with more partitions, so the apply consumer
+ * group can spread one table over many nodes.
+ *
+ * 	streamshift.repartition.enabled=true
+ * 	streamshift.repartition.partitions=12
+ * 	streamshift.apply.topic-pattern=streamshift\\.repartitioned\\..*
+ *
+ * Internal topics are named {@code <topic-prefix>.<table>}, so the table is still the topic's
+ * last segment, and are created on first use. The Debezium record key is the primary key, and
+ * the producer's partitioner hashes it, so all changes to a row land in one partition in source
+ * order. Records without a key keep their source partition's order by going to one partition.
+ * Values, headers and timestamps are copied as they are; tombstones are forwarded.
+ *
+ * Each polled batch is produced, flushed and confirmed before its source offsets are committed.
+ * A failed send fails the batch, which is redelivered: records may be produced twice, never out of order.
+ */
+@Component
+public class Repartitioner {
+
+    private static final Logger logger = LoggerFactory.getLogger(Repartitioner.class);
+
+    /**
+     * Listener container id of the repartition stage
+     */
+    public static final String LISTENER_ID = "repartitioner";
+
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final KafkaAdmin kafkaAdmin;
+    private final String topicPrefix;
+    private final int partitions;
+    private final short replicationFactor;
+    private final long sendTimeoutMs;
+    private final Map<String, String> targetTopics = new ConcurrentHashMap<>();
+    private final Set<String> createdTopics = ConcurrentHashMap.newKeySet();
+    private final Counter repartitioned;
+
+    @Autowired
+    public Repartitioner(
+            @Qualifier("repartitionKafkaTemplate") KafkaTemplate<String, byte[]> kafkaTemplate,
+            KafkaAdmin kafkaAdmin,
+            @Value("${streamshift.repartition.topic-prefix:streamshift.repartitioned}") String topicPrefix,
+            @Value("${streamshift.repartition.partitions:12}") int partitions,
+            @Value("${streamshift.repartition.replication-factor:1}") short replicationFactor,
+            @Value("${streamshift.repartition.send-timeout-ms:30000}") long sendTimeoutMs,
+            MeterRegistry meterRegistry) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("streamshift.repartition.partitions must be at least 1, got " + partitions);
+        }
+        this.kafkaTemplate = kafkaTemplate;
+        this.kafkaAdmin = kafkaAdmin;
+        this.topicPrefix = topicPrefix;
+        this.partitions = partitions;
+        this.replicationFactor = replicationFactor;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.repartitioned = Counter.builder("streamshift.repartition.records")
+                .description("Records produced again to internal repartitioned topics")
+                .register(meterRegistry);
+    }
+
+    @KafkaListener(
+            id = LISTENER_ID,
+            topicPattern = "${streamshift.repartition.source-pattern:${streamshift.cdc.topic-pattern:dbserver1\\.inventory\\..*}}",
+            groupId = "${streamshift.repartition.group-id:streamshift-repartition-group}",
+            containerFactory = "repartitionListenerContainerFactory",
+            autoStartup = "${streamshift.repartition.enabled:false}"
+    )
+    public void repartition(List<ConsumerRecord<String, byte[]>> records, Acknowledgment acknowledgment) {
+        List<CompletableFuture<SendResult<String, byte[]>>> sends = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, byte[]> record : records) {
+            String topic = targetTopic(record.topic());
+            // Keyed records are partitioned by key hash; keyless ones stay together
+            Integer partition = record.key() == null ? Math.floorMod(record.partition(), partitions) : null;
+            sends.add(kafkaTemplate.send(new ProducerRecord<>(topic, partition,
+                    record.timestamp(), record.key(), record.value(), record.headers())));
+        }
+        kafkaTemplate.flush();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        try {
+            for (CompletableFuture<SendResult<String, byte[]>> send : sends) {
+                send.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while repartitioning", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Failed to repartition a batch of " + records.size() + " records", e);
+        }
+
+        repartitioned.increment(records.size());
+        acknowledgment.acknowledge();
+    }
+
+    /**
+     * Internal topic of a source topic, created with the configured partitions on first use
+     */
+    String targetTopic(String sourceTopic) {
+        String topic = targetTopics.computeIfAbsent(sourceTopic,
+                t -> topicPrefix + "." + t.substring(t.lastIndexOf('.') + 1));
+        if (!createdTopics.contains(topic)) {
+            createTopic(topic);
+        }
+        return topic;
+    }
+
+    private void createTopic(String topic) {
+        // Never adds partitions to an existing topic: that would move keys between partitions
+        try (Admin admin = Admin.create(kafkaAdmin.getConfigurationProperties())) {
+            admin.createTopics(List.of(new NewTopic(topic, partitions, replicationFactor))).all().get();
+            logger.info("Created repartitioned topic {} with {} partitions", topic, partitions);
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof TopicExistsException)) {
+                throw new IllegalStateException("Failed to create repartitioned topic " + topic, e.getCause());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating topic " + topic, e);
+        }
+        createdTopics.add(topic);
+    }
+}
@@ -0,0 +1,109 @@
+package com.jonathantong.StreamShift.routing;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decisions made from a record's topic and key before its value is decoded: which table it
+ * belongs to, whether the table is excluded, and whether the staged pipeline routes it by its key.
+ *
+ * 	streamshift.routing.key-first=true
+ * 	streamshift.routing.exclude-tables=audit_log,sessions
+ *
+ * Debezium names topics {@code server.schema.table} and keys records by primary key, as a JSON
+ * object of the key columns. With key-first routing the pipeline's decode stage reads only that
+ * key, and the apply lane the event is routed to decodes the value. Records of excluded tables,
+ * and tombstones, are acknowledged without decoding their values in either mode.
+ */
+@Component
+public class KeyRouting {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyRouting.class);
+
+    private final boolean keyFirst;
+    private final Set<String> excludedTables = new HashSet<>();
+    private final Map<String, String> topicTables = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> keyColumns = new ConcurrentHashMap<>();
+
+    @Autowired
+    public KeyRouting(
+            @Value("${streamshift.routing.key-first:false}") boolean keyFirst,
+            @Value("${streamshift.routing.exclude-tables:}") String excludeTables) {
+        this.keyFirst = keyFirst;
+        if (excludeTables != null) {
+            for (String table : excludeTables.split(",")) {
+                if (!table.isBlank()) {
+                    excludedTables.add(table.trim());
+                }
+            }
+        }
+        if (keyFirst || !excludedTables.isEmpty()) {
+            logger.info("Routing records {}, excluded tables {}",
+                    keyFirst ? "by their keys before decoding values" : "after decoding values", excludedTables);
+        }
+    }
+
+    /**
+     * Routing after decoding values, with no excluded tables
+     */
+    public static KeyRouting valueFirst() {
+        return new KeyRouting(false, "");
+    }
+
+    public boolean isKeyFirst() {
+        return keyFirst;
+    }
+
+    /**
+     * Table a Debezium topic carries, named by the topic's last segment
+     */
+    public String tableOf(String topic) {
+        if (topic == null) {
+            return null;
+        }
+        String table = topicTables.get(topic);
+        if (table == null) {
+            table = topicTables.computeIfAbsent(topic, t -> t.substring(t.lastIndexOf('.') + 1));
+        }
+        return table;
+    }
+
+    public boolean excludes(String tableName) {
+        return tableName != null && !excludedTables.isEmpty() && excludedTables.contains(tableName);
+    }
+
+    /**
+     * Key columns of a table's records, in key order, from the first key decoded for it
+     */
+    public List<String> keyColumns(String tableName, RowBuffer key) {
+        List<String> columns = keyColumns.get(tableName);
+        if (columns == null || !sameColumns(columns, key)) {
+            // A key of other columns replaces the remembered ones, e.g. after the key changed
+            columns = key.columnList();
+            keyColumns.put(tableName, columns);
+        }
+        return columns;
+    }
+
+    private static boolean sameColumns(List<String> columns, RowBuffer key) {
+        if (columns.size() != key.size()) {
+            return false;
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            if (!columns.get(i).equals(key.column(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
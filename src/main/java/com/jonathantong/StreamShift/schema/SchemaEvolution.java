@@ -0,0 +1,156 @@
+package com.jonathantong.StreamShift.schema;
+
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.model.SchemaDrift;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Applies source schema changes to target tables while the stream keeps running.
+ *
+ * 	streamshift.schema.evolution.enabled=true
+ * 	streamshift.schema.evolution.drop-columns=false
+ * 	streamshift.schema.evolution.lock-timeout-ms=5000
+ *
+ * A change whose row has a column the target table lacks, or lacks a column the table requires,
+ * makes its lane compare the table with the source schema and alter it: new columns are added,
+ * and columns gone from the source are made nullable, or dropped with drop-columns. A write that
+ * fails the way a retyped or dropped source column would, e.g. an invalid value for the column's
+ * type, also compares column types, and is retried once when the table was altered.
+ *
+ * The ALTER runs under a per-table barrier: lanes reaching the same table with a new layout wait
+ * for it and then find the table altered, while other tables keep streaming. Writes with the old
+ * layout are still valid and wait only for the database's table lock. Afterwards the table's
+ * cached statements, staging tables and row fingerprints are dropped.
+ */
+@Component
+public class SchemaEvolution {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaEvolution.class);
+
+    // Undefined column, datatype mismatch, invalid text representation, numeric out of range,
+    // string too long, not null violation
+    private static final Set<String> SCHEMA_SQL_STATES = Set.of("42703", "42804", "22P02", "22003", "22001", "23502");
+
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+    private static final int ALTER_ATTEMPTS = 3;
+
+    private final SchemaMetadataService schemaMetadataService;
+    private final DatabaseUpdateService databaseUpdateService;
+    private final boolean enabled;
+    private final boolean dropColumns;
+    private final long lockTimeoutMs;
+    private final Map<String, ReentrantLock> tableBarriers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SchemaEvolution(
+            SchemaMetadataService schemaMetadataService,
+            DatabaseUpdateService databaseUpdateService,
+            @Value("${streamshift.schema.evolution.enabled:true}") boolean enabled,
+            @Value("${streamshift.schema.evolution.drop-columns:false}") boolean dropColumns,
+            @Value("${streamshift.schema.evolution.lock-timeout-ms:5000}") long lockTimeoutMs) {
+        this.schemaMetadataService = schemaMetadataService;
+        this.databaseUpdateService = databaseUpdateService;
+        this.enabled = enabled;
+        this.dropColumns = dropColumns;
+        this.lockTimeoutMs = lockTimeoutMs;
+    }
+
+    /**
+     * Evolution that never alters a table
+     */
+    public static SchemaEvolution disabled() {
+        return new SchemaEvolution(null, null, false, false, 0);
+    }
+
+    /**
+     * Alter the change's target table if its row does not fit it. A map lookup and a column
+     * name comparison when it fits. Deletes are not checked, since they only need key columns.
+     */
+    public void evolve(DecodedChange change) {
+        if (!enabled || change.getAfter() == null
+                || !schemaMetadataService.hasSchemaDrift(change.getTableName(), change.getAfter())) {
+            return;
+        }
+        evolve(change.getTableName(), change.getAfter(), false);
+    }
+
+    /**
+     * After a failed write to a table: if a changed source column can explain the failure and
+     * the table differs from the source, alter it and return true, so the write can be retried once
+     *
+     * @param row the written row, or null for a batch of rows
+     */
+    public boolean evolveAfter(RuntimeException failure, String tableName, RowBuffer row) {
+        if (!enabled) {
+            return false;
+        }
+        String sqlState = sqlState(failure);
+        if (sqlState == null || !SCHEMA_SQL_STATES.contains(sqlState)) {
+            return false;
+        }
+        return evolve(tableName, row, true);
+    }
+
+    private boolean evolve(String tableName, RowBuffer row, boolean compareTypes) {
+        ReentrantLock barrier = tableBarriers.computeIfAbsent(tableName, t -> new ReentrantLock());
+        barrier.lock();
+        try {
+            // Another lane may have altered the table while this one waited
+            if (!compareTypes && !schemaMetadataService.hasSchemaDrift(tableName, row)) {
+                return true;
+            }
+            SchemaDrift drift = schemaMetadataService.detectDrift(tableName, row, compareTypes);
+            if (drift.isEmpty()) {
+                return false;
+            }
+
+            logger.info("Source schema of table {} changed: added {}, retyped {}, dropped {}",
+                    tableName, drift.getAddedColumns(), drift.getRetypedColumns(), drift.getDroppedColumns());
+            alter(drift);
+            databaseUpdateService.invalidateTable(tableName);
+            return true;
+        } finally {
+            barrier.unlock();
+        }
+    }
+
+    private void alter(SchemaDrift drift) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                schemaMetadataService.alterTargetTable(drift, dropColumns, lockTimeoutMs);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt == ALTER_ATTEMPTS || !LOCK_NOT_AVAILABLE.equals(sqlState(e))) {
+                    throw e;
+                }
+                logger.warn("Table {} stayed locked for {} ms, retrying ALTER TABLE ({}/{})",
+                        drift.getTableName(), lockTimeoutMs, attempt, ALTER_ATTEMPTS);
+            }
+        }
+    }
+
+    /**
+     * SQLState of the first SQLException in a failure's causes, or null
+     */
+    static String sqlState(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && sqlException.getSQLState() != null) {
+                return sqlException.getSQLState();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package com.jonathantong.StreamShift.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How a table's changes are written to the target.
+ *
+ * 	- ROW: one statement per change event, as it arrives
+ * 	- BATCH: a lane's net changes per table as batched UPSERT and DELETE statements
+ * 	- MERGE: a lane's net changes per table COPY'd into an UNLOGGED staging table, then applied
+ * 	  with one MERGE (PostgreSQL 15+) or delete-plus-upsert statement
+ *
+ * BATCH and MERGE need a batch to work on, so they apply in the pipeline's apply lanes; the
+ * synchronous listener always applies row by row.
+ */
+public enum ApplyStrategy {
+    ROW,
+    BATCH,
+    MERGE;
+
+    /**
+     * Resolve a strategy from its configuration name: row, batch or merge
+     */
+    public static ApplyStrategy forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "row": return ROW;
+            case "batch": return BATCH;
+            case "merge": return MERGE;
+            default:
+                throw new IllegalArgumentException("Unknown apply strategy: " + name);
+        }
+    }
+
+    /**
+     * Parse per-table overrides of the form {@code orders:merge,order_lines:batch}
+     */
+    public static Map<String, ApplyStrategy> parseOverrides(String overrides) {
+        Map<String, ApplyStrategy> strategies = new HashMap<>();
+        if (overrides == null || overrides.isBlank()) {
+            return strategies;
+        }
+        for (String entry : overrides.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected table:strategy, got: " + entry.trim());
+            }
+            strategies.put(entry.substring(0, separator).trim(), forName(entry.substring(separator + 1)));
+        }
+        return strategies;
+    }
+}
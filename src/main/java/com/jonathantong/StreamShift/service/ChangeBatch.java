@@ -0,0 +1,89 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes staged by one apply lane for tables with a set-wise apply strategy, grouped by table.
+ * Not thread safe; each lane owns one.
+ */
+public class ChangeBatch {
+
+    private final Map<String, TableBatch> tables = new LinkedHashMap<>();
+    private int size;
+
+    /**
+     * The table's batch; a table whose strategy or key changed starts a new one once empty
+     */
+    TableBatch table(String tableName, ApplyStrategy strategy, List<String> keyColumns) {
+        TableBatch batch = tables.get(tableName);
+        if (batch == null || batch.isEmpty()
+                && (batch.getStrategy() != strategy || !batch.getKeyColumns().equals(keyColumns))) {
+            batch = new TableBatch(tableName, strategy, keyColumns);
+            tables.put(tableName, batch);
+        }
+        return batch;
+    }
+
+    /**
+     * True if a change to this row's key is staged, so later changes to it must be staged here too
+     */
+    public boolean contains(String tableName, RowBuffer row) {
+        TableBatch batch = tables.get(tableName);
+        return batch != null && !batch.isEmpty() && batch.contains(row);
+    }
+
+    void added() {
+        size++;
+    }
+
+    Collection<TableBatch> tables() {
+        return tables.values();
+    }
+
+    /**
+     * Change events staged since the last flush
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Net changes staged, one per key and table
+     */
+    public int netSize() {
+        int net = 0;
+        for (TableBatch batch : tables.values()) {
+            net += batch.getChanges().size();
+        }
+        return net;
+    }
+
+    /**
+     * Earliest stream position among the staged net changes, or Long.MAX_VALUE if none
+     */
+    public long firstSequence() {
+        long first = Long.MAX_VALUE;
+        for (TableBatch batch : tables.values()) {
+            for (TableBatch.Change change : batch.getChanges()) {
+                first = Math.min(first, change.getSequence());
+            }
+        }
+        return first;
+    }
+
+    void clear() {
+        for (TableBatch batch : tables.values()) {
+            batch.clear();
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,588 @@
+package com.jonathantong.StreamShift.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.schema.SchemaEvolution;
+import com.jonathantong.StreamShift.tracing.ActivitySummary;
+import com.jonathantong.StreamShift.tracing.ConvertEvent;
+import com.jonathantong.StreamShift.tracing.SchemaCheckEvent;
+import com.jonathantong.StreamShift.tracing.TraceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies a single decoded Debezium change event to the target database.
+ * Used by the live Kafka listener and the pipeline's apply lanes; resyncs share its row conversion.
+ *
+ * Tables configured with a set-wise {@link ApplyStrategy} are staged into a {@link ChangeBatch}
+ * by the pipeline's apply lanes and written when the lane flushes. Row by row changes go through
+ * the {@link TargetWriter}, which may still be sending them when a change returns; callers
+ * {@link #awaitWrites()} before acknowledging.
+ *
+ * Lanes pass a batch of waiting changes: a row of a table related by foreign keys whose write
+ * fails because the row it references is not on the target yet is staged there instead of
+ * dropped, for the lane to write again.
+ */
+@Service
+public class ChangeEventApplier {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangeEventApplier.class);
+
+    private static final char[] OPERATIONS = {'c', 'u', 'r', 'd'};
+
+    private final DatabaseUpdateService databaseUpdateService;
+    private final SchemaMetadataService schemaMetadataService;
+    private final ActivitySummary activitySummary;
+    private final SchemaEvolution schemaEvolution;
+    private final DependencyScheduler dependencyScheduler;
+    private final TargetWriter targetWriter;
+    private final ApplyStrategy defaultStrategy;
+    private final Map<String, ApplyStrategy> tableStrategies;
+
+    @Autowired
+    public ChangeEventApplier(
+            DatabaseUpdateService databaseUpdateService,
+            SchemaMetadataService schemaMetadataService,
+            ActivitySummary activitySummary,
+            SchemaEvolution schemaEvolution,
+            DependencyScheduler dependencyScheduler,
+            ObjectProvider<R2dbcTargetWriter> r2dbcTargetWriter,
+            @Value("${streamshift.apply.default-strategy:row}") String defaultStrategy,
+            @Value("${streamshift.apply.table-strategies:}") String tableStrategies) {
+        this(databaseUpdateService, schemaMetadataService, activitySummary, schemaEvolution, dependencyScheduler,
+                (TargetWriter) r2dbcTargetWriter.getIfAvailable(), defaultStrategy, tableStrategies);
+    }
+
+    /**
+     * Applier writing rows through {@code targetWriter}, or through {@code databaseUpdateService} if null
+     */
+    public ChangeEventApplier(
+            DatabaseUpdateService databaseUpdateService,
+            SchemaMetadataService schemaMetadataService,
+            ActivitySummary activitySummary,
+            SchemaEvolution schemaEvolution,
+            DependencyScheduler dependencyScheduler,
+            TargetWriter targetWriter,
+            String defaultStrategy,
+            String tableStrategies) {
+        this.databaseUpdateService = databaseUpdateService;
+        this.schemaMetadataService = schemaMetadataService;
+        this.activitySummary = activitySummary;
+        this.schemaEvolution = schemaEvolution;
+        this.dependencyScheduler = dependencyScheduler;
+        this.targetWriter = targetWriter != null ? targetWriter : databaseUpdateService;
+        this.defaultStrategy = ApplyStrategy.forName(defaultStrategy);
+        this.tableStrategies = ApplyStrategy.parseOverrides(tableStrategies);
+
+        if (this.defaultStrategy != ApplyStrategy.ROW || !this.tableStrategies.isEmpty()) {
+            logger.info("Apply strategy {} by default, per table {}", this.defaultStrategy, this.tableStrategies);
+        }
+    }
+
+    /**
+     * Applier with apply strategies that never alters target tables nor orders them by foreign keys
+     */
+    public ChangeEventApplier(
+            DatabaseUpdateService databaseUpdateService,
+            SchemaMetadataService schemaMetadataService,
+            ActivitySummary activitySummary,
+            String defaultStrategy,
+            String tableStrategies) {
+        this(databaseUpdateService, schemaMetadataService, activitySummary, SchemaEvolution.disabled(),
+                DependencyScheduler.disabled(), databaseUpdateService, defaultStrategy, tableStrategies);
+    }
+
+    /**
+     * Applier that writes every table row by row
+     */
+    public ChangeEventApplier(
+            DatabaseUpdateService databaseUpdateService,
+            SchemaMetadataService schemaMetadataService,
+            ActivitySummary activitySummary) {
+        this(databaseUpdateService, schemaMetadataService, activitySummary, "row", "");
+    }
+
+    /**
+     * Ensure the target table exists and apply the change to it
+     */
+    public void apply(DecodedChange change) {
+        apply(change, null, 0L);
+    }
+
+    /**
+     * Apply a change, or stage it in {@code waiting} if a row it references is not on the target yet
+     *
+     * @param sequence position of the change in the stream, kept with it in {@code waiting}
+     */
+    public void apply(DecodedChange change, ChangeBatch waiting, long sequence) {
+        String tableName = change.getTableName();
+        TraceContext.current().change(tableName, change.getOperation());
+        RowBuffer row = "d".equals(change.getOperation()) ? change.getBefore() : change.getAfter();
+
+        try {
+            // Ensure target table exists
+            ensureTargetTable(change);
+
+            // Process the change event; once more if the source schema changed under it
+            try {
+                processChangeEvent(change);
+            } catch (RuntimeException e) {
+                if (!schemaEvolution.evolveAfter(e, tableName, change.getAfter() != null ? change.getAfter() : change.getBefore())) {
+                    throw e;
+                }
+                processChangeEvent(change);
+            }
+        } catch (RuntimeException e) {
+            if (keepWaiting(waiting, tableName, change.getOperation(), row, sequence, e)) {
+                return;
+            }
+            activitySummary.failed(tableName);
+            throw e;
+        }
+        activitySummary.applied(tableName, change.getOperation());
+    }
+
+    /**
+     * Wait until this thread's row by row writes are on the target. Writes that failed are
+     * written again over JDBC, followed by the later writes to their rows in issue order, with the
+     * same retries as rows of a failed batch.
+     */
+    public void awaitWrites() {
+        awaitWrites(null, 0L);
+    }
+
+    /**
+     * Wait for this thread's row by row writes, staging in {@code waiting} those whose referenced
+     * row is not on the target yet, and the later writes to their rows
+     *
+     * @param sequence stream position at or before every write awaited, kept with them in {@code waiting}
+     */
+    public void awaitWrites(ChangeBatch waiting, long sequence) {
+        try {
+            targetWriter.awaitWrites();
+        } catch (FailedWritesException e) {
+            for (FailedWritesException.FailedWrite failure : e.getFailures()) {
+                String operation = failure.delete() ? "d" : "u";
+                if (waiting != null && failure.row() != null && waiting.contains(failure.tableName(), failure.row())
+                        && stageWaiting(waiting, failure.tableName(), operation, failure.row(), sequence)) {
+                    // Behind an earlier write to its row that is waiting
+                    continue;
+                }
+                retry(failure, waiting, sequence);
+            }
+        }
+    }
+
+    /**
+     * Apply strategy configured for a table
+     */
+    public ApplyStrategy strategyFor(String tableName) {
+        ApplyStrategy strategy = tableStrategies.get(tableName);
+        return strategy != null ? strategy : defaultStrategy;
+    }
+
+    /**
+     * Stage a change for {@link #flush(ChangeBatch)} if its table has a set-wise strategy, otherwise
+     * apply it now. Changes without a complete primary key are also applied now.
+     * The change's row buffers must not be reused until the batch is flushed.
+     *
+     * @param sequence position of the change in the stream, e.g. its ring sequence
+     */
+    public void stage(ChangeBatch batch, DecodedChange change, long sequence) {
+        stage(batch, change, sequence, strategyFor(change.getTableName()));
+    }
+
+    /**
+     * Stage a change with a given strategy rather than the table's configured one, e.g. a fan-out target's
+     */
+    public void stage(ChangeBatch batch, DecodedChange change, long sequence, ApplyStrategy strategy) {
+        String tableName = change.getTableName();
+        if (strategy == ApplyStrategy.ROW) {
+            apply(change);
+            return;
+        }
+
+        TraceContext.current().change(tableName, change.getOperation());
+        String operation = change.getOperation();
+        List<String> primaryKeys;
+        try {
+            ensureTargetTable(change);
+            primaryKeys = schemaMetadataService.getPrimaryKeyColumns(tableName);
+        } catch (RuntimeException e) {
+            activitySummary.failed(tableName);
+            throw e;
+        }
+
+        // Keyed by the full primary key; keyColumnsPresent returns the cached list itself when complete
+        RowBuffer row = "d".equals(operation) ? change.getBefore() : change.getAfter();
+        if (row == null || operation == null || operation.length() != 1 || "cdur".indexOf(operation.charAt(0)) < 0
+                || primaryKeys.isEmpty() || keyColumnsPresent(tableName, row) != primaryKeys) {
+            apply(change);
+            return;
+        }
+
+        batch.table(tableName, strategy, primaryKeys).add(operation, row, sequence);
+        batch.added();
+    }
+
+    /**
+     * Write every staged change and empty the batch. A table whose set-wise write fails is
+     * retried row by row, so one bad row costs the batch's speed-up but not its other rows.
+     * Tables related by foreign keys are written after the others, in dependency order.
+     */
+    public void flush(ChangeBatch batch) {
+        // Staged rows may follow row by row writes of the same keys still in flight
+        awaitWrites();
+        flush(batch, null);
+    }
+
+    /**
+     * Write every staged change and empty the batch, then stage in {@code waiting}, which may be
+     * the batch itself, the rows of related tables that failed because a row they reference is not
+     * on the target yet. Row by row writes still in flight are to be awaited first.
+     */
+    public void flush(ChangeBatch batch, ChangeBatch waiting) {
+        List<Waiting> kept = waiting != null ? new ArrayList<>() : null;
+        try {
+            List<TableBatch> related = null;
+            for (TableBatch tableBatch : batch.tables()) {
+                if (tableBatch.isEmpty()) {
+                    continue;
+                }
+                if (dependencyScheduler.isScheduled(tableBatch.getTableName())) {
+                    if (related == null) {
+                        related = new ArrayList<>();
+                    }
+                    related.add(tableBatch);
+                } else {
+                    flush(tableBatch, kept);
+                }
+            }
+            if (related != null) {
+                flushInDependencyOrder(related, kept);
+            }
+        } finally {
+            batch.clear();
+        }
+        if (kept != null) {
+            for (Waiting row : kept) {
+                TableBatch tableBatch = row.tableBatch();
+                TableBatch.Change change = row.change();
+                waiting.table(tableBatch.getTableName(), tableBatch.getStrategy(), tableBatch.getKeyColumns())
+                        .add(change.isDelete() ? "d" : "u", change.getRow(), change.getSequence());
+                waiting.added();
+            }
+        }
+    }
+
+    /**
+     * Upserts parents first, so referenced rows exist, then deletes children first, so no
+     * remaining row references a deleted one. Keys are distinct within a table's batch, so
+     * splitting its deletes from its upserts keeps its net changes.
+     */
+    private void flushInDependencyOrder(List<TableBatch> related, List<Waiting> kept) {
+        if (related.size() == 1) {
+            flush(related.get(0), kept);
+            return;
+        }
+        if (dependencyScheduler.defersConstraints() && flushDeferred(related)) {
+            return;
+        }
+
+        related.sort(Comparator.comparingInt(tableBatch -> dependencyScheduler.rank(tableBatch.getTableName())));
+        for (TableBatch tableBatch : related) {
+            TableBatch upserts = tableBatch.part(false);
+            if (!upserts.isEmpty()) {
+                flush(upserts, kept);
+            }
+        }
+        for (int i = related.size() - 1; i >= 0; i--) {
+            TableBatch deletes = related.get(i).part(true);
+            if (!deletes.isEmpty()) {
+                flush(deletes, kept);
+            }
+        }
+    }
+
+    /**
+     * All related tables in one transaction, foreign keys checked at commit
+     */
+    private boolean flushDeferred(List<TableBatch> related) {
+        try {
+            for (TableBatch tableBatch : related) {
+                if (tableBatch.getStrategy() == ApplyStrategy.MERGE) {
+                    databaseUpdateService.prepareStaging(tableBatch.getTableName());
+                }
+            }
+            databaseUpdateService.applyDeferred(related);
+        } catch (RuntimeException e) {
+            logger.warn("Deferred apply of {} related tables failed, applying them in dependency order: {}",
+                    related.size(), e.getMessage());
+            // The whole transaction rolled back, none of its rows may be skipped as already written
+            for (TableBatch tableBatch : related) {
+                databaseUpdateService.invalidateFingerprints(tableBatch.getTableName());
+            }
+            return false;
+        }
+        for (TableBatch tableBatch : related) {
+            recordApplied(tableBatch);
+        }
+        return true;
+    }
+
+    private void flush(TableBatch tableBatch, List<Waiting> kept) {
+        String tableName = tableBatch.getTableName();
+        try {
+            if (tableBatch.getStrategy() == ApplyStrategy.MERGE) {
+                databaseUpdateService.prepareStaging(tableName);
+            }
+            databaseUpdateService.applyBatch(tableBatch);
+            recordApplied(tableBatch);
+        } catch (RuntimeException e) {
+            logger.warn("{} apply of {} changes to table {} failed, applying row by row: {}",
+                    tableBatch.getStrategy(), tableBatch.getChanges().size(), tableName, e.getMessage());
+            // Rows of a retyped or dropped source column fit once the table is altered
+            schemaEvolution.evolveAfter(e, tableName, null);
+            applyRowByRow(tableBatch, kept);
+        }
+    }
+
+    private void recordApplied(TableBatch tableBatch) {
+        for (char operation : OPERATIONS) {
+            activitySummary.applied(tableBatch.getTableName(), operation, tableBatch.eventCount(operation));
+        }
+    }
+
+    private void applyRowByRow(TableBatch tableBatch, List<Waiting> kept) {
+        String tableName = tableBatch.getTableName();
+        for (TableBatch.Change change : tableBatch.getChanges()) {
+            try {
+                writeRow(tableBatch, change);
+                activitySummary.applied(tableName, change.isDelete() ? 'd' : 'u', 1);
+            } catch (RuntimeException e) {
+                if (kept != null && dependencyScheduler.isParentMissing(tableName, e)) {
+                    kept.add(new Waiting(tableBatch, change));
+                    continue;
+                }
+                activitySummary.failed(tableName);
+                logger.error("Error applying change to table {} at sequence {}: {}",
+                        tableName, change.getSequence(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private void retry(FailedWritesException.FailedWrite failure, ChangeBatch waiting, long sequence) {
+        String tableName = failure.tableName();
+        try {
+            try {
+                failure.retry().run();
+            } catch (RuntimeException e) {
+                if (!schemaEvolution.evolveAfter(e, tableName, null)) {
+                    throw e;
+                }
+                failure.retry().run();
+            }
+        } catch (RuntimeException e) {
+            if (keepWaiting(waiting, tableName, failure.delete() ? "d" : "u", failure.row(), sequence, e)) {
+                return;
+            }
+            activitySummary.failed(tableName);
+            logger.error("Error applying change to table {} over JDBC after a failed write: {}",
+                    tableName, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stage a row in {@code waiting} if its write failed because a row it references is not on the target yet
+     */
+    private boolean keepWaiting(ChangeBatch waiting, String tableName, String operation, RowBuffer row,
+                                long sequence, RuntimeException failure) {
+        return waiting != null && row != null && dependencyScheduler.isParentMissing(tableName, failure)
+                && stageWaiting(waiting, tableName, operation, row, sequence);
+    }
+
+    /**
+     * Stage a row in {@code waiting} by its primary key; rows without a complete key cannot wait
+     */
+    private boolean stageWaiting(ChangeBatch waiting, String tableName, String operation, RowBuffer row, long sequence) {
+        List<String> primaryKeys = schemaMetadataService.getPrimaryKeyColumns(tableName);
+        if (primaryKeys.isEmpty() || keyColumnsPresent(tableName, row) != primaryKeys) {
+            return false;
+        }
+        waiting.table(tableName, ApplyStrategy.BATCH, primaryKeys).add(operation, row, sequence);
+        waiting.added();
+        return true;
+    }
+
+    /**
+     * A staged change kept for the lane to write again
+     */
+    private record Waiting(TableBatch tableBatch, TableBatch.Change change) {
+    }
+
+    private void writeRow(TableBatch tableBatch, TableBatch.Change change) {
+        if (change.isDelete()) {
+            databaseUpdateService.delete(tableBatch.getTableName(), change.getRow(), tableBatch.getKeyColumns());
+        } else {
+            databaseUpdateService.upsert(tableBatch.getTableName(), change.getRow(), tableBatch.getKeyColumns());
+        }
+    }
+
+    private void ensureTargetTable(DecodedChange change) {
+        SchemaCheckEvent schemaCheck = new SchemaCheckEvent();
+        schemaCheck.begin();
+        schemaMetadataService.ensureTargetTableExists(change.getDatabaseName(), change.getTableName(), change);
+        schemaEvolution.evolve(change);
+        schemaCheck.end();
+        if (schemaCheck.shouldCommit()) {
+            schemaCheck.describe(TraceContext.current());
+            schemaCheck.commit();
+        }
+    }
+
+    /**
+     * Convert a Debezium row image into column name / value pairs
+     */
+    public Map<String, Object> convertJsonToMap(JsonNode jsonNode) {
+        ConvertEvent convert = new ConvertEvent();
+        convert.begin();
+        Map<String, Object> map = new HashMap<>();
+
+        jsonNode.fields().forEachRemaining(entry -> {
+            String key = entry.getKey();
+            JsonNode value = entry.getValue();
+
+            if (value.isNull()) {
+                map.put(key, null);
+            } else if (value.isBoolean()) {
+                map.put(key, value.booleanValue());
+            } else if (value.isInt()) {
+                map.put(key, value.intValue());
+            } else if (value.isLong()) {
+                map.put(key, value.longValue());
+            } else if (value.isDouble()) {
+                map.put(key, value.doubleValue());
+            } else {
+                map.put(key, value.asText());
+            }
+        });
+
+        convert.end();
+        if (convert.shouldCommit()) {
+            convert.describe(TraceContext.current());
+            convert.commit();
+        }
+        return map;
+    }
+
+    private void processChangeEvent(DecodedChange change) {
+        String operation = change.getOperation();
+        String tableName = change.getTableName();
+
+        switch (operation) {
+            case "c": // CREATE (INSERT)
+                handleInsert(tableName, change);
+                break;
+            case "u": // UPDATE
+                handleUpdate(tableName, change);
+                break;
+            case "d": // DELETE
+                handleDelete(tableName, change);
+                break;
+            case "r": // READ (snapshot)
+                handleInsert(tableName, change); // Treat snapshot as insert
+                break;
+            default:
+                logger.warn("Unknown operation type: {}", operation);
+        }
+    }
+
+    private void handleInsert(String tableName, DecodedChange change) {
+        RowBuffer afterData = change.getAfter();
+        if (afterData != null) {
+            // Use upsert to handle out-of-order events
+            List<String> conflictColumns = keyColumnsPresent(tableName, afterData);
+
+            if (!conflictColumns.isEmpty()) {
+                targetWriter.upsert(tableName, afterData, conflictColumns);
+            } else {
+                // Fallback to regular insert if no primary key
+                targetWriter.insert(tableName, afterData);
+            }
+        }
+    }
+
+    private void handleUpdate(String tableName, DecodedChange change) {
+        RowBuffer afterData = change.getAfter();
+
+        if (afterData != null) {
+            // Extract primary key for WHERE clause
+            List<String> keyColumns = keyColumnsPresent(tableName, afterData);
+
+            if (!keyColumns.isEmpty()) {
+                targetWriter.update(tableName, afterData, keyColumns);
+            } else {
+                logger.warn("No primary key found for update operation on table: {}", tableName);
+                // Fallback to upsert
+                handleInsert(tableName, change);
+            }
+        }
+    }
+
+    private void handleDelete(String tableName, DecodedChange change) {
+        RowBuffer beforeData = change.getBefore();
+
+        if (beforeData != null) {
+            // Primary key for the WHERE clause
+            List<String> keyColumns = keyColumnsPresent(tableName, beforeData);
+
+            if (!keyColumns.isEmpty()) {
+                targetWriter.delete(tableName, beforeData, keyColumns);
+            } else {
+                logger.warn("No primary key found for delete operation on table: {}", tableName);
+            }
+        }
+    }
+
+    /**
+     * Primary key columns that have a value in this row. Normally every key column does,
+     * and the table's cached key list is returned as is.
+     */
+    private List<String> keyColumnsPresent(String tableName, RowBuffer row) {
+        List<String> primaryKeys = schemaMetadataService.getPrimaryKeyColumns(tableName);
+
+        int present = 0;
+        for (int i = 0; i < primaryKeys.size(); i++) {
+            if (row.get(primaryKeys.get(i)) != null) {
+                present++;
+            }
+        }
+        if (present == primaryKeys.size() && present > 0) {
+            return primaryKeys;
+        }
+
+        if (present == 0) {
+            logger.warn("No primary key values found for table {}", tableName);
+            return List.of();
+        }
+        List<String> keyColumns = new ArrayList<>(present);
+        for (String column : primaryKeys) {
+            if (row.get(column) != null) {
+                keyColumns.add(column);
+            }
+        }
+        return keyColumns;
+    }
+}
@@ -0,0 +1,471 @@
+package com.jonathantong.StreamShift.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+import com.jonathantong.StreamShift.format.EventFormat;
+import com.jonathantong.StreamShift.format.EventFormats;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.projection.ColumnLayout;
+import com.jonathantong.StreamShift.projection.ProjectionRules;
+import com.jonathantong.StreamShift.projection.TableProjection;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Streaming decoder for Debezium change events in JSON, Smile or CBOR.
+ *
+ * Reads the envelope token by token into a reusable {@link DecodedChange} instead of binding a
+ * {@code ChangeEvent} with two JSON trees and converting those into maps. Field names come from
+ * Jackson's canonical symbol table, so steady-state decoding allocates only the parser and the
+ * column values themselves.
+ *
+ * Envelopes written with the converter's schemas are unwrapped from their payload and the schema
+ * block is skipped; column types come from the target table's metadata either way. Values are
+ * parsed from the record's bytes in the format {@link EventFormats} picks, without decoding
+ * JSON into a String first.
+ *
+ * Tables with {@link ProjectionRules} are projected while decoding: columns that are neither
+ * projected nor read by a row filter are skipped without decoding their values.
+ *
+ * Strings and binary values of at least {@code streamshift.large-values.threshold-bytes} are
+ * kept as {@link LargeValue}s: JSON text is sliced from the record's bytes, which the parser
+ * then skips without buffering, and binary formats' bytes are kept raw instead of as base64.
+ */
+@Component
+public class ChangeEventDecoder {
+
+    private final JsonFactory jsonFactory;
+    private final SmileFactory smileFactory;
+    private final CBORFactory cborFactory;
+    private final ProjectionRules projectionRules;
+    private final EventFormats eventFormats;
+    private final int largeValueThreshold;
+
+    public ChangeEventDecoder(ObjectMapper objectMapper) {
+        this(objectMapper, ProjectionRules.none());
+    }
+
+    public ChangeEventDecoder(ObjectMapper objectMapper, ProjectionRules projectionRules) {
+        this(objectMapper, projectionRules, EventFormats.detecting(), 1 << 20);
+    }
+
+    /**
+     * @param largeValueThreshold size in bytes from which values are kept as {@link LargeValue}s; 0 to never
+     */
+    @Autowired
+    public ChangeEventDecoder(ObjectMapper objectMapper, ProjectionRules projectionRules, EventFormats eventFormats,
+                              @Value("${streamshift.large-values.threshold-bytes:1048576}") int largeValueThreshold) {
+        this.jsonFactory = objectMapper.getFactory();
+        // Producers configured for Smile may leave out its header
+        this.smileFactory = SmileFactory.builder().disable(SmileParser.Feature.REQUIRE_HEADER).build();
+        this.cborFactory = new CBORFactory();
+        this.projectionRules = projectionRules;
+        this.eventFormats = eventFormats;
+        this.largeValueThreshold = largeValueThreshold > 0 ? largeValueThreshold : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Decode a change event value into {@code change}
+     *
+     * @return false if the value is JSON null or filtered out, and there is nothing to apply
+     */
+    public boolean decode(String json, DecodedChange change) throws IOException {
+        return decode(json, change, null);
+    }
+
+    /**
+     * Decode a change event value from a topic into {@code change}. Debezium writes the source
+     * block after the row images, so the topic's last segment names the table whose projection
+     * is applied while reading them; should the envelope name another table, the value is read again.
+     *
+     * @param topic the record's topic, or null to project after reading the source block
+     * @return false if the value is JSON null or filtered out, and there is nothing to apply
+     */
+    public boolean decode(String json, DecodedChange change, String topic) throws IOException {
+        return decode(json, null, EventFormat.JSON, change, topic);
+    }
+
+    /**
+     * Decode a Kafka record's value, in the format its headers or topic call for, into {@code change}
+     *
+     * @param headers the record's headers, or null
+     * @return false if the value is null or filtered out, and there is nothing to apply
+     */
+    public boolean decode(byte[] value, Headers headers, DecodedChange change, String topic) throws IOException {
+        return decode(null, value, eventFormats.formatOf(topic, headers, value), change, topic);
+    }
+
+    /**
+     * Decode a value in a known format into {@code change}
+     */
+    public boolean decode(EventFormat format, byte[] value, DecodedChange change, String topic) throws IOException {
+        if (format == EventFormat.AUTO) {
+            format = EventFormat.detect(value);
+        }
+        return decode(null, value, format, change, topic);
+    }
+
+    /**
+     * Decode a Debezium record key, a JSON object of the primary key columns, into {@code key};
+     * a key written with schemas is read from its payload
+     *
+     * @return false if the record has no key or it is not an object
+     */
+    public boolean decodeKey(String json, RowBuffer key) throws IOException {
+        key.clear();
+        if (json == null || json.isEmpty()) {
+            return false;
+        }
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String column = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if (column.equals("payload") && token == JsonToken.START_OBJECT) {
+                    key.clear();
+                    readRow(parser, null, key);
+                    return !key.isEmpty();
+                } else if (column.equals("schema") && token == JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                } else {
+                    key.add(column, readValue(parser, null, token));
+                }
+            }
+        }
+        return !key.isEmpty();
+    }
+
+    private boolean decode(String json, byte[] value, EventFormat format, DecodedChange change, String topic)
+            throws IOException {
+        TableProjection projection = projectionRules.forTopic(topic);
+        if (!read(json, value, format, change, projection)) {
+            return false;
+        }
+        if (projectionRules.isEmpty()) {
+            return true;
+        }
+
+        TableProjection tableProjection = projectionRules.forTable(change.getTableName());
+        if (tableProjection != projection) {
+            projection = tableProjection;
+            read(json, value, format, change, projection);
+        }
+        return projection == null
+                || projection.accept(change, change.filterValues(2 * projection.filterColumnCount()));
+    }
+
+    private boolean read(String json, byte[] value, EventFormat format, DecodedChange change,
+                         TableProjection projection) throws IOException {
+        change.reset();
+        if (projection != null && projection.hasFilters()) {
+            Arrays.fill(change.filterValues(2 * projection.filterColumnCount()), TableProjection.MISSING);
+        }
+        try (JsonParser parser = createParser(json, value, format)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                return false;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Change event is not an object: " + token);
+            }
+            // Text values are sliced from JSON bytes; a String source has no byte offsets
+            byte[] source = json == null && format == EventFormat.JSON ? value : null;
+            return readEnvelope(parser, source, change, projection);
+        }
+    }
+
+    private JsonParser createParser(String json, byte[] value, EventFormat format) throws IOException {
+        if (json != null) {
+            return jsonFactory.createParser(json);
+        }
+        switch (format) {
+            case SMILE:
+                return smileFactory.createParser(value);
+            case CBOR:
+                return cborFactory.createParser(value);
+            default:
+                return jsonFactory.createParser(value);
+        }
+    }
+
+    /**
+     * Read the envelope's fields; an envelope written with schemas is read from its payload
+     *
+     * @return false if the payload is null
+     */
+    private boolean readEnvelope(JsonParser parser, byte[] source, DecodedChange change, TableProjection projection)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "before":
+                    if (token == JsonToken.START_OBJECT && projection != null) {
+                        readRow(parser, source, change.beforeBuffer(), projection, true, change);
+                    } else if (token == JsonToken.START_OBJECT) {
+                        readRow(parser, source, change.beforeBuffer());
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "after":
+                    if (token == JsonToken.START_OBJECT && projection != null) {
+                        readRow(parser, source, change.afterBuffer(), projection, false, change);
+                    } else if (token == JsonToken.START_OBJECT) {
+                        readRow(parser, source, change.afterBuffer());
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "source":
+                    readSource(parser, change);
+                    break;
+                case "op":
+                    change.setOperation(token == JsonToken.VALUE_NULL ? null : parser.getText());
+                    break;
+                case "ts_ms":
+                    if (token == JsonToken.VALUE_NUMBER_INT) {
+                        change.setTimestampMs(parser.getLongValue());
+                    }
+                    break;
+                case "payload":
+                    // Schemas enabled: the schema block is skipped by default
+                    if (token != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        return false;
+                    }
+                    return readEnvelope(parser, source, change, projection);
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return true;
+    }
+
+    private void readSource(JsonParser parser, DecodedChange change) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_STRING && field.equals("table")) {
+                change.setTableName(parser.getText());
+            } else if (token == JsonToken.VALUE_STRING && field.equals("db")) {
+                change.setDatabaseName(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Read one row image. Value types match {@code ChangeEventApplier.convertJsonToMap}:
+     * Integer, Long, Double, Boolean, or the text of anything else, unless it is large.
+     *
+     * @param source the JSON bytes being parsed, or null
+     */
+    private void readRow(JsonParser parser, byte[] source, RowBuffer row) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String column = parser.currentName();
+            row.add(column, readValue(parser, source, parser.nextToken()));
+        }
+    }
+
+    /**
+     * Read one row image through a table projection. Positions follow the layout compiled for the
+     * previous image of the table until a column differs, then the rest of the row is projected by
+     * name and its layout compiled for the next rows.
+     */
+    private void readRow(JsonParser parser, byte[] source, RowBuffer row, TableProjection projection, boolean before,
+                         DecodedChange change) throws IOException {
+        ColumnLayout layout = projection.layout(before);
+        Object[] filterValues = change.filterValues(2 * projection.filterColumnCount());
+        int filterOffset = before ? 0 : projection.filterColumnCount();
+        List<String> columns = null; // Source columns, once the row departs from the layout
+
+        int index = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String column = parser.currentName();
+            JsonToken token = parser.nextToken();
+            String output;
+            int filterSlot;
+            if (columns == null && layout != null && layout.matches(index, column)) {
+                output = layout.output(index);
+                filterSlot = layout.filterSlot(index);
+            } else {
+                if (columns == null) {
+                    columns = layout != null ? layout.prefix(index) : new ArrayList<>();
+                }
+                columns.add(column);
+                output = projection.outputName(column);
+                filterSlot = projection.filterSlot(column);
+            }
+            index++;
+
+            if (output == null && filterSlot < 0) {
+                parser.skipChildren();
+                continue;
+            }
+            Object value = readValue(parser, source, token);
+            if (filterSlot >= 0) {
+                filterValues[filterOffset + filterSlot] = value;
+            }
+            if (output != null) {
+                row.add(output, value);
+            }
+        }
+
+        if (columns == null && (layout == null || layout.size() != index)) {
+            columns = layout != null ? layout.prefix(index) : new ArrayList<>();
+        }
+        if (columns != null) {
+            projection.compile(before, columns);
+        }
+    }
+
+    private Object readValue(JsonParser parser, byte[] source, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT: return parser.getIntValue();
+                    case LONG: return parser.getLongValue();
+                    default: return parser.getText();
+                }
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_EMBEDDED_OBJECT:
+                // Binary formats carry bytes natively; JSON carries them as base64 text
+                Object embedded = parser.getEmbeddedObject();
+                if (embedded instanceof byte[] bytes) {
+                    return bytes.length >= largeValueThreshold ? LargeValue.binary(bytes)
+                            : Base64.getEncoder().encodeToString(bytes);
+                }
+                return String.valueOf(embedded);
+            case START_OBJECT:
+            case START_ARRAY:
+                // Nested structures have no text of their own, as JsonNode.asText()
+                parser.skipChildren();
+                return "";
+            case VALUE_STRING:
+                if (source != null) {
+                    LargeValue large = largeString(source, (int) parser.currentTokenLocation().getByteOffset());
+                    if (large != null) {
+                        return large;
+                    }
+                }
+                return parser.getText();
+            default:
+                return parser.getText();
+        }
+    }
+
+    /**
+     * The JSON string whose opening quote is at {@code quote}, if it is at least the threshold long;
+     * shorter strings are left to the parser. Only records that could hold a large value are scanned.
+     */
+    private LargeValue largeString(byte[] source, int quote) {
+        if (quote < 0 || source.length - quote - 2 < largeValueThreshold) {
+            return null;
+        }
+        int start = quote + 1;
+        boolean escaped = false;
+        int end = start;
+        while (source[end] != '"') {
+            if (source[end] == '\\') {
+                escaped = true;
+                end++;
+            }
+            end++;
+        }
+        if (end - start < largeValueThreshold) {
+            return null;
+        }
+        return escaped ? unescape(source, start, end) : LargeValue.text(source, start, end - start);
+    }
+
+    /**
+     * UTF-8 text of a JSON string's escaped content between {@code start} and {@code end}
+     */
+    private static LargeValue unescape(byte[] source, int start, int end) {
+        // Escapes are never shorter than what they stand for
+        byte[] text = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = source[i];
+            if (b != '\\') {
+                text[length++] = b;
+                continue;
+            }
+            byte escape = source[++i];
+            switch (escape) {
+                case 'b': text[length++] = '\b'; break;
+                case 'f': text[length++] = '\f'; break;
+                case 'n': text[length++] = '\n'; break;
+                case 'r': text[length++] = '\r'; break;
+                case 't': text[length++] = '\t'; break;
+                case 'u':
+                    int c = hex(source, i + 1);
+                    i += 4;
+                    if (Character.isHighSurrogate((char) c) && i + 6 < end && source[i + 1] == '\\' && source[i + 2] == 'u') {
+                        c = Character.toCodePoint((char) c, (char) hex(source, i + 3));
+                        i += 6;
+                    }
+                    length = putUtf8(text, length, c);
+                    break;
+                default:
+                    // Quote, backslash and solidus stand for themselves
+                    text[length++] = escape;
+            }
+        }
+        return LargeValue.text(text, 0, length);
+    }
+
+    private static int hex(byte[] source, int offset) {
+        return Integer.parseInt(new String(source, offset, 4, StandardCharsets.US_ASCII), 16);
+    }
+
+    private static int putUtf8(byte[] text, int length, int codePoint) {
+        if (codePoint < 0x80) {
+            text[length++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            text[length++] = (byte) (0xC0 | codePoint >> 6);
+            text[length++] = (byte) (0x80 | codePoint & 0x3F);
+        } else if (codePoint < 0x10000) {
+            text[length++] = (byte) (0xE0 | codePoint >> 12);
+            text[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            text[length++] = (byte) (0x80 | codePoint & 0x3F);
+        } else {
+            text[length++] = (byte) (0xF0 | codePoint >> 18);
+            text[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+            text[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            text[length++] = (byte) (0x80 | codePoint & 0x3F);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,380 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.model.LargeValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+
+/**
+ * Encodes staged rows for {@code COPY ... FROM STDIN}: PostgreSQL's binary format when every
+ * column type has a binary encoding here, text format otherwise. Values arrive as the per-row
+ * path binds them (after {@code DatabaseUpdateService.convertValue}) and are encoded the way
+ * the server would cast the bound parameter to the column's type.
+ *
+ * bytea values are raw bytes or Debezium's base64 text of them. {@link LargeValue}s are copied
+ * from their bytes without becoming Strings.
+ */
+class CopyEncoder {
+
+    private static final byte[] BINARY_HEADER = {
+            'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0,
+            0, 0, 0, 0,     // flags
+            0, 0, 0, 0      // header extension length
+    };
+
+    // 2000-01-01T00:00:00Z, the epoch of binary timestamps, in Unix microseconds
+    private static final long POSTGRES_EPOCH_MICROS = 946_684_800_000_000L;
+
+    private static final Set<String> BINARY_TYPES = Set.of(
+            "bool", "int2", "int4", "int8", "float4", "float8",
+            "text", "varchar", "bpchar", "timestamp", "timestamptz", "json", "jsonb", "bytea");
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final String[] types;
+    private final boolean binary;
+    private byte[] buffer = new byte[8192];
+    private int length;
+
+    /**
+     * @param types PostgreSQL type name (udt_name) of each copied column, in column order
+     */
+    CopyEncoder(String[] types) {
+        this.types = types;
+        this.binary = Arrays.stream(types).allMatch(BINARY_TYPES::contains);
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * The WITH clause matching this encoder's format
+     */
+    String format() {
+        return binary ? "(FORMAT binary)" : "(FORMAT text)";
+    }
+
+    void begin() {
+        if (binary) {
+            put(BINARY_HEADER, 0, BINARY_HEADER.length);
+        }
+    }
+
+    /**
+     * Encode one row; {@code values} are in the order of the types given at construction
+     */
+    void row(Object[] values) {
+        if (binary) {
+            putShort(values.length);
+            for (int i = 0; i < values.length; i++) {
+                binaryValue(types[i], values[i]);
+            }
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    putByte('\t');
+                }
+                textValue(types[i], values[i]);
+            }
+            putByte('\n');
+        }
+    }
+
+    void end() {
+        if (binary) {
+            putShort(-1);
+        }
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Discard encoded bytes once they have been written to the server
+     */
+    void reset() {
+        length = 0;
+    }
+
+    private void binaryValue(String type, Object value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        switch (type) {
+            case "bool":
+                putInt(1);
+                putByte(toBoolean(value) ? 1 : 0);
+                break;
+            case "int2":
+                long shortValue = toLong(value);
+                if (shortValue < Short.MIN_VALUE || shortValue > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("Value out of range for smallint: " + value);
+                }
+                putInt(2);
+                putShort((int) shortValue);
+                break;
+            case "int4":
+                putInt(4);
+                putInt(Math.toIntExact(toLong(value)));
+                break;
+            case "int8":
+                putInt(8);
+                putLong(toLong(value));
+                break;
+            case "float4":
+                putInt(4);
+                putInt(Float.floatToIntBits((float) toDouble(value)));
+                break;
+            case "float8":
+                putInt(8);
+                putLong(Double.doubleToLongBits(toDouble(value)));
+                break;
+            case "timestamp":
+                putInt(8);
+                putLong(toMicros(toLocalDateTime(value).toInstant(ZoneOffset.UTC)));
+                break;
+            case "timestamptz":
+                putInt(8);
+                putLong(toMicros(toInstant(value)));
+                break;
+            case "bytea":
+                if (value instanceof LargeValue large) {
+                    putInt(large.binaryLength());
+                    putStream(large.binaryStream(), large.binaryLength());
+                } else {
+                    byte[] bytes = toBytes(value);
+                    putInt(bytes.length);
+                    put(bytes, 0, bytes.length);
+                }
+                break;
+            case "jsonb":
+                // Version 1 of jsonb's binary format is its text
+                putText(value, 1);
+                break;
+            default:
+                // text, varchar, bpchar, json
+                putText(value, -1);
+        }
+    }
+
+    /**
+     * Length-prefixed UTF-8 text, after a version byte unless {@code version} is negative
+     */
+    private void putText(Object value, int version) {
+        int prefix = version >= 0 ? 1 : 0;
+        if (value instanceof LargeValue large && !large.isBinary()) {
+            putInt(large.length() + prefix);
+            if (prefix > 0) {
+                putByte(version);
+            }
+            put(large.array(), large.offset(), large.length());
+            return;
+        }
+        byte[] bytes = value instanceof LargeValue large ? large.textBytes()
+                : String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length + prefix);
+        if (prefix > 0) {
+            putByte(version);
+        }
+        put(bytes, 0, bytes.length);
+    }
+
+    private void textValue(String type, Object value) {
+        if (value == null) {
+            putByte('\\');
+            putByte('N');
+            return;
+        }
+
+        if ("bytea".equals(type)) {
+            // Hex format; its backslash is escaped for COPY
+            putByte('\\');
+            putByte('\\');
+            putByte('x');
+            if (value instanceof LargeValue large) {
+                putHex(large.binaryStream());
+            } else {
+                putHex(new ByteArrayInputStream(toBytes(value)));
+            }
+            return;
+        }
+        if (value instanceof LargeValue large && !large.isBinary()) {
+            putEscaped(large.array(), large.offset(), large.length());
+            return;
+        }
+
+        String text;
+        if (value instanceof Boolean bool) {
+            text = bool ? "t" : "f";
+        } else if (value instanceof Timestamp timestamp) {
+            // Same instant the driver would bind: wall-clock time in the JVM's zone
+            text = "timestamptz".equals(type) ? timestamp.toInstant().toString() : timestamp.toLocalDateTime().toString();
+        } else {
+            text = String.valueOf(value);
+        }
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        putEscaped(bytes, 0, bytes.length);
+    }
+
+    private void putEscaped(byte[] bytes, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            byte b = bytes[i];
+            switch (b) {
+                case '\\':
+                    putByte('\\');
+                    putByte('\\');
+                    break;
+                case '\t':
+                    putByte('\\');
+                    putByte('t');
+                    break;
+                case '\n':
+                    putByte('\\');
+                    putByte('n');
+                    break;
+                case '\r':
+                    putByte('\\');
+                    putByte('r');
+                    break;
+                default:
+                    putByte(b);
+            }
+        }
+    }
+
+    /**
+     * Bytes of a bytea value: as they are, or decoded from Debezium's base64 text
+     */
+    private static byte[] toBytes(Object value) {
+        if (value instanceof byte[] bytes) {
+            return bytes;
+        }
+        return Base64.getDecoder().decode(value.toString());
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean bool) {
+            return bool;
+        }
+        String text = value.toString().trim();
+        if ("t".equalsIgnoreCase(text) || "true".equalsIgnoreCase(text)) {
+            return true;
+        }
+        if ("f".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Not a boolean: " + value);
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        return Long.parseLong(value.toString().trim());
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        return Double.parseDouble(value.toString().trim());
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        return LocalDateTime.parse(value.toString().trim().replace(' ', 'T'));
+    }
+
+    private static Instant toInstant(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toInstant();
+        }
+        return OffsetDateTime.parse(value.toString().trim().replace(' ', 'T')).toInstant();
+    }
+
+    private static long toMicros(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000L + instant.getNano() / 1000 - POSTGRES_EPOCH_MICROS;
+    }
+
+    private void putStream(InputStream stream, int count) {
+        ensure(count);
+        try {
+            length += stream.readNBytes(buffer, length, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void putHex(InputStream stream) {
+        byte[] chunk = new byte[4096];
+        try {
+            int count;
+            while ((count = stream.read(chunk)) > 0) {
+                ensure(2 * count);
+                for (int i = 0; i < count; i++) {
+                    buffer[length++] = HEX[(chunk[i] & 0xFF) >>> 4];
+                    buffer[length++] = HEX[chunk[i] & 0xF];
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private void put(byte[] bytes, int offset, int count) {
+        ensure(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    private void putByte(int b) {
+        ensure(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void putShort(int v) {
+        ensure(2);
+        buffer[length++] = (byte) (v >>> 8);
+        buffer[length++] = (byte) v;
+    }
+
+    private void putInt(int v) {
+        ensure(4);
+        buffer[length++] = (byte) (v >>> 24);
+        buffer[length++] = (byte) (v >>> 16);
+        buffer[length++] = (byte) (v >>> 8);
+        buffer[length++] = (byte) v;
+    }
+
+    private void putLong(long v) {
+        putInt((int) (v >>> 32));
+        putInt((int) v);
+    }
+}
@@ -1,19 +1,31 @@
 package com.jonathantong.StreamShift.service;
 
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.tracing.CommitTracing;
+import com.jonathantong.StreamShift.tracing.SqlExecutionEvent;
+import com.jonathantong.StreamShift.tracing.TraceContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlParameterValue;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -21,15 +33,47 @@ import java.util.stream.Collectors;
  */
 @Service
 @Transactional
-public class DatabaseUpdateService {
+public class DatabaseUpdateService implements TargetWriter {
 
     private static final Logger logger = LoggerFactory.getLogger(DatabaseUpdateService.class);
 
+    // Debezium ISO timestamp strings; checked cheaply before matching
+    private static final Pattern ISO_TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}.*");
+
+    // Longest ISO timestamp with nanoseconds and a zone; longer strings are not sniffed
+    private static final int MAX_TIMESTAMP_LENGTH = 64;
+
+    // Statement parameters of the row buffer API, one buffer per applying thread
+    private static final ThreadLocal<ParameterBuffer> PARAMETERS = ThreadLocal.withInitial(ParameterBuffer::new);
+
     private final JdbcTemplate targetJdbcTemplate;
+    private final RowFingerprintCache fingerprintCache;
+    private final StatementCache statementCache = new StatementCache();
+    private final StagingMergeWriter stagingMergeWriter;
+    // Column types of large values; null binds them without a type
+    private final SchemaMetadataService schemaMetadataService;
 
     @Autowired
-    public DatabaseUpdateService(@Qualifier("targetJdbcTemplate") JdbcTemplate targetJdbcTemplate) {
+    public DatabaseUpdateService(
+            @Qualifier("targetJdbcTemplate") JdbcTemplate targetJdbcTemplate,
+            RowFingerprintCache fingerprintCache,
+            SchemaMetadataService schemaMetadataService) {
         this.targetJdbcTemplate = targetJdbcTemplate;
+        this.fingerprintCache = fingerprintCache;
+        this.stagingMergeWriter = new StagingMergeWriter(targetJdbcTemplate, this::convertValue);
+        this.schemaMetadataService = schemaMetadataService;
+    }
+
+    public DatabaseUpdateService(JdbcTemplate targetJdbcTemplate, RowFingerprintCache fingerprintCache) {
+        this(targetJdbcTemplate, fingerprintCache, (SchemaMetadataService) null);
+    }
+
+    DatabaseUpdateService(JdbcTemplate targetJdbcTemplate, RowFingerprintCache fingerprintCache,
+                          StagingMergeWriter stagingMergeWriter) {
+        this.targetJdbcTemplate = targetJdbcTemplate;
+        this.fingerprintCache = fingerprintCache;
+        this.stagingMergeWriter = stagingMergeWriter;
+        this.schemaMetadataService = null;
     }
 
     /**
@@ -56,16 +100,16 @@ public class DatabaseUpdateService {
         // Prepare values in same order as columns
         for (String column : columns) {
             Object value = data.get(column);
-            values.add(convertValue(value));
+            values.add(bindValue(tableName, column, value));
         }
 
         String sql = String.format("INSERT INTO \"%s\" (%s) VALUES (%s)",
                 tableName, columnsList, placeholders);
 
-        logger.debug("Executing INSERT: {} with values: {}", sql, values);
+        logger.trace("Executing INSERT: {} with values: {}", sql, values);
 
         try {
-            int rowsAffected = targetJdbcTemplate.update(sql, values.toArray());
+            int rowsAffected = executeUpdate("INSERT", tableName, sql, values.toArray());
             logger.debug("INSERT successful: {} rows affected in table {}", rowsAffected, tableName);
         } catch (Exception e) {
             logger.error("Failed to INSERT into table {}: {}", tableName, e.getMessage());
@@ -87,6 +131,15 @@ public class DatabaseUpdateService {
             throw new IllegalArgumentException("WHERE clause required for UPDATE");
         }
 
+        // Skip the write if this exact row image was already applied
+        boolean cached = fingerprintCache.isEnabled();
+        long keyFingerprint = cached ? fingerprintCache.keyFingerprint(tableName, whereClause) : 0L;
+        long rowFingerprint = cached ? fingerprintCache.rowFingerprint(newData) : 0L;
+        if (cached && fingerprintCache.isUnchanged(keyFingerprint, rowFingerprint)) {
+            logger.debug("Skipping UPDATE in table {} - row unchanged since last write", tableName);
+            return;
+        }
+
         // Build UPDATE statement
         List<Object> values = new ArrayList<>();
 
@@ -98,7 +151,7 @@ public class DatabaseUpdateService {
         // Add SET values
         for (String column : newData.keySet()) {
             Object value = newData.get(column);
-            values.add(convertValue(value));
+            values.add(bindValue(tableName, column, value));
         }
 
         // WHERE clause
@@ -109,22 +162,26 @@ public class DatabaseUpdateService {
         // Add WHERE values
         for (String column : whereClause.keySet()) {
             Object value = whereClause.get(column);
-            values.add(convertValue(value));
+            values.add(bindValue(tableName, column, value));
         }
 
         String sql = String.format("UPDATE \"%s\" SET %s WHERE %s",
                 tableName, setClause, whereClauseStr);
 
-        logger.debug("Executing UPDATE: {} with values: {}", sql, values);
+        logger.trace("Executing UPDATE: {} with values: {}", sql, values);
 
         try {
-            int rowsAffected = targetJdbcTemplate.update(sql, values.toArray());
+            int rowsAffected = executeUpdate("UPDATE", tableName, sql, values.toArray());
             logger.debug("UPDATE successful: {} rows affected in table {}", rowsAffected, tableName);
 
             if (rowsAffected == 0) {
                 logger.warn("UPDATE affected 0 rows in table {} - record may not exist", tableName);
+                fingerprintCache.invalidate(keyFingerprint);
+            } else {
+                fingerprintCache.recordWrite(keyFingerprint, rowFingerprint);
             }
         } catch (Exception e) {
+            fingerprintCache.invalidate(keyFingerprint);
             logger.error("Failed to UPDATE table {}: {}", tableName, e.getMessage());
             throw new RuntimeException("Update failed for table " + tableName, e);
         }
@@ -139,6 +196,10 @@ public class DatabaseUpdateService {
             throw new IllegalArgumentException("WHERE clause required for DELETE");
         }
 
+        if (fingerprintCache.isEnabled()) {
+            fingerprintCache.invalidate(fingerprintCache.keyFingerprint(tableName, whereClause));
+        }
+
         // Build DELETE statement
         List<Object> values = new ArrayList<>();
 
@@ -149,15 +210,15 @@ public class DatabaseUpdateService {
         // Add WHERE values
         for (String column : whereClause.keySet()) {
             Object value = whereClause.get(column);
-            values.add(convertValue(value));
+            values.add(bindValue(tableName, column, value));
         }
 
         String sql = String.format("DELETE FROM \"%s\" WHERE %s", tableName, whereClauseStr);
 
-        logger.debug("Executing DELETE: {} with values: {}", sql, values);
+        logger.trace("Executing DELETE: {} with values: {}", sql, values);
 
         try {
-            int rowsAffected = targetJdbcTemplate.update(sql, values.toArray());
+            int rowsAffected = executeUpdate("DELETE", tableName, sql, values.toArray());
             logger.debug("DELETE successful: {} rows affected in table {}", rowsAffected, tableName);
 
             if (rowsAffected == 0) {
@@ -178,10 +239,554 @@ public class DatabaseUpdateService {
             return;
         }
 
+        // Skip the write if this exact row image was already applied
+        boolean cached = fingerprintCache.isEnabled();
+        long keyFingerprint = cached ? fingerprintCache.keyFingerprint(tableName, conflictColumns, data) : 0L;
+        long rowFingerprint = cached ? fingerprintCache.rowFingerprint(data) : 0L;
+        if (cached && fingerprintCache.isUnchanged(keyFingerprint, rowFingerprint)) {
+            logger.debug("Skipping UPSERT into table {} - row unchanged since last write", tableName);
+            return;
+        }
+
         // Build UPSERT statement
         List<String> columns = new ArrayList<>(data.keySet());
         List<Object> values = new ArrayList<>();
 
+        // Prepare values
+        for (String column : columns) {
+            Object value = data.get(column);
+            values.add(bindValue(tableName, column, value));
+        }
+
+        String sql = buildUpsertSql(tableName, columns, conflictColumns);
+
+        logger.trace("Executing UPSERT: {} with values: {}", sql, values);
+
+        try {
+            int rowsAffected = executeUpdate("UPSERT", tableName, sql, values.toArray());
+            logger.debug("UPSERT successful: {} rows affected in table {}", rowsAffected, tableName);
+            fingerprintCache.recordWrite(keyFingerprint, rowFingerprint);
+        } catch (Exception e) {
+            fingerprintCache.invalidate(keyFingerprint);
+            logger.error("Failed to UPSERT into table {}: {}", tableName, e.getMessage());
+            throw new RuntimeException("Upsert failed for table " + tableName, e);
+        }
+    }
+
+    /**
+     * UPSERT many rows with JDBC batching. Rows sharing the same column set
+     * are sent as one batch of a single prepared statement.
+     */
+    public void upsertBatch(String tableName, List<Map<String, Object>> rows, List<String> conflictColumns) {
+        upsertBatch(tableName, rows, conflictColumns, this::convertValue);
+    }
+
+    /**
+     * INSERT rows read over JDBC, skipping keys the target already has. Values already have
+     * their column types and are bound as they are rather than converted from Debezium encodings.
+     */
+    public void insertTypedBatch(String tableName, List<Map<String, Object>> rows, List<String> conflictColumns) {
+        upsertBatch(tableName, rows, conflictColumns, UnaryOperator.identity(), true);
+    }
+
+    private void upsertBatch(String tableName, List<Map<String, Object>> rows, List<String> conflictColumns,
+                             UnaryOperator<Object> converter) {
+        upsertBatch(tableName, rows, conflictColumns, converter, false);
+    }
+
+    private void upsertBatch(String tableName, List<Map<String, Object>> rows, List<String> conflictColumns,
+                             UnaryOperator<Object> converter, boolean keepExisting) {
+        if (rows == null || rows.isEmpty()) {
+            return;
+        }
+
+        // Group rows by column set so each group shares one statement
+        Map<List<String>, List<Map<String, Object>>> groups = new LinkedHashMap<>();
+        for (Map<String, Object> row : rows) {
+            groups.computeIfAbsent(new ArrayList<>(row.keySet()), k -> new ArrayList<>()).add(row);
+        }
+
+        for (Map.Entry<List<String>, List<Map<String, Object>>> group : groups.entrySet()) {
+            List<String> columns = group.getKey();
+            String sql = buildUpsertSql(tableName, columns, conflictColumns, keepExisting);
+
+            List<Object[]> batchArgs = new ArrayList<>(group.getValue().size());
+            for (Map<String, Object> row : group.getValue()) {
+                Object[] args = new Object[columns.size()];
+                for (int i = 0; i < columns.size(); i++) {
+                    args[i] = withColumnType(tableName, columns.get(i), converter.apply(row.get(columns.get(i))));
+                }
+                batchArgs.add(args);
+            }
+
+            logger.debug("Executing batched UPSERT of {} rows: {}", batchArgs.size(), sql);
+
+            try {
+                executeBatch("UPSERT", tableName, sql, batchArgs);
+            } catch (Exception e) {
+                logger.error("Failed to batch UPSERT into table {}: {}", tableName, e.getMessage());
+                if (fingerprintCache.isEnabled()) {
+                    fingerprintCache.invalidateTable(tableName);
+                }
+                throw new RuntimeException("Batch upsert failed for table " + tableName, e);
+            }
+
+            // Skipped rows keep the target's image, which the cache may not know
+            if (fingerprintCache.isEnabled() && !keepExisting) {
+                for (Map<String, Object> row : group.getValue()) {
+                    fingerprintCache.recordWrite(
+                            fingerprintCache.keyFingerprint(tableName, conflictColumns, row),
+                            fingerprintCache.rowFingerprint(row));
+                }
+            }
+        }
+    }
+
+    /**
+     * DELETE many rows by key with JDBC batching
+     */
+    public void deleteBatch(String tableName, List<Map<String, Object>> whereClauses) {
+        if (whereClauses == null || whereClauses.isEmpty()) {
+            return;
+        }
+
+        Map<List<String>, List<Map<String, Object>>> groups = new LinkedHashMap<>();
+        for (Map<String, Object> whereClause : whereClauses) {
+            if (whereClause.isEmpty()) {
+                throw new IllegalArgumentException("WHERE clause required for DELETE");
+            }
+            if (fingerprintCache.isEnabled()) {
+                fingerprintCache.invalidate(fingerprintCache.keyFingerprint(tableName, whereClause));
+            }
+            groups.computeIfAbsent(new ArrayList<>(whereClause.keySet()), k -> new ArrayList<>()).add(whereClause);
+        }
+
+        for (Map.Entry<List<String>, List<Map<String, Object>>> group : groups.entrySet()) {
+            List<String> columns = group.getKey();
+            String whereClauseStr = columns.stream()
+                    .map(col -> "\"" + col + "\" = ?")
+                    .collect(Collectors.joining(" AND "));
+            String sql = String.format("DELETE FROM \"%s\" WHERE %s", tableName, whereClauseStr);
+
+            List<Object[]> batchArgs = new ArrayList<>(group.getValue().size());
+            for (Map<String, Object> whereClause : group.getValue()) {
+                Object[] args = new Object[columns.size()];
+                for (int i = 0; i < columns.size(); i++) {
+                    args[i] = bindValue(tableName, columns.get(i), whereClause.get(columns.get(i)));
+                }
+                batchArgs.add(args);
+            }
+
+            logger.debug("Executing batched DELETE of {} rows: {}", batchArgs.size(), sql);
+
+            try {
+                executeBatch("DELETE", tableName, sql, batchArgs);
+            } catch (Exception e) {
+                logger.error("Failed to batch DELETE from table {}: {}", tableName, e.getMessage());
+                throw new RuntimeException("Batch delete failed for table " + tableName, e);
+            }
+        }
+    }
+
+    // Row buffer API: the steady-state apply path. Statements are cached per table and column
+    // layout, and parameters are bound from a per-thread buffer, so a write allocates little
+    // beyond the driver's own objects.
+
+    /**
+     * Insert a row buffer into the target table
+     */
+    @Override
+    public void insert(String tableName, RowBuffer row) {
+        if (row.isEmpty()) {
+            logger.warn("No data provided for INSERT into table: {}", tableName);
+            return;
+        }
+
+        String sql = statementSql(StatementCache.Kind.INSERT, tableName, row, List.of());
+
+        ParameterBuffer parameters = PARAMETERS.get();
+        for (int i = 0; i < row.size(); i++) {
+            parameters.add(bindValue(tableName, row.column(i), row.value(i)));
+        }
+
+        try {
+            executeUpdate("INSERT", tableName, sql, parameters);
+        } catch (Exception e) {
+            logger.error("Failed to INSERT into table {}: {}", tableName, e.getMessage());
+            throw new RuntimeException("Insert failed for table " + tableName, e);
+        }
+    }
+
+    /**
+     * Update the row identified by {@code keyColumns} of {@code row} to the values of {@code row}
+     */
+    @Override
+    public void update(String tableName, RowBuffer row, List<String> keyColumns) {
+        if (row.isEmpty()) {
+            logger.warn("No data provided for UPDATE in table: {}", tableName);
+            return;
+        }
+        if (keyColumns.isEmpty()) {
+            logger.error("No WHERE clause provided for UPDATE in table: {}", tableName);
+            throw new IllegalArgumentException("WHERE clause required for UPDATE");
+        }
+
+        // Skip the write if this exact row image was already applied
+        boolean cached = fingerprintCache.isEnabled();
+        long keyFingerprint = cached ? fingerprintCache.keyFingerprint(tableName, keyColumns, row) : 0L;
+        long rowFingerprint = cached ? fingerprintCache.rowFingerprint(row) : 0L;
+        if (cached && fingerprintCache.isUnchanged(keyFingerprint, rowFingerprint)) {
+            logger.debug("Skipping UPDATE in table {} - row unchanged since last write", tableName);
+            return;
+        }
+
+        String sql = statementSql(StatementCache.Kind.UPDATE, tableName, row, keyColumns);
+
+        ParameterBuffer parameters = PARAMETERS.get();
+        for (int i = 0; i < row.size(); i++) {
+            parameters.add(bindValue(tableName, row.column(i), row.value(i)));
+        }
+        for (int i = 0; i < keyColumns.size(); i++) {
+            parameters.add(bindValue(tableName, keyColumns.get(i), row.get(keyColumns.get(i))));
+        }
+
+        try {
+            int rowsAffected = executeUpdate("UPDATE", tableName, sql, parameters);
+            if (rowsAffected == 0) {
+                logger.warn("UPDATE affected 0 rows in table {} - record may not exist", tableName);
+                fingerprintCache.invalidate(keyFingerprint);
+            } else {
+                fingerprintCache.recordWrite(keyFingerprint, rowFingerprint);
+            }
+        } catch (Exception e) {
+            fingerprintCache.invalidate(keyFingerprint);
+            logger.error("Failed to UPDATE table {}: {}", tableName, e.getMessage());
+            throw new RuntimeException("Update failed for table " + tableName, e);
+        }
+    }
+
+    /**
+     * Delete the row identified by {@code keyColumns} of {@code row}
+     */
+    @Override
+    public void delete(String tableName, RowBuffer row, List<String> keyColumns) {
+        if (keyColumns.isEmpty()) {
+            logger.error("No WHERE clause provided for DELETE from table: {}", tableName);
+            throw new IllegalArgumentException("WHERE clause required for DELETE");
+        }
+
+        if (fingerprintCache.isEnabled()) {
+            fingerprintCache.invalidate(fingerprintCache.keyFingerprint(tableName, keyColumns, row));
+        }
+
+        String sql = statementSql(StatementCache.Kind.DELETE, tableName, row, keyColumns);
+
+        ParameterBuffer parameters = PARAMETERS.get();
+        for (int i = 0; i < keyColumns.size(); i++) {
+            parameters.add(bindValue(tableName, keyColumns.get(i), row.get(keyColumns.get(i))));
+        }
+
+        try {
+            int rowsAffected = executeUpdate("DELETE", tableName, sql, parameters);
+            if (rowsAffected == 0) {
+                logger.warn("DELETE affected 0 rows in table {} - record may not exist", tableName);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to DELETE from table {}: {}", tableName, e.getMessage());
+            throw new RuntimeException("Delete failed for table " + tableName, e);
+        }
+    }
+
+    /**
+     * UPSERT a row buffer (INSERT ON CONFLICT UPDATE)
+     */
+    @Override
+    public void upsert(String tableName, RowBuffer row, List<String> conflictColumns) {
+        if (row.isEmpty()) {
+            logger.warn("No data provided for UPSERT into table: {}", tableName);
+            return;
+        }
+
+        // Skip the write if this exact row image was already applied
+        boolean cached = fingerprintCache.isEnabled();
+        long keyFingerprint = cached ? fingerprintCache.keyFingerprint(tableName, conflictColumns, row) : 0L;
+        long rowFingerprint = cached ? fingerprintCache.rowFingerprint(row) : 0L;
+        if (cached && fingerprintCache.isUnchanged(keyFingerprint, rowFingerprint)) {
+            logger.debug("Skipping UPSERT into table {} - row unchanged since last write", tableName);
+            return;
+        }
+
+        String sql = statementSql(StatementCache.Kind.UPSERT, tableName, row, conflictColumns);
+
+        ParameterBuffer parameters = PARAMETERS.get();
+        for (int i = 0; i < row.size(); i++) {
+            parameters.add(bindValue(tableName, row.column(i), row.value(i)));
+        }
+
+        try {
+            executeUpdate("UPSERT", tableName, sql, parameters);
+            fingerprintCache.recordWrite(keyFingerprint, rowFingerprint);
+        } catch (Exception e) {
+            fingerprintCache.invalidate(keyFingerprint);
+            logger.error("Failed to UPSERT into table {}: {}", tableName, e.getMessage());
+            throw new RuntimeException("Upsert failed for table " + tableName, e);
+        }
+    }
+
+    /**
+     * Apply one table's net changes with its set-wise strategy, in one transaction
+     */
+    public void applyBatch(TableBatch batch) {
+        switch (batch.getStrategy()) {
+            case BATCH:
+                applyStatementBatch(batch);
+                break;
+            case MERGE:
+                applyMergeBatch(batch);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a set-wise apply strategy: " + batch.getStrategy());
+        }
+    }
+
+    /**
+     * Apply several tables' net changes in one transaction with deferrable constraints checked
+     * at commit, so the order the tables are written in does not matter. MERGE staging tables
+     * must be prepared beforehand.
+     */
+    public void applyDeferred(List<TableBatch> batches) {
+        targetJdbcTemplate.execute("SET CONSTRAINTS ALL DEFERRED");
+        for (TableBatch batch : batches) {
+            applyBatch(batch);
+        }
+    }
+
+    /**
+     * Create the MERGE staging table of a target table if needed. Runs outside any transaction
+     * so the DDL commits before a batch copies into it.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void prepareStaging(String tableName) {
+        stagingMergeWriter.prepare(tableName);
+    }
+
+    /**
+     * Forget cached statements for a table, e.g. after its columns changed
+     */
+    public void invalidateStatements(String tableName) {
+        statementCache.invalidate(tableName);
+        stagingMergeWriter.invalidate(tableName);
+    }
+
+    /**
+     * Forget everything cached about a table's columns: statements, staging tables and row fingerprints
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void invalidateTable(String tableName) {
+        invalidateStatements(tableName);
+        if (fingerprintCache.isEnabled()) {
+            fingerprintCache.invalidateTable(tableName);
+        }
+    }
+
+    /**
+     * Forget a table's row fingerprints, e.g. after a transaction writing it failed
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void invalidateFingerprints(String tableName) {
+        if (fingerprintCache.isEnabled()) {
+            fingerprintCache.invalidateTable(tableName);
+        }
+    }
+
+    /**
+     * Net changes as batched DELETE and UPSERT statements; keys are distinct, so order between them is free
+     */
+    private void applyStatementBatch(TableBatch batch) {
+        List<String> keyColumns = batch.getKeyColumns();
+        List<Map<String, Object>> upserts = new ArrayList<>();
+        List<Map<String, Object>> deletes = new ArrayList<>();
+        for (TableBatch.Change change : batch.getChanges()) {
+            RowBuffer row = change.getRow();
+            if (change.isDelete()) {
+                Map<String, Object> whereClause = new LinkedHashMap<>();
+                for (String column : keyColumns) {
+                    whereClause.put(column, row.get(column));
+                }
+                deletes.add(whereClause);
+            } else {
+                upserts.add(row.toMap());
+            }
+        }
+
+        deleteBatch(batch.getTableName(), deletes);
+        upsertBatch(batch.getTableName(), upserts, keyColumns);
+    }
+
+    /**
+     * Net changes through a staging table and one MERGE per column layout
+     */
+    private void applyMergeBatch(TableBatch batch) {
+        String tableName = batch.getTableName();
+        List<String> keyColumns = batch.getKeyColumns();
+
+        // Skip upserts of row images already applied, forget deleted keys
+        boolean cached = fingerprintCache.isEnabled();
+        List<TableBatch.Change> changes = batch.getChanges();
+        if (cached) {
+            changes = new ArrayList<>(changes.size());
+            for (TableBatch.Change change : batch.getChanges()) {
+                long keyFingerprint = fingerprintCache.keyFingerprint(tableName, keyColumns, change.getRow());
+                if (change.isDelete()) {
+                    fingerprintCache.invalidate(keyFingerprint);
+                } else if (fingerprintCache.isUnchanged(keyFingerprint, fingerprintCache.rowFingerprint(change.getRow()))) {
+                    continue;
+                }
+                changes.add(change);
+            }
+            if (changes.isEmpty()) {
+                logger.debug("Skipping MERGE into table {} - all rows unchanged since last write", tableName);
+                return;
+            }
+        }
+
+        CommitTracing.traceCommit(tableName, "MERGE");
+        SqlExecutionEvent event = new SqlExecutionEvent();
+        event.begin();
+        int rowsAffected;
+        try {
+            rowsAffected = stagingMergeWriter.merge(tableName, keyColumns, changes);
+        } catch (Exception e) {
+            if (cached) {
+                fingerprintCache.invalidateTable(tableName);
+            }
+            logger.error("Failed to MERGE {} changes into table {}: {}", changes.size(), tableName, e.getMessage());
+            throw new RuntimeException("Merge failed for table " + tableName, e);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setTable(tableName);
+            event.setStatement("MERGE");
+            event.setRows(rowsAffected);
+            event.setBatchSize(changes.size());
+            event.describe(TraceContext.current());
+            event.commit();
+        }
+        logger.debug("MERGE of {} net changes affected {} rows in table {}", changes.size(), rowsAffected, tableName);
+
+        if (cached) {
+            for (TableBatch.Change change : changes) {
+                if (!change.isDelete()) {
+                    fingerprintCache.recordWrite(
+                            fingerprintCache.keyFingerprint(tableName, keyColumns, change.getRow()),
+                            fingerprintCache.rowFingerprint(change.getRow()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Run one write statement, traced as a flight recorder SQL execution and commit
+     */
+    private int executeUpdate(String statement, String tableName, String sql, Object[] args) {
+        CommitTracing.traceCommit(tableName, statement);
+        SqlExecutionEvent event = new SqlExecutionEvent();
+        event.begin();
+        int rowsAffected = targetJdbcTemplate.update(sql, args);
+        event.end();
+        if (event.shouldCommit()) {
+            event.setTable(tableName);
+            event.setStatement(statement);
+            event.setRows(rowsAffected);
+            event.setBatchSize(1);
+            event.describe(TraceContext.current());
+            event.commit();
+        }
+        return rowsAffected;
+    }
+
+    private int executeUpdate(String statement, String tableName, String sql, ParameterBuffer parameters) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Executing {}: {} with values: {}", statement, sql, parameters);
+        }
+        CommitTracing.traceCommit(tableName, statement);
+        SqlExecutionEvent event = new SqlExecutionEvent();
+        event.begin();
+        int rowsAffected;
+        try {
+            rowsAffected = targetJdbcTemplate.update(sql, parameters);
+        } finally {
+            parameters.clear();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setTable(tableName);
+            event.setStatement(statement);
+            event.setRows(rowsAffected);
+            event.setBatchSize(1);
+            event.describe(TraceContext.current());
+            event.commit();
+        }
+        return rowsAffected;
+    }
+
+    private void executeBatch(String statement, String tableName, String sql, List<Object[]> batchArgs) {
+        CommitTracing.traceCommit(tableName, statement);
+        SqlExecutionEvent event = new SqlExecutionEvent();
+        event.begin();
+        int[] counts = targetJdbcTemplate.batchUpdate(sql, batchArgs);
+        event.end();
+        if (event.shouldCommit()) {
+            int rows = 0;
+            for (int count : counts) {
+                rows += Math.max(count, 0);
+            }
+            event.setTable(tableName);
+            event.setStatement(statement);
+            event.setRows(rows);
+            event.setBatchSize(batchArgs.size());
+            event.describe(TraceContext.current());
+            event.commit();
+        }
+    }
+
+    /**
+     * SQL with ? placeholders for a row write: the row's values in column order, then for UPDATE
+     * the key values; DELETE takes only the key values. Cached per column layout.
+     */
+    String statementSql(StatementCache.Kind kind, String tableName, RowBuffer row, List<String> keyColumns) {
+        String sql = statementCache.get(kind, tableName, row, keyColumns);
+        if (sql != null) {
+            return sql;
+        }
+        List<String> columns = row.columnList();
+        sql = switch (kind) {
+            case INSERT -> String.format("INSERT INTO \"%s\" (%s) VALUES (%s)", tableName,
+                    columns.stream().map(col -> "\"" + col + "\"").collect(Collectors.joining(", ")),
+                    columns.stream().map(col -> "?").collect(Collectors.joining(", ")));
+            case UPDATE -> String.format("UPDATE \"%s\" SET %s WHERE %s", tableName,
+                    columns.stream().map(col -> "\"" + col + "\" = ?").collect(Collectors.joining(", ")),
+                    keyColumns.stream().map(col -> "\"" + col + "\" = ?").collect(Collectors.joining(" AND ")));
+            case DELETE -> String.format("DELETE FROM \"%s\" WHERE %s", tableName,
+                    keyColumns.stream().map(col -> "\"" + col + "\" = ?").collect(Collectors.joining(" AND ")));
+            case UPSERT -> buildUpsertSql(tableName, columns, keyColumns);
+        };
+        statementCache.put(kind, tableName, row, keyColumns, sql);
+        return sql;
+    }
+
+    /**
+     * Build INSERT ... ON CONFLICT DO UPDATE for the given columns
+     */
+    private String buildUpsertSql(String tableName, List<String> columns, List<String> conflictColumns) {
+        return buildUpsertSql(tableName, columns, conflictColumns, false);
+    }
+
+    /**
+     * Build INSERT ... ON CONFLICT DO UPDATE for the given columns, or DO NOTHING to keep existing rows
+     */
+    private String buildUpsertSql(String tableName, List<String> columns, List<String> conflictColumns,
+                                  boolean keepExisting) {
         String columnsList = columns.stream()
                 .map(col -> "\"" + col + "\"")
                 .collect(Collectors.joining(", "));
@@ -190,12 +795,6 @@ public class DatabaseUpdateService {
                 .map(col -> "?")
                 .collect(Collectors.joining(", "));
 
-        // Prepare values
-        for (String column : columns) {
-            Object value = data.get(column);
-            values.add(convertValue(value));
-        }
-
         // ON CONFLICT clause
         String conflictColumnsList = conflictColumns.stream()
                 .map(col -> "\"" + col + "\"")
@@ -207,28 +806,44 @@ public class DatabaseUpdateService {
                 .map(col -> "\"" + col + "\" = EXCLUDED.\"" + col + "\"")
                 .collect(Collectors.joining(", "));
 
-        String sql = String.format(
+        // A table made only of key columns has nothing to update
+        if (keepExisting || updateSetClause.isEmpty()) {
+            return String.format(
+                    "INSERT INTO \"%s\" (%s) VALUES (%s) ON CONFLICT (%s) DO NOTHING",
+                    tableName, columnsList, placeholders, conflictColumnsList);
+        }
+
+        return String.format(
                 "INSERT INTO \"%s\" (%s) VALUES (%s) ON CONFLICT (%s) DO UPDATE SET %s",
                 tableName, columnsList, placeholders, conflictColumnsList, updateSetClause);
+    }
 
-        logger.debug("Executing UPSERT: {} with values: {}", sql, values);
+    /**
+     * A column's value converted for PostgreSQL, see {@link #withColumnType}
+     */
+    private Object bindValue(String tableName, String column, Object value) {
+        return withColumnType(tableName, column, convertValue(value));
+    }
 
-        try {
-            int rowsAffected = targetJdbcTemplate.update(sql, values.toArray());
-            logger.debug("UPSERT successful: {} rows affected in table {}", rowsAffected, tableName);
-        } catch (Exception e) {
-            logger.error("Failed to UPSERT into table {}: {}", tableName, e.getMessage());
-            throw new RuntimeException("Upsert failed for table " + tableName, e);
+    /**
+     * A {@link LargeValue} with its target column's type from the cached table metadata, so it
+     * binds by type without asking the driver for parameter metadata; other values as they are
+     */
+    private Object withColumnType(String tableName, String column, Object value) {
+        if (value instanceof LargeValue && schemaMetadataService != null) {
+            return new SqlParameterValue(Types.OTHER, schemaMetadataService.getColumnType(tableName, column), value);
         }
+        return value;
     }
 
     /**
      * Convert values to appropriate types for PostgreSQL
      * Handles Debezium's timestamp formats (epoch microseconds and milliseconds)
+     * {@link LargeValue}s pass through, to be bound by their column's type
      */
-    private Object convertValue(Object value) {
-        if (value == null) {
-            return null;
+    Object convertValue(Object value) {
+        if (value == null || value instanceof LargeValue) {
+            return value;
         }
 
         // Handle timestamp values from Debezium
@@ -273,7 +888,8 @@ public class DatabaseUpdateService {
             String strValue = (String) value;
 
             // Handle ISO timestamp strings
-            if (strValue.matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}.*")) {
+            if (strValue.length() >= 19 && strValue.length() <= MAX_TIMESTAMP_LENGTH && strValue.charAt(10) == 'T'
+                    && ISO_TIMESTAMP.matcher(strValue).matches()) {
                 try {
                     return Timestamp.valueOf(LocalDateTime.parse(strValue.substring(0, 19)));
                 } catch (Exception e) {
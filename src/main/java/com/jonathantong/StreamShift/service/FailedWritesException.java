@@ -0,0 +1,36 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+
+import java.util.List;
+
+/**
+ * Thrown by {@link TargetWriter#awaitWrites()} when writes sent earlier failed on the target.
+ * Each failed write comes with the later writes to the same row, in the order they were issued;
+ * issued again over JDBC in that order, where they take the row by row retries, each row ends at
+ * its latest image.
+ */
+public class FailedWritesException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<FailedWrite> failures;
+
+    public FailedWritesException(List<FailedWrite> failures) {
+        super(failures.size() + " target writes failed", failures.get(0).cause());
+        this.failures = failures;
+    }
+
+    public List<FailedWrite> getFailures() {
+        return failures;
+    }
+
+    /**
+     * A write that failed or follows a failed one to its row, and the same write over JDBC
+     *
+     * @param row    the row written, or for a delete the row's key
+     * @param delete true if the write deletes the row
+     */
+    public record FailedWrite(String tableName, RowBuffer row, boolean delete, Runnable retry, Throwable cause) {
+    }
+}
@@ -0,0 +1,47 @@
+package com.jonathantong.StreamShift.service;
+
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Reusable statement parameters, one per applying thread. Binds values the same way as
+ * JdbcTemplate's argument setter, without a fresh array and setter per statement.
+ */
+final class ParameterBuffer implements PreparedStatementSetter {
+
+    private Object[] values = new Object[16];
+    private int size;
+
+    void add(Object value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public void setValues(PreparedStatement ps) throws SQLException {
+        for (int i = 0; i < size; i++) {
+            StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, values[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(values, size));
+    }
+}
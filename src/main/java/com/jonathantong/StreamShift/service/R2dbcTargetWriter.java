@@ -0,0 +1,614 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.postgresql.codec.PostgresqlObjectId;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Parameters;
+import io.r2dbc.spi.R2dbcNonTransientResourceException;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pipelined row writer on r2dbc-postgresql.
+ *
+ * 	streamshift.target.writer=r2dbc
+ * 	streamshift.target.r2dbc.connections=4
+ * 	streamshift.target.r2dbc.pipeline-depth=64
+ *
+ * Over JDBC every statement waits a full round trip before the next one is sent. This writer
+ * returns once a statement is sent, so up to pipeline-depth statements per connection are on the
+ * wire at once and the server answers them in order. Writes to one row go to the same connection
+ * and are applied in the order they were issued. Before writing to a table related by foreign
+ * keys, a thread waits for its writes to other related tables still in flight on any connection,
+ * so a referenced row is on the target before the rows referencing it. A caller blocks for a
+ * permit while its connection is at pipeline-depth, and waits for its own writes in
+ * {@link #awaitWrites()} before acknowledging them.
+ *
+ * Statements and values are the JDBC writer's, with placeholders numbered for PostgreSQL.
+ * Failed writes are counted and thrown from {@link #awaitWrites()} as a
+ * {@link FailedWritesException}, so the caller retries them over JDBC before acknowledging. Once a
+ * row has a failed write, the thread's later writes to it are kept back instead of sent, and they
+ * are handed back with the failed one and any sent after it, in issue order, so the row ends at
+ * its latest image. Rows must stay unchanged until then. Writes to other shards and fan-out
+ * targets go over JDBC.
+ */
+public class R2dbcTargetWriter implements TargetWriter, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(R2dbcTargetWriter.class);
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+    private final ConnectionFactory connectionFactory;
+    private final DatabaseUpdateService databaseUpdateService;
+    private final RowFingerprintCache fingerprintCache;
+    private final DependencyScheduler dependencyScheduler;
+    private final int pipelineDepth;
+    private final Channel[] channels;
+    private final Map<String, String> numberedSql = new ConcurrentHashMap<>();
+    private final ThreadLocal<Pending> pending = ThreadLocal.withInitial(Pending::new);
+    private final Counter failed;
+
+    public R2dbcTargetWriter(
+            ConnectionFactory connectionFactory,
+            int connections,
+            int pipelineDepth,
+            DatabaseUpdateService databaseUpdateService,
+            RowFingerprintCache fingerprintCache,
+            DependencyScheduler dependencyScheduler,
+            MeterRegistry meterRegistry) {
+        if (connections < 1 || pipelineDepth < 1) {
+            throw new IllegalArgumentException("streamshift.target.r2dbc.connections and pipeline-depth must be positive");
+        }
+        this.connectionFactory = connectionFactory;
+        this.databaseUpdateService = databaseUpdateService;
+        this.fingerprintCache = fingerprintCache;
+        this.dependencyScheduler = dependencyScheduler;
+        this.pipelineDepth = pipelineDepth;
+        this.channels = new Channel[connections];
+        for (int i = 0; i < connections; i++) {
+            channels[i] = new Channel();
+        }
+
+        this.failed = Counter.builder("streamshift.target.writer.failed")
+                .tag("writer", "r2dbc")
+                .description("Pipelined writes that failed")
+                .register(meterRegistry);
+        Gauge.builder("streamshift.target.writer.in-flight", this, R2dbcTargetWriter::inFlight)
+                .tag("writer", "r2dbc")
+                .description("Writes sent and not yet answered")
+                .register(meterRegistry);
+        logger.info("R2DBC target writer: {} connections, up to {} statements in flight each", connections, pipelineDepth);
+    }
+
+    @Override
+    public void insert(String tableName, RowBuffer row) {
+        if (!onPrimaryTarget()) {
+            databaseUpdateService.insert(tableName, row);
+            return;
+        }
+        if (row.isEmpty()) {
+            logger.warn("No data provided for INSERT into table: {}", tableName);
+            return;
+        }
+        String sql = databaseUpdateService.statementSql(StatementCache.Kind.INSERT, tableName, row, List.of());
+        send("INSERT", tableName, sql, values(row, null), row, List.of(), 0L, 0L,
+                () -> databaseUpdateService.insert(tableName, row));
+    }
+
+    @Override
+    public void update(String tableName, RowBuffer row, List<String> keyColumns) {
+        if (!onPrimaryTarget()) {
+            databaseUpdateService.update(tableName, row, keyColumns);
+            return;
+        }
+        if (row.isEmpty()) {
+            logger.warn("No data provided for UPDATE in table: {}", tableName);
+            return;
+        }
+        if (keyColumns.isEmpty()) {
+            logger.error("No WHERE clause provided for UPDATE in table: {}", tableName);
+            throw new IllegalArgumentException("WHERE clause required for UPDATE");
+        }
+
+        // Skip the write if this exact row image was already applied
+        boolean cached = fingerprintCache.isEnabled();
+        long keyFingerprint = cached ? fingerprintCache.keyFingerprint(tableName, keyColumns, row) : 0L;
+        long rowFingerprint = cached ? fingerprintCache.rowFingerprint(row) : 0L;
+        if (cached && fingerprintCache.isUnchanged(keyFingerprint, rowFingerprint)) {
+            logger.debug("Skipping UPDATE in table {} - row unchanged since last write", tableName);
+            return;
+        }
+        String sql = databaseUpdateService.statementSql(StatementCache.Kind.UPDATE, tableName, row, keyColumns);
+        send("UPDATE", tableName, sql, values(row, keyColumns), row, keyColumns,
+                keyFingerprint, rowFingerprint, () -> databaseUpdateService.update(tableName, row, keyColumns));
+    }
+
+    @Override
+    public void delete(String tableName, RowBuffer row, List<String> keyColumns) {
+        if (!onPrimaryTarget()) {
+            databaseUpdateService.delete(tableName, row, keyColumns);
+            return;
+        }
+        if (keyColumns.isEmpty()) {
+            logger.error("No WHERE clause provided for DELETE from table: {}", tableName);
+            throw new IllegalArgumentException("WHERE clause required for DELETE");
+        }
+        if (fingerprintCache.isEnabled()) {
+            fingerprintCache.invalidate(fingerprintCache.keyFingerprint(tableName, keyColumns, row));
+        }
+        String sql = databaseUpdateService.statementSql(StatementCache.Kind.DELETE, tableName, row, keyColumns);
+        Object[] values = new Object[keyColumns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = bindable(row.get(keyColumns.get(i)));
+        }
+        send("DELETE", tableName, sql, values, row, keyColumns, 0L, 0L,
+                () -> databaseUpdateService.delete(tableName, row, keyColumns));
+    }
+
+    @Override
+    public void upsert(String tableName, RowBuffer row, List<String> conflictColumns) {
+        if (!onPrimaryTarget()) {
+            databaseUpdateService.upsert(tableName, row, conflictColumns);
+            return;
+        }
+        if (row.isEmpty()) {
+            logger.warn("No data provided for UPSERT into table: {}", tableName);
+            return;
+        }
+
+        boolean cached = fingerprintCache.isEnabled();
+        long keyFingerprint = cached ? fingerprintCache.keyFingerprint(tableName, conflictColumns, row) : 0L;
+        long rowFingerprint = cached ? fingerprintCache.rowFingerprint(row) : 0L;
+        if (cached && fingerprintCache.isUnchanged(keyFingerprint, rowFingerprint)) {
+            logger.debug("Skipping UPSERT into table {} - row unchanged since last write", tableName);
+            return;
+        }
+        String sql = databaseUpdateService.statementSql(StatementCache.Kind.UPSERT, tableName, row, conflictColumns);
+        send("UPSERT", tableName, sql, values(row, null), row, conflictColumns,
+                keyFingerprint, rowFingerprint, () -> databaseUpdateService.upsert(tableName, row, conflictColumns));
+    }
+
+    /**
+     * @throws FailedWritesException if any of the calling thread's writes failed since it last waited
+     */
+    @Override
+    public void awaitWrites() {
+        try {
+            List<FailedWritesException.FailedWrite> failures = pending.get().await();
+            if (failures != null) {
+                throw new FailedWritesException(failures);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for target writes", e);
+        }
+    }
+
+    public int inFlight() {
+        int inFlight = 0;
+        for (Channel channel : channels) {
+            inFlight += pipelineDepth - channel.permits.availablePermits();
+        }
+        return inFlight;
+    }
+
+    @Override
+    public void close() {
+        for (Channel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Send a statement without waiting for its result. The statement is bound and subscribed on
+     * the calling thread, so statements sent to one connection reach the server in call order.
+     * If it fails, {@code overJdbc} is handed back from {@link #awaitWrites()} to write it again,
+     * and if an earlier write to the row failed, the statement is not sent at all.
+     */
+    private void send(String statementKind, String tableName, String sql, Object[] values, RowBuffer row,
+                      List<String> keyColumns, long keyFingerprint, long rowFingerprint, Runnable overJdbc) {
+        Pending waiting = pending.get();
+        Write write = new Write(tableName, RowKey.of(tableName, row, keyColumns), row, "DELETE".equals(statementKind),
+                onPrimary(overJdbc));
+        if (waiting.keepBackIfFailed(write)) {
+            logger.debug("Keeping back {} of table {} behind a failed write to the row", statementKind, tableName);
+            return;
+        }
+        Channel channel = channel(tableName, row, keyColumns);
+        boolean related = dependencyScheduler.isScheduled(tableName);
+        try {
+            if (related) {
+                waiting.awaitOtherRelated(tableName);
+            }
+            channel.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to send to table " + tableName, e);
+        }
+
+        Connection connection;
+        Statement statement;
+        try {
+            connection = channel.connection();
+            statement = connection.createStatement(numbered(sql));
+            for (int i = 0; i < values.length; i++) {
+                statement.bind(i, values[i] != null ? values[i] : Parameters.in(PostgresqlObjectId.UNSPECIFIED));
+            }
+        } catch (RuntimeException e) {
+            channel.permits.release();
+            logger.error("Failed to {} table {}: {}", statementKind, tableName, e.getMessage());
+            throw new RuntimeException(statementKind + " failed for table " + tableName, e);
+        }
+
+        waiting.add(write, related);
+        Flux.from(statement.execute())
+                .flatMap(Result::getRowsUpdated)
+                .reduce(0L, Long::sum)
+                .doOnError(e -> waiting.failed(write, e))
+                .doFinally(signal -> {
+                    channel.permits.release();
+                    waiting.done(related);
+                })
+                .subscribe(rows -> {
+                    if (rows == 0 && !"INSERT".equals(statementKind) && !"UPSERT".equals(statementKind)) {
+                        logger.warn("{} affected 0 rows in table {} - record may not exist", statementKind, tableName);
+                        fingerprintCache.invalidate(keyFingerprint);
+                    } else if (keyFingerprint != 0L) {
+                        fingerprintCache.recordWrite(keyFingerprint, rowFingerprint);
+                    }
+                }, e -> {
+                    failed.increment();
+                    if (keyFingerprint != 0L) {
+                        fingerprintCache.invalidate(keyFingerprint);
+                    }
+                    if (e instanceof R2dbcNonTransientResourceException) {
+                        channel.reset(connection);
+                    }
+                    logger.warn("Failed to {} table {}, to be retried over JDBC with later writes to the row: {}",
+                            statementKind, tableName, e.getMessage());
+                });
+    }
+
+    /**
+     * Rows of a table share a connection by primary key, so writes to one row are applied in order
+     */
+    private Channel channel(String tableName, RowBuffer row, List<String> keyColumns) {
+        int h = tableName.hashCode();
+        for (int i = 0; i < keyColumns.size(); i++) {
+            h = 31 * h + Objects.hashCode(row.get(keyColumns.get(i)));
+        }
+        return channels[Math.floorMod(h ^ (h >>> 16), channels.length)];
+    }
+
+    private Object[] values(RowBuffer row, List<String> keyColumns) {
+        int size = row.size() + (keyColumns != null ? keyColumns.size() : 0);
+        Object[] values = new Object[size];
+        for (int i = 0; i < row.size(); i++) {
+            values[i] = bindable(row.value(i));
+        }
+        for (int i = row.size(); i < size; i++) {
+            values[i] = bindable(row.get(keyColumns.get(i - row.size())));
+        }
+        return values;
+    }
+
+    /**
+     * The JDBC writer's value, as a type the R2DBC driver encodes
+     */
+    private Object bindable(Object value) {
+        Object converted = databaseUpdateService.convertValue(value);
+        if (converted instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        if (converted instanceof LargeValue large) {
+            return large.isBinary() ? ByteBuffer.wrap(large.array(), large.offset(), large.length())
+                    : new String(large.array(), large.offset(), large.length(), StandardCharsets.UTF_8);
+        }
+        return converted;
+    }
+
+    /**
+     * JDBC ? placeholders as PostgreSQL's $1, $2, ...; quoted names and literals are left alone
+     */
+    String numbered(String sql) {
+        String numbered = numberedSql.get(sql);
+        if (numbered != null) {
+            return numbered;
+        }
+        StringBuilder builder = new StringBuilder(sql.length() + 16);
+        int parameter = 0;
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+                builder.append(c);
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                builder.append(c);
+            } else if (c == '?') {
+                builder.append('$').append(++parameter);
+            } else {
+                builder.append(c);
+            }
+        }
+        numbered = builder.toString();
+        numberedSql.put(sql, numbered);
+        return numbered;
+    }
+
+    private static boolean onPrimaryTarget() {
+        return ShardContext.current().getShard() == 0;
+    }
+
+    /**
+     * The write on the primary target, whichever shard the retrying thread is on by then
+     */
+    private static Runnable onPrimary(Runnable write) {
+        return () -> {
+            ShardContext context = ShardContext.current();
+            int previous = context.getShard();
+            context.setShard(0);
+            try {
+                write.run();
+            } finally {
+                context.setShard(previous);
+            }
+        };
+    }
+
+    /**
+     * One connection and the permits for statements in flight on it. Not guarded by a monitor:
+     * opening and closing block, and apply lanes may be virtual threads.
+     */
+    private final class Channel {
+
+        private final Semaphore permits = new Semaphore(pipelineDepth);
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile Connection connection;
+
+        Connection connection() {
+            Connection current = connection;
+            if (current != null) {
+                return current;
+            }
+            lock.lock();
+            try {
+                if (connection == null) {
+                    connection = Mono.from(connectionFactory.create()).block(CONNECT_TIMEOUT);
+                }
+                return connection;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Drop a broken connection; the next write opens a new one
+         */
+        void reset(Connection broken) {
+            lock.lock();
+            try {
+                if (connection == broken) {
+                    connection = null;
+                    Mono.from(broken.close()).subscribe(null, e -> logger.debug("Closing broken connection: {}", e.getMessage()));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                if (connection != null) {
+                    try {
+                        Mono.from(connection.close()).block(CLOSE_TIMEOUT);
+                    } catch (RuntimeException e) {
+                        logger.warn("Failed to close target connection: {}", e.getMessage());
+                    }
+                    connection = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A table and the key values of a row; a table without a key is one row
+     */
+    private record RowKey(String tableName, List<Object> values) {
+
+        static RowKey of(String tableName, RowBuffer row, List<String> keyColumns) {
+            Object[] values = new Object[keyColumns.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.get(keyColumns.get(i));
+            }
+            return new RowKey(tableName, Arrays.asList(values));
+        }
+    }
+
+    /**
+     * One write issued by a thread, and why it failed if it did
+     */
+    private static final class Write {
+
+        private final String tableName;
+        private final RowKey key;
+        private final RowBuffer row;
+        private final boolean delete;
+        private final Runnable overJdbc;
+        private Throwable cause;
+
+        Write(String tableName, RowKey key, RowBuffer row, boolean delete, Runnable overJdbc) {
+            this.tableName = tableName;
+            this.key = key;
+            this.row = row;
+            this.delete = delete;
+            this.overJdbc = overJdbc;
+        }
+    }
+
+    /**
+     * Writes one thread has issued since it last waited, and how many are not yet answered
+     */
+    private static final class Pending {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition answered = lock.newCondition();
+        private int inFlight;
+        // Writes to tables related by foreign keys, all to relatedTable
+        private int relatedInFlight;
+        private String relatedTable;
+        // In issue order, sent or kept back
+        private final List<Write> issued = new ArrayList<>();
+        private Set<RowKey> failedKeys;
+
+        void add(Write write, boolean related) {
+            lock.lock();
+            try {
+                issued.add(write);
+                inFlight++;
+                if (related) {
+                    relatedInFlight++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void done(boolean related) {
+            lock.lock();
+            try {
+                inFlight--;
+                if (related) {
+                    relatedInFlight--;
+                }
+                if (inFlight == 0 || relatedInFlight == 0) {
+                    answered.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Wait until no write to a related table other than {@code tableName} is in flight
+         */
+        void awaitOtherRelated(String tableName) throws InterruptedException {
+            lock.lock();
+            try {
+                if (!tableName.equals(relatedTable)) {
+                    while (relatedInFlight > 0) {
+                        answered.await();
+                    }
+                    relatedTable = tableName;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void failed(Write write, Throwable cause) {
+            lock.lock();
+            try {
+                write.cause = cause;
+                if (failedKeys == null) {
+                    failedKeys = new HashSet<>();
+                }
+                failedKeys.add(write.key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Keep a write back, unsent, if a write to the same row has failed
+         *
+         * @return true if the write was kept back
+         */
+        boolean keepBackIfFailed(Write write) {
+            lock.lock();
+            try {
+                if (failedKeys == null || !failedKeys.contains(write.key)) {
+                    return false;
+                }
+                issued.add(write);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Wait for every write in flight
+         *
+         * @return for each row with a failed write since the last wait, that write and every later
+         * one to the row, in issue order; or null if no write failed
+         */
+        List<FailedWritesException.FailedWrite> await() throws InterruptedException {
+            lock.lock();
+            try {
+                while (inFlight > 0) {
+                    answered.await();
+                }
+                if (failedKeys == null) {
+                    issued.clear();
+                    return null;
+                }
+                // A later write that was answered still goes again, after the failed one
+                List<FailedWritesException.FailedWrite> retries = new ArrayList<>();
+                Map<RowKey, Throwable> failedFrom = new HashMap<>();
+                for (Write write : issued) {
+                    Throwable cause = failedFrom.get(write.key);
+                    if (cause == null && write.cause != null) {
+                        cause = write.cause;
+                        failedFrom.put(write.key, cause);
+                    }
+                    if (cause != null) {
+                        retries.add(new FailedWritesException.FailedWrite(write.tableName, write.row, write.delete,
+                                write.overJdbc, write.cause != null ? write.cause : cause));
+                    }
+                }
+                issued.clear();
+                failedKeys = null;
+                return retries;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -2,14 +2,25 @@ package com.jonathantong.StreamShift.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.jonathantong.StreamShift.model.ChangeEvent;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.model.SchemaDrift;
 import com.jonathantong.StreamShift.model.TableMetadata;
+import com.jonathantong.StreamShift.projection.ProjectionRules;
+import com.jonathantong.StreamShift.projection.TableProjection;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import com.jonathantong.StreamShift.sharding.ShardRoutingDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
@@ -24,47 +35,67 @@ public class SchemaMetadataService {
 
     private final JdbcTemplate sourceJdbcTemplate;
     private final JdbcTemplate targetJdbcTemplate;
+    private final ProjectionRules projectionRules;
 
-    // Cache for table metadata to avoid repeated database queries
-    private final Map<String, TableMetadata> tableMetadataCache = new ConcurrentHashMap<>();
+    private static final String SOURCE_COLUMNS_SQL = """
+            SELECT 
+                column_name,
+                data_type,
+                is_nullable,
+                column_default,
+                character_maximum_length,
+                numeric_precision,
+                numeric_scale
+            FROM information_schema.columns
+            WHERE table_name = ?
+            ORDER BY ordinal_position
+            """;
+
+    // Cache for table metadata to avoid repeated database queries, by target table name.
+    // One per target shard and fan-out target, since each creates its tables independently.
+    private final List<Map<String, TableMetadata>> shardMetadataCaches = new ArrayList<>();
+
+    public SchemaMetadataService(JdbcTemplate sourceJdbcTemplate, JdbcTemplate targetJdbcTemplate) {
+        this(sourceJdbcTemplate, targetJdbcTemplate, ProjectionRules.none());
+    }
 
     @Autowired
     public SchemaMetadataService(
             @Qualifier("sourceJdbcTemplate") JdbcTemplate sourceJdbcTemplate,
-            @Qualifier("targetJdbcTemplate") JdbcTemplate targetJdbcTemplate) {
+            @Qualifier("targetJdbcTemplate") JdbcTemplate targetJdbcTemplate,
+            ProjectionRules projectionRules) {
         this.sourceJdbcTemplate = sourceJdbcTemplate;
         this.targetJdbcTemplate = targetJdbcTemplate;
+        this.projectionRules = projectionRules;
+
+        int shards = ShardRoutingDataSource.slotCount(targetJdbcTemplate.getDataSource());
+        for (int shard = 0; shard < shards; shard++) {
+            shardMetadataCaches.add(new ConcurrentHashMap<>());
+        }
     }
 
     /**
      * Ensure target table exists, creating it if necessary
      */
     public void ensureTargetTableExists(String databaseName, String tableName, ChangeEvent changeEvent) {
-        String fullTableName = databaseName + "." + tableName;
-
-        if (tableMetadataCache.containsKey(fullTableName)) {
+        if (tableMetadataCache().containsKey(tableName)) {
             return; // Table already processed
         }
 
-        try {
-            // Check if target table exists
-            boolean targetExists = targetTableExists(tableName);
-
-            if (!targetExists) {
-                logger.info("Target table {} does not exist, creating...", tableName);
-                createTargetTable(tableName, changeEvent);
-            }
-
-            // Cache table metadata
-            TableMetadata metadata = loadTableMetadata(tableName);
-            tableMetadataCache.put(fullTableName, metadata);
-
-            logger.info("Target table {} is ready", tableName);
+        // Use whichever data is available
+        JsonNode sampleData = changeEvent.getAfter() != null ? changeEvent.getAfter() : changeEvent.getBefore();
+        prepareTargetTable(tableName, sampleData != null ? new RowBuffer().fill(sampleData) : null);
+    }
 
-        } catch (Exception e) {
-            logger.error("Failed to ensure target table {} exists: {}", tableName, e.getMessage(), e);
-            throw new RuntimeException("Failed to prepare target table " + tableName, e);
+    /**
+     * Ensure target table exists for a decoded change. A map lookup once the table is known.
+     */
+    public void ensureTargetTableExists(String databaseName, String tableName, DecodedChange change) {
+        if (tableMetadataCache().containsKey(tableName)) {
+            return; // Table already processed
         }
+
+        prepareTargetTable(tableName, change.getAfter() != null ? change.getAfter() : change.getBefore());
     }
 
     /**
@@ -93,6 +124,13 @@ public class SchemaMetadataService {
         return pkValues;
     }
 
+    /**
+     * Primary key columns of a target table, in key order
+     */
+    public List<String> getPrimaryKeyColumns(String tableName) {
+        return getTableMetadata(tableName).getPrimaryKeyColumns();
+    }
+
     /**
      * Check if target table exists
      */
@@ -107,16 +145,34 @@ public class SchemaMetadataService {
     }
 
     /**
-     * Create target table by analyzing the change event structure
+     * Create the target table if needed and cache its metadata
      */
-    private void createTargetTable(String tableName, ChangeEvent changeEvent) {
-        // Analyze the change event to determine table structure
-        JsonNode afterData = changeEvent.getAfter();
-        JsonNode beforeData = changeEvent.getBefore();
+    private void prepareTargetTable(String tableName, RowBuffer sampleData) {
+        try {
+            // Check if target table exists
+            boolean targetExists = targetTableExists(tableName);
 
-        // Use whichever data is available
-        JsonNode sampleData = afterData != null ? afterData : beforeData;
+            if (!targetExists) {
+                logger.info("Target table {} does not exist, creating...", tableName);
+                createTargetTable(tableName, sampleData);
+            }
+
+            // Cache table metadata
+            TableMetadata metadata = loadTableMetadata(tableName);
+            tableMetadataCache().put(tableName, metadata);
+
+            logger.info("Target table {} is ready", tableName);
 
+        } catch (Exception e) {
+            logger.error("Failed to ensure target table {} exists: {}", tableName, e.getMessage(), e);
+            throw new RuntimeException("Failed to prepare target table " + tableName, e);
+        }
+    }
+
+    /**
+     * Create target table by analyzing the change event structure
+     */
+    private void createTargetTable(String tableName, RowBuffer sampleData) {
         if (sampleData == null) {
             throw new RuntimeException("No sample data available to create table " + tableName);
         }
@@ -134,25 +190,12 @@ public class SchemaMetadataService {
     }
 
     /**
-     * Create table by replicating source database schema
+     * Create table by replicating source database schema, keeping only projected columns under
+     * their target names. Decoded sample rows are already projected.
      */
     private void createTableFromSourceSchema(String tableName) {
         // Get column information from source database
-        String columnInfoSql = """
-            SELECT 
-                column_name,
-                data_type,
-                is_nullable,
-                column_default,
-                character_maximum_length,
-                numeric_precision,
-                numeric_scale
-            FROM information_schema.columns
-            WHERE table_name = ?
-            ORDER BY ordinal_position
-            """;
-
-        List<Map<String, Object>> columns = sourceJdbcTemplate.queryForList(columnInfoSql, tableName);
+        List<Map<String, Object>> columns = sourceJdbcTemplate.queryForList(SOURCE_COLUMNS_SQL, tableName);
 
         if (columns.isEmpty()) {
             throw new RuntimeException("No column information found for source table " + tableName);
@@ -169,6 +212,19 @@ public class SchemaMetadataService {
 
         List<String> primaryKeys = sourceJdbcTemplate.queryForList(pkSql, String.class, tableName);
 
+        TableProjection projection = projectionRules.forTable(tableName);
+        if (projection != null) {
+            List<String> targetKeys = new ArrayList<>();
+            for (String pkColumn : primaryKeys) {
+                String targetKey = projection.outputName(pkColumn);
+                if (targetKey == null) {
+                    throw new IllegalStateException("Projection of table " + tableName + " drops primary key column " + pkColumn);
+                }
+                targetKeys.add(targetKey);
+            }
+            primaryKeys = targetKeys;
+        }
+
         // Build CREATE TABLE statement
         StringBuilder createTableSql = new StringBuilder("CREATE TABLE IF NOT EXISTS" +
                 "" +
@@ -184,6 +240,13 @@ public class SchemaMetadataService {
             Object precision = column.get("numeric_precision");
             Object scale = column.get("numeric_scale");
 
+            if (projection != null) {
+                columnName = projection.outputName(columnName);
+                if (columnName == null) {
+                    continue;
+                }
+            }
+
             StringBuilder colDef = new StringBuilder("\"").append(columnName).append("\" ");
 
             // Map PostgreSQL data types
@@ -217,18 +280,15 @@ public class SchemaMetadataService {
     /**
      * Create table based on sample data (fallback approach)
      */
-    private void createTableFromSampleData(String tableName, JsonNode sampleData) {
+    private void createTableFromSampleData(String tableName, RowBuffer sampleData) {
         StringBuilder createTableSql = new StringBuilder("CREATE TABLE IF NOT EXISTS \"").append(tableName).append("\" (");
 
         List<String> columnDefinitions = new ArrayList<>();
 
-        sampleData.fields().forEachRemaining(entry -> {
-            String columnName = entry.getKey();
-            JsonNode value = entry.getValue();
-
-            String dataType = inferDataType(value);
-            columnDefinitions.add("\"" + columnName + "\" " + dataType);
-        });
+        for (int i = 0; i < sampleData.size(); i++) {
+            String dataType = inferDataType(sampleData.value(i));
+            columnDefinitions.add("\"" + sampleData.column(i) + "\" " + dataType);
+        }
 
         createTableSql.append(String.join(", ", columnDefinitions));
         createTableSql.append(")");
@@ -254,22 +314,191 @@ public class SchemaMetadataService {
 
         List<String> primaryKeys = targetJdbcTemplate.queryForList(pkSql, String.class, tableName);
 
-        return new TableMetadata(tableName, primaryKeys);
+        // Column types, to notice rows that no longer fit the table
+        String columnSql = """
+            SELECT column_name, data_type, is_nullable, column_default,
+                   character_maximum_length, numeric_precision, numeric_scale
+            FROM information_schema.columns
+            WHERE table_schema = 'public' AND table_name = ?
+            ORDER BY ordinal_position
+            """;
+
+        Map<String, String> columnTypes = new LinkedHashMap<>();
+        Set<String> requiredColumns = new HashSet<>();
+        for (Map<String, Object> column : targetJdbcTemplate.queryForList(columnSql, tableName)) {
+            String columnName = (String) column.get("column_name");
+            columnTypes.put(columnName, mapDataType((String) column.get("data_type"), column.get("character_maximum_length"),
+                    column.get("numeric_precision"), column.get("numeric_scale")));
+            if ("NO".equals(column.get("is_nullable")) && column.get("column_default") == null) {
+                requiredColumns.add(columnName);
+            }
+        }
+
+        return new TableMetadata(tableName, primaryKeys, columnTypes, requiredColumns);
     }
 
     /**
-     * Get cached table metadata
+     * Type of a target column from the cached table metadata, in lower case, e.g. bytea or jsonb;
+     * null while the table or column is unknown. Never queries the database.
      */
-    private TableMetadata getTableMetadata(String tableName) {
-        // Look for cached metadata (try with different prefixes)
-        for (String key : tableMetadataCache.keySet()) {
-            if (key.endsWith("." + tableName)) {
-                return tableMetadataCache.get(key);
+    public String getColumnType(String tableName, String column) {
+        TableMetadata metadata = tableMetadataCache().get(tableName);
+        String type = metadata != null ? metadata.getColumnTypes().get(column) : null;
+        return type != null ? type.toLowerCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * True if a row does not fit the target table's known columns: it has a column the table
+     * lacks, or lacks one the table requires. Once a row layout fits, rows with the same layout
+     * are matched by comparing column names, without lookups. False while the table is unknown.
+     */
+    public boolean hasSchemaDrift(String tableName, RowBuffer row) {
+        TableMetadata metadata = tableMetadataCache().get(tableName);
+        if (metadata == null || row == null || metadata.getColumnTypes().isEmpty()
+                || row.hasColumns(metadata.getKnownLayout())) {
+            return false;
+        }
+
+        Map<String, String> columnTypes = metadata.getColumnTypes();
+        for (int i = 0; i < row.size(); i++) {
+            if (!columnTypes.containsKey(row.column(i))) {
+                return true;
+            }
+        }
+        for (String column : metadata.getRequiredColumns()) {
+            if (row.indexOf(column) < 0) {
+                return true;
+            }
+        }
+        metadata.setKnownLayout(layoutOf(row));
+        return false;
+    }
+
+    /**
+     * Differences between the source table and the target table, in target column names, read
+     * from the source database's schema. Columns only a row has are added with types inferred
+     * from its values, e.g. when the source cannot be read. Types are compared only when asked,
+     * since tables created from sample data differ from the source in type by design.
+     * Reloads the target table's metadata first.
+     */
+    public SchemaDrift detectDrift(String tableName, RowBuffer row, boolean compareTypes) {
+        TableMetadata metadata = loadTableMetadata(tableName);
+        tableMetadataCache().put(tableName, metadata);
+
+        Map<String, String> targetTypes = metadata.getColumnTypes();
+        Map<String, String> added = new LinkedHashMap<>();
+        Map<String, String> retyped = new LinkedHashMap<>();
+        List<String> dropped = new ArrayList<>();
+        if (targetTypes.isEmpty()) {
+            return new SchemaDrift(tableName, added, retyped, dropped);
+        }
+
+        Map<String, String> sourceTypes = Map.of();
+        try {
+            sourceTypes = loadSourceColumnTypes(tableName);
+        } catch (Exception e) {
+            logger.warn("Could not read source schema of table {}, comparing with row columns: {}", tableName, e.getMessage());
+        }
+
+        if (!sourceTypes.isEmpty()) {
+            for (Map.Entry<String, String> column : sourceTypes.entrySet()) {
+                String targetType = targetTypes.get(column.getKey());
+                if (targetType == null) {
+                    added.put(column.getKey(), column.getValue());
+                } else if (compareTypes && !targetType.equals(column.getValue())) {
+                    retyped.put(column.getKey(), column.getValue());
+                }
+            }
+            for (String column : targetTypes.keySet()) {
+                if (!sourceTypes.containsKey(column) && !metadata.getPrimaryKeyColumns().contains(column)) {
+                    dropped.add(column);
+                }
+            }
+        } else if (row != null) {
+            for (String column : metadata.getRequiredColumns()) {
+                if (row.indexOf(column) < 0 && !metadata.getPrimaryKeyColumns().contains(column)) {
+                    dropped.add(column);
+                }
             }
         }
+        if (row != null) {
+            for (int i = 0; i < row.size(); i++) {
+                if (!targetTypes.containsKey(row.column(i)) && !added.containsKey(row.column(i))) {
+                    added.put(row.column(i), inferDataType(row.value(i)));
+                }
+            }
+        }
+
+        SchemaDrift drift = new SchemaDrift(tableName, added, retyped, dropped);
+        if (drift.isEmpty() && row != null) {
+            // Nothing to change for this layout; stop checking it
+            metadata.setKnownLayout(layoutOf(row));
+        }
+        return drift;
+    }
+
+    /**
+     * Alter the target table in one statement and transaction, waiting at most lockTimeoutMs for
+     * its lock so a long transaction on the table cannot stall every writer queued behind the
+     * ALTER. Reloads the table's metadata afterwards.
+     */
+    public void alterTargetTable(SchemaDrift drift, boolean dropColumns, long lockTimeoutMs) {
+        String sql = drift.alterTableSql(dropColumns);
+        logger.info("Altering target table: {}", sql);
+        targetJdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET LOCAL lock_timeout = " + lockTimeoutMs);
+                statement.execute(sql);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+        tableMetadataCache().put(drift.getTableName(), loadTableMetadata(drift.getTableName()));
+    }
+
+    /**
+     * Target types of the source table's columns, keyed by target column name
+     */
+    private Map<String, String> loadSourceColumnTypes(String tableName) {
+        TableProjection projection = projectionRules.forTable(tableName);
+        Map<String, String> columnTypes = new LinkedHashMap<>();
+        for (Map<String, Object> column : sourceJdbcTemplate.queryForList(SOURCE_COLUMNS_SQL, tableName)) {
+            String columnName = (String) column.get("column_name");
+            if (projection != null) {
+                columnName = projection.outputName(columnName);
+                if (columnName == null) {
+                    continue;
+                }
+            }
+            columnTypes.put(columnName, mapDataType((String) column.get("data_type"), column.get("character_maximum_length"),
+                    column.get("numeric_precision"), column.get("numeric_scale")));
+        }
+        return columnTypes;
+    }
+
+    private static String[] layoutOf(RowBuffer row) {
+        String[] layout = new String[row.size()];
+        for (int i = 0; i < layout.length; i++) {
+            layout[i] = row.column(i);
+        }
+        return layout;
+    }
+
+    /**
+     * Get cached table metadata
+     */
+    private TableMetadata getTableMetadata(String tableName) {
+        TableMetadata metadata = tableMetadataCache().get(tableName);
 
         // If not found, load it
-        return loadTableMetadata(tableName);
+        return metadata != null ? metadata : loadTableMetadata(tableName);
     }
 
     /**
@@ -327,6 +556,8 @@ public class SchemaMetadataService {
                 return "JSONB";
             case "uuid":
                 return "UUID";
+            case "bytea":
+                return "BYTEA";
             default:
                 logger.warn("Unknown data type {}, using TEXT", sourceType);
                 return "TEXT";
@@ -334,21 +565,25 @@ public class SchemaMetadataService {
     }
 
     /**
-     * Infer data type from JSON value (fallback approach)
+     * Infer data type from a decoded JSON value (fallback approach)
      */
-    private String inferDataType(JsonNode value) {
-        if (value.isNull()) {
+    private String inferDataType(Object value) {
+        if (value == null) {
             return "TEXT"; // Default for null values
-        } else if (value.isBoolean()) {
+        } else if (value instanceof Boolean) {
             return "BOOLEAN";
-        } else if (value.isInt()) {
+        } else if (value instanceof Integer) {
             return "INTEGER";
-        } else if (value.isLong()) {
+        } else if (value instanceof Long) {
             return "BIGINT";
-        } else if (value.isDouble() || value.isFloat()) {
+        } else if (value instanceof Double || value instanceof Float) {
             return "DOUBLE PRECISION";
-        } else if (value.isTextual()) {
-            String text = value.textValue();
+        } else if (value instanceof LargeValue large) {
+            return large.isBinary() ? "BYTEA" : "TEXT";
+        } else if (value instanceof String text && text.length() > 64) {
+            // Too long for a timestamp or date; not worth matching
+            return "TEXT";
+        } else if (value instanceof String text) {
             // Check if it looks like a timestamp
             if (text.matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}.*")) {
                 return "TIMESTAMP";
@@ -362,4 +597,11 @@ public class SchemaMetadataService {
             return "TEXT"; // Default for complex types
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Metadata cache of the target database the current thread writes to
+     */
+    private Map<String, TableMetadata> tableMetadataCache() {
+        return shardMetadataCaches.get(ShardContext.current().getShard());
+    }
+}
@@ -0,0 +1,320 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import com.jonathantong.StreamShift.sharding.ShardRoutingDataSource;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Applies a table's net changes set-wise through an UNLOGGED staging table:
+ *
+ * 	COPY stage (columns, op, seq) FROM STDIN (FORMAT binary)
+ * 	MERGE INTO table USING stage ...
+ * 	DELETE FROM stage
+ *
+ * On servers before PostgreSQL 15 the MERGE is a single statement of a DELETE ... USING CTE
+ * and an INSERT ... ON CONFLICT DO UPDATE, which needs a unique index on the key columns.
+ * Net changes have one row per key, so neither form sees a key twice.
+ *
+ * Staging tables are shared by every lane. Rows are copied, merged and deleted again inside
+ * the caller's transaction, so other sessions never see them and a staging table is empty
+ * whenever no batch is in flight. Being UNLOGGED, they cost no WAL. Shards and fan-out targets
+ * each get their own staging tables, prepared on the database of the calling thread.
+ */
+class StagingMergeWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(StagingMergeWriter.class);
+
+    static final String STAGE_PREFIX = "streamshift_stage_";
+    static final String OP_COLUMN = "_streamshift_op";
+    static final String SEQUENCE_COLUMN = "_streamshift_seq";
+
+    private static final int MAX_IDENTIFIER_LENGTH = 63;
+    private static final int COPY_CHUNK_BYTES = 64 * 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final UnaryOperator<Object> converter;
+
+    // Column types of each prepared staging table, by target table name, per target database
+    private final List<Map<String, Map<String, String>>> shardStageColumnTypes = new ArrayList<>();
+    private final ReentrantLock prepareLock = new ReentrantLock();
+    private final int[] serverMajorVersions;
+
+    /**
+     * @param converter the per-row path's value conversion, applied before encoding
+     */
+    StagingMergeWriter(JdbcTemplate jdbcTemplate, UnaryOperator<Object> converter) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.converter = converter;
+
+        int shards = ShardRoutingDataSource.slotCount(jdbcTemplate.getDataSource());
+        for (int shard = 0; shard < shards; shard++) {
+            shardStageColumnTypes.add(new ConcurrentHashMap<>());
+        }
+        this.serverMajorVersions = new int[shards];
+    }
+
+    /**
+     * (Re)create the staging table of a target table from its current columns. A map lookup
+     * once prepared; must not run inside a transaction that later copies into the table.
+     */
+    void prepare(String tableName) {
+        int shard = ShardContext.current().getShard();
+        Map<String, Map<String, String>> stageColumnTypes = shardStageColumnTypes.get(shard);
+        if (stageColumnTypes.containsKey(tableName)) {
+            return;
+        }
+        prepareLock.lock();
+        try {
+            if (stageColumnTypes.containsKey(tableName)) {
+                return;
+            }
+            if (serverMajorVersions[shard] == 0) {
+                serverMajorVersions[shard] = jdbcTemplate.execute(
+                        (ConnectionCallback<Integer>) connection -> connection.getMetaData().getDatabaseMajorVersion());
+            }
+            int serverMajorVersion = serverMajorVersions[shard];
+
+            // Recreated on first use, so a staging table left over from an older schema is replaced
+            String stage = stageTableName(tableName);
+            jdbcTemplate.execute("DROP TABLE IF EXISTS \"" + stage + "\"");
+            jdbcTemplate.execute(String.format(
+                    "CREATE UNLOGGED TABLE \"%s\" AS SELECT NULL::char(1) AS \"%s\", NULL::bigint AS \"%s\", t.* FROM \"%s\" t WITH NO DATA",
+                    stage, OP_COLUMN, SEQUENCE_COLUMN, tableName));
+
+            Map<String, String> types = new HashMap<>();
+            jdbcTemplate.query("""
+                    SELECT column_name, udt_name FROM information_schema.columns
+                    WHERE table_schema = 'public' AND table_name = ?
+                    """,
+                    (RowCallbackHandler) rs -> types.put(rs.getString(1), rs.getString(2)), stage);
+            stageColumnTypes.put(tableName, types);
+
+            logger.info("Staging table {} ready for MERGE apply to {} (PostgreSQL {}, {})", stage, tableName,
+                    serverMajorVersion, serverMajorVersion >= 15 ? "MERGE" : "delete and upsert CTE");
+        } finally {
+            prepareLock.unlock();
+        }
+    }
+
+    /**
+     * Forget a staging table so the next batch recreates it, e.g. after the target's columns changed
+     */
+    void invalidate(String tableName) {
+        for (Map<String, Map<String, String>> stageColumnTypes : shardStageColumnTypes) {
+            stageColumnTypes.remove(tableName);
+        }
+    }
+
+    /**
+     * COPY, merge and clear the staged net changes, on one connection
+     *
+     * @return rows affected by the merge statements
+     */
+    int merge(String tableName, List<String> keyColumns, List<TableBatch.Change> changes) {
+        int shard = ShardContext.current().getShard();
+        Map<String, String> types = shardStageColumnTypes.get(shard).get(tableName);
+        if (types == null) {
+            throw new IllegalStateException("Staging table not prepared for table " + tableName);
+        }
+        String stage = stageTableName(tableName);
+        boolean useMerge = serverMajorVersions[shard] >= 15;
+        List<Layout> layouts = layouts(changes, keyColumns);
+
+        Integer rows = jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            int affected = 0;
+            try (Statement statement = connection.createStatement()) {
+                for (Layout layout : layouts) {
+                    copy(pgConnection, stage, layout, types);
+                    affected += statement.executeUpdate(useMerge
+                            ? mergeSql(tableName, stage, layout.columns, keyColumns)
+                            : upsertCteSql(tableName, stage, layout.columns, keyColumns));
+                    statement.executeUpdate("DELETE FROM \"" + stage + "\"");
+                }
+            }
+            return affected;
+        });
+        return rows != null ? rows : 0;
+    }
+
+    private void copy(PGConnection connection, String stage, Layout layout, Map<String, String> types)
+            throws SQLException {
+        String[] columns = layout.columns;
+        String[] columnTypes = new String[columns.length + 2];
+        for (int i = 0; i < columns.length; i++) {
+            columnTypes[i] = types.get(columns[i]);
+            if (columnTypes[i] == null) {
+                throw new SQLException("Column " + columns[i] + " not in staging table " + stage);
+            }
+        }
+        columnTypes[columns.length] = "bpchar";
+        columnTypes[columns.length + 1] = "int8";
+
+        CopyEncoder encoder = new CopyEncoder(columnTypes);
+        String sql = String.format("COPY \"%s\" (%s, \"%s\", \"%s\") FROM STDIN WITH %s", stage,
+                quoted(List.of(columns)), OP_COLUMN, SEQUENCE_COLUMN, encoder.format());
+
+        CopyIn copyIn = connection.getCopyAPI().copyIn(sql);
+        try {
+            Object[] values = new Object[columnTypes.length];
+            encoder.begin();
+            for (TableBatch.Change change : layout.changes) {
+                RowBuffer row = change.getRow();
+                boolean sameLayout = !change.isDelete() || row.hasColumns(columns);
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = converter.apply(sameLayout ? row.value(i) : row.get(columns[i]));
+                }
+                values[columns.length] = String.valueOf(change.getOp());
+                values[columns.length + 1] = change.getSequence();
+                encoder.row(values);
+
+                if (encoder.length() >= COPY_CHUNK_BYTES) {
+                    copyIn.writeToCopy(encoder.buffer(), 0, encoder.length());
+                    encoder.reset();
+                }
+            }
+            encoder.end();
+            copyIn.writeToCopy(encoder.buffer(), 0, encoder.length());
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    /**
+     * Group changes by upsert column layout; deletes only need the key columns and join the
+     * first group. Debezium sends a table's columns in one order, so there is normally one group.
+     */
+    static List<Layout> layouts(List<TableBatch.Change> changes, List<String> keyColumns) {
+        List<Layout> layouts = new ArrayList<>();
+        List<TableBatch.Change> deletes = new ArrayList<>();
+        for (TableBatch.Change change : changes) {
+            if (change.isDelete()) {
+                deletes.add(change);
+                continue;
+            }
+            RowBuffer row = change.getRow();
+            Layout layout = null;
+            for (Layout candidate : layouts) {
+                if (row.hasColumns(candidate.columns)) {
+                    layout = candidate;
+                    break;
+                }
+            }
+            if (layout == null) {
+                String[] columns = new String[row.size()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = row.column(i);
+                }
+                layout = new Layout(columns);
+                layouts.add(layout);
+            }
+            layout.changes.add(change);
+        }
+
+        if (!deletes.isEmpty()) {
+            if (layouts.isEmpty()) {
+                layouts.add(new Layout(keyColumns.toArray(new String[0])));
+            }
+            layouts.get(0).changes.addAll(deletes);
+        }
+        return layouts;
+    }
+
+    static String mergeSql(String tableName, String stage, String[] columns, List<String> keyColumns) {
+        List<String> updated = nonKeyColumns(columns, keyColumns);
+        String on = keyColumns.stream()
+                .map(col -> "t.\"" + col + "\" = s.\"" + col + "\"")
+                .collect(Collectors.joining(" AND "));
+        String matched = updated.isEmpty()
+                ? "DO NOTHING"
+                : "UPDATE SET " + updated.stream()
+                        .map(col -> "\"" + col + "\" = s.\"" + col + "\"")
+                        .collect(Collectors.joining(", "));
+
+        return String.format("MERGE INTO \"%s\" AS t USING \"%s\" AS s ON %s"
+                        + " WHEN MATCHED AND s.\"%s\" = 'd' THEN DELETE"
+                        + " WHEN MATCHED THEN %s"
+                        + " WHEN NOT MATCHED AND s.\"%s\" = 'u' THEN INSERT (%s) VALUES (%s)",
+                tableName, stage, on, OP_COLUMN, matched, OP_COLUMN,
+                quoted(List.of(columns)), sourceColumns(columns));
+    }
+
+    static String upsertCteSql(String tableName, String stage, String[] columns, List<String> keyColumns) {
+        List<String> updated = nonKeyColumns(columns, keyColumns);
+        String on = keyColumns.stream()
+                .map(col -> "t.\"" + col + "\" = s.\"" + col + "\"")
+                .collect(Collectors.joining(" AND "));
+        String conflict = updated.isEmpty()
+                ? "DO NOTHING"
+                : "DO UPDATE SET " + updated.stream()
+                        .map(col -> "\"" + col + "\" = EXCLUDED.\"" + col + "\"")
+                        .collect(Collectors.joining(", "));
+
+        return String.format("WITH deleted AS (DELETE FROM \"%s\" AS t USING \"%s\" AS s WHERE s.\"%s\" = 'd' AND %s)"
+                        + " INSERT INTO \"%s\" (%s) SELECT %s FROM \"%s\" AS s WHERE s.\"%s\" = 'u'"
+                        + " ON CONFLICT (%s) %s",
+                tableName, stage, OP_COLUMN, on,
+                tableName, quoted(List.of(columns)), sourceColumns(columns), stage, OP_COLUMN,
+                quoted(keyColumns), conflict);
+    }
+
+    /**
+     * Staging table name, kept within PostgreSQL's identifier limit
+     */
+    static String stageTableName(String tableName) {
+        String name = STAGE_PREFIX + tableName;
+        if (name.length() <= MAX_IDENTIFIER_LENGTH) {
+            return name;
+        }
+        String hash = Integer.toHexString(tableName.hashCode());
+        return name.substring(0, MAX_IDENTIFIER_LENGTH - hash.length() - 1) + "_" + hash;
+    }
+
+    private static List<String> nonKeyColumns(String[] columns, List<String> keyColumns) {
+        List<String> nonKey = new ArrayList<>();
+        for (String column : columns) {
+            if (!keyColumns.contains(column)) {
+                nonKey.add(column);
+            }
+        }
+        return nonKey;
+    }
+
+    private static String quoted(List<String> columns) {
+        return columns.stream().map(col -> "\"" + col + "\"").collect(Collectors.joining(", "));
+    }
+
+    private static String sourceColumns(String[] columns) {
+        return List.of(columns).stream().map(col -> "s.\"" + col + "\"").collect(Collectors.joining(", "));
+    }
+
+    static final class Layout {
+        final String[] columns;
+        final List<TableBatch.Change> changes = new ArrayList<>();
+
+        Layout(String[] columns) {
+            this.columns = columns;
+        }
+    }
+}
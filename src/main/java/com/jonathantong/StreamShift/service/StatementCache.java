@@ -0,0 +1,74 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQL text per table, statement kind and column layout, so steady-state writes reuse the
+ * statement instead of rebuilding it. Debezium emits a table's columns in the same order in
+ * every event, so a table normally has a single layout per kind.
+ */
+class StatementCache {
+
+    enum Kind { INSERT, UPSERT, UPDATE, DELETE }
+
+    // Guards against a table whose events carry ever-changing column sets
+    private static final int MAX_LAYOUTS_PER_TABLE = 32;
+
+    private final Map<String, Layout[]> layoutsByTable = new ConcurrentHashMap<>();
+
+    /**
+     * Cached SQL for this row's layout, or null on a miss
+     */
+    String get(Kind kind, String tableName, RowBuffer row, List<String> keyColumns) {
+        Layout[] layouts = layoutsByTable.get(tableName);
+        if (layouts != null) {
+            for (Layout layout : layouts) {
+                if (layout.matches(kind, row, keyColumns)) {
+                    return layout.sql;
+                }
+            }
+        }
+        return null;
+    }
+
+    void put(Kind kind, String tableName, RowBuffer row, List<String> keyColumns, String sql) {
+        String[] columns = new String[row.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = row.column(i);
+        }
+        Layout layout = new Layout(kind, kind == Kind.DELETE ? null : columns, List.copyOf(keyColumns), sql);
+
+        layoutsByTable.compute(tableName, (table, layouts) -> {
+            if (layouts == null) {
+                return new Layout[] {layout};
+            }
+            if (layouts.length >= MAX_LAYOUTS_PER_TABLE) {
+                return layouts;
+            }
+            Layout[] grown = Arrays.copyOf(layouts, layouts.length + 1);
+            grown[layouts.length] = layout;
+            return grown;
+        });
+    }
+
+    /**
+     * Drop the statements of a table whose columns may have changed
+     */
+    void invalidate(String tableName) {
+        layoutsByTable.remove(tableName);
+    }
+
+    private record Layout(Kind kind, String[] columns, List<String> keyColumns, String sql) {
+
+        boolean matches(Kind kind, RowBuffer row, List<String> keyColumns) {
+            return this.kind == kind
+                    && (columns == null || row.hasColumns(columns))
+                    && (this.keyColumns == keyColumns || this.keyColumns.equals(keyColumns));
+        }
+    }
+}
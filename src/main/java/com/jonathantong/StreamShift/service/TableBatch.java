@@ -0,0 +1,176 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Net changes to one table within a batch: the last change per primary key, in the order the
+ * keys were first seen. Inserts, snapshot reads and updates collapse into an upsert of the
+ * latest row image; a delete replaces whatever came before it for that key.
+ *
+ * Rows are referenced, not copied, so the buffers they came from must not be reused before
+ * the batch is applied. Pipeline ring slots satisfy this: an apply lane flushes its batch
+ * before it releases the slots.
+ */
+public class TableBatch {
+
+    public static final char UPSERT = 'u';
+    public static final char DELETE = 'd';
+
+    private static final String OPERATIONS = "curd";
+
+    private final String tableName;
+    private final ApplyStrategy strategy;
+    private final List<String> keyColumns;
+    private final Map<Object, Change> changesByKey = new HashMap<>();
+    private final List<Change> changes = new ArrayList<>();
+    // Source events per Debezium operation, indexed like OPERATIONS
+    private final int[] events = new int[OPERATIONS.length()];
+
+    public TableBatch(String tableName, ApplyStrategy strategy, List<String> keyColumns) {
+        this.tableName = tableName;
+        this.strategy = strategy;
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * Add one change event; {@code row} must carry every key column
+     *
+     * @param operation Debezium operation: c, r, u or d
+     * @param sequence  position of the event in the stream, kept with the net change
+     */
+    public void add(String operation, RowBuffer row, long sequence) {
+        char op = "d".equals(operation) ? DELETE : UPSERT;
+        int index = OPERATIONS.indexOf(operation.charAt(0));
+        if (index >= 0) {
+            events[index]++;
+        }
+
+        Object key = key(row);
+        Change change = changesByKey.get(key);
+        if (change == null) {
+            change = new Change();
+            changesByKey.put(key, change);
+            changes.add(change);
+        }
+        change.op = op;
+        change.row = row;
+        change.sequence = sequence;
+    }
+
+    /**
+     * True if a change to the row's key is in the batch
+     */
+    public boolean contains(RowBuffer row) {
+        return changesByKey.containsKey(key(row));
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public ApplyStrategy getStrategy() {
+        return strategy;
+    }
+
+    public List<String> getKeyColumns() {
+        return keyColumns;
+    }
+
+    /**
+     * Net changes, one per key
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Source events added, before netting
+     */
+    public int eventCount() {
+        int count = 0;
+        for (int n : events) {
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Source events added for one Debezium operation
+     */
+    public int eventCount(char operation) {
+        int index = OPERATIONS.indexOf(operation);
+        return index >= 0 ? events[index] : 0;
+    }
+
+    /**
+     * The batch's deletes or its upserts alone, with the source events of those operations;
+     * keys are distinct, so they can be written in either order
+     */
+    TableBatch part(boolean deletes) {
+        TableBatch part = new TableBatch(tableName, strategy, keyColumns);
+        for (Change change : changes) {
+            if (change.isDelete() == deletes) {
+                part.changesByKey.put(key(change.row), change);
+                part.changes.add(change);
+            }
+        }
+        for (int i = 0; i < events.length; i++) {
+            if ((OPERATIONS.charAt(i) == DELETE) == deletes) {
+                part.events[i] = events[i];
+            }
+        }
+        return part;
+    }
+
+    public void clear() {
+        changesByKey.clear();
+        changes.clear();
+        Arrays.fill(events, 0);
+    }
+
+    private Object key(RowBuffer row) {
+        if (keyColumns.size() == 1) {
+            return row.get(keyColumns.get(0));
+        }
+        Object[] values = new Object[keyColumns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.get(keyColumns.get(i));
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * The net change for one key
+     */
+    public static final class Change {
+        private char op;
+        private RowBuffer row;
+        private long sequence;
+
+        public char getOp() {
+            return op;
+        }
+
+        public boolean isDelete() {
+            return op == DELETE;
+        }
+
+        public RowBuffer getRow() {
+            return row;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+}
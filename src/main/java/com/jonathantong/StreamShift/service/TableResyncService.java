@@ -0,0 +1,536 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.consumer.ChangeEventConsumer;
+import com.jonathantong.StreamShift.fanout.FanoutTarget;
+import com.jonathantong.StreamShift.fanout.FanoutTargets;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.ResyncStatus;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.pipeline.ChangeEventPipeline;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Re-applies one table's CDC topic from a timestamp or offset without touching the live consumer group.
+ * The topic is the one the live consumer reads for the table, matched by
+ * {@code streamshift.apply.topic-pattern}: with the repartition stage on, the table's internal
+ * repartitioned topic, whose partitions and offsets are the ones the live group commits.
+ *
+ * A temporary consumer outside the live group reads the table's topic on its own thread and
+ * applies net changes per primary key with batched UPSERT/DELETE. Once it is close to the live
+ * consumer's committed position, the live consumer's partitions for that topic are paused, the
+ * resync drains exactly up to the paused position and the partitions are resumed. Every event is
+ * then applied either by the resync or by the live consumer after it, so no stale image can win.
+ *
+ * With the staged pipeline, records the live consumer polled before the pause may still be in
+ * the ring, held as hot keys or acknowledged but not yet committed. The pipeline is drained
+ * before the paused position is sampled, and its acknowledged offsets are used where they are
+ * ahead of the committed ones.
+ */
+@Service
+public class TableResyncService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TableResyncService.class);
+
+    private final ConsumerFactory<String, byte[]> consumerFactory;
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    private final ChangeEventDecoder changeEventDecoder;
+    private final SchemaMetadataService schemaMetadataService;
+    private final DatabaseUpdateService databaseUpdateService;
+    private final RowFingerprintCache fingerprintCache;
+    private final ShardRouter shardRouter;
+    private final FanoutTargets fanoutTargets;
+    private final ChangeEventPipeline changeEventPipeline;
+
+    @Value("${spring.kafka.bootstrap-servers:localhost:9092}")
+    private String bootstrapServers;
+
+    @Value("${spring.kafka.consumer.group-id:streamshift-consumer-group}")
+    private String liveGroupId;
+
+    @Value("${streamshift.apply.topic-pattern:dbserver1\\.inventory\\..*}")
+    private String topicPattern;
+
+    @Value("${streamshift.resync.max-poll-records:5000}")
+    private int maxPollRecords;
+
+    @Value("${streamshift.resync.handover-lag:1000}")
+    private long handoverLag;
+
+    @Value("${streamshift.resync.handover-timeout-ms:30000}")
+    private long handoverTimeoutMs;
+
+    @Value("${streamshift.resync.live-offsets-interval-ms:5000}")
+    private long liveOffsetsIntervalMs;
+
+    private final Map<String, ResyncStatus> resyncs = new ConcurrentHashMap<>();
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "resync-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public TableResyncService(
+            ConsumerFactory<String, byte[]> consumerFactory,
+            KafkaListenerEndpointRegistry listenerRegistry,
+            ChangeEventDecoder changeEventDecoder,
+            SchemaMetadataService schemaMetadataService,
+            DatabaseUpdateService databaseUpdateService,
+            RowFingerprintCache fingerprintCache,
+            ShardRouter shardRouter,
+            FanoutTargets fanoutTargets,
+            ChangeEventPipeline changeEventPipeline) {
+        this.consumerFactory = consumerFactory;
+        this.listenerRegistry = listenerRegistry;
+        this.changeEventDecoder = changeEventDecoder;
+        this.schemaMetadataService = schemaMetadataService;
+        this.databaseUpdateService = databaseUpdateService;
+        this.fingerprintCache = fingerprintCache;
+        this.shardRouter = shardRouter;
+        this.fanoutTargets = fanoutTargets;
+        this.changeEventPipeline = changeEventPipeline;
+    }
+
+    /**
+     * Start resyncing a table from a timestamp or from an offset (applied to every partition)
+     */
+    public ResyncStatus start(String tableName, Instant fromTimestamp, Long fromOffset) {
+        if ((fromTimestamp == null) == (fromOffset == null)) {
+            throw new IllegalArgumentException("Exactly one of timestamp or offset is required");
+        }
+
+        String topic = resolveTopic(tableName);
+        ResyncStatus status = new ResyncStatus(tableName, topic, fromTimestamp, fromOffset);
+
+        ResyncStatus existing = resyncs.putIfAbsent(tableName, status);
+        if (existing != null) {
+            if (existing.isActive()) {
+                throw new IllegalStateException("Resync already running for table " + tableName);
+            }
+            resyncs.put(tableName, status);
+        }
+
+        logger.info("Starting resync of table {} from topic {} ({})", tableName, topic,
+                fromTimestamp != null ? "timestamp " + fromTimestamp : "offset " + fromOffset);
+        executor.submit(() -> run(status));
+        return status;
+    }
+
+    public ResyncStatus getStatus(String tableName) {
+        return resyncs.get(tableName);
+    }
+
+    public Collection<ResyncStatus> getAll() {
+        return resyncs.values();
+    }
+
+    /**
+     * Ask a running resync to stop. Live partitions paused for handover are resumed.
+     */
+    public boolean cancel(String tableName) {
+        ResyncStatus status = resyncs.get(tableName);
+        if (status == null || !status.isActive()) {
+            return false;
+        }
+        status.requestCancel();
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        resyncs.values().forEach(ResyncStatus::requestCancel);
+        executor.shutdown();
+    }
+
+    private void run(ResyncStatus status) {
+        String tableName = status.getTableName();
+        List<TopicPartition> pausedPartitions = new ArrayList<>();
+
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(maxPollRecords));
+        overrides.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+
+        try (Consumer<String, byte[]> consumer = consumerFactory.createConsumer(
+                     "streamshift-resync-" + tableName, "resync-" + tableName, null, overrides);
+             AdminClient admin = createAdmin()) {
+
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (PartitionInfo info : consumer.partitionsFor(status.getTopic())) {
+                partitions.add(new TopicPartition(info.topic(), info.partition()));
+            }
+            consumer.assign(partitions);
+            seekToStart(consumer, partitions, status);
+
+            // The target copy is being rebuilt, cached fingerprints no longer describe it
+            fingerprintCache.invalidateTable(tableName);
+            status.setState(ResyncStatus.State.CATCHING_UP);
+
+            // Phase 1: catch up to the live consumer at full speed, looking up its offsets at most
+            // once per live-offsets-interval-ms
+            Map<TopicPartition, Long> live = null;
+            long liveCheckedAt = 0;
+            while (!status.isCancelRequested()) {
+                long now = System.currentTimeMillis();
+                if (live == null || now - liveCheckedAt >= liveOffsetsIntervalMs) {
+                    live = liveOffsets(admin, consumer, partitions);
+                    liveCheckedAt = now;
+                }
+                if (lag(consumer, live, status) <= handoverLag) {
+                    break;
+                }
+                applyBatch(consumer.poll(Duration.ofMillis(500)), null, status);
+            }
+
+            if (status.isCancelRequested()) {
+                finish(status, ResyncStatus.State.CANCELLED, null);
+                return;
+            }
+
+            // Phase 2: pause the live consumer for this topic only and drain to its exact position
+            status.setState(ResyncStatus.State.HANDING_OVER);
+            pauseLivePartitions(partitions, pausedPartitions);
+            drainLivePipeline(partitions);
+
+            Map<TopicPartition, Long> stopAt = liveOffsets(admin, consumer, partitions);
+            while (!status.isCancelRequested() && lag(consumer, stopAt, status) > 0) {
+                applyBatch(consumer.poll(Duration.ofMillis(500)), stopAt, status);
+            }
+
+            fingerprintCache.invalidateTable(tableName);
+            finish(status, status.isCancelRequested() ? ResyncStatus.State.CANCELLED : ResyncStatus.State.COMPLETED, null);
+
+        } catch (Exception e) {
+            logger.error("Resync of table {} failed: {}", tableName, e.getMessage(), e);
+            finish(status, ResyncStatus.State.FAILED, e.getMessage());
+        } finally {
+            resumeLivePartitions(pausedPartitions);
+        }
+    }
+
+    private void seekToStart(Consumer<String, byte[]> consumer, List<TopicPartition> partitions, ResyncStatus status) {
+        if (status.getRequestedOffset() != null) {
+            for (TopicPartition partition : partitions) {
+                consumer.seek(partition, status.getRequestedOffset());
+            }
+            return;
+        }
+
+        Map<TopicPartition, Long> timestamps = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            timestamps.put(partition, status.getRequestedFrom().toEpochMilli());
+        }
+
+        Map<TopicPartition, OffsetAndTimestamp> offsets = consumer.offsetsForTimes(timestamps);
+        for (TopicPartition partition : partitions) {
+            OffsetAndTimestamp offset = offsets.get(partition);
+            if (offset != null) {
+                consumer.seek(partition, offset.offset());
+            } else {
+                // No record at or after the timestamp
+                consumer.seekToEnd(List.of(partition));
+            }
+        }
+    }
+
+    /**
+     * Apply the net change per primary key of a poll batch. Records at or beyond
+     * {@code stopAt} are left to the live consumer.
+     */
+    private void applyBatch(ConsumerRecords<String, byte[]> records, Map<TopicPartition, Long> stopAt,
+                            ResyncStatus status) throws Exception {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        String tableName = status.getTableName();
+        List<String> primaryKeys = null;
+        // The first change, kept for creating target tables; later ones are decoded into nextChange
+        DecodedChange firstChange = new DecodedChange();
+        DecodedChange nextChange = new DecodedChange();
+
+        // Last image per primary key; a null value marks a delete
+        Map<Map<String, Object>, Map<String, Object>> netChanges = new LinkedHashMap<>();
+        long read = 0;
+
+        for (ConsumerRecord<String, byte[]> record : records) {
+            if (stopAt != null) {
+                Long limit = stopAt.get(new TopicPartition(record.topic(), record.partition()));
+                if (limit != null && record.offset() >= limit) {
+                    continue;
+                }
+            }
+            read++;
+
+            // Tombstones carry no row image
+            if (record.value() == null || record.value().length == 0) {
+                continue;
+            }
+
+            // Decoded through the table's projection; filtered-out changes are skipped
+            DecodedChange decoded = primaryKeys == null ? firstChange : nextChange;
+            if (!changeEventDecoder.decode(record.value(), record.headers(), decoded, record.topic()) || decoded.getOperation() == null) {
+                continue;
+            }
+
+            if (primaryKeys == null) {
+                schemaMetadataService.ensureTargetTableExists(decoded.getDatabaseName(), tableName, decoded);
+                primaryKeys = schemaMetadataService.getPrimaryKeyColumns(tableName);
+                if (primaryKeys.isEmpty()) {
+                    throw new IllegalStateException("Resync requires a primary key on table " + tableName);
+                }
+            }
+
+            boolean isDelete = "d".equals(decoded.getOperation());
+            RowBuffer image = isDelete ? decoded.getBefore() : decoded.getAfter();
+            if (image == null) {
+                continue;
+            }
+
+            Map<String, Object> row = image.toMap();
+            Map<String, Object> key = new LinkedHashMap<>();
+            for (String pkColumn : primaryKeys) {
+                key.put(pkColumn, row.get(pkColumn));
+            }
+
+            netChanges.remove(key); // Keep insertion order of the latest change
+            netChanges.put(key, isDelete ? null : row);
+        }
+
+        List<Map<String, Object>> deletes = new ArrayList<>();
+        List<Map<String, Object>> upserts = new ArrayList<>();
+        for (Map.Entry<Map<String, Object>, Map<String, Object>> change : netChanges.entrySet()) {
+            if (change.getValue() == null) {
+                deletes.add(change.getKey());
+            } else {
+                upserts.add(change.getValue());
+            }
+        }
+
+        // Keys are distinct, so deletes and upserts never touch the same row
+        if (shardRouter.isSharded() && primaryKeys != null) {
+            applyPerShard(tableName, firstChange, primaryKeys, deletes, upserts);
+        } else {
+            databaseUpdateService.deleteBatch(tableName, deletes);
+            if (primaryKeys != null) {
+                databaseUpdateService.upsertBatch(tableName, upserts, primaryKeys);
+            }
+        }
+        if (fanoutTargets.isFanout() && primaryKeys != null) {
+            applyToFanoutTargets(tableName, firstChange, primaryKeys, deletes, upserts);
+        }
+
+        status.setEventsRead(status.getEventsRead() + read);
+        status.setRowsApplied(status.getRowsApplied() + deletes.size() + upserts.size());
+    }
+
+    /**
+     * Split net changes by target shard and write each shard's part on that shard
+     */
+    private void applyPerShard(String tableName, DecodedChange firstChange, List<String> primaryKeys,
+                               List<Map<String, Object>> deletes, List<Map<String, Object>> upserts) {
+        int shards = shardRouter.getShardCount();
+        List<List<Map<String, Object>>> shardDeletes = new ArrayList<>();
+        List<List<Map<String, Object>>> shardUpserts = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            shardDeletes.add(new ArrayList<>());
+            shardUpserts.add(new ArrayList<>());
+        }
+        for (Map<String, Object> key : deletes) {
+            shardDeletes.get(shardRouter.shardFor(tableName, key)).add(key);
+        }
+        for (Map<String, Object> row : upserts) {
+            shardUpserts.get(shardRouter.shardFor(tableName, row)).add(row);
+        }
+
+        ShardContext context = ShardContext.current();
+        int previous = context.getShard();
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                if (shardDeletes.get(shard).isEmpty() && shardUpserts.get(shard).isEmpty()) {
+                    continue;
+                }
+                context.setShard(shard);
+                schemaMetadataService.ensureTargetTableExists(firstChange.getDatabaseName(), tableName, firstChange);
+                databaseUpdateService.deleteBatch(tableName, shardDeletes.get(shard));
+                databaseUpdateService.upsertBatch(tableName, shardUpserts.get(shard), primaryKeys);
+            }
+        } finally {
+            context.setShard(previous);
+        }
+    }
+
+    /**
+     * Write the net changes to every attached fan-out target; detached ones replay them on resume
+     */
+    private void applyToFanoutTargets(String tableName, DecodedChange firstChange, List<String> primaryKeys,
+                                      List<Map<String, Object>> deletes, List<Map<String, Object>> upserts) {
+        ShardContext context = ShardContext.current();
+        int previous = context.getShard();
+        try {
+            for (FanoutTarget target : fanoutTargets.getTargets()) {
+                if (target.isPrimary() || target.isDetached()) {
+                    continue;
+                }
+                context.setShard(target.getFirstSlot());
+                schemaMetadataService.ensureTargetTableExists(firstChange.getDatabaseName(), tableName, firstChange);
+                databaseUpdateService.deleteBatch(tableName, deletes);
+                databaseUpdateService.upsertBatch(tableName, upserts, primaryKeys);
+            }
+        } finally {
+            context.setShard(previous);
+        }
+    }
+
+    /**
+     * Remaining records between the resync position and the live position, summed over partitions
+     */
+    private long lag(Consumer<String, byte[]> consumer, Map<TopicPartition, Long> live, ResyncStatus status) {
+        long lag = 0;
+        for (Map.Entry<TopicPartition, Long> entry : live.entrySet()) {
+            long position = consumer.position(entry.getKey());
+            status.getPositions().put(entry.getKey().partition(), position);
+            status.getLiveOffsets().put(entry.getKey().partition(), entry.getValue());
+            lag += Math.max(0, entry.getValue() - position);
+        }
+        return lag;
+    }
+
+    /**
+     * Live consumer group's committed offsets, or the log end for partitions it has not committed yet.
+     * The pipeline commits asynchronously, so its acknowledged offsets are used where they are ahead.
+     */
+    private Map<TopicPartition, Long> liveOffsets(AdminClient admin, Consumer<String, byte[]> consumer,
+                                                  List<TopicPartition> partitions) throws Exception {
+        Map<TopicPartition, OffsetAndMetadata> committed = admin.listConsumerGroupOffsets(liveGroupId)
+                .partitionsToOffsetAndMetadata()
+                .get(30, TimeUnit.SECONDS);
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+
+        Map<TopicPartition, Long> live = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            OffsetAndMetadata offset = committed.get(partition);
+            long position = offset != null ? offset.offset() : endOffsets.get(partition);
+            Long acknowledged = changeEventPipeline.isEnabled()
+                    ? changeEventPipeline.acknowledgedOffsets(partition.topic()).get(partition.partition())
+                    : null;
+            live.put(partition, acknowledged != null ? Math.max(position, acknowledged) : position);
+        }
+        return live;
+    }
+
+    /**
+     * Apply and acknowledge the paused partitions' records still in the pipeline, so none of
+     * them is written after the resync's older images of the same rows
+     */
+    private void drainLivePipeline(List<TopicPartition> partitions) {
+        if (changeEventPipeline.isEnabled() && !changeEventPipeline.drain(Duration.ofMillis(handoverTimeoutMs))) {
+            throw new IllegalStateException("Timed out draining the pipeline for " + partitions);
+        }
+    }
+
+    /**
+     * Admin client for reading the live consumer group's offsets
+     */
+    AdminClient createAdmin() {
+        return AdminClient.create(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers));
+    }
+
+    private void pauseLivePartitions(List<TopicPartition> partitions, List<TopicPartition> paused)
+            throws InterruptedException {
+        MessageListenerContainer container = listenerRegistry.getListenerContainer(ChangeEventConsumer.LISTENER_ID);
+        if (container == null) {
+            logger.warn("Live listener container not found, handing over without pausing");
+            return;
+        }
+
+        for (TopicPartition partition : partitions) {
+            container.pausePartition(partition);
+            paused.add(partition);
+        }
+
+        // The container pauses after finishing the records of its current poll
+        long deadline = System.currentTimeMillis() + handoverTimeoutMs;
+        for (TopicPartition partition : partitions) {
+            while (!container.isPartitionPaused(partition)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Timed out pausing live partition " + partition);
+                }
+                Thread.sleep(50);
+            }
+        }
+        logger.info("Paused live consumption of {} for resync handover", partitions);
+    }
+
+    private void resumeLivePartitions(List<TopicPartition> paused) {
+        if (paused.isEmpty()) {
+            return;
+        }
+        MessageListenerContainer container = listenerRegistry.getListenerContainer(ChangeEventConsumer.LISTENER_ID);
+        if (container != null) {
+            paused.forEach(container::resumePartition);
+            logger.info("Resumed live consumption of {}", paused);
+        }
+    }
+
+    private void finish(ResyncStatus status, ResyncStatus.State state, String error) {
+        status.setError(error);
+        status.setFinishedAt(Instant.now());
+        status.setState(state);
+        logger.info("Resync of table {} {}: {} events read, {} rows applied", status.getTableName(),
+                state.name().toLowerCase(), status.getEventsRead(), status.getRowsApplied());
+    }
+
+    /**
+     * The live listener's topic for a table
+     */
+    String resolveTopic(String tableName) {
+        Pattern pattern = Pattern.compile(topicPattern);
+        try (Consumer<String, byte[]> consumer = consumerFactory.createConsumer(
+                "streamshift-resync-" + tableName, "resync-lookup", null)) {
+            for (String topic : consumer.listTopics().keySet()) {
+                if (pattern.matcher(topic).matches() && topic.endsWith("." + tableName)) {
+                    return topic;
+                }
+            }
+        }
+        throw new IllegalArgumentException("No topic matching " + topicPattern + " found for table " + tableName);
+    }
+}
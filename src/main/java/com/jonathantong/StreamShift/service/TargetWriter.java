@@ -0,0 +1,27 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+
+import java.util.List;
+
+/**
+ * Row-by-row writes to the target database. {@link DatabaseUpdateService} writes over JDBC and
+ * returns once a write is committed; {@link R2dbcTargetWriter} returns once a write is sent, and
+ * callers wait for their writes with {@link #awaitWrites()} before acknowledging them.
+ */
+public interface TargetWriter {
+
+    void insert(String tableName, RowBuffer row);
+
+    void update(String tableName, RowBuffer row, List<String> keyColumns);
+
+    void delete(String tableName, RowBuffer row, List<String> keyColumns);
+
+    void upsert(String tableName, RowBuffer row, List<String> conflictColumns);
+
+    /**
+     * Wait until every write the calling thread issued has completed
+     */
+    default void awaitWrites() {
+    }
+}
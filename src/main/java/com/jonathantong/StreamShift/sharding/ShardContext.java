@@ -0,0 +1,28 @@
+package com.jonathantong.StreamShift.sharding;
+
+/**
+ * Target database the current thread writes to: a primary shard or a fan-out target slot of
+ * {@link ShardRoutingDataSource}. Apply lanes set it once when they start; the synchronous
+ * listener and resyncs set it per row or per batch. Defaults to shard 0.
+ */
+public final class ShardContext {
+
+    private static final ThreadLocal<ShardContext> CURRENT = ThreadLocal.withInitial(ShardContext::new);
+
+    private int shard;
+
+    private ShardContext() {
+    }
+
+    public static ShardContext current() {
+        return CURRENT.get();
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public void setShard(int shard) {
+        this.shard = shard;
+    }
+}
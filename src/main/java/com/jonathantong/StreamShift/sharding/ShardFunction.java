@@ -0,0 +1,23 @@
+package com.jonathantong.StreamShift.sharding;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+
+import java.util.List;
+
+/**
+ * Maps a row to a target shard from its primary key values
+ */
+public interface ShardFunction {
+
+    /**
+     * @return a shard in [0, shardCount)
+     */
+    int shardOf(RowBuffer row, List<String> keyColumns, int shardCount);
+
+    /**
+     * False if the function ignores the row, so no primary key lookup is needed
+     */
+    default boolean usesKey() {
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+package com.jonathantong.StreamShift.sharding;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Built-in shard functions, selectable by name from configuration
+ */
+public final class ShardFunctions {
+
+    private static final String PINNED_PREFIX = "shard-";
+
+    private ShardFunctions() {
+    }
+
+    /**
+     * Resolve a function from its configuration name: hash, modulo or shard-N
+     */
+    public static ShardFunction forName(String name) {
+        String normalized = name.trim().toLowerCase();
+        if (normalized.startsWith(PINNED_PREFIX)) {
+            return new Pinned(Integer.parseInt(normalized.substring(PINNED_PREFIX.length())));
+        }
+        switch (normalized) {
+            case "hash": return new Hash();
+            case "modulo": return new Modulo();
+            default:
+                throw new IllegalArgumentException("Unknown shard function: " + name);
+        }
+    }
+
+    /**
+     * Parse per-table functions of the form {@code orders:hash,countries:shard-0}
+     */
+    public static Map<String, ShardFunction> parseOverrides(String overrides) {
+        Map<String, ShardFunction> functions = new HashMap<>();
+        if (overrides == null || overrides.isBlank()) {
+            return functions;
+        }
+        for (String entry : overrides.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected table:function, got: " + entry.trim());
+            }
+            functions.put(entry.substring(0, separator).trim(), forName(entry.substring(separator + 1)));
+        }
+        return functions;
+    }
+
+    /**
+     * Spreads keys evenly. Integral values hash the same whether decoded as int or long, and
+     * String.hashCode is specified, so placement is stable across restarts and JVMs.
+     */
+    public static final class Hash implements ShardFunction {
+        @Override
+        public int shardOf(RowBuffer row, List<String> keyColumns, int shardCount) {
+            long h = 1;
+            for (int i = 0; i < keyColumns.size(); i++) {
+                h = 31 * h + hashOf(row.get(keyColumns.get(i)));
+            }
+            // MurmurHash3 fmix64, so sequential keys do not land on shards in rotation
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return (int) Math.floorMod(h, (long) shardCount);
+        }
+
+        private static int hashOf(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                return Long.hashCode(((Number) value).longValue());
+            }
+            return value.hashCode();
+        }
+    }
+
+    /**
+     * First key column value modulo the shard count; keeps ranges of numeric ids predictable
+     */
+    public static final class Modulo implements ShardFunction {
+        @Override
+        public int shardOf(RowBuffer row, List<String> keyColumns, int shardCount) {
+            Object value = row.get(keyColumns.get(0));
+            long key;
+            if (value instanceof Number number) {
+                key = number.longValue();
+            } else if (value != null) {
+                key = Long.parseLong(value.toString().trim());
+            } else {
+                throw new IllegalArgumentException("No value for shard key column " + keyColumns.get(0));
+            }
+            return (int) Math.floorMod(key, (long) shardCount);
+        }
+    }
+
+    /**
+     * Every row of the table on one shard, e.g. small lookup tables
+     */
+    public static final class Pinned implements ShardFunction {
+        private final int shard;
+
+        public Pinned(int shard) {
+            this.shard = shard;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+
+        @Override
+        public int shardOf(RowBuffer row, List<String> keyColumns, int shardCount) {
+            return shard;
+        }
+
+        @Override
+        public boolean usesKey() {
+            return false;
+        }
+    }
+}
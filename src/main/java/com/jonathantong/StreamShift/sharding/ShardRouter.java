@@ -0,0 +1,155 @@
+package com.jonathantong.StreamShift.sharding;
+
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the target shard of each row: the table's shard function over its primary key values,
+ * with primary key columns from {@link SchemaMetadataService}. Without shards every row goes to 0.
+ *
+ * Tables without a primary key cannot be spread by key and are written to shard 0.
+ *
+ * Primary key columns are always read from shard 0, whatever shard the calling thread writes to.
+ */
+@Component
+public class ShardRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardRouter.class);
+
+    // Shard whose target tables primary key columns are read from
+    private static final int METADATA_SHARD = 0;
+
+    private final int shardCount;
+    private final SchemaMetadataService schemaMetadataService;
+    private final ShardFunction defaultFunction;
+    private final Map<String, ShardFunction> tableFunctions;
+    private final Set<String> unkeyedTables = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public ShardRouter(
+            @Qualifier("targetDataSource") DataSource targetDataSource,
+            SchemaMetadataService schemaMetadataService,
+            @Value("${streamshift.shard.default-function:hash}") String defaultFunction,
+            @Value("${streamshift.shard.table-functions:}") String tableFunctions) {
+        this(ShardRoutingDataSource.shardCount(targetDataSource), schemaMetadataService, defaultFunction, tableFunctions);
+    }
+
+    public ShardRouter(int shardCount, SchemaMetadataService schemaMetadataService,
+                       String defaultFunction, String tableFunctions) {
+        this.shardCount = shardCount;
+        this.schemaMetadataService = schemaMetadataService;
+        this.defaultFunction = ShardFunctions.forName(defaultFunction);
+        this.tableFunctions = ShardFunctions.parseOverrides(tableFunctions);
+
+        for (Map.Entry<String, ShardFunction> entry : this.tableFunctions.entrySet()) {
+            if (entry.getValue() instanceof ShardFunctions.Pinned pinned && pinned.getShard() >= shardCount) {
+                throw new IllegalArgumentException("Table " + entry.getKey() + " pinned to shard "
+                        + pinned.getShard() + " but only " + shardCount + " shards are configured");
+            }
+        }
+        if (shardCount > 1) {
+            logger.info("Routing target writes over {} shards, {} by default, per table {}",
+                    shardCount, defaultFunction, tableFunctions.isBlank() ? "none" : tableFunctions);
+        }
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    /**
+     * Shard of a decoded change, from its after image, or its before image for deletes
+     */
+    public int shardFor(DecodedChange change) {
+        if (shardCount == 1) {
+            return 0;
+        }
+        String tableName = change.getTableName();
+        ShardFunction function = functionFor(tableName);
+        if (!function.usesKey()) {
+            return function.shardOf(null, List.of(), shardCount);
+        }
+
+        RowBuffer row = change.getAfter() != null ? change.getAfter() : change.getBefore();
+        if (row == null) {
+            return 0;
+        }
+        // Key columns come from the target, so the table must exist on the metadata shard
+        ShardContext context = ShardContext.current();
+        int previous = context.getShard();
+        context.setShard(METADATA_SHARD);
+        try {
+            schemaMetadataService.ensureTargetTableExists(change.getDatabaseName(), tableName, change);
+            return shardOf(tableName, function, row);
+        } finally {
+            context.setShard(previous);
+        }
+    }
+
+    /**
+     * Shard of a record key, before its value is decoded. Debezium keys carry the primary key
+     * columns in key order, so no metadata lookup or target table is needed.
+     */
+    public int shardForKey(String tableName, RowBuffer key, List<String> keyColumns) {
+        if (shardCount == 1) {
+            return 0;
+        }
+        return functionFor(tableName).shardOf(key, keyColumns, shardCount);
+    }
+
+    /**
+     * Shard of a row image, for callers that hold rows as maps (resyncs)
+     */
+    public int shardFor(String tableName, Map<String, Object> row) {
+        if (shardCount == 1) {
+            return 0;
+        }
+        ShardFunction function = functionFor(tableName);
+        if (!function.usesKey()) {
+            return function.shardOf(null, List.of(), shardCount);
+        }
+        RowBuffer buffer = new RowBuffer(row.size());
+        row.forEach(buffer::add);
+        ShardContext context = ShardContext.current();
+        int previous = context.getShard();
+        context.setShard(METADATA_SHARD);
+        try {
+            return shardOf(tableName, function, buffer);
+        } finally {
+            context.setShard(previous);
+        }
+    }
+
+    private int shardOf(String tableName, ShardFunction function, RowBuffer row) {
+        List<String> keyColumns = schemaMetadataService.getPrimaryKeyColumns(tableName);
+        if (keyColumns.isEmpty()) {
+            if (unkeyedTables.add(tableName)) {
+                logger.warn("Table {} has no primary key, writing all of its rows to shard 0", tableName);
+            }
+            return 0;
+        }
+        return function.shardOf(row, keyColumns, shardCount);
+    }
+
+    private ShardFunction functionFor(String tableName) {
+        ShardFunction function = tableFunctions.get(tableName);
+        return function != null ? function : defaultFunction;
+    }
+}
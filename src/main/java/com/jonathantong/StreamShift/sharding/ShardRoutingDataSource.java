@@ -0,0 +1,99 @@
+package com.jonathantong.StreamShift.sharding;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Target DataSource over several pools. Each connection comes from the pool of the calling
+ * thread's {@link ShardContext}, so JdbcTemplate, transactions and the services above them
+ * work unchanged against whichever database the thread is bound to.
+ *
+ * Pools are numbered as slots: the primary target's shards first, then one slot per fan-out
+ * target in configuration order.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    private final List<DataSource> slots;
+    private final int shardCount;
+    private final List<String> fanoutTargets;
+
+    public ShardRoutingDataSource(List<DataSource> shards) {
+        this(shards, Map.of());
+    }
+
+    /**
+     * @param fanoutTargets pools of the fan-out targets by name, in slot order
+     */
+    public ShardRoutingDataSource(List<DataSource> shards, Map<String, DataSource> fanoutTargets) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one target shard is required");
+        }
+        List<DataSource> slots = new ArrayList<>(shards);
+        slots.addAll(fanoutTargets.values());
+        this.slots = List.copyOf(slots);
+        this.shardCount = shards.size();
+        this.fanoutTargets = List.copyOf(fanoutTargets.keySet());
+
+        Map<Object, Object> targets = new HashMap<>();
+        for (int i = 0; i < slots.size(); i++) {
+            targets.put(i, slots.get(i));
+        }
+        setTargetDataSources(targets);
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    /**
+     * Number of primary target shards behind a target DataSource; 1 for a plain DataSource
+     */
+    public static int shardCount(DataSource dataSource) {
+        return dataSource instanceof ShardRoutingDataSource routing ? routing.getShardCount() : 1;
+    }
+
+    /**
+     * Number of pools behind a target DataSource, shards and fan-out targets; 1 for a plain DataSource
+     */
+    public static int slotCount(DataSource dataSource) {
+        return dataSource instanceof ShardRoutingDataSource routing ? routing.getSlotCount() : 1;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public int getSlotCount() {
+        return slots.size();
+    }
+
+    public DataSource getSlot(int slot) {
+        return slots.get(slot);
+    }
+
+    /**
+     * Fan-out target names; target i writes through slot {@code getShardCount() + i}
+     */
+    public List<String> getFanoutTargets() {
+        return fanoutTargets;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.current().getShard();
+    }
+
+    @Override
+    public void close() {
+        for (DataSource slot : slots) {
+            if (slot instanceof HikariDataSource hikari) {
+                hikari.close();
+            }
+        }
+    }
+}
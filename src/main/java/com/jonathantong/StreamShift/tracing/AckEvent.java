@@ -0,0 +1,11 @@
+package com.jonathantong.StreamShift.tracing;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("streamshift.Ack")
+@Label("Acknowledge")
+@Description("Acknowledge a record offset to the Kafka listener container")
+public class AckEvent extends ChangeEventTraceEvent {
+}
@@ -0,0 +1,166 @@
+package com.jonathantong.StreamShift.tracing;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replaces per-event INFO logging with a periodic per-table summary of applied changes,
+ * plus an optional INFO line for one event in every N. The first applied change is logged with
+ * the time since JVM start, which the startup benchmark reads.
+ */
+@Component
+public class ActivitySummary {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActivitySummary.class);
+
+    private static final String OPERATIONS = "curd";
+
+    private final long intervalMs;
+    private final long sampleEvery;
+
+    // Per table: applied counts indexed like OPERATIONS, then failures
+    private final Map<String, LongAdder[]> counts = new ConcurrentHashMap<>();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicBoolean firstApplied = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+    private long lastReportNanos = System.nanoTime();
+
+    @Autowired
+    public ActivitySummary(
+            @Value("${streamshift.logging.summary-interval-ms:60000}") long intervalMs,
+            @Value("${streamshift.logging.sample-every:0}") long sampleEvery) {
+        this.intervalMs = intervalMs;
+        this.sampleEvery = sampleEvery;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (intervalMs <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "streamshift-activity-summary");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::report, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            report();
+        }
+    }
+
+    /**
+     * Count an applied change, logging it if it is the sampled one
+     */
+    public void applied(String tableName, String operation) {
+        int index = operation != null && operation.length() == 1 ? OPERATIONS.indexOf(operation.charAt(0)) : -1;
+        countersFor(tableName)[index >= 0 ? index : OPERATIONS.length()].increment();
+        if (!firstApplied.get()) {
+            logFirstApplied(tableName);
+        }
+
+        if (sampleEvery > 0 && sampleCounter.incrementAndGet() % sampleEvery == 0) {
+            TraceContext context = TraceContext.current();
+            logger.info("Sampled event: {} on table {} from topic {} partition {} offset {}",
+                    operation, tableName, context.getTopic(), context.getPartition(), context.getOffset());
+        }
+    }
+
+    /**
+     * Count changes applied together as one batch; batches are not sampled
+     */
+    public void applied(String tableName, char operation, int count) {
+        if (count <= 0) {
+            return;
+        }
+        int index = OPERATIONS.indexOf(operation);
+        countersFor(tableName)[index >= 0 ? index : OPERATIONS.length()].add(count);
+        if (!firstApplied.get()) {
+            logFirstApplied(tableName);
+        }
+    }
+
+    /**
+     * Count a change that failed to apply
+     */
+    public void failed(String tableName) {
+        countersFor(tableName)[OPERATIONS.length() + 1].increment();
+    }
+
+    private void logFirstApplied(String tableName) {
+        if (firstApplied.compareAndSet(false, true)) {
+            logger.info("First change applied to table {} {} ms after JVM start",
+                    tableName, ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+    }
+
+    /**
+     * Log and reset the counts since the last report, if anything happened
+     */
+    synchronized void report() {
+        long now = System.nanoTime();
+        double seconds = (now - lastReportNanos) / 1e9;
+        lastReportNanos = now;
+
+        long total = 0;
+        long failures = 0;
+        StringJoiner tables = new StringJoiner(", ");
+        for (Map.Entry<String, LongAdder[]> entry : new TreeMap<>(counts).entrySet()) {
+            LongAdder[] adders = entry.getValue();
+            long[] values = new long[adders.length];
+            long tableTotal = 0;
+            for (int i = 0; i < adders.length; i++) {
+                values[i] = adders[i].sumThenReset();
+                if (i < OPERATIONS.length() + 1) {
+                    tableTotal += values[i];
+                }
+            }
+            long tableFailures = values[OPERATIONS.length() + 1];
+            if (tableTotal == 0 && tableFailures == 0) {
+                continue;
+            }
+            total += tableTotal;
+            failures += tableFailures;
+            tables.add(String.format("%s[c=%d u=%d r=%d d=%d failed=%d]", entry.getKey(),
+                    values[0], values[1], values[2], values[3], tableFailures));
+        }
+
+        if (total > 0 || failures > 0) {
+            logger.info("Applied {} changes in {}s ({}/s), {} failed: {}",
+                    total, Math.round(seconds), Math.round(total / Math.max(seconds, 0.001)), failures, tables);
+        }
+    }
+
+    private LongAdder[] countersFor(String tableName) {
+        return counts.computeIfAbsent(tableName != null ? tableName : "unknown", t -> {
+            // One per operation, one for unknown operations, one for failures
+            LongAdder[] adders = new LongAdder[OPERATIONS.length() + 2];
+            for (int i = 0; i < adders.length; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        });
+    }
+}
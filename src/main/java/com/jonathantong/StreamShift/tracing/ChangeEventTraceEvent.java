@@ -0,0 +1,70 @@
+package com.jonathantong.StreamShift.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Fields shared by every per-event flight recorder event.
+ *
+ * The events are disabled unless a recording enables them (see jfr/streamshift.jfc), and are
+ * raised as begin / shouldCommit / commit, so with no recording the JIT reduces them to a
+ * flag check and the instance is never allocated.
+ */
+@Category({"StreamShift", "Change Events"})
+@Enabled(false)
+@StackTrace(false)
+public abstract class ChangeEventTraceEvent extends jdk.jfr.Event {
+
+    @Label("Table")
+    String table;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Topic")
+    String topic;
+
+    @Label("Partition")
+    int partition;
+
+    @Label("Offset")
+    long offset;
+
+    @Label("Record Size")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Copy the record the current thread is working on, keeping a table already set
+     */
+    public void describe(TraceContext context) {
+        if (table == null) {
+            table = context.getTable();
+        }
+        if (operation == null) {
+            operation = context.getOperation();
+        }
+        topic = context.getTopic();
+        partition = context.getPartition();
+        offset = context.getOffset();
+        bytes = context.getBytes();
+    }
+
+    public void setTable(String table) {
+        this.table = table;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public void setRecord(String topic, int partition, long offset, long bytes) {
+        this.topic = topic;
+        this.partition = partition;
+        this.offset = offset;
+        this.bytes = bytes;
+    }
+}
@@ -0,0 +1,18 @@
+package com.jonathantong.StreamShift.tracing;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("streamshift.Commit")
+@Label("Commit")
+@Description("Commit the target database transaction of a write")
+public class CommitEvent extends ChangeEventTraceEvent {
+
+    @Label("Committed")
+    boolean committed;
+
+    public void setCommitted(boolean committed) {
+        this.committed = committed;
+    }
+}
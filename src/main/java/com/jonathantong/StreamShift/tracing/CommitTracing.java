@@ -0,0 +1,45 @@
+package com.jonathantong.StreamShift.tracing;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Raises a {@link CommitEvent} around the commit of the surrounding Spring transaction
+ */
+public final class CommitTracing {
+
+    private CommitTracing() {
+    }
+
+    /**
+     * Time the commit of the current transaction, if one is active and commit events are recorded
+     */
+    public static void traceCommit(String tableName, String operation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        CommitEvent event = new CommitEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.setTable(tableName);
+        event.setOperation(operation);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                event.begin();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.setCommitted(status == STATUS_COMMITTED);
+                    event.describe(TraceContext.current());
+                    event.commit();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,11 @@
+package com.jonathantong.StreamShift.tracing;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("streamshift.Convert")
+@Label("Convert")
+@Description("Convert a Debezium row image into column values")
+public class ConvertEvent extends ChangeEventTraceEvent {
+}
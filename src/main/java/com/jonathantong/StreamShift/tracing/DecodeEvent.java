@@ -0,0 +1,11 @@
+package com.jonathantong.StreamShift.tracing;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("streamshift.Decode")
+@Label("Decode")
+@Description("Parse a Kafka record value into a Debezium change event")
+public class DecodeEvent extends ChangeEventTraceEvent {
+}
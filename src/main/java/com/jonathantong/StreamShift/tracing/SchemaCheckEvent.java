@@ -0,0 +1,11 @@
+package com.jonathantong.StreamShift.tracing;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("streamshift.SchemaCheck")
+@Label("Schema Check")
+@Description("Ensure the target table exists and load its metadata")
+public class SchemaCheckEvent extends ChangeEventTraceEvent {
+}
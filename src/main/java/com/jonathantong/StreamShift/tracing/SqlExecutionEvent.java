@@ -0,0 +1,32 @@
+package com.jonathantong.StreamShift.tracing;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("streamshift.SqlExecution")
+@Label("SQL Execution")
+@Description("Execute a write statement against the target database")
+public class SqlExecutionEvent extends ChangeEventTraceEvent {
+
+    @Label("Statement")
+    String statement;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    public void setStatement(String statement) {
+        this.statement = statement;
+    }
+
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
@@ -0,0 +1,55 @@
+package com.jonathantong.StreamShift.tracing;
+
+/**
+ * The Kafka record the current thread is working on, so that flight recorder events raised
+ * deep in the apply path can name it without threading it through every call.
+ *
+ * One mutable instance per thread, overwritten for each record; nothing is allocated per event.
+ */
+public final class TraceContext {
+
+    private static final ThreadLocal<TraceContext> CURRENT = ThreadLocal.withInitial(TraceContext::new);
+
+    private String topic;
+    private int partition = -1;
+    private long offset = -1;
+    private long bytes;
+    private String table;
+    private String operation;
+
+    private TraceContext() {
+    }
+
+    public static TraceContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Start a new record on this thread
+     */
+    public TraceContext record(String topic, int partition, long offset, long bytes) {
+        this.topic = topic;
+        this.partition = partition;
+        this.offset = offset;
+        this.bytes = bytes;
+        this.table = null;
+        this.operation = null;
+        return this;
+    }
+
+    /**
+     * Table and operation, once the record has been decoded
+     */
+    public TraceContext change(String table, String operation) {
+        this.table = table;
+        this.operation = operation;
+        return this;
+    }
+
+    public String getTopic() { return topic; }
+    public int getPartition() { return partition; }
+    public long getOffset() { return offset; }
+    public long getBytes() { return bytes; }
+    public String getTable() { return table; }
+    public String getOperation() { return operation; }
+}
@@ -0,0 +1,115 @@
+package com.jonathantong.StreamShift.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jonathantong.StreamShift.benchmark.replay.StandInJdbcTemplate;
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.fanout.FanoutTargets;
+import com.jonathantong.StreamShift.hotkeys.HotKeyTracker;
+import com.jonathantong.StreamShift.memory.MemoryGovernor;
+import com.jonathantong.StreamShift.pipeline.ApplyExecutor;
+import com.jonathantong.StreamShift.pipeline.ChangeEventPipeline;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.service.ChangeEventApplier;
+import com.jonathantong.StreamShift.service.ChangeEventDecoder;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import com.jonathantong.StreamShift.tracing.ActivitySummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Compares platform and virtual apply lanes at 50, 200 and 1000 lanes.
+ *
+ * Each apply holds a connection permit (TargetDB-Pool size) and runs through ChangeEventApplier
+ * and DatabaseUpdateService against a stand-in target that answers each statement one round
+ * trip after it is sent, so throughput is bounded by the pool while memory grows with the lane
+ * count. Server time per statement is not simulated. Virtual lanes are skipped on runtimes older
+ * than Java 21.
+ *
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=com.jonathantong.StreamShift.benchmark.ApplyThreadsBenchmark \
+ *      -Dexec.args="[events] [poolSize] [roundTripMicros]"
+ */
+public class ApplyThreadsBenchmark {
+
+    private static final String TOPIC = "dbserver1.inventory.customers";
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long roundTripMicros = args.length > 2 ? Long.parseLong(args[2]) : 2_000;
+
+        System.out.printf("Java %s, %d events, pool %d, round trip %d us%n",
+                Runtime.version(), events, poolSize, roundTripMicros);
+        System.out.printf("%-9s %6s %12s %12s %12s %8s%n",
+                "threads", "lanes", "events/s", "rss MB", "heap MB", "threads");
+
+        for (int lanes : List.of(50, 200, 1000)) {
+            for (String mode : List.of("platform", "virtual")) {
+                if (mode.equals("virtual") && !ApplyExecutor.virtualThreadsAvailable()) {
+                    System.out.printf("%-9s %6d %12s%n", mode, lanes, "n/a (needs Java 21)");
+                    continue;
+                }
+                run(mode, lanes, events, poolSize, roundTripMicros);
+            }
+        }
+    }
+
+    private static void run(String mode, int lanes, int events, int poolSize, long roundTripMicros) {
+        StandInJdbcTemplate target = new StandInJdbcTemplate("id", roundTripMicros);
+        ChangeEventApplier applier = new ChangeEventApplier(
+                new DatabaseUpdateService(target, new RowFingerprintCache(false, 1024, new SimpleMeterRegistry())),
+                new SchemaMetadataService(target, target), new ActivitySummary(0, 0));
+
+        ChangeEventPipeline pipeline = new ChangeEventPipeline(true, 8192, 2, lanes, 1000,
+                "blocking", "sleeping", "sleeping", "blocking", "blocking",
+                new ChangeEventDecoder(new ObjectMapper()), applier, new ApplyExecutor(mode, poolSize),
+                new ShardRouter(1, null, "hash", ""), new FanoutTargets(1, List.of(), "", "", 0), null, HotKeyTracker.disabled(),
+                KeyRouting.valueFirst(), DependencyScheduler.disabled(), MemoryGovernor.unbounded(),
+                new SimpleMeterRegistry());
+        pipeline.start();
+
+        System.gc();
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            String value = "{\"op\":\"u\",\"source\":{\"db\":\"inventory\",\"table\":\"customers\"},"
+                    + "\"after\":{\"id\":" + i + ",\"email\":\"user" + i + "@example.com\"}}";
+            pipeline.publish(new ConsumerRecord<>(TOPIC, 0, i, "{\"id\":" + i + "}", value.getBytes(StandardCharsets.UTF_8)),
+                    () -> { });
+        }
+        long rssKb = residentSetKb();
+        long heapBytes = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        pipeline.drain(Duration.ofMinutes(10));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pipeline.stop();
+
+        System.out.printf("%-9s %6d %12.0f %12.1f %12.1f %8d%n",
+                mode, lanes, events / seconds, rssKb / 1024.0, heapBytes / 1048576.0, threads);
+    }
+
+    /**
+     * Resident set size from /proc, or -1 where unavailable
+     */
+    private static long residentSetKb() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+        } catch (Exception e) {
+            // Not Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,188 @@
+package com.jonathantong.StreamShift.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.jonathantong.StreamShift.benchmark.replay.CapturedEventReader;
+import com.jonathantong.StreamShift.format.EventFormat;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.service.ChangeEventDecoder;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytes per event and decode throughput of the same change events as JSON with the converter's
+ * schemas, schemaless JSON, Smile and CBOR.
+ *
+ * Events are generated customer updates, or the envelopes of a capture file in the replay
+ * harness's format. Each format is decoded from its bytes, as the listener receives them.
+ *
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=com.jonathantong.StreamShift.benchmark.EventFormatBenchmark \
+ *      -Dexec.args="[events] [capture.jsonl[.gz]]"
+ */
+public class EventFormatBenchmark {
+
+    private static final String TOPIC = "dbserver1.inventory.customers";
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        ObjectMapper json = new ObjectMapper();
+        List<ObjectNode> envelopes = args.length > 1 ? captured(json, Path.of(args[1])) : generated(json, 1000);
+
+        Map<String, ObjectMapper> writers = Map.of(
+                "smile", new ObjectMapper(new SmileFactory()),
+                "cbor", new ObjectMapper(new CBORFactory()));
+        List<String> names = List.of("json+schema", "json", "smile", "cbor");
+        List<EventFormat> formats = List.of(EventFormat.JSON, EventFormat.JSON, EventFormat.SMILE, EventFormat.CBOR);
+
+        System.out.printf("Java %s, %d distinct envelopes, %d decodes per format%n",
+                Runtime.version(), envelopes.size(), events);
+        System.out.printf("%-12s %12s %14s %10s%n", "format", "bytes/event", "events/s", "MB/s");
+
+        ChangeEventDecoder decoder = new ChangeEventDecoder(json);
+        for (int f = 0; f < names.size(); f++) {
+            String name = names.get(f);
+            List<byte[]> values = new ArrayList<>();
+            long bytes = 0;
+            for (ObjectNode envelope : envelopes) {
+                byte[] value;
+                if (name.equals("json+schema")) {
+                    ObjectNode withSchema = json.createObjectNode();
+                    withSchema.set("schema", schemaOf(json, envelope));
+                    withSchema.set("payload", envelope);
+                    value = json.writeValueAsBytes(withSchema);
+                } else if (name.equals("json")) {
+                    value = json.writeValueAsBytes(envelope);
+                } else {
+                    value = writers.get(name).writeValueAsBytes(envelope);
+                }
+                values.add(value);
+                bytes += value.length;
+            }
+
+            // Warm up, then time
+            decode(decoder, formats.get(f), values, events);
+            long start = System.nanoTime();
+            decode(decoder, formats.get(f), values, events);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            double bytesPerEvent = (double) bytes / values.size();
+            System.out.printf("%-12s %12.0f %14.0f %10.1f%n",
+                    name, bytesPerEvent, events / seconds, events * bytesPerEvent / seconds / 1048576.0);
+        }
+    }
+
+    private static void decode(ChangeEventDecoder decoder, EventFormat format, List<byte[]> values, int events)
+            throws Exception {
+        DecodedChange change = new DecodedChange();
+        int decoded = 0;
+        for (int i = 0; i < events; i++) {
+            if (decoder.decode(format, values.get(i % values.size()), change, TOPIC)) {
+                decoded++;
+            }
+        }
+        if (decoded != events) {
+            throw new IllegalStateException("Decoded " + decoded + " of " + events + " events");
+        }
+    }
+
+    private static List<ObjectNode> generated(ObjectMapper json, int count) {
+        List<ObjectNode> envelopes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ObjectNode envelope = json.createObjectNode();
+            envelope.set("before", row(json, i, i));
+            envelope.set("after", row(json, i, i + 1));
+            ObjectNode source = envelope.putObject("source");
+            source.put("version", "2.4.0.Final");
+            source.put("connector", "mysql");
+            source.put("name", "dbserver1");
+            source.put("ts_ms", 1700000000000L + i);
+            source.put("db", "inventory");
+            source.put("table", "customers");
+            source.put("server_id", 223344);
+            source.put("file", "mysql-bin.000003");
+            source.put("pos", 154 + i * 380L);
+            envelope.put("op", "u");
+            envelope.put("ts_ms", 1700000000100L + i);
+            envelope.putNull("transaction");
+            envelopes.add(envelope);
+        }
+        return envelopes;
+    }
+
+    private static ObjectNode row(ObjectMapper json, int id, int version) {
+        ObjectNode row = json.createObjectNode();
+        row.put("id", 1000 + id);
+        row.put("first_name", "Customer" + id);
+        row.put("last_name", "Surname" + (id % 97));
+        row.put("email", "customer" + id + "@example.com");
+        row.put("balance", 100.25 + version);
+        row.put("active", id % 3 != 0);
+        row.put("version", version);
+        row.put("updated_at", 1700000000000L + version);
+        return row;
+    }
+
+    private static List<ObjectNode> captured(ObjectMapper json, Path file) throws Exception {
+        List<ObjectNode> envelopes = new ArrayList<>();
+        for (ConsumerRecord<String, String> record : new CapturedEventReader(json, "id").read(file)) {
+            if (record.value() != null) {
+                envelopes.add((ObjectNode) json.readTree(record.value()));
+            }
+        }
+        return envelopes;
+    }
+
+    /**
+     * A schema block shaped like the Debezium JSON converter's, from the envelope's values
+     */
+    private static ObjectNode schemaOf(ObjectMapper json, ObjectNode envelope) {
+        ObjectNode schema = json.createObjectNode();
+        schema.put("type", "struct");
+        schema.put("optional", false);
+        schema.put("name", "dbserver1.inventory.customers.Envelope");
+        ArrayNode fields = schema.putArray("fields");
+        Iterator<Map.Entry<String, JsonNode>> entries = envelope.fields();
+        while (entries.hasNext()) {
+            Map.Entry<String, JsonNode> entry = entries.next();
+            fields.add(fieldOf(json, entry.getKey(), entry.getValue()));
+        }
+        return schema;
+    }
+
+    private static ObjectNode fieldOf(ObjectMapper json, String name, JsonNode value) {
+        ObjectNode field = json.createObjectNode();
+        if (value.isObject()) {
+            field.put("type", "struct");
+            ArrayNode fields = field.putArray("fields");
+            Iterator<Map.Entry<String, JsonNode>> entries = value.fields();
+            while (entries.hasNext()) {
+                Map.Entry<String, JsonNode> entry = entries.next();
+                fields.add(fieldOf(json, entry.getKey(), entry.getValue()));
+            }
+            field.put("name", "dbserver1.inventory.customers.Value");
+        } else if (value.isInt()) {
+            field.put("type", "int32");
+        } else if (value.isIntegralNumber()) {
+            field.put("type", "int64");
+        } else if (value.isNumber()) {
+            field.put("type", "double");
+        } else if (value.isBoolean()) {
+            field.put("type", "boolean");
+        } else {
+            field.put("type", "string");
+        }
+        field.put("optional", true);
+        field.put("field", name);
+        return field;
+    }
+}
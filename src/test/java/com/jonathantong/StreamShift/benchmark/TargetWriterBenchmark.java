@@ -0,0 +1,127 @@
+package com.jonathantong.StreamShift.benchmark;
+
+import com.jonathantong.StreamShift.benchmark.replay.StandInJdbcTemplate;
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.R2dbcTargetWriter;
+import com.jonathantong.StreamShift.service.TargetWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JDBC writer, one statement per round trip, with the pipelined R2DBC writer at
+ * several round-trip times.
+ *
+ * Both write to in-process stand-ins that answer each statement one round trip after it is sent:
+ * the JDBC writer blocks on every statement, the R2DBC writer keeps up to pipeline-depth in
+ * flight per connection. Each lane waits for its writes every 100 rows, as apply lanes do at the
+ * end of a ring batch. Server time per statement is not simulated, so the R2DBC figures are an
+ * upper bound.
+ *
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=com.jonathantong.StreamShift.benchmark.TargetWriterBenchmark \
+ *      -Dexec.args="[rowsPerLane] [lanes] [connections] [pipelineDepth]"
+ */
+public class TargetWriterBenchmark {
+
+    private static final List<String> KEY = List.of("id");
+    private static final int ROWS_PER_WAIT = 100;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int lanes = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int pipelineDepth = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        System.out.printf("Java %s, %d lanes x %d rows, r2dbc %d connections x %d in flight%n",
+                Runtime.version(), lanes, rows, connections, pipelineDepth);
+        System.out.printf("%-8s %10s %12s%n", "writer", "rtt us", "events/s");
+
+        for (long roundTripMicros : List.of(200L, 1_000L, 5_000L)) {
+            // Fewer rows at high latency, and a tenth of them over JDBC, keep each run short
+            int laneRows = (int) Math.max(ROWS_PER_WAIT, rows * 200 / roundTripMicros);
+
+            DatabaseUpdateService jdbc = new DatabaseUpdateService(new StandInJdbcTemplate("id", roundTripMicros),
+                    new RowFingerprintCache(false, 1024, new SimpleMeterRegistry()));
+            run("jdbc", jdbc, lanes, laneRows / 10, roundTripMicros);
+
+            try (R2dbcTargetWriter r2dbc = new R2dbcTargetWriter(standIn(roundTripMicros), connections, pipelineDepth,
+                    jdbc, new RowFingerprintCache(false, 1024, new SimpleMeterRegistry()), DependencyScheduler.disabled(),
+                    new SimpleMeterRegistry())) {
+                run("r2dbc", r2dbc, lanes, laneRows, roundTripMicros);
+            }
+        }
+    }
+
+    private static void run(String name, TargetWriter writer, int lanes, int rows, long roundTripMicros)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int lane = 0; lane < lanes; lane++) {
+            int first = lane * rows;
+            Thread thread = new Thread(() -> {
+                RowBuffer row = new RowBuffer();
+                for (int i = 0; i < rows; i++) {
+                    row.clear();
+                    row.add("id", first + i);
+                    row.add("email", "user" + (first + i) + "@example.com");
+                    row.add("status", "active");
+                    writer.upsert("customers", row, KEY);
+                    if ((i + 1) % ROWS_PER_WAIT == 0 || i == rows - 1) {
+                        writer.awaitWrites();
+                    }
+                }
+            }, name + "-lane-" + lane);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-8s %10d %12.0f%n", name, roundTripMicros, lanes * (double) rows / seconds);
+    }
+
+    /**
+     * Connections whose statements each complete one round trip after they are sent
+     */
+    private static ConnectionFactory standIn(long roundTripMicros) {
+        Duration roundTrip = Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros));
+        Result result = proxy(Result.class, (method, args) ->
+                method.getName().equals("getRowsUpdated") ? Mono.just(1L) : null);
+        Connection connection = proxy(Connection.class, (method, args) -> switch (method.getName()) {
+            case "createStatement" -> {
+                Statement[] statement = new Statement[1];
+                statement[0] = proxy(Statement.class, (m, a) ->
+                        m.getName().equals("execute") ? Mono.delay(roundTrip).thenReturn(result) : statement[0]);
+                yield statement[0];
+            }
+            case "close" -> Mono.empty();
+            default -> null;
+        });
+        return proxy(ConnectionFactory.class, (method, args) ->
+                method.getName().equals("create") ? Mono.just(connection) : null);
+    }
+
+    private interface Handler {
+        Object handle(Method method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> handler.handle(method, args)));
+    }
+}
@@ -0,0 +1,115 @@
+package com.jonathantong.StreamShift.benchmark.replay;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads captured change events from a JSONL file, gzip-compressed when the name ends in .gz.
+ *
+ * Each line is either a bare Debezium envelope, as printed by kafka-console-consumer, or a
+ * wrapper with topic, partition, offset, key and value fields. Bare envelopes get their topic
+ * from source.table and are numbered sequentially on partition 0. Envelopes written with
+ * schemas enabled are unwrapped from their payload field.
+ */
+public class CapturedEventReader {
+
+    private static final String TOPIC_PREFIX = "dbserver1.inventory.";
+
+    private final ObjectMapper objectMapper;
+    private final String keyField;
+
+    /**
+     * @param keyField column used to build a record key for bare envelopes that carry none
+     */
+    public CapturedEventReader(ObjectMapper objectMapper, String keyField) {
+        this.objectMapper = objectMapper;
+        this.keyField = keyField;
+    }
+
+    public List<ConsumerRecord<String, String>> read(Path file) throws IOException {
+        List<ConsumerRecord<String, String>> records = new ArrayList<>();
+        Map<Integer, Long> nextOffset = new HashMap<>();
+
+        try (InputStream in = open(file);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    records.add(toRecord(objectMapper.readTree(line), nextOffset));
+                } catch (IOException | IllegalArgumentException e) {
+                    throw new IOException("Unreadable event on line " + lineNumber + " of " + file, e);
+                }
+            }
+        }
+        return records;
+    }
+
+    private ConsumerRecord<String, String> toRecord(JsonNode node, Map<Integer, Long> nextOffset)
+            throws IOException {
+        if (node.has("op") || node.has("payload")) {
+            JsonNode envelope = node.has("payload") ? node.get("payload") : node;
+            String table = envelope.path("source").path("table").asText(null);
+            if (table == null) {
+                throw new IllegalArgumentException("Envelope has no source.table");
+            }
+            long offset = nextOffset.merge(0, 1L, Long::sum) - 1;
+            return new ConsumerRecord<>(TOPIC_PREFIX + table, 0, offset,
+                    keyOf(envelope), objectMapper.writeValueAsString(envelope));
+        }
+
+        if (!node.has("topic")) {
+            throw new IllegalArgumentException("Line is neither a Debezium envelope nor a captured record");
+        }
+        int partition = node.path("partition").asInt(0);
+        long offset = node.has("offset")
+                ? node.get("offset").asLong()
+                : nextOffset.merge(partition, 1L, Long::sum) - 1;
+        return new ConsumerRecord<>(node.get("topic").asText(), partition, offset,
+                text(node.get("key")), text(node.get("value")));
+    }
+
+    private String keyOf(JsonNode envelope) throws IOException {
+        JsonNode row = envelope.hasNonNull("after") ? envelope.get("after") : envelope.get("before");
+        if (row == null || !row.has(keyField)) {
+            return null;
+        }
+        ObjectNode key = objectMapper.createObjectNode();
+        key.set(keyField, row.get(keyField));
+        return objectMapper.writeValueAsString(key);
+    }
+
+    /**
+     * Captured keys and values may be stored as JSON strings or inline JSON
+     */
+    private String text(JsonNode node) throws IOException {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        return node.isTextual() ? node.textValue() : objectMapper.writeValueAsString(node);
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        return file.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+}
@@ -0,0 +1,141 @@
+package com.jonathantong.StreamShift.benchmark.replay;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces replayed events and optionally reshapes their key distribution.
+ *
+ * Rate: steady events per second, 0 for as fast as the pipeline accepts.
+ * Burst: for burstMs out of every periodMs, send at burstRate instead.
+ * Skew: rewrite the key column of every event to one of keyCount keys drawn from a Zipf
+ * distribution with the given exponent, so hot-key behaviour can be reproduced from any capture.
+ */
+public class LoadProfile {
+
+    private final double rate;
+    private final double burstRate;
+    private final long burstNanos;
+    private final long periodNanos;
+    private final String keyField;
+    private final double zipfExponent;
+    private final double[] zipfCdf;
+    private final SplittableRandom random;
+
+    private long startNanos;
+    private long nextSendNanos;
+
+    public LoadProfile(double rate, double burstRate, long burstMs, long periodMs,
+                       String keyField, int keyCount, double zipfExponent, long seed) {
+        this.rate = rate;
+        this.burstRate = burstRate;
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(burstMs);
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMs);
+        this.keyField = keyField;
+        this.zipfExponent = zipfExponent;
+        this.zipfCdf = keyCount > 0 ? zipfCdf(keyCount, zipfExponent) : null;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        nextSendNanos = startNanos;
+    }
+
+    /**
+     * Block until the next event is due. Returns the scheduled send time, which latency
+     * should be measured from so that a stalled pipeline is not hidden by a late publish.
+     */
+    public long awaitNext() {
+        double currentRate = inBurst(nextSendNanos) ? burstRate : rate;
+        if (currentRate <= 0) {
+            return System.nanoTime();
+        }
+
+        long scheduled = nextSendNanos;
+        nextSendNanos += (long) (TimeUnit.SECONDS.toNanos(1) / currentRate);
+        long remaining;
+        while ((remaining = scheduled - System.nanoTime()) > 0) {
+            if (remaining > TimeUnit.MICROSECONDS.toNanos(50)) {
+                LockSupport.parkNanos(remaining - TimeUnit.MICROSECONDS.toNanos(20));
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        return scheduled;
+    }
+
+    /**
+     * Replace the key column in the record key and row images with a Zipf-drawn key
+     */
+    public ConsumerRecord<String, String> reshape(ConsumerRecord<String, String> record, long offset,
+                                                  ObjectMapper objectMapper) throws IOException {
+        String key = record.key();
+        String value = record.value();
+
+        if (zipfCdf != null && value != null && !value.isEmpty()) {
+            long keyValue = nextKey();
+            JsonNode envelope = objectMapper.readTree(value);
+            rewrite(envelope.get("before"), keyValue);
+            rewrite(envelope.get("after"), keyValue);
+            value = objectMapper.writeValueAsString(envelope);
+
+            ObjectNode newKey = objectMapper.createObjectNode();
+            newKey.put(keyField, keyValue);
+            key = objectMapper.writeValueAsString(newKey);
+        }
+
+        return new ConsumerRecord<>(record.topic(), record.partition(), offset, key, value);
+    }
+
+    public Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("rate", rate);
+        description.put("burstRate", burstRate);
+        description.put("burstMs", TimeUnit.NANOSECONDS.toMillis(burstNanos));
+        description.put("periodMs", TimeUnit.NANOSECONDS.toMillis(periodNanos));
+        description.put("keyField", keyField);
+        description.put("keyCount", zipfCdf != null ? zipfCdf.length : 0);
+        description.put("zipfExponent", zipfExponent);
+        return description;
+    }
+
+    private boolean inBurst(long nanos) {
+        return burstRate > 0 && periodNanos > 0 && (nanos - startNanos) % periodNanos < burstNanos;
+    }
+
+    private void rewrite(JsonNode row, long keyValue) {
+        if (row instanceof ObjectNode object && object.has(keyField)) {
+            object.put(keyField, keyValue);
+        }
+    }
+
+    private long nextKey() {
+        int index = Arrays.binarySearch(zipfCdf, random.nextDouble());
+        return (index >= 0 ? index : -index - 1) + 1;
+    }
+
+    private static double[] zipfCdf(int keyCount, double exponent) {
+        double[] cdf = new double[keyCount];
+        double sum = 0;
+        for (int k = 0; k < keyCount; k++) {
+            sum += 1.0 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < keyCount; k++) {
+            cdf[k] /= sum;
+        }
+        cdf[keyCount - 1] = 1.0;
+        return cdf;
+    }
+}
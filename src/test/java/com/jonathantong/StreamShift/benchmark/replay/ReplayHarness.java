@@ -0,0 +1,346 @@
+package com.jonathantong.StreamShift.benchmark.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.fanout.FanoutTargets;
+import com.jonathantong.StreamShift.hotkeys.HotKeyTracker;
+import com.jonathantong.StreamShift.memory.MemoryGovernor;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.pipeline.ApplyExecutor;
+import com.jonathantong.StreamShift.pipeline.ChangeEventPipeline;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.service.ChangeBatch;
+import com.jonathantong.StreamShift.service.ChangeEventApplier;
+import com.jonathantong.StreamShift.service.ChangeEventDecoder;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import com.jonathantong.StreamShift.service.TableBatch;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import com.jonathantong.StreamShift.tracing.ActivitySummary;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.math.BigDecimal;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays captured Debezium change events through the consumer pipeline without Kafka.
+ *
+ * Events are read from a JSONL (or .jsonl.gz) capture, paced by a {@link LoadProfile} and
+ * published into the same {@link ChangeEventPipeline} the listener uses, or applied inline
+ * with --mode=sync to mirror the listener with the pipeline disabled. Writes go to a local
+ * PostgreSQL when --target-url is given, otherwise to a {@link StandInJdbcTemplate}.
+ *
+ * Reports throughput, p50/p99/p999 apply and end-to-end latency, allocation and GC, and
+ * writes a JSON report keyed by git commit to target/replay. Options (all --name=value):
+ *   input           capture file, default src/test/resources/replay/sample-events.jsonl
+ *   loops           times to replay the capture, default 1000
+ *   mode            pipeline or sync, default pipeline
+ *   rate            events per second, 0 for unthrottled (default)
+ *   burst-rate, burst-ms, period-ms   burst profile, off by default
+ *   key-field       key column, default id
+ *   keys, zipf      rewrite keys to one of N keys with Zipf exponent s, off by default
+ *   target-url, target-user, target-password   local PostgreSQL target
+ *   stand-in-latency-us   simulated round trip of the stand-in target, default 200
+ *   lanes, decode-workers, ring-size, apply-threads, pool-size   pipeline shape
+ *   key-first       route by record key and decode values on the apply lanes, default false
+ *   strategy        apply strategy for every table: row, batch or merge, default row;
+ *                   batch and merge apply in pipeline mode, merge needs --target-url
+ *   max-batch-rows  staged changes per lane before a flush, default 1000
+ *   fingerprint-cache   true or false, default false
+ *   label           report name suffix, default default
+ *   compare         earlier report to print deltas against
+ */
+public class ReplayHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        ObjectMapper objectMapper = new ObjectMapper();
+        String keyField = options.getOrDefault("key-field", "id");
+
+        Path input = Path.of(options.getOrDefault("input", "src/test/resources/replay/sample-events.jsonl"));
+        List<ConsumerRecord<String, String>> capture = new CapturedEventReader(objectMapper, keyField).read(input);
+        if (capture.isEmpty()) {
+            throw new IllegalArgumentException("No events in " + input);
+        }
+        int loops = Integer.parseInt(options.getOrDefault("loops", "1000"));
+        long total = (long) capture.size() * loops;
+
+        LoadProfile profile = new LoadProfile(
+                Double.parseDouble(options.getOrDefault("rate", "0")),
+                Double.parseDouble(options.getOrDefault("burst-rate", "0")),
+                Long.parseLong(options.getOrDefault("burst-ms", "0")),
+                Long.parseLong(options.getOrDefault("period-ms", "0")),
+                keyField,
+                Integer.parseInt(options.getOrDefault("keys", "0")),
+                Double.parseDouble(options.getOrDefault("zipf", "1.0")),
+                Long.parseLong(options.getOrDefault("seed", "42")));
+
+        // Target: local PostgreSQL or the stand-in
+        String targetUrl = options.get("target-url");
+        HikariDataSource dataSource = null;
+        JdbcTemplate targetJdbcTemplate;
+        if (targetUrl != null) {
+            HikariConfig config = new HikariConfig();
+            config.setJdbcUrl(targetUrl);
+            config.setUsername(options.getOrDefault("target-user", "postgres"));
+            config.setPassword(options.getOrDefault("target-password", "postgres"));
+            config.setMaximumPoolSize(Integer.parseInt(options.getOrDefault("pool-size", "20")));
+            config.setPoolName("Replay-TargetDB-Pool");
+            dataSource = new HikariDataSource(config);
+            targetJdbcTemplate = new JdbcTemplate(dataSource);
+        } else {
+            targetJdbcTemplate = new StandInJdbcTemplate(keyField,
+                    Long.parseLong(options.getOrDefault("stand-in-latency-us", "200")));
+        }
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RowFingerprintCache fingerprintCache = new RowFingerprintCache(
+                Boolean.parseBoolean(options.getOrDefault("fingerprint-cache", "false")), 1 << 20, meterRegistry);
+        Recorder applyLatency = new Recorder(TimeUnit.MINUTES.toNanos(1), 3);
+        String strategy = options.getOrDefault("strategy", "row");
+        if (strategy.equals("merge") && dataSource == null) {
+            throw new IllegalArgumentException("--strategy=merge needs a PostgreSQL target, set --target-url");
+        }
+        DatabaseUpdateService databaseUpdateService = new DatabaseUpdateService(targetJdbcTemplate, fingerprintCache);
+        if (dataSource != null) {
+            // A set-wise batch runs in one transaction, as it does behind the service's @Transactional proxy
+            TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+            databaseUpdateService = new DatabaseUpdateService(targetJdbcTemplate, fingerprintCache) {
+                @Override
+                public void applyBatch(TableBatch batch) {
+                    transactionTemplate.executeWithoutResult(status -> super.applyBatch(batch));
+                }
+            };
+        }
+        ChangeEventApplier applier = new ChangeEventApplier(
+                databaseUpdateService,
+                new SchemaMetadataService(targetJdbcTemplate, targetJdbcTemplate),
+                new ActivitySummary(0, 0), strategy, "") {
+            @Override
+            public void apply(DecodedChange change, ChangeBatch waiting, long sequence) {
+                long start = System.nanoTime();
+                try {
+                    super.apply(change, waiting, sequence);
+                } finally {
+                    applyLatency.recordValue(Math.min(System.nanoTime() - start, TimeUnit.MINUTES.toNanos(1)));
+                }
+            }
+        };
+        String mode = options.getOrDefault("mode", "pipeline");
+        boolean staged = !mode.equals("sync");
+
+        // Warm up on one pass of the capture so JIT and table metadata are settled
+        ChangeEventPipeline warmup = newPipeline(options, objectMapper, applier, new SimpleMeterRegistry());
+        replay(capture, 1, staged, warmup, applier, new LoadProfile(0, 0, 0, 0, keyField, 0, 1, 0),
+                objectMapper, new Histogram(3));
+        if (staged) {
+            warmup.stop();
+        }
+        applyLatency.getIntervalHistogram();
+        long statementsBefore = targetJdbcTemplate instanceof StandInJdbcTemplate standIn
+                ? standIn.getStatements() : 0;
+
+        // Measured run, percentiles kept for the whole run rather than a sliding window
+        SimpleMeterRegistry pipelineRegistry = new SimpleMeterRegistry();
+        pipelineRegistry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                return DistributionStatisticConfig.builder()
+                        .expiry(Duration.ofDays(1))
+                        .bufferLength(1)
+                        .build()
+                        .merge(config);
+            }
+        });
+        ChangeEventPipeline pipeline = newPipeline(options, objectMapper, applier, pipelineRegistry);
+        Histogram scheduleLag = new Histogram(3);
+        long allocatedBefore = allocatedBytes();
+        long[] gcBefore = gcTotals();
+        long start = System.nanoTime();
+
+        replay(capture, loops, staged, pipeline, applier, profile, objectMapper, scheduleLag);
+        if (staged && !pipeline.drain(Duration.ofMinutes(10))) {
+            System.err.println("Pipeline did not drain, results are partial");
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedBytes() - allocatedBefore;
+        long[] gcAfter = gcTotals();
+        if (staged) {
+            pipeline.stop();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+
+        ReplayReport report = new ReplayReport()
+                .put("input", input.toString())
+                .put("events", total)
+                .put("mode", mode)
+                .put("strategy", strategy)
+                .put("lanes", Integer.parseInt(options.getOrDefault("lanes", "4")))
+                .put("target", targetUrl != null ? "postgresql" : "stand-in")
+                .put("profile", profile.describe())
+                .put("durationSeconds", seconds)
+                .put("throughput", total / seconds)
+                .putLatency("applyLatencyMicros", applyLatency.getIntervalHistogram())
+                .put("endToEndLatencyMicros", endToEnd(pipelineRegistry))
+                .putLatency("scheduleLagMicros", scheduleLag)
+                .put("allocatedBytes", allocated)
+                .put("allocatedBytesPerEvent", allocated / (double) total)
+                .put("gcCount", gcAfter[0] - gcBefore[0])
+                .put("gcMillis", gcAfter[1] - gcBefore[1])
+                .put("fingerprintHitRatio", fingerprintCache.hitRatio());
+        if (targetJdbcTemplate instanceof StandInJdbcTemplate standIn) {
+            report.put("statementsPerEvent", (standIn.getStatements() - statementsBefore) / (double) total);
+        }
+
+        Path written = report.write(Path.of("target", "replay"), options.getOrDefault("label", "default"), objectMapper);
+        System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(
+                objectMapper.readValue(written.toFile(), Map.class)));
+        System.out.println("Report written to " + written);
+        if (options.containsKey("compare")) {
+            report.compare(Path.of(options.get("compare")), objectMapper);
+        }
+    }
+
+    /**
+     * Pipeline shaped by the options, started unless running in sync mode
+     */
+    private static ChangeEventPipeline newPipeline(Map<String, String> options, ObjectMapper objectMapper,
+                                                   ChangeEventApplier applier, MeterRegistry meterRegistry) {
+        ChangeEventPipeline pipeline = new ChangeEventPipeline(true,
+                Integer.parseInt(options.getOrDefault("ring-size", "4096")),
+                Integer.parseInt(options.getOrDefault("decode-workers", "2")),
+                Integer.parseInt(options.getOrDefault("lanes", "4")),
+                Integer.parseInt(options.getOrDefault("max-batch-rows", "1000")),
+                "blocking", "sleeping", "sleeping", "blocking", "blocking",
+                new ChangeEventDecoder(objectMapper), applier,
+                new ApplyExecutor(options.getOrDefault("apply-threads", "platform"),
+                        Integer.parseInt(options.getOrDefault("pool-size", "20"))),
+                new ShardRouter(1, null, "hash", ""), new FanoutTargets(1, List.of(), "", "", 0), null,
+                HotKeyTracker.disabled(),
+                new KeyRouting(Boolean.parseBoolean(options.getOrDefault("key-first", "false")), ""),
+                DependencyScheduler.disabled(), MemoryGovernor.unbounded(), meterRegistry);
+        if (!"sync".equals(options.get("mode"))) {
+            pipeline.start();
+        }
+        return pipeline;
+    }
+
+    private static void replay(List<ConsumerRecord<String, String>> capture, int loops, boolean staged,
+                               ChangeEventPipeline pipeline, ChangeEventApplier applier, LoadProfile profile,
+                               ObjectMapper objectMapper, Histogram scheduleLag) throws Exception {
+        // Offsets keep increasing across loops so the ack stage sees one continuous partition
+        Map<Integer, Long> offsets = new HashMap<>();
+        ChangeEventDecoder decoder = new ChangeEventDecoder(objectMapper);
+        DecodedChange change = new DecodedChange();
+        profile.start();
+        for (int loop = 0; loop < loops; loop++) {
+            for (ConsumerRecord<String, String> captured : capture) {
+                long offset = offsets.merge(captured.partition(), 1L, Long::sum) - 1;
+                ConsumerRecord<String, byte[]> record = toBytes(profile.reshape(captured, offset, objectMapper));
+                long scheduled = profile.awaitNext();
+
+                if (!staged) {
+                    if (record.value() != null && record.value().length > 0) {
+                        try {
+                            if (decoder.decode(record.value(), record.headers(), change, record.topic())) {
+                                applier.apply(change);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            // Counted by the latency recorder, same as the listener's log-and-continue
+                        }
+                    }
+                } else {
+                    pipeline.publish(record, () -> { });
+                }
+                scheduleLag.recordValue(Math.max(0, System.nanoTime() - scheduled));
+            }
+        }
+    }
+
+    /**
+     * The record as the listener receives it, with its value as UTF-8 bytes
+     */
+    private static ConsumerRecord<String, byte[]> toBytes(ConsumerRecord<String, String> record) {
+        byte[] value = record.value() != null ? record.value().getBytes(StandardCharsets.UTF_8) : null;
+        return new ConsumerRecord<>(record.topic(), record.partition(), record.offset(), record.key(), value);
+    }
+
+    private static Map<String, Object> endToEnd(SimpleMeterRegistry meterRegistry) {
+        Timer timer = meterRegistry.find("streamshift.pipeline.latency").timer();
+        Map<String, Object> latency = new LinkedHashMap<>();
+        if (timer == null || timer.count() == 0) {
+            return latency;
+        }
+        latency.put("count", timer.count());
+        for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+            String name = "p" + BigDecimal.valueOf(percentile.percentile()).movePointRight(2)
+                    .stripTrailingZeros().toPlainString().replace(".", "");
+            latency.put(name, percentile.value(TimeUnit.MICROSECONDS));
+        }
+        latency.put("max", timer.max(TimeUnit.MICROSECONDS));
+        return latency;
+    }
+
+    /**
+     * Bytes allocated by all live threads, including the pipeline's stage threads
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads) {
+            long total = 0;
+            for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                total += Math.max(0, allocated);
+            }
+            return total;
+        }
+        return -1;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, millis};
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+}
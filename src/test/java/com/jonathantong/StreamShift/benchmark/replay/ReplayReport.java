@@ -0,0 +1,115 @@
+package com.jonathantong.StreamShift.benchmark.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of one replay run, written as JSON under target/replay and named after the git
+ * commit so that runs of the same capture and profile can be compared across commits.
+ */
+public class ReplayReport {
+
+    private final Map<String, Object> report = new LinkedHashMap<>();
+
+    public ReplayReport() {
+        String commit = git("rev-parse", "--short", "HEAD");
+        report.put("commit", commit.isEmpty() ? "unknown" : commit);
+        report.put("dirty", !git("status", "--porcelain", "--untracked-files=no").isEmpty());
+        report.put("timestamp", Instant.now().toString());
+        report.put("java", Runtime.version().toString());
+        report.put("cpus", Runtime.getRuntime().availableProcessors());
+    }
+
+    public ReplayReport put(String name, Object value) {
+        report.put(name, value);
+        return this;
+    }
+
+    /**
+     * Percentiles of a nanosecond histogram, in microseconds
+     */
+    public ReplayReport putLatency(String name, Histogram nanos) {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", nanos.getTotalCount());
+        latency.put("p50", nanos.getValueAtPercentile(50) / 1000.0);
+        latency.put("p99", nanos.getValueAtPercentile(99) / 1000.0);
+        latency.put("p999", nanos.getValueAtPercentile(99.9) / 1000.0);
+        latency.put("max", nanos.getMaxValue() / 1000.0);
+        report.put(name, latency);
+        return this;
+    }
+
+    public Object get(String name) {
+        return report.get(name);
+    }
+
+    public Path write(Path directory, String label, ObjectMapper objectMapper) throws IOException {
+        Files.createDirectories(directory);
+        String name = report.get("commit") + (Boolean.TRUE.equals(report.get("dirty")) ? "-dirty" : "")
+                + "-" + label + ".json";
+        Path file = directory.resolve(name);
+        objectMapper.writer(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report);
+        return file;
+    }
+
+    /**
+     * Print throughput and latency changes against an earlier report
+     */
+    @SuppressWarnings("unchecked")
+    public void compare(Path baseline, ObjectMapper objectMapper) throws IOException {
+        Map<String, Object> before = objectMapper.readValue(baseline.toFile(), Map.class);
+        System.out.printf("Compared with %s (%s):%n", before.get("commit"), baseline.getFileName());
+        delta("throughput", before.get("throughput"), report.get("throughput"));
+        delta("allocatedBytesPerEvent", before.get("allocatedBytesPerEvent"), report.get("allocatedBytesPerEvent"));
+        for (String latency : new String[] {"applyLatencyMicros", "endToEndLatencyMicros"}) {
+            Map<String, Object> was = (Map<String, Object>) before.get(latency);
+            Map<String, Object> now = (Map<String, Object>) report.get(latency);
+            if (was != null && now != null) {
+                for (String percentile : new String[] {"p50", "p99", "p999"}) {
+                    delta(latency + "." + percentile, was.get(percentile), now.get(percentile));
+                }
+            }
+        }
+    }
+
+    private static void delta(String name, Object before, Object after) {
+        if (before instanceof Number was && after instanceof Number now && was.doubleValue() != 0) {
+            double change = (now.doubleValue() - was.doubleValue()) / was.doubleValue() * 100;
+            System.out.printf("  %-32s %14.1f -> %14.1f  (%+.1f%%)%n", name, was.doubleValue(), now.doubleValue(), change);
+        }
+    }
+
+    private static String git(String... args) {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                StringBuilder output = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    output.append(line).append('\n');
+                }
+                return process.waitFor() == 0 ? output.toString().trim() : "";
+            }
+        } catch (IOException e) {
+            return "";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "";
+        }
+    }
+}
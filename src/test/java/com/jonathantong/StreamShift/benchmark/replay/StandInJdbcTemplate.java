@@ -0,0 +1,88 @@
+package com.jonathantong.StreamShift.benchmark.replay;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Target database stand-in for replays without PostgreSQL.
+ *
+ * Every table exists and has the configured key column. Writes succeed after a fixed
+ * simulated round trip, so the run measures StreamShift's own cost plus a known latency.
+ */
+public class StandInJdbcTemplate extends JdbcTemplate {
+
+    private final List<String> primaryKeyColumns;
+    private final long roundTripNanos;
+    private final LongAdder statements = new LongAdder();
+
+    public StandInJdbcTemplate(String keyField, long roundTripMicros) {
+        this.primaryKeyColumns = List.of(keyField);
+        this.roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+    }
+
+    public long getStatements() {
+        return statements.sum();
+    }
+
+    @Override
+    public int update(String sql, Object... args) {
+        roundTrip();
+        return 1;
+    }
+
+    @Override
+    public int update(String sql, PreparedStatementSetter pss) {
+        roundTrip();
+        return 1;
+    }
+
+    @Override
+    public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+        roundTrip();
+        int[] counts = new int[batchArgs.size()];
+        Arrays.fill(counts, 1);
+        return counts;
+    }
+
+    @Override
+    public void execute(String sql) {
+        roundTrip();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+        roundTrip();
+        // Only used for "does the table exist"
+        return requiredType == Integer.class ? (T) Integer.valueOf(1) : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+        roundTrip();
+        // Only used for primary key columns
+        return (List<T>) primaryKeyColumns;
+    }
+
+    @Override
+    public List<Map<String, Object>> queryForList(String sql, Object... args) {
+        roundTrip();
+        return Collections.emptyList();
+    }
+
+    private void roundTrip() {
+        statements.increment();
+        if (roundTripNanos > 0) {
+            LockSupport.parkNanos(roundTripNanos);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.jonathantong.StreamShift.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RowFingerprintCacheTest {
+
+    private final RowFingerprintCache cache = new RowFingerprintCache(true, 1024, new SimpleMeterRegistry());
+
+    @Test
+    void isUnchanged_shouldMatchOnlyLastWrittenImage() {
+        Map<String, Object> row = row(1, "alice");
+        long key = cache.keyFingerprint("users", List.of("id"), row);
+
+        assertFalse(cache.isUnchanged(key, cache.rowFingerprint(row)));
+
+        cache.recordWrite(key, cache.rowFingerprint(row));
+
+        assertTrue(cache.isUnchanged(key, cache.rowFingerprint(row(1, "alice"))));
+        assertFalse(cache.isUnchanged(key, cache.rowFingerprint(row(1, "bob"))));
+    }
+
+    @Test
+    void recordWrite_shouldWaitForTheTransactionToCommit() {
+        Map<String, Object> alice = row(1, "alice");
+        Map<String, Object> bob = row(1, "bob");
+        long key = cache.keyFingerprint("users", List.of("id"), alice);
+        cache.recordWrite(key, cache.rowFingerprint(alice));
+
+        // Rolled back: the key is forgotten rather than left on either image
+        inTransaction(() -> cache.recordWrite(key, cache.rowFingerprint(bob)), false);
+        assertFalse(cache.isUnchanged(key, cache.rowFingerprint(alice)));
+        assertFalse(cache.isUnchanged(key, cache.rowFingerprint(bob)));
+
+        inTransaction(() -> {
+            cache.recordWrite(key, cache.rowFingerprint(alice));
+            cache.recordWrite(key, cache.rowFingerprint(bob));
+            // Nothing is committed yet, so writing alice back must not be skipped
+            assertFalse(cache.isUnchanged(key, cache.rowFingerprint(alice)));
+        }, true);
+        assertTrue(cache.isUnchanged(key, cache.rowFingerprint(bob)));
+
+        // The thread's buffer is reused, so the next commit must not replay earlier writes
+        cache.invalidate(key);
+        Map<String, Object> carol = row(2, "carol");
+        inTransaction(() -> cache.recordWrite(cache.keyFingerprint("users", List.of("id"), carol),
+                cache.rowFingerprint(carol)), true);
+        assertFalse(cache.isUnchanged(key, cache.rowFingerprint(bob)));
+    }
+
+    @Test
+    void fingerprints_shouldNotDependOnColumnOrder() {
+        Map<String, Object> forward = new LinkedHashMap<>();
+        forward.put("id", 7);
+        forward.put("tenant", "acme");
+        Map<String, Object> reverse = new LinkedHashMap<>();
+        reverse.put("tenant", "acme");
+        reverse.put("id", 7);
+
+        assertEquals(cache.rowFingerprint(forward), cache.rowFingerprint(reverse));
+        assertEquals(cache.keyFingerprint("t", forward), cache.keyFingerprint("t", List.of("tenant", "id"), reverse));
+    }
+
+    @Test
+    void invalidateTable_shouldDropEntriesOfThatTableOnly() {
+        Map<String, Object> row = row(1, "alice");
+        long users = cache.keyFingerprint("users", List.of("id"), row);
+        long admins = cache.keyFingerprint("admins", List.of("id"), row);
+        cache.recordWrite(users, cache.rowFingerprint(row));
+        cache.recordWrite(admins, cache.rowFingerprint(row));
+
+        cache.invalidateTable("users");
+
+        assertFalse(cache.isUnchanged(cache.keyFingerprint("users", List.of("id"), row), cache.rowFingerprint(row)));
+        assertTrue(cache.isUnchanged(cache.keyFingerprint("admins", List.of("id"), row), cache.rowFingerprint(row)));
+    }
+
+    @Test
+    void rebalance_shouldKeepEntriesOnlyForContinuouslyHeldPartitions() {
+        TopicPartition users = new TopicPartition("dbserver1.inventory.users", 0);
+        TopicPartition orders = new TopicPartition("dbserver1.inventory.orders", 0);
+        cache.onPartitionsAssigned(List.of(users));
+
+        Map<String, Object> row = row(1, "alice");
+        cache.recordWrite(cache.keyFingerprint("users", List.of("id"), row), cache.rowFingerprint(row));
+        cache.recordWrite(cache.keyFingerprint("orders", List.of("id"), row), cache.rowFingerprint(row));
+
+        // Eager rebalance: everything revoked, users handed back, orders newly gained
+        cache.onPartitionsRevoked(List.of(users));
+        cache.onPartitionsAssigned(List.of(users, orders));
+
+        assertTrue(cache.isUnchanged(cache.keyFingerprint("users", List.of("id"), row), cache.rowFingerprint(row)));
+        assertFalse(cache.isUnchanged(cache.keyFingerprint("orders", List.of("id"), row), cache.rowFingerprint(row)));
+    }
+
+    @Test
+    void clockMap_shouldStayBoundedUnderChurn() {
+        LongClockMap map = new LongClockMap(100);
+        for (long i = 0; i < 10_000; i++) {
+            map.put(i, i * 3);
+        }
+
+        assertEquals(100, map.size());
+        assertEquals(9_900, map.evictions());
+        // The most recent insert survives eviction
+        assertTrue(map.containsEntry(9_999, 9_999 * 3));
+
+        for (long i = 9_950; i < 10_000; i++) {
+            map.remove(i);
+        }
+        assertFalse(map.containsEntry(9_999, 9_999 * 3));
+    }
+
+    private static void inTransaction(Runnable writes, boolean commit) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            writes.run();
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            if (commit) {
+                TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+            }
+            TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, commit
+                    ? TransactionSynchronization.STATUS_COMMITTED : TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static Map<String, Object> row(int id, String name) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("username", name);
+        return row;
+    }
+}
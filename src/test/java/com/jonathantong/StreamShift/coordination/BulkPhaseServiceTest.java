@@ -0,0 +1,165 @@
+package com.jonathantong.StreamShift.coordination;
+
+import com.jonathantong.StreamShift.cutover.TableVerifier;
+import com.jonathantong.StreamShift.model.CutoverStatus.TableCheck;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.projection.ProjectionRules;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BulkPhaseServiceTest {
+
+    private final WorkCoordinator coordinator = mock(WorkCoordinator.class);
+    private final TableVerifier tableVerifier = mock(TableVerifier.class);
+    private final JdbcTemplate sourceJdbcTemplate = mock(JdbcTemplate.class);
+    private final BulkPhaseService bulkPhaseService = new BulkPhaseService(coordinator, tableVerifier,
+            mock(SchemaMetadataService.class), mock(DatabaseUpdateService.class), mock(ProjectionRules.class),
+            mock(ShardRouter.class), new KeyRouting(false, ""), sourceJdbcTemplate, "inventory", 1, 5, 100, 1000);
+
+    @AfterEach
+    void tearDown() {
+        bulkPhaseService.shutdown();
+    }
+
+    @Test
+    void chunks_shouldSplitTheKeyRange_withOpenEnds() {
+        List<WorkItem> chunks = BulkPhaseService.chunks("copy", "orders", "id", 1, 250, 100);
+
+        assertEquals(3, chunks.size());
+        assertEquals(List.of(0, 1, 2), chunks.stream().map(WorkItem::getChunk).toList());
+        assertEquals(Long.MIN_VALUE, chunks.get(0).getRangeStart());
+        assertEquals(101, chunks.get(0).getRangeEnd());
+        assertEquals(101, chunks.get(1).getRangeStart());
+        assertEquals(201, chunks.get(1).getRangeEnd());
+        assertEquals(Long.MAX_VALUE, chunks.get(2).getRangeEnd());
+        assertEquals("\"id\" >= 101 AND \"id\" < 201", chunks.get(1).rangeCondition("id"));
+        assertEquals("\"id\" < 101", chunks.get(0).rangeCondition("id"));
+
+        // Sparse keys widen the chunks rather than planning millions of them
+        List<WorkItem> sparse = BulkPhaseService.chunks("copy", "events", "id", 0, 1_000_000_000_000L, 100);
+        assertTrue(sparse.size() <= BulkPhaseService.MAX_CHUNKS);
+        assertEquals(1, BulkPhaseService.chunks("copy", "tiny", "id", 7, 7, 100).size());
+    }
+
+    @Test
+    void plan_shouldReadTheTableInTheCapturedSchema() {
+        // Arrange: the source's search_path does not include inventory
+        when(sourceJdbcTemplate.queryForList(contains("quote_ident(?) || '.' || quote_ident(?)"), eq("inventory"), eq("orders")))
+                .thenReturn(List.of(Map.of("column_name", "id", "data_type", "bigint")));
+        when(sourceJdbcTemplate.queryForMap(contains("FROM \"inventory\".\"orders\"")))
+                .thenReturn(Map.of("low", 1L, "high", 250L));
+
+        // Act
+        List<WorkItem> items = bulkPhaseService.plan(BulkPhase.COPY, "orders");
+
+        // Assert
+        assertEquals(3, items.size());
+        assertEquals("id", items.get(0).getKeyColumn());
+    }
+
+    @Test
+    void asChangeEvent_shouldPlaceCopiedRows_onTheShardOfTheirChangeEvents() {
+        // Arrange: change events carry uuid keys as text, the copy reads them as UUID
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns("sessions")).thenReturn(List.of("id"));
+        ShardRouter shardRouter = new ShardRouter(4, schemaMetadataService, "hash", "");
+
+        for (int i = 0; i < 50; i++) {
+            UUID id = UUID.randomUUID();
+            RowBuffer eventKey = new RowBuffer();
+            eventKey.add("id", id.toString());
+
+            // Act
+            int copied = shardRouter.shardFor("sessions", BulkPhaseService.asChangeEvent(Map.of("id", id, "seen", 1)));
+
+            // Assert
+            assertEquals(shardRouter.shardForKey("sessions", eventKey, List.of("id")), copied);
+        }
+        Map<String, Object> plain = Map.of("id", 7L, "name", "x");
+        assertSame(plain, BulkPhaseService.asChangeEvent(plain));
+    }
+
+    @Test
+    void work_shouldCompleteAndFailClaimedItems_untilThePhaseIsFinished() {
+        // Arrange
+        WorkItem customers = new WorkItem(1, "verify", "customers", 0, null, null, null, 1);
+        WorkItem orders = new WorkItem(2, "verify", "orders", 0, "id", Long.MIN_VALUE, 101L, 3);
+        when(coordinator.claim("verify")).thenReturn(customers, orders, null);
+        when(coordinator.progress("verify")).thenReturn(progress(0, 0));
+        when(tableVerifier.verify("customers")).thenReturn(new TableCheck("customers", TableCheck.Result.MATCH,
+                10, 10, BigDecimal.ONE, BigDecimal.ONE, 3, null));
+        when(tableVerifier.verify("orders", "id", Long.MIN_VALUE, 101L))
+                .thenReturn(TableCheck.failed("orders", "connection refused"));
+
+        // Act
+        bulkPhaseService.work(BulkPhase.VERIFY);
+
+        // Assert
+        verify(coordinator).complete(customers, "MATCH (10 source rows, 10 target rows)");
+        verify(coordinator).fail(orders, "connection refused");
+        assertEquals(10, customers.getRowsDone());
+    }
+
+    @Test
+    void work_shouldDropTheResult_whenTheLeaseIsLost() {
+        // Arrange
+        WorkItem customers = new WorkItem(1, "verify", "customers", 0, null, null, null, 1);
+        when(coordinator.claim("verify")).thenReturn(customers, (WorkItem) null);
+        when(coordinator.progress("verify")).thenReturn(progress(0, 0));
+        when(tableVerifier.verify("customers")).thenAnswer(invocation -> {
+            customers.markLost();
+            return new TableCheck("customers", TableCheck.Result.MATCH, 10, 10, BigDecimal.ONE, BigDecimal.ONE, 3, null);
+        });
+
+        // Act
+        bulkPhaseService.work(BulkPhase.VERIFY);
+
+        // Assert
+        verify(coordinator, never()).complete(any(), anyString());
+        verify(coordinator, never()).fail(any(), anyString());
+    }
+
+    @Test
+    void work_shouldKeepPolling_whileOtherNodesHoldChunks() {
+        // Arrange: another node holds the last chunk, then dies and it is reclaimed here
+        WorkItem orders = new WorkItem(2, "verify", "orders", 0, null, null, null, 2);
+        when(coordinator.claim("verify")).thenReturn(null, orders, null);
+        when(coordinator.progress("verify")).thenReturn(progress(0, 1), progress(0, 0));
+        when(tableVerifier.verify("orders")).thenReturn(new TableCheck("orders", TableCheck.Result.MATCH,
+                4, 4, BigDecimal.ONE, BigDecimal.ONE, 2, null));
+
+        // Act
+        bulkPhaseService.work(BulkPhase.VERIFY);
+
+        // Assert
+        verify(coordinator, times(3)).claim("verify");
+        verify(coordinator).complete(orders, "MATCH (4 source rows, 4 target rows)");
+    }
+
+    private static WorkProgress progress(long pending, long claimed) {
+        return new WorkProgress("verify", pending, claimed, 1, 0, 0, 0, Map.of());
+    }
+}
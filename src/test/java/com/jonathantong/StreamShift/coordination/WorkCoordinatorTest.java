@@ -0,0 +1,26 @@
+package com.jonathantong.StreamShift.coordination;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WorkCoordinatorTest {
+
+    @Test
+    void leaseKey_shouldKeepTheWholeId_andRejectIdsOutOfRange() {
+        // Arrange
+        long large = (1L << 31) + 7;
+
+        // Act
+        long key = WorkCoordinator.leaseKey(large);
+
+        // Assert: ids past Integer.MAX_VALUE no longer wrap onto other items
+        assertEquals(large, key & WorkCoordinator.MAX_LEASED_ID);
+        assertEquals(WorkCoordinator.LOCK_CLASS, (int) (key >>> 32));
+        assertNotEquals(WorkCoordinator.leaseKey(7), key);
+        assertThrows(IllegalStateException.class, () -> WorkCoordinator.leaseKey(WorkCoordinator.MAX_LEASED_ID + 1));
+        assertThrows(IllegalStateException.class, () -> WorkCoordinator.leaseKey(0));
+    }
+}
@@ -0,0 +1,143 @@
+package com.jonathantong.StreamShift.cutover;
+
+import com.jonathantong.StreamShift.model.CutoverStatus;
+import com.jonathantong.StreamShift.model.CutoverStatus.TableCheck;
+import com.jonathantong.StreamShift.pipeline.ChangeEventPipeline;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CutoverServiceTest {
+
+    private static final TopicPartition CUSTOMERS = new TopicPartition("dbserver1.inventory.customers", 0);
+    private static final TopicPartition ORDERS = new TopicPartition("dbserver1.inventory.orders", 0);
+    private static final TopicPartition AUDIT = new TopicPartition("dbserver1.inventory.audit_log", 0);
+
+    private final KeyRouting keyRouting = new KeyRouting(false, "audit_log");
+    private final AtomicReference<ConsumerLag.Snapshot> snapshot = new AtomicReference<>();
+    private final ConsumerLag consumerLag = mock(ConsumerLag.class);
+    private final TableVerifier tableVerifier = mock(TableVerifier.class);
+    private final SequenceSynchronizer sequenceSynchronizer = mock(SequenceSynchronizer.class);
+    private final ChangeEventPipeline pipeline = mock(ChangeEventPipeline.class);
+    private final JdbcTemplate sourceJdbcTemplate = mock(JdbcTemplate.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void snapshot_shouldSumLagPerTable_andSkipExcludedTables() {
+        ConsumerLag.Snapshot lag = new ConsumerLag.Snapshot(
+                Map.of(CUSTOMERS, 120L, new TopicPartition(CUSTOMERS.topic(), 1), 50L, ORDERS, 10L, AUDIT, 999L),
+                Map.of(CUSTOMERS, 100L, new TopicPartition(CUSTOMERS.topic(), 1), 50L, ORDERS, 10L),
+                keyRouting);
+
+        assertEquals(Map.of("customers", 20L, "orders", 0L), lag.getLagByTable());
+        assertEquals(20, lag.getLag());
+        assertFalse(lag.isDrainedSince(lag));
+    }
+
+    @Test
+    void cutover_shouldWaitForTheOperatorsFence_thenDrainVerifyAndSyncSequences() throws Exception {
+        // Arrange
+        CutoverService cutoverService = cutoverService("");
+        lag(5000, 5000);
+        when(tableVerifier.verify(anyString())).thenAnswer(invocation -> new TableCheck(invocation.getArgument(0),
+                TableCheck.Result.MATCH, 10, 10, BigDecimal.ONE, BigDecimal.ONE, 3, null));
+        when(sequenceSynchronizer.sync("customers")).thenReturn(List.of(
+                new CutoverStatus.SequenceSync("customers", "id", "\"customers_id_seq\"", 5000, 5000, true)));
+
+        // Act
+        CutoverStatus status = cutoverService.start(1000L);
+        awaitUntil(() -> status.getLag() == 10000);
+        assertEquals(CutoverStatus.State.MONITORING, status.getState());
+        lag(400, 0);
+        awaitUntil(() -> status.getState() == CutoverStatus.State.READY_TO_FENCE);
+        assertEquals(400, status.getLag());
+        verify(pipeline, never()).setDraining(true);
+
+        cutoverService.fence();
+        awaitUntil(() -> status.getState() == CutoverStatus.State.DRAINING);
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertEquals(CutoverStatus.State.DRAINING, status.getState());
+        lag(0, 0);
+        awaitUntil(() -> !status.isActive());
+
+        // Assert
+        assertEquals(CutoverStatus.State.COMPLETED, status.getState());
+        assertEquals(2, status.getTableChecks().size());
+        assertEquals(1, status.getSequences().size());
+        assertTrue(status.getFreezeMillis() >= 50);
+        assertTrue(status.getFreezeMillis() >= status.getDrainMillis() + status.getVerifyMillis());
+        assertNotNull(status.getDrainedAt());
+        InOrder order = inOrder(pipeline, tableVerifier);
+        order.verify(pipeline).setDraining(true);
+        order.verify(pipeline).setDraining(false);
+        order.verify(tableVerifier).verify("customers");
+        assertEquals(1, meterRegistry.get("streamshift.cutover.freeze").timer().count());
+    }
+
+    @Test
+    void cutover_shouldRunTheFenceSql_andReportMismatchingTables() throws Exception {
+        // Arrange
+        CutoverService cutoverService = cutoverService("ALTER DATABASE inventory SET default_transaction_read_only = on");
+        lag(100, 0);
+        when(tableVerifier.verify("customers")).thenReturn(new TableCheck("customers", TableCheck.Result.MISMATCH,
+                10, 9, BigDecimal.ONE, BigDecimal.TEN, 3, null));
+        when(tableVerifier.verify("orders")).thenReturn(new TableCheck("orders", TableCheck.Result.FILTERED,
+                10, 4, BigDecimal.ONE, BigDecimal.TEN, 3, null));
+
+        // Act
+        CutoverStatus status = cutoverService.start(null);
+        awaitUntil(() -> status.getState() == CutoverStatus.State.DRAINING);
+        lag(0, 0);
+        awaitUntil(() -> !status.isActive());
+
+        // Assert
+        verify(sourceJdbcTemplate).execute("ALTER DATABASE inventory SET default_transaction_read_only = on");
+        assertTrue(status.isFenced());
+        assertEquals(CutoverStatus.State.VERIFICATION_FAILED, status.getState());
+        assertNotNull(status.getError());
+    }
+
+    private CutoverService cutoverService(String fenceSql) {
+        when(consumerLag.snapshot()).thenAnswer(invocation -> snapshot.get());
+        return new CutoverService(consumerLag, tableVerifier, sequenceSynchronizer, pipeline, sourceJdbcTemplate,
+                meterRegistry, 1000, 5, 30, 10_000, fenceSql);
+    }
+
+    private void lag(long customers, long orders) {
+        snapshot.set(new ConsumerLag.Snapshot(
+                Map.of(CUSTOMERS, 5000L, ORDERS, 5000L),
+                Map.of(CUSTOMERS, 5000 - customers, ORDERS, 5000 - orders),
+                keyRouting));
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 5s");
+            }
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.jonathantong.StreamShift.cutover;
+
+import com.jonathantong.StreamShift.model.CutoverStatus.SequenceSync;
+import com.jonathantong.StreamShift.projection.ProjectionRules;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SequenceSynchronizerTest {
+
+    @Test
+    void firstValue_shouldGiveEachShardItsOwnResidue_pastTheBase() {
+        // Arrange
+        int shards = 3;
+        Set<Long> handedOut = new HashSet<>();
+
+        // Act: the first values each shard's sequence hands out, stepping by the shard count
+        for (int shard = 0; shard < shards; shard++) {
+            long first = SequenceSynchronizer.firstValue(100, shard, shards);
+            for (int i = 0; i < 5; i++) {
+                handedOut.add(first + (long) i * shards);
+            }
+            assertTrue(first > 100 && first <= 100 + shards, String.valueOf(first));
+            assertEquals(shard, Math.floorMod(first, shards));
+        }
+
+        // Assert
+        assertEquals(15, handedOut.size());
+        assertEquals(1, SequenceSynchronizer.firstValue(0, 1, 2));
+        assertEquals(2, SequenceSynchronizer.firstValue(0, 0, 2));
+    }
+
+    @Test
+    void sync_shouldReadSequencesOfTheCapturedSchema() {
+        // Arrange: the source's search_path does not include inventory
+        JdbcTemplate source = mock(JdbcTemplate.class);
+        JdbcTemplate target = mock(JdbcTemplate.class);
+        when(source.queryForList(contains("n.nspname = ?"), eq("orders"), eq("inventory")))
+                .thenReturn(List.of(Map.of("column_name", "id", "sequence_name", "inventory.orders_id_seq")));
+        when(source.queryForMap("SELECT last_value, is_called FROM inventory.orders_id_seq"))
+                .thenReturn(Map.of("last_value", 41L, "is_called", true));
+        when(target.queryForObject(contains("pg_get_serial_sequence"), eq(String.class), eq("orders"), eq("id")))
+                .thenReturn("public.orders_id_seq");
+        SequenceSynchronizer synchronizer = new SequenceSynchronizer(source, target, ProjectionRules.none(),
+                new ShardRouter(1, null, "hash", ""), true, "inventory");
+
+        // Act
+        List<SequenceSync> synced = synchronizer.sync("orders");
+
+        // Assert
+        assertEquals(1, synced.size());
+        assertEquals(41, synced.get(0).getSourceValue());
+        verify(target).queryForObject("SELECT setval(?::regclass, ?, true)", Long.class, "public.orders_id_seq", 41L);
+    }
+}
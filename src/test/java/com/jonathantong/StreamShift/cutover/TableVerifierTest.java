@@ -0,0 +1,43 @@
+package com.jonathantong.StreamShift.cutover;
+
+import com.jonathantong.StreamShift.model.CutoverStatus.TableCheck;
+import com.jonathantong.StreamShift.projection.ProjectionRules;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TableVerifierTest {
+
+    @Test
+    void verify_shouldReadSourceTablesInTheCapturedSchema() {
+        // Arrange: the source's search_path does not include inventory; the target's tables are in its current schema
+        JdbcTemplate source = mock(JdbcTemplate.class);
+        JdbcTemplate target = mock(JdbcTemplate.class);
+        when(source.queryForList(contains("table_schema = ?"), eq(String.class), eq("customers"), eq("inventory")))
+                .thenReturn(List.of("id", "email"));
+        when(target.queryForList(contains("table_schema = current_schema()"), eq(String.class), eq("customers")))
+                .thenReturn(List.of("id", "email"));
+        Map<String, Object> counted = Map.of("row_count", 3L, "checksum", BigDecimal.TEN);
+        when(source.queryForMap(contains("FROM \"inventory\".\"customers\""))).thenReturn(counted);
+        when(target.queryForMap(contains("FROM \"customers\""))).thenReturn(counted);
+        TableVerifier verifier = new TableVerifier(source, target, ProjectionRules.none(),
+                new ShardRouter(1, null, "hash", ""), "inventory");
+
+        // Act
+        TableCheck check = verifier.verify("customers");
+
+        // Assert
+        assertEquals(TableCheck.Result.MATCH, check.getResult());
+        assertEquals(3, check.getSourceRows());
+    }
+}
@@ -0,0 +1,213 @@
+package com.jonathantong.StreamShift.dependency;
+
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.schema.SchemaEvolution;
+import com.jonathantong.StreamShift.service.ApplyStrategy;
+import com.jonathantong.StreamShift.service.ChangeBatch;
+import com.jonathantong.StreamShift.service.ChangeEventApplier;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import com.jonathantong.StreamShift.service.TableBatch;
+import com.jonathantong.StreamShift.tracing.ActivitySummary;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DependencySchedulerTest {
+
+    // order_items -> orders -> customers, order_items -> products; audit_log stands alone
+    private static final ForeignKeyGraph GRAPH = ForeignKeyGraph.of(List.of(
+            new String[] {"orders", "customers"},
+            new String[] {"order_items", "orders"},
+            new String[] {"order_items", "products"},
+            new String[] {"employees", "employees"}));
+
+    @Test
+    void graph_shouldRankParentsFirst() {
+        assertEquals(0, GRAPH.rank("customers"));
+        assertEquals(0, GRAPH.rank("products"));
+        assertEquals(1, GRAPH.rank("orders"));
+        assertEquals(2, GRAPH.rank("order_items"));
+
+        assertFalse(GRAPH.contains("audit_log"));
+        // Self references alone do not order a table
+        assertFalse(GRAPH.contains("employees"));
+
+        DependencyScheduler scheduler = new DependencyScheduler(GRAPH, false);
+        assertTrue(scheduler.isScheduled("orders"));
+        assertFalse(scheduler.isScheduled("audit_log"));
+        assertFalse(DependencyScheduler.disabled().isScheduled("orders"));
+
+        ForeignKeyGraph cycle = ForeignKeyGraph.of(List.of(new String[] {"a", "b"}, new String[] {"b", "a"},
+                new String[] {"c", "d"}));
+        assertEquals(1, cycle.rank("c"));
+        assertEquals(2, cycle.rank("a"));
+    }
+
+    @Test
+    void load_shouldReadForeignKeysOfTheCapturedSchema() {
+        // Arrange: the source connection's own schema is public, the captured tables are elsewhere
+        JdbcTemplate source = mock(JdbcTemplate.class);
+        when(source.query(anyString(), ArgumentMatchers.<RowMapper<String[]>>any(), eq("inventory"), eq("inventory")))
+                .thenReturn(List.<String[]>of(new String[] {"orders", "customers"}));
+        DependencyScheduler scheduler = new DependencyScheduler(source, "inventory", true, false);
+
+        // Act
+        boolean scheduled = scheduler.isScheduled("orders");
+
+        // Assert
+        assertTrue(scheduled);
+        assertEquals(0, scheduler.rank("customers"));
+    }
+
+    @Test
+    void isParentMissing_shouldOnlyMatchForeignKeyViolations_onRelatedTables() {
+        // Arrange
+        DependencyScheduler scheduler = new DependencyScheduler(GRAPH, false);
+        RuntimeException duplicate = new DataIntegrityViolationException("duplicate", new SQLException("duplicate", "23505"));
+
+        // Act & Assert
+        assertTrue(scheduler.isParentMissing("orders", missingParent()));
+        assertFalse(scheduler.isParentMissing("orders", duplicate));
+        assertFalse(scheduler.isParentMissing("audit_log", missingParent()));
+        assertFalse(DependencyScheduler.disabled().isParentMissing("orders", missingParent()));
+    }
+
+    @Test
+    void flush_shouldKeepRowsWhoseParentIsMissing_inTheWaitingBatch() {
+        // Arrange: the orders batch fails on a missing customer; row by row, only order 2 still references one
+        DatabaseUpdateService databaseUpdateService = mock(DatabaseUpdateService.class);
+        doThrow(missingParent()).when(databaseUpdateService).applyBatch(any(TableBatch.class));
+        doAnswer(invocation -> {
+            if (invocation.<RowBuffer>getArgument(1).get("id").equals(2)) {
+                throw missingParent();
+            }
+            return null;
+        }).when(databaseUpdateService).upsert(eq("orders"), any(RowBuffer.class), anyList());
+        ActivitySummary activitySummary = mock(ActivitySummary.class);
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns(anyString())).thenReturn(List.of("id"));
+        ChangeEventApplier applier = new ChangeEventApplier(databaseUpdateService, schemaMetadataService, activitySummary,
+                SchemaEvolution.disabled(), new DependencyScheduler(GRAPH, false), databaseUpdateService, "batch", "");
+        ChangeBatch batch = new ChangeBatch();
+        ChangeBatch waiting = new ChangeBatch();
+        stage(applier, batch, "orders", "c", 2, 7);
+        stage(applier, batch, "orders", "c", 4, 8);
+
+        // Act
+        applier.flush(batch, waiting);
+
+        // Assert: order 2 waits at its own sequence instead of being counted as failed
+        assertTrue(batch.isEmpty());
+        assertEquals(1, waiting.size());
+        assertEquals(7, waiting.firstSequence());
+        RowBuffer order = new RowBuffer();
+        order.add("id", 2);
+        assertTrue(waiting.contains("orders", order));
+        verify(activitySummary, never()).failed(anyString());
+    }
+
+    @Test
+    void flush_shouldUpsertParentsFirst_andDeleteChildrenFirst() {
+        // Arrange
+        DatabaseUpdateService databaseUpdateService = mock(DatabaseUpdateService.class);
+        List<String> writes = recordWrites(databaseUpdateService);
+        ChangeEventApplier applier = applier(databaseUpdateService, new DependencyScheduler(GRAPH, false));
+        ChangeBatch batch = new ChangeBatch();
+
+        // Staged children first, as a lane may see them when parents come from an earlier snapshot
+        stage(applier, batch, "order_items", "c", 1, 1);
+        stage(applier, batch, "orders", "d", 2, 2);
+        stage(applier, batch, "audit_log", "c", 3, 3);
+        stage(applier, batch, "orders", "c", 4, 4);
+        stage(applier, batch, "customers", "c", 5, 5);
+        stage(applier, batch, "order_items", "d", 6, 6);
+
+        // Act
+        applier.flush(batch);
+
+        // Assert
+        assertEquals(List.of("audit_log:u", "customers:u", "orders:u", "order_items:u", "order_items:d", "orders:d"), writes);
+        verify(databaseUpdateService, never()).applyDeferred(anyList());
+    }
+
+    @Test
+    void flush_shouldWriteRelatedTablesInOneTransaction_whenConstraintsAreDeferred() {
+        // Arrange
+        DatabaseUpdateService databaseUpdateService = mock(DatabaseUpdateService.class);
+        List<List<String>> transactions = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<String> tables = new ArrayList<>();
+            for (TableBatch tableBatch : invocation.<List<TableBatch>>getArgument(0)) {
+                tables.add(tableBatch.getTableName());
+            }
+            transactions.add(tables);
+            return null;
+        }).when(databaseUpdateService).applyDeferred(anyList());
+        ChangeEventApplier applier = applier(databaseUpdateService, new DependencyScheduler(GRAPH, true));
+        ChangeBatch batch = new ChangeBatch();
+        stage(applier, batch, "order_items", "c", 1, 1);
+        stage(applier, batch, "orders", "c", 2, 2);
+        stage(applier, batch, "audit_log", "c", 3, 3);
+
+        // Act
+        applier.flush(batch);
+
+        // Assert
+        assertEquals(List.of(List.of("order_items", "orders")), transactions);
+        verify(databaseUpdateService).applyBatch(any(TableBatch.class));
+    }
+
+    private static RuntimeException missingParent() {
+        return new DataIntegrityViolationException("missing parent", new SQLException("missing parent", "23503"));
+    }
+
+    private static ChangeEventApplier applier(DatabaseUpdateService databaseUpdateService, DependencyScheduler scheduler) {
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns(anyString())).thenReturn(List.of("id"));
+        return new ChangeEventApplier(databaseUpdateService, schemaMetadataService, new ActivitySummary(0, 0),
+                SchemaEvolution.disabled(), scheduler, databaseUpdateService, "batch", "");
+    }
+
+    private static List<String> recordWrites(DatabaseUpdateService databaseUpdateService) {
+        List<String> writes = new ArrayList<>();
+        doAnswer(invocation -> {
+            TableBatch tableBatch = invocation.getArgument(0);
+            String ops = tableBatch.getChanges().stream().map(change -> String.valueOf(change.getOp())).distinct()
+                    .reduce("", String::concat);
+            writes.add(tableBatch.getTableName() + ":" + ops);
+            return null;
+        }).when(databaseUpdateService).applyBatch(any(TableBatch.class));
+        return writes;
+    }
+
+    private static void stage(ChangeEventApplier applier, ChangeBatch batch, String table, String op, int id, long sequence) {
+        DecodedChange change = new DecodedChange();
+        change.setTableName(table);
+        change.setOperation(op);
+        RowBuffer row = "d".equals(op) ? change.beforeBuffer() : change.afterBuffer();
+        row.add("id", id);
+        applier.stage(batch, change, sequence, ApplyStrategy.BATCH);
+    }
+}
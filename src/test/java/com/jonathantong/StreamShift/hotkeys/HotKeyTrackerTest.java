@@ -0,0 +1,76 @@
+package com.jonathantong.StreamShift.hotkeys;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HotKeyTrackerTest {
+
+    private static final List<String> KEY = List.of("sku");
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    // 10 second windows; hot at 1 event per second, i.e. 10 per window
+    private final HotKeyTracker tracker = new HotKeyTracker(true, null, 3, 4, 1024, 10_000, 1.0, 50, now::get);
+
+    @Test
+    void sketch_shouldNeverUnderCount_andKeepColdKeysLow() {
+        CountMinSketch sketch = new CountMinSketch(4, 256);
+        for (int i = 0; i < 5000; i++) {
+            sketch.add(HotKeyTracker.keyHash(row(i % 10 == 0 ? "hot" : "sku-" + i), KEY));
+        }
+
+        assertTrue(sketch.estimate(HotKeyTracker.keyHash(row("hot"), KEY)) >= 500);
+        assertTrue(sketch.estimate(HotKeyTracker.keyHash(row("sku-1"), KEY)) >= 1);
+        assertTrue(sketch.estimate(HotKeyTracker.keyHash(row("sku-1"), KEY)) < 100);
+    }
+
+    @Test
+    void record_shouldClassifyKeysByRate_andRankTopKeys() {
+        boolean hot = false;
+        for (int i = 0; i < 30; i++) {
+            hot = tracker.record("stock", row("A1"), KEY);
+            tracker.record("stock", row(i % 2 == 0 ? "B2" : "C3"), KEY);
+            tracker.record("stock", row("cold-" + i), KEY);
+        }
+
+        assertTrue(hot);
+        assertFalse(tracker.record("stock", row("D4"), KEY));
+
+        List<Map<String, Object>> top = tracker.topKeys("stock");
+        assertEquals(3, top.size());
+        assertEquals("sku=A1", top.get(0).get("key"));
+        assertEquals(30L, top.get(0).get("events"));
+        assertEquals(3.0, top.get(0).get("eventsPerSecond"));
+        assertTrue(List.of("sku=B2", "sku=C3").contains(top.get(1).get("key")));
+    }
+
+    @Test
+    void record_shouldForgetKeysThatCoolDown() {
+        for (int i = 0; i < 20; i++) {
+            tracker.record("stock", row("A1"), KEY);
+        }
+        assertTrue(tracker.record("stock", row("A1"), KEY));
+
+        // Half way through the next window half of the previous count remains
+        now.addAndGet(15_000);
+        assertEquals(10L, tracker.topKeys("stock").get(0).get("events"));
+
+        now.addAndGet(30_000);
+        assertFalse(tracker.record("stock", row("A1"), KEY));
+        assertEquals(1L, tracker.topKeys().get("stock").get(0).get("events"));
+    }
+
+    private static RowBuffer row(String sku) {
+        RowBuffer row = new RowBuffer();
+        row.add("sku", sku);
+        row.add("quantity", 1);
+        return row;
+    }
+}
@@ -0,0 +1,107 @@
+package com.jonathantong.StreamShift.memory;
+
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MemoryGovernorTest {
+
+    private static final String CUSTOMERS = "dbserver1.inventory.customers";
+    private static final String DOCUMENTS = "dbserver1.inventory.documents";
+
+    private final TopicPartition customers0 = new TopicPartition(CUSTOMERS, 0);
+    private final TopicPartition customers1 = new TopicPartition(CUSTOMERS, 1);
+    private final TopicPartition documents0 = new TopicPartition(DOCUMENTS, 0);
+    private final TopicPartition documents1 = new TopicPartition(DOCUMENTS, 1);
+
+    private final MessageListenerContainer container = mock(MessageListenerContainer.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private MemoryGovernor governor;
+
+    @BeforeEach
+    void setUp() {
+        when(container.getAssignedPartitions()).thenReturn(List.of(customers0, customers1, documents0, documents1));
+        // Paused for a resync handover, not by the governor
+        when(container.isPartitionPauseRequested(documents1)).thenReturn(true);
+        governor = new MemoryGovernor(true, 1000, Map.of("documents", 300L), 0.5, () -> container,
+                KeyRouting.valueFirst(), meterRegistry);
+    }
+
+    @Test
+    void reserve_shouldPauseEveryPartition_atTheBudget_andResumeBelowTheLowWatermark() {
+        // Act
+        governor.reserve(CUSTOMERS, 600);
+        governor.reserve(CUSTOMERS, 399);
+        verify(container, never()).pausePartition(any());
+        governor.reserve(CUSTOMERS, 1);
+
+        // Assert
+        assertTrue(governor.isPaused());
+        verify(container).pausePartition(customers0);
+        verify(container).pausePartition(customers1);
+        verify(container).pausePartition(documents0);
+        verify(container, never()).pausePartition(documents1);
+
+        governor.release(CUSTOMERS, 400);
+        verify(container, never()).resumePartition(any());
+        governor.release(CUSTOMERS, 100);
+
+        assertFalse(governor.isPaused());
+        verify(container).resumePartition(customers0);
+        verify(container).resumePartition(customers1);
+        verify(container).resumePartition(documents0);
+        verify(container, never()).resumePartition(documents1);
+        assertEquals(1000, meterRegistry.get("streamshift.memory.peak").gauge().value());
+        assertEquals(500, meterRegistry.get("streamshift.memory.used").gauge().value());
+    }
+
+    @Test
+    void reserve_shouldPauseOnlyTheTablesTopics_atItsOwnBudget() {
+        // Act
+        governor.reserve(CUSTOMERS, 500);
+        governor.reserve(DOCUMENTS, 300);
+
+        // Assert
+        verify(container).pausePartition(documents0);
+        verify(container, never()).pausePartition(customers0);
+        assertEquals(300, governor.used("documents"));
+        assertEquals(800, governor.used());
+
+        // The other table's releases keep it paused
+        governor.release(CUSTOMERS, 500);
+        verify(container, never()).resumePartition(any());
+        governor.release(DOCUMENTS, 150);
+        verify(container).resumePartition(documents0);
+        assertEquals(1, meterRegistry.get("streamshift.memory.table.peak").tag("table", "documents").gauges().size());
+    }
+
+    @Test
+    void retainedSize_shouldNotCountLargeValuesSlicedFromTheRecord() {
+        byte[] record = ("{\"after\":{\"id\":1,\"body\":\"" + "x".repeat(4000) + "\"}}").getBytes(StandardCharsets.UTF_8);
+        DecodedChange sliced = new DecodedChange();
+        sliced.afterBuffer().add("body", LargeValue.text(record, 24, 4000));
+        DecodedChange copied = new DecodedChange();
+        copied.afterBuffer().add("body", LargeValue.text(new byte[4000], 0, 4000));
+
+        assertTrue(RetainedSize.of(sliced, record) < 100);
+        assertTrue(RetainedSize.of(copied, record) > 4000);
+    }
+}
@@ -0,0 +1,507 @@
+package com.jonathantong.StreamShift.pipeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.dependency.ForeignKeyGraph;
+import com.jonathantong.StreamShift.fanout.CheckpointStore;
+import com.jonathantong.StreamShift.fanout.FanoutTarget;
+import com.jonathantong.StreamShift.fanout.FanoutTargets;
+import com.jonathantong.StreamShift.hotkeys.HotKeyTracker;
+import com.jonathantong.StreamShift.memory.MemoryGovernor;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.schema.SchemaEvolution;
+import com.jonathantong.StreamShift.service.ApplyStrategy;
+import com.jonathantong.StreamShift.service.ChangeEventApplier;
+import com.jonathantong.StreamShift.service.ChangeEventDecoder;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import com.jonathantong.StreamShift.service.TableBatch;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import com.jonathantong.StreamShift.tracing.ActivitySummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ChangeEventPipelineTest {
+
+    private static final String TOPIC = "dbserver1.inventory.customers";
+
+    @Mock
+    private ChangeEventApplier changeEventApplier;
+
+    private final MemoryGovernor memoryGovernor = new MemoryGovernor(true, 1L << 30, Map.of(), 0.75, () -> null,
+            KeyRouting.valueFirst(), new SimpleMeterRegistry());
+
+    private ChangeEventPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        pipeline = new ChangeEventPipeline(true, 16, 2, 3, 1000,
+                "blocking", "sleeping", "yielding", "blocking", "blocking",
+                new ChangeEventDecoder(new ObjectMapper()), changeEventApplier, new ApplyExecutor("platform", 2),
+                new ShardRouter(1, null, "hash", ""), new FanoutTargets(1, List.of(), "", "", 0),
+                mock(CheckpointStore.class), HotKeyTracker.disabled(), KeyRouting.valueFirst(),
+                DependencyScheduler.disabled(), memoryGovernor, new SimpleMeterRegistry());
+        pipeline.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.stop();
+    }
+
+    @Test
+    void publish_shouldApplyPerKeyInOrder_andAcknowledgeInOffsetOrder() {
+        // Arrange
+        when(changeEventApplier.strategyFor("customers")).thenReturn(ApplyStrategy.ROW);
+        Map<String, List<Integer>> appliedPerKey = new ConcurrentHashMap<>();
+        doAnswer(invocation -> {
+            DecodedChange change = invocation.getArgument(0);
+            String id = String.valueOf(change.getAfter().get("id"));
+            appliedPerKey.computeIfAbsent(id, k -> Collections.synchronizedList(new ArrayList<>()))
+                    .add((Integer) change.getAfter().get("version"));
+            return null;
+        }).when(changeEventApplier).apply(any(DecodedChange.class), any(), anyLong());
+
+        Map<Integer, List<Long>> ackedPerPartition = new HashMap<>();
+        int events = 500;
+
+        // Act
+        for (int i = 0; i < events; i++) {
+            int partition = i % 2;
+            int id = i % 7;
+            long offset = i / 2;
+            String value = "{\"op\":\"u\",\"source\":{\"db\":\"inventory\",\"table\":\"customers\"},"
+                    + "\"after\":{\"id\":" + id + ",\"version\":" + i + "}}";
+            ConsumerRecord<String, byte[]> record = record(partition, offset, "{\"id\":" + id + "}", value);
+            pipeline.publish(record, () -> {
+                synchronized (ackedPerPartition) {
+                    ackedPerPartition.computeIfAbsent(partition, p -> new ArrayList<>()).add(offset);
+                }
+            });
+        }
+
+        // Assert
+        assertTrue(pipeline.drain(Duration.ofSeconds(10)));
+
+        for (List<Integer> versions : appliedPerKey.values()) {
+            List<Integer> sorted = new ArrayList<>(versions);
+            Collections.sort(sorted);
+            assertEquals(sorted, versions, "changes to one row must be applied in offset order");
+        }
+        assertEquals(events, appliedPerKey.values().stream().mapToInt(List::size).sum());
+        assertEquals(0, memoryGovernor.used(), "acknowledged events must release their memory");
+
+        for (List<Long> acked : ackedPerPartition.values()) {
+            List<Long> sorted = new ArrayList<>(acked);
+            Collections.sort(sorted);
+            assertEquals(sorted, acked, "acknowledgements must be in offset order");
+            assertEquals(events / 2 - 1, acked.get(acked.size() - 1));
+        }
+    }
+
+    @Test
+    void publish_shouldAcknowledgeTombstonesWithoutApplying() {
+        List<Long> acked = Collections.synchronizedList(new ArrayList<>());
+
+        for (long offset = 0; offset < 40; offset++) {
+            long o = offset;
+            pipeline.publish(record(0, offset, "{\"id\":1}", null), () -> acked.add(o));
+        }
+
+        assertTrue(pipeline.drain(Duration.ofSeconds(10)));
+        assertEquals(39L, acked.get(acked.size() - 1));
+    }
+
+    @Test
+    void publish_shouldStageSetWiseTables_andFlushNetChangesPerLane() {
+        // Arrange
+        DatabaseUpdateService databaseUpdateService = mock(DatabaseUpdateService.class);
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns("customers")).thenReturn(List.of("id"));
+        ChangeEventApplier applier = new ChangeEventApplier(
+                databaseUpdateService, schemaMetadataService, new ActivitySummary(0, 0), "batch", "");
+
+        Map<Object, Integer> latestPerKey = new ConcurrentHashMap<>();
+        AtomicInteger flushedEvents = new AtomicInteger();
+        doAnswer(invocation -> {
+            TableBatch batch = invocation.getArgument(0);
+            flushedEvents.addAndGet(batch.eventCount());
+            for (TableBatch.Change change : batch.getChanges()) {
+                latestPerKey.put(change.getRow().get("id"), (Integer) change.getRow().get("version"));
+            }
+            return null;
+        }).when(databaseUpdateService).applyBatch(any(TableBatch.class));
+
+        ChangeEventPipeline staged = new ChangeEventPipeline(true, 64, 2, 3, 8,
+                "blocking", "sleeping", "yielding", "blocking", "blocking",
+                new ChangeEventDecoder(new ObjectMapper()), applier, new ApplyExecutor("platform", 2),
+                new ShardRouter(1, null, "hash", ""), new FanoutTargets(1, List.of(), "", "", 0),
+                mock(CheckpointStore.class), HotKeyTracker.disabled(), KeyRouting.valueFirst(),
+                DependencyScheduler.disabled(), MemoryGovernor.unbounded(), new SimpleMeterRegistry());
+        staged.start();
+        List<Long> acked = Collections.synchronizedList(new ArrayList<>());
+        int events = 500;
+
+        // Act
+        try {
+            for (int i = 0; i < events; i++) {
+                int id = i % 11;
+                long offset = i;
+                String value = "{\"op\":\"" + (i < 11 ? "c" : "u") + "\",\"source\":{\"db\":\"inventory\",\"table\":\"customers\"},"
+                        + "\"after\":{\"id\":" + id + ",\"version\":" + i + "}}";
+                staged.publish(record(0, offset, "{\"id\":" + id + "}", value), () -> acked.add(offset));
+            }
+            assertTrue(staged.drain(Duration.ofSeconds(10)));
+        } finally {
+            staged.stop();
+        }
+
+        // Assert
+        assertEquals(events, flushedEvents.get(), "every staged event must be flushed");
+        for (int id = 0; id < 11; id++) {
+            int lastVersion = events - 1 - Math.floorMod(events - 1 - id, 11);
+            assertEquals(lastVersion, latestPerKey.get(id), "net change must carry the latest row image");
+        }
+        assertEquals(events - 1L, acked.get(acked.size() - 1));
+    }
+
+    @Test
+    void publish_shouldHoldAndCombineHotKeys_whileColdKeysPassThrough() {
+        // Arrange
+        DatabaseUpdateService databaseUpdateService = mock(DatabaseUpdateService.class);
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns("customers")).thenReturn(List.of("id"));
+        ChangeEventApplier applier = new ChangeEventApplier(
+                databaseUpdateService, schemaMetadataService, new ActivitySummary(0, 0));
+        // Hot from the third change to a key within a minute; held for up to 20 ms
+        HotKeyTracker tracker = new HotKeyTracker(true, schemaMetadataService, 5, 4, 256, 60_000, 0.05, 20,
+                System::currentTimeMillis);
+
+        List<Object> batchedKeys = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger batchedEvents = new AtomicInteger();
+        AtomicInteger lastHotVersion = new AtomicInteger(-1);
+        doAnswer(invocation -> {
+            TableBatch batch = invocation.getArgument(0);
+            batchedEvents.addAndGet(batch.eventCount());
+            for (TableBatch.Change change : batch.getChanges()) {
+                batchedKeys.add(change.getRow().get("id"));
+                lastHotVersion.set((Integer) change.getRow().get("version"));
+            }
+            return null;
+        }).when(databaseUpdateService).applyBatch(any(TableBatch.class));
+
+        ChangeEventPipeline hot = new ChangeEventPipeline(true, 64, 2, 2, 1000,
+                "blocking", "sleeping", "yielding", "blocking", "blocking",
+                new ChangeEventDecoder(new ObjectMapper()), applier, new ApplyExecutor("platform", 2),
+                new ShardRouter(1, null, "hash", ""), new FanoutTargets(1, List.of(), "", "", 0),
+                mock(CheckpointStore.class), tracker, KeyRouting.valueFirst(),
+                DependencyScheduler.disabled(), MemoryGovernor.unbounded(), new SimpleMeterRegistry());
+        hot.start();
+        List<Long> acked = Collections.synchronizedList(new ArrayList<>());
+        int events = 300;
+
+        // Act: every third change is to key 0, the rest to keys seen once
+        try {
+            for (int i = 0; i < events; i++) {
+                int id = i % 3 == 0 ? 0 : 1000 + i;
+                long offset = i;
+                String value = "{\"op\":\"u\",\"source\":{\"db\":\"inventory\",\"table\":\"customers\"},"
+                        + "\"after\":{\"id\":" + id + ",\"version\":" + i + "}}";
+                hot.publish(record(0, offset, "{\"id\":" + id + "}", value), () -> acked.add(offset));
+            }
+            assertTrue(hot.drain(Duration.ofSeconds(10)));
+        } finally {
+            hot.stop();
+        }
+
+        // Assert
+        assertTrue(batchedEvents.get() >= events / 3 - 2, "changes to the hot key must be held");
+        assertTrue(batchedKeys.size() < batchedEvents.get(), "held changes to one key must combine");
+        assertTrue(batchedKeys.stream().allMatch(id -> Integer.valueOf(0).equals(id)), "cold keys must pass through");
+        assertEquals(events - 3, lastHotVersion.get(), "the hot key's last change must be written last");
+        assertEquals(events - 1L, acked.get(acked.size() - 1));
+    }
+
+    @Test
+    void publish_shouldHoldARowWhoseParentIsMissing_andNotAcknowledgeItUntilItIsWritten() throws Exception {
+        // Arrange: orders reference customers; writes of order 1 fail until its customer is on the target
+        DatabaseUpdateService databaseUpdateService = mock(DatabaseUpdateService.class);
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns(anyString())).thenReturn(List.of("id"));
+        AtomicBoolean parentWritten = new AtomicBoolean();
+        AtomicInteger ordersWritten = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (!parentWritten.get()) {
+                throw new DataIntegrityViolationException("missing customer", new SQLException("missing customer", "23503"));
+            }
+            ordersWritten.incrementAndGet();
+            return null;
+        }).when(databaseUpdateService).upsert(eq("orders"), any(RowBuffer.class), anyList());
+        doAnswer(invocation -> {
+            if (!invocation.<TableBatch>getArgument(0).getTableName().equals("orders")) {
+                return null;
+            }
+            if (!parentWritten.get()) {
+                throw new DataIntegrityViolationException("missing customer", new SQLException("missing customer", "23503"));
+            }
+            ordersWritten.incrementAndGet();
+            return null;
+        }).when(databaseUpdateService).applyBatch(any(TableBatch.class));
+        DependencyScheduler dependencyScheduler = new DependencyScheduler(
+                ForeignKeyGraph.of(List.<String[]>of(new String[] {"orders", "customers"})), false);
+        ChangeEventApplier applier = new ChangeEventApplier(databaseUpdateService, schemaMetadataService,
+                new ActivitySummary(0, 0), SchemaEvolution.disabled(), dependencyScheduler, databaseUpdateService, "row", "");
+
+        ChangeEventPipeline related = new ChangeEventPipeline(true, 64, 2, 2, 1000,
+                "blocking", "sleeping", "yielding", "blocking", "blocking",
+                new ChangeEventDecoder(new ObjectMapper()), applier, new ApplyExecutor("platform", 2),
+                new ShardRouter(1, null, "hash", ""), new FanoutTargets(1, List.of(), "", "", 0),
+                mock(CheckpointStore.class), HotKeyTracker.disabled(), KeyRouting.valueFirst(),
+                dependencyScheduler, MemoryGovernor.unbounded(), new SimpleMeterRegistry());
+        related.start();
+        List<Long> acked = Collections.synchronizedList(new ArrayList<>());
+
+        // Act: the order, then changes to unrelated rows behind it
+        try {
+            related.publish(new ConsumerRecord<>("dbserver1.inventory.orders", 0, 0L, "{\"id\":1}",
+                    "{\"op\":\"c\",\"source\":{\"db\":\"inventory\",\"table\":\"orders\"},\"after\":{\"id\":1}}"
+                            .getBytes(StandardCharsets.UTF_8)), () -> acked.add(0L));
+            for (long offset = 1; offset < 10; offset++) {
+                long o = offset;
+                String value = "{\"op\":\"u\",\"source\":{\"db\":\"inventory\",\"table\":\"customers\"},"
+                        + "\"after\":{\"id\":" + (100 + offset) + "}}";
+                related.publish(new ConsumerRecord<>("dbserver1.inventory.orders", 0, offset, "{\"id\":" + (100 + offset) + "}",
+                        value.getBytes(StandardCharsets.UTF_8)), () -> acked.add(o));
+            }
+            Thread.sleep(300);
+            List<Long> ackedWhileMissing = new ArrayList<>(acked);
+            parentWritten.set(true);
+            assertTrue(related.drain(Duration.ofSeconds(10)));
+
+            // Assert
+            assertEquals(List.of(), ackedWhileMissing, "nothing from the held order on may be acknowledged");
+        } finally {
+            related.stop();
+        }
+        assertEquals(1, ordersWritten.get());
+        assertEquals(9L, acked.get(acked.size() - 1));
+    }
+
+    @Test
+    void publish_shouldApplyEveryEventOncePerTarget_andReplayOnlyToAResumedTarget() {
+        // Arrange
+        when(changeEventApplier.strategyFor("customers")).thenReturn(ApplyStrategy.ROW);
+        Map<Integer, List<Object>> appliedPerSlot = new ConcurrentHashMap<>();
+        doAnswer(invocation -> {
+            DecodedChange change = invocation.getArgument(0);
+            appliedPerSlot.computeIfAbsent(ShardContext.current().getShard(), s -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(change.getAfter().get("version"));
+            return null;
+        }).when(changeEventApplier).apply(any(DecodedChange.class), any(), anyLong());
+
+        FanoutTargets targets = new FanoutTargets(1, List.of("reporting"), "", "", 0);
+        FanoutTarget reporting = targets.get("reporting");
+        ChangeEventPipeline fanout = new ChangeEventPipeline(true, 16, 2, 2, 1000,
+                "blocking", "sleeping", "yielding", "blocking", "blocking",
+                new ChangeEventDecoder(new ObjectMapper()), changeEventApplier, new ApplyExecutor("platform", 2, 2),
+                new ShardRouter(1, null, "hash", ""), targets, mock(CheckpointStore.class), HotKeyTracker.disabled(),
+                KeyRouting.valueFirst(), DependencyScheduler.disabled(), MemoryGovernor.unbounded(),
+                new SimpleMeterRegistry());
+        fanout.start();
+        List<Long> acked = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            // Act: both targets attached, then reporting detached, then resumed with a replay
+            publish(fanout, 0, 40, acked);
+            assertTrue(fanout.drain(Duration.ofSeconds(10)));
+            fanout.detach(reporting);
+            publish(fanout, 40, 60, acked);
+            assertTrue(fanout.drain(Duration.ofSeconds(10)));
+
+            // Assert: the detached target did not hold up acknowledgements and knows where to replay from
+            assertEquals(59L, acked.get(acked.size() - 1));
+            assertEquals(60, appliedPerSlot.get(0).size());
+            assertEquals(40, appliedPerSlot.get(1).size());
+            assertEquals(40L, reporting.getResumeOffsets().get(TOPIC).get(0));
+
+            // Act: what FanoutTargetService.resume does, then the live consumer's redelivery from offset 40
+            targets.getPrimary().skipThroughApplied();
+            reporting.attach();
+            publish(fanout, 40, 80, acked);
+            assertTrue(fanout.drain(Duration.ofSeconds(10)));
+        } finally {
+            fanout.stop();
+        }
+
+        // Assert: replayed events went only to the resumed target, new ones to both
+        assertEquals(80, appliedPerSlot.get(0).size());
+        assertEquals(80, appliedPerSlot.get(1).size());
+        assertTrue(reporting.getResumeOffsets().get(TOPIC).isEmpty());
+        assertEquals(79L, reporting.getAppliedOffsets().get(TOPIC).get(0));
+    }
+
+    @Test
+    void publish_shouldApplyAnEventThatFailedRouting_toNoTarget() {
+        // Arrange: routing fails for key 3
+        when(changeEventApplier.strategyFor("customers")).thenReturn(ApplyStrategy.ROW);
+        Map<Integer, List<Object>> appliedPerSlot = new ConcurrentHashMap<>();
+        doAnswer(invocation -> {
+            DecodedChange change = invocation.getArgument(0);
+            appliedPerSlot.computeIfAbsent(ShardContext.current().getShard(), s -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(change.getAfter().get("id"));
+            return null;
+        }).when(changeEventApplier).apply(any(DecodedChange.class), any(), anyLong());
+        ShardRouter shardRouter = new ShardRouter(1, null, "hash", "") {
+            @Override
+            public int shardFor(DecodedChange change) {
+                if (Integer.valueOf(3).equals(change.getAfter().get("id"))) {
+                    throw new IllegalStateException("no shard for key 3");
+                }
+                return super.shardFor(change);
+            }
+        };
+
+        FanoutTargets targets = new FanoutTargets(1, List.of("reporting"), "", "", 0);
+        ChangeEventPipeline fanout = new ChangeEventPipeline(true, 16, 2, 2, 1000,
+                "blocking", "sleeping", "yielding", "blocking", "blocking",
+                new ChangeEventDecoder(new ObjectMapper()), changeEventApplier, new ApplyExecutor("platform", 2, 2),
+                shardRouter, targets, mock(CheckpointStore.class), HotKeyTracker.disabled(),
+                KeyRouting.valueFirst(), DependencyScheduler.disabled(), MemoryGovernor.unbounded(),
+                new SimpleMeterRegistry());
+        fanout.start();
+        List<Long> acked = Collections.synchronizedList(new ArrayList<>());
+
+        // Act
+        try {
+            publish(fanout, 0, 20, acked);
+            assertTrue(fanout.drain(Duration.ofSeconds(10)));
+        } finally {
+            fanout.stop();
+        }
+
+        // Assert: the primary and the fan-out target agree, and every event is acknowledged
+        assertEquals(16, appliedPerSlot.get(0).size());
+        assertEquals(16, appliedPerSlot.get(1).size());
+        assertTrue(appliedPerSlot.get(1).stream().noneMatch(id -> Integer.valueOf(3).equals(id)));
+        assertEquals(19L, acked.get(acked.size() - 1));
+    }
+
+    @Test
+    void publish_shouldRouteByKeyFirst_decodeValuesOnLanes_andSkipExcludedTables() throws Exception {
+        // Arrange
+        when(changeEventApplier.strategyFor("customers")).thenReturn(ApplyStrategy.ROW);
+        Map<String, List<Integer>> appliedPerKey = new ConcurrentHashMap<>();
+        doAnswer(invocation -> {
+            DecodedChange change = invocation.getArgument(0);
+            appliedPerKey.computeIfAbsent(String.valueOf(change.getAfter().get("id")),
+                    k -> Collections.synchronizedList(new ArrayList<>())).add((Integer) change.getAfter().get("version"));
+            return null;
+        }).when(changeEventApplier).apply(any(DecodedChange.class), any(), anyLong());
+
+        ChangeEventDecoder decoder = spy(new ChangeEventDecoder(new ObjectMapper()));
+        Set<String> decodingThreads = ConcurrentHashMap.newKeySet();
+        doAnswer(invocation -> {
+            decodingThreads.add(Thread.currentThread().getName());
+            return invocation.callRealMethod();
+        }).when(decoder).decode(any(byte[].class), any(Headers.class), any(DecodedChange.class), anyString());
+
+        ChangeEventPipeline keyFirst = new ChangeEventPipeline(true, 16, 2, 3, 1000,
+                "blocking", "sleeping", "yielding", "blocking", "blocking",
+                decoder, changeEventApplier, new ApplyExecutor("platform", 2),
+                new ShardRouter(1, null, "hash", ""), new FanoutTargets(1, List.of(), "", "", 0),
+                mock(CheckpointStore.class), HotKeyTracker.disabled(), new KeyRouting(true, "audit_log"),
+                DependencyScheduler.disabled(), MemoryGovernor.unbounded(), new SimpleMeterRegistry());
+        keyFirst.start();
+        List<Long> acked = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            // Act: keyed changes, an excluded table whose value is not even JSON, and a record without a key
+            for (int i = 0; i < 120; i++) {
+                long offset = i;
+                ConsumerRecord<String, byte[]> record;
+                if (i % 10 == 9) {
+                    record = new ConsumerRecord<>("dbserver1.inventory.audit_log", 0, offset, "{\"id\":1}",
+                            "not json".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    // Offset 50 has no key, and a row of its own: keyless records are not ordered by row
+                    int id = i == 50 ? 99 : i % 7;
+                    String value = "{\"op\":\"u\",\"source\":{\"db\":\"inventory\",\"table\":\"customers\"},"
+                            + "\"after\":{\"id\":" + id + ",\"version\":" + i + "}}";
+                    record = record(0, offset, i == 50 ? null : "{\"id\":" + id + "}", value);
+                }
+                keyFirst.publish(record, () -> acked.add(offset));
+            }
+            assertTrue(keyFirst.drain(Duration.ofSeconds(10)));
+        } finally {
+            keyFirst.stop();
+        }
+
+        // Assert: every customers change applied per key in order, the excluded table never decoded
+        assertTrue(acked.contains(118L) && acked.contains(119L), "both topics acknowledged to their last offset");
+        assertEquals(108, appliedPerKey.values().stream().mapToInt(List::size).sum());
+        for (List<Integer> versions : appliedPerKey.values()) {
+            List<Integer> sorted = new ArrayList<>(versions);
+            Collections.sort(sorted);
+            assertEquals(sorted, versions, "changes to one row must be applied in offset order");
+        }
+        verify(decoder, never()).decode(any(byte[].class), any(Headers.class), any(DecodedChange.class),
+                eq("dbserver1.inventory.audit_log"));
+        assertTrue(decodingThreads.stream().anyMatch(name -> name.startsWith("streamshift-apply-")));
+        assertTrue(decodingThreads.stream().allMatch(name -> name.startsWith("streamshift-apply-")
+                || name.equals("streamshift-decode-0")), "only the keyless record is decoded before routing");
+    }
+
+    private static void publish(ChangeEventPipeline pipeline, int fromOffset, int toOffset, List<Long> acked) {
+        for (int i = fromOffset; i < toOffset; i++) {
+            long offset = i;
+            int id = i % 5;
+            String value = "{\"op\":\"u\",\"source\":{\"db\":\"inventory\",\"table\":\"customers\"},"
+                    + "\"after\":{\"id\":" + id + ",\"version\":" + i + "}}";
+            pipeline.publish(record(0, offset, "{\"id\":" + id + "}", value), () -> acked.add(offset));
+        }
+    }
+
+    private static ConsumerRecord<String, byte[]> record(int partition, long offset, String key, String value) {
+        return new ConsumerRecord<>(TOPIC, partition, offset, key,
+                value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+}
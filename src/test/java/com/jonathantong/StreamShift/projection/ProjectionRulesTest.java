@@ -0,0 +1,96 @@
+package com.jonathantong.StreamShift.projection;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.service.ChangeEventDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProjectionRulesTest {
+
+    private static final String TOPIC = "dbserver1.inventory.orders";
+
+    private final ProjectionRules rules = new ProjectionRules(
+            "orders:id|customer_id|total|fname",
+            "customers:audit_blob",
+            "orders:fname=first_name",
+            "orders:status!=archived&total>=10");
+    private final ChangeEventDecoder decoder = new ChangeEventDecoder(new ObjectMapper(), rules);
+
+    @Test
+    void decode_shouldProjectColumns_andRecompileWhenTheLayoutChanges() throws Exception {
+        DecodedChange change = new DecodedChange();
+
+        assertTrue(decoder.decode(order("c", null, row(1, "open", 25, "")), change, TOPIC));
+        assertEquals(List.of("id", "customer_id", "total", "first_name"), change.getAfter().columnList());
+        assertEquals(Map.of("id", 1, "customer_id", 9, "total", 25, "first_name", "ann"), change.getAfter().toMap());
+
+        // A column added at the source is dropped as it is not included
+        assertTrue(decoder.decode(order("c", null, row(2, "open", 30, ",\"coupon\":\"X\"")), change, TOPIC));
+        assertEquals(List.of("id", "customer_id", "total", "first_name"), change.getAfter().columnList());
+        assertEquals(7, rules.forTable("orders").layout(false).size());
+
+        // Tables without rules are decoded as they are
+        assertTrue(decoder.decode("{\"after\":{\"id\":1,\"audit_blob\":\"x\",\"name\":\"a\"},"
+                + "\"source\":{\"table\":\"customers\"},\"op\":\"c\"}", change));
+        assertEquals(List.of("id", "name"), change.getAfter().columnList());
+    }
+
+    @Test
+    void decode_shouldApplyRowFilters_turningUpdatesThatLeaveTheFilterIntoDeletes() throws Exception {
+        DecodedChange change = new DecodedChange();
+
+        assertFalse(decoder.decode(order("c", null, row(1, "archived", 25, "")), change, TOPIC));
+        assertFalse(decoder.decode(order("r", null, row(1, "open", 5, "")), change, TOPIC));
+        assertTrue(decoder.decode(order("u", row(1, "open", 25, ""), row(1, "open", 40, "")), change, TOPIC));
+        assertEquals("u", change.getOperation());
+
+        // The row was on the target and no longer qualifies
+        assertTrue(decoder.decode(order("u", null, row(1, "archived", 25, "")), change, TOPIC));
+        assertEquals("d", change.getOperation());
+        assertNull(change.getAfter());
+        assertEquals(1, change.getBefore().get("id"));
+
+        // The row never qualified, so there is nothing to remove
+        assertFalse(decoder.decode(order("u", row(1, "archived", 25, ""), row(1, "archived", 30, "")), change, TOPIC));
+        assertFalse(decoder.decode(order("d", row(1, "archived", 25, ""), null), change, TOPIC));
+        assertTrue(decoder.decode(order("d", row(1, "open", 25, ""), null), change, TOPIC));
+
+        // Decoding without the topic projects once the source block names the table
+        assertFalse(decoder.decode(order("c", null, row(1, "archived", 25, "")), change));
+        assertTrue(decoder.decode(order("c", null, row(1, "open", 25, "")), change, "dbserver1.inventory.other"));
+        assertEquals(List.of("id", "customer_id", "total", "first_name"), change.getAfter().columnList());
+    }
+
+    @Test
+    void rowPredicate_shouldCompareByValueType() {
+        assertTrue(RowPredicate.parse("total>=10").test(12L));
+        assertFalse(RowPredicate.parse("total<10").test(10));
+        assertTrue(RowPredicate.parse("score>1.5").test(2.25));
+        assertTrue(RowPredicate.parse("deleted=false").test(Boolean.FALSE));
+        assertTrue(RowPredicate.parse("before.status!=null").test("open"));
+        assertFalse(RowPredicate.parse("status=null").test("open"));
+        assertTrue(RowPredicate.parse("status!=archived").test(null));
+        assertTrue(RowPredicate.parse("status=archived").test(TableProjection.MISSING));
+        assertThrows(IllegalArgumentException.class, () -> RowPredicate.parse("status"));
+        assertThrows(IllegalArgumentException.class, () -> new ProjectionRules("orders:id,orders:total", "", "", ""));
+    }
+
+    private static String row(int id, String status, int total, String extra) {
+        return "{\"id\":" + id + ",\"customer_id\":9,\"status\":\"" + status + "\",\"total\":" + total
+                + ",\"fname\":\"ann\",\"notes\":\"" + "n".repeat(64) + "\"" + extra + "}";
+    }
+
+    private static String order(String operation, String before, String after) {
+        return "{\"before\":" + before + ",\"after\":" + after
+                + ",\"source\":{\"db\":\"inventory\",\"table\":\"orders\"},\"op\":\"" + operation + "\"}";
+    }
+}
@@ -0,0 +1,144 @@
+package com.jonathantong.StreamShift.repartition;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchAcknowledgingMessageListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@EmbeddedKafka(partitions = 1, topics = RepartitionerTest.SOURCE_TOPIC)
+public class RepartitionerTest {
+
+    static final String SOURCE_TOPIC = "dbserver1.inventory.orders";
+    private static final String TARGET_TOPIC = "streamshift.repartitioned.orders";
+    private static final int KEYS = 30;
+    private static final int VERSIONS = 10;
+
+    @Test
+    void repartition_shouldSpreadKeysOverPartitions_inSourceOrder(EmbeddedKafkaBroker broker) throws Exception {
+        String brokers = broker.getBrokersAsString();
+        try (KafkaProducer<String, byte[]> source = new KafkaProducer<>(
+                RepartitionConfig.producerConfig(brokers, "none", 0, 16384))) {
+            for (int version = 0; version < VERSIONS; version++) {
+                for (int id = 0; id < KEYS; id++) {
+                    ProducerRecord<String, byte[]> record = new ProducerRecord<>(SOURCE_TOPIC, key(id), value(id, version));
+                    if (id == 0) {
+                        record.headers().add("content-type", "application/json".getBytes(StandardCharsets.UTF_8));
+                    }
+                    source.send(record);
+                }
+            }
+            source.send(new ProducerRecord<>(SOURCE_TOPIC, key(1), null));
+        }
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Repartitioner repartitioner = new Repartitioner(
+                new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(
+                        RepartitionConfig.producerConfig(brokers, "lz4", 5, 65536))),
+                new KafkaAdmin(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, brokers)),
+                "streamshift.repartitioned", 4, (short) 1, 30_000, meterRegistry);
+
+        ContainerProperties containerProperties = new ContainerProperties(SOURCE_TOPIC);
+        containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        containerProperties.setMessageListener(
+                (BatchAcknowledgingMessageListener<String, byte[]>) repartitioner::repartition);
+        KafkaMessageListenerContainer<String, byte[]> container = new KafkaMessageListenerContainer<>(
+                new DefaultKafkaConsumerFactory<>(consumerConfig(brokers, "repartition")), containerProperties);
+        container.start();
+
+        List<ConsumerRecord<String, byte[]>> received = new ArrayList<>();
+        try (Consumer<String, byte[]> consumer = new DefaultKafkaConsumerFactory<String, byte[]>(
+                consumerConfig(brokers, "apply")).createConsumer()) {
+            consumer.subscribe(List.of(TARGET_TOPIC));
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (received.size() < KEYS * VERSIONS + 1 && System.currentTimeMillis() < deadline) {
+                consumer.poll(Duration.ofMillis(200)).forEach(received::add);
+            }
+        } finally {
+            container.stop();
+        }
+
+        try (Admin admin = Admin.create(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, brokers))) {
+            assertEquals(4, admin.describeTopics(List.of(TARGET_TOPIC)).allTopicNames().get()
+                    .get(TARGET_TOPIC).partitions().size());
+        }
+        assertEquals(KEYS * VERSIONS + 1, received.size());
+        assertEquals(KEYS * VERSIONS + 1, meterRegistry.counter("streamshift.repartition.records").count());
+
+        Map<String, Integer> partitionOfKey = new HashMap<>();
+        Map<String, Integer> lastVersion = new HashMap<>();
+        for (ConsumerRecord<String, byte[]> record : received) {
+            Integer partition = partitionOfKey.putIfAbsent(record.key(), record.partition());
+            assertTrue(partition == null || partition == record.partition(), "key moved partitions: " + record.key());
+            if (record.value() == null) {
+                // The tombstone follows every version of its key
+                assertEquals(key(1), record.key());
+                assertEquals(VERSIONS - 1, lastVersion.get(record.key()));
+                continue;
+            }
+            int version = version(record.value());
+            assertEquals(lastVersion.getOrDefault(record.key(), -1) + 1, version, "out of order: " + record.key());
+            lastVersion.put(record.key(), version);
+            if (record.key().equals(key(0))) {
+                assertArrayEquals("application/json".getBytes(StandardCharsets.UTF_8),
+                        record.headers().lastHeader("content-type").value());
+            } else {
+                assertNull(record.headers().lastHeader("content-type"));
+            }
+        }
+        assertEquals(KEYS, lastVersion.size());
+        assertTrue(partitionOfKey.values().stream().distinct().count() > 1);
+    }
+
+    private static Map<String, Object> consumerConfig(String brokers, String group) {
+        Map<String, Object> config = KafkaTestUtils.consumerProps(brokers, group, "false");
+        config.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        // Leaves creating the internal topic to the repartitioner
+        config.put(ConsumerConfig.ALLOW_AUTO_CREATE_TOPICS_CONFIG, false);
+        config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        return config;
+    }
+
+    private static String key(int id) {
+        return "{\"id\":" + id + "}";
+    }
+
+    private static byte[] value(int id, int version) {
+        return ("{\"op\":\"u\",\"after\":{\"id\":" + id + ",\"version\":" + version + "}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int version(byte[] value) {
+        String json = new String(value, StandardCharsets.UTF_8);
+        int start = json.indexOf("\"version\":") + 10;
+        return Integer.parseInt(json.substring(start, json.indexOf('}', start)));
+    }
+}
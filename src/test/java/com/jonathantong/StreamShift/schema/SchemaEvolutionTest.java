@@ -0,0 +1,165 @@
+package com.jonathantong.StreamShift.schema;
+
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SchemaEvolutionTest {
+
+    private final JdbcTemplate source = mock(JdbcTemplate.class);
+    private final JdbcTemplate target = mock(JdbcTemplate.class);
+    private final DatabaseUpdateService databaseUpdateService = mock(DatabaseUpdateService.class);
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    // Column definitions as information_schema returns them
+    private List<Map<String, Object>> sourceColumns;
+    private volatile List<Map<String, Object>> targetColumns;
+
+    private SchemaMetadataService schemaMetadataService;
+    private SchemaEvolution schemaEvolution;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        targetColumns = List.of(column("id", "integer", "NO", null), column("status", "character varying", "YES", 20));
+        when(target.queryForObject(anyString(), eq(Integer.class), eq("orders"))).thenReturn(1);
+        when(target.queryForList(anyString(), eq(String.class), eq("orders"))).thenReturn(List.of("id"));
+        when(target.queryForList(contains("information_schema.columns"), eq("orders"))).thenAnswer(i -> targetColumns);
+        when(source.queryForList(contains("information_schema.columns"), eq("orders"))).thenAnswer(i -> sourceColumns);
+
+        // ALTERs run on a connection; applying one changes the target's columns to the source's
+        Statement statement = mock(Statement.class);
+        when(statement.execute(anyString())).thenAnswer(i -> {
+            String sql = i.getArgument(0);
+            executed.add(sql);
+            if (sql.startsWith("ALTER TABLE")) {
+                Thread.sleep(50);
+                targetColumns = sourceColumns;
+            }
+            return false;
+        });
+        Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(target.execute(ArgumentMatchers.<ConnectionCallback<Object>>any())).thenAnswer(
+                i -> i.<ConnectionCallback<?>>getArgument(0).doInConnection(connection));
+
+        schemaMetadataService = new SchemaMetadataService(source, target);
+        schemaEvolution = new SchemaEvolution(schemaMetadataService, databaseUpdateService, true, false, 2000);
+    }
+
+    @Test
+    void evolve_shouldAddSourceColumnsOnce_whileLanesWaitAtTheBarrier() throws Exception {
+        // Arrange
+        sourceColumns = List.of(column("id", "integer", "NO", null), column("status", "character varying", "YES", 20),
+                column("note", "text", "YES", null));
+        DecodedChange before = change("id", 1, "status", "new");
+        schemaMetadataService.ensureTargetTableExists("inventory", "orders", before);
+
+        // Act: the old layout fits; four lanes then see a row with the new column at once
+        schemaEvolution.evolve(before);
+        assertTrue(executed.isEmpty());
+
+        ExecutorService lanes = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int lane = 0; lane < 4; lane++) {
+            results.add(lanes.submit(() -> {
+                DecodedChange after = change("id", 2, "status", "paid", "note", "gift");
+                start.await();
+                schemaEvolution.evolve(after);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+        lanes.shutdown();
+        schemaEvolution.evolve(change("id", 3, "status", "paid", "note", "again"));
+
+        // Assert
+        assertEquals(List.of("SET LOCAL lock_timeout = 2000",
+                "ALTER TABLE \"orders\" ADD COLUMN IF NOT EXISTS \"note\" TEXT"), executed);
+        verify(databaseUpdateService, times(1)).invalidateTable("orders");
+        verify(source, times(1)).queryForList(contains("information_schema.columns"), eq("orders"));
+    }
+
+    @Test
+    void evolveAfter_shouldRetypeAndRelaxColumns_onlyForSchemaFailures() {
+        // Arrange: the source widened status and dropped a required column
+        targetColumns = List.of(column("id", "integer", "NO", null), column("status", "character varying", "YES", 20),
+                column("legacy_code", "integer", "NO", null));
+        sourceColumns = List.of(column("id", "integer", "NO", null), column("status", "character varying", "YES", 64));
+        DecodedChange change = change("id", 1, "status", "x".repeat(40));
+        schemaMetadataService.ensureTargetTableExists("inventory", "orders", change);
+
+        // Act
+        boolean deadlock = schemaEvolution.evolveAfter(
+                new DataIntegrityViolationException("deadlock", new SQLException("deadlock detected", "40P01")),
+                "orders", change.getAfter());
+        boolean tooLong = schemaEvolution.evolveAfter(
+                new DataIntegrityViolationException("too long", new SQLException("value too long", "22001")),
+                "orders", change.getAfter());
+
+        // Assert
+        assertFalse(deadlock);
+        assertTrue(tooLong);
+        assertEquals("ALTER TABLE \"orders\" ALTER COLUMN \"status\" TYPE VARCHAR(64) USING \"status\"::VARCHAR(64), "
+                + "ALTER COLUMN \"legacy_code\" DROP NOT NULL", executed.get(1));
+        verify(databaseUpdateService, times(1)).invalidateTable("orders");
+    }
+
+    private static DecodedChange change(Object... columnValues) {
+        DecodedChange change = new DecodedChange();
+        change.setOperation("u");
+        change.setTableName("orders");
+        RowBuffer after = change.afterBuffer();
+        for (int i = 0; i < columnValues.length; i += 2) {
+            after.add((String) columnValues[i], columnValues[i + 1]);
+        }
+        return change;
+    }
+
+    private static Map<String, Object> column(String name, String dataType, String nullable, Integer maxLength) {
+        Map<String, Object> column = new HashMap<>();
+        column.put("column_name", name);
+        column.put("data_type", dataType);
+        column.put("is_nullable", nullable);
+        column.put("column_default", null);
+        column.put("character_maximum_length", maxLength);
+        column.put("numeric_precision", null);
+        column.put("numeric_scale", null);
+        return column;
+    }
+}
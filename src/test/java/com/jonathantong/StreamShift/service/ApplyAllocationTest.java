@@ -0,0 +1,141 @@
+package com.jonathantong.StreamShift.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.tracing.ActivitySummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.implementation.StubMethod;
+import net.bytebuddy.matcher.ElementMatchers;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+import java.lang.management.ManagementFactory;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Allocation regression guard for the steady-state decode and apply path. The target is a
+ * JdbcTemplate that accepts statements without a database: parameters are bound to a generated
+ * PreparedStatement whose methods do nothing, so the budget covers StreamShift's own allocations:
+ * the parser, decoded column values and binding the values to the statement.
+ */
+public class ApplyAllocationTest {
+
+    // Bytes per event; a five-column customers row allocates about 1.1KB today
+    private static final long BUDGET_BYTES_PER_EVENT = 1536;
+
+    private static final int WARMUP_EVENTS = 200_000;
+    private static final int MEASURED_EVENTS = 50_000;
+    private static final int MEASURED_ROUNDS = 3;
+
+    @Test
+    void decodeAndApply_shouldStayUnderAllocationBudget_inSteadyState() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // Arrange
+        JdbcTemplate target = new AcceptingJdbcTemplate();
+        ChangeEventDecoder decoder = new ChangeEventDecoder(new ObjectMapper());
+        ChangeEventApplier applier = new ChangeEventApplier(
+                new DatabaseUpdateService(target, new RowFingerprintCache(true, 1 << 16, new SimpleMeterRegistry())),
+                new SchemaMetadataService(target, target),
+                new ActivitySummary(0, 0));
+        DecodedChange change = new DecodedChange();
+
+        // Inserts and updates over a few thousand rows, built before measuring
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            int id = i % 2048;
+            events.add("{\"before\":null,\"after\":{\"id\":" + id + ",\"first_name\":\"First" + i
+                    + "\",\"last_name\":\"Last\",\"email\":\"user" + i + "@example.com\",\"created_at\":"
+                    + (1700000000000000L + i) + "},\"source\":{\"db\":\"inventory\",\"schema\":\"inventory\","
+                    + "\"table\":\"customers\"},\"op\":\"" + (i < 2048 ? "c" : "u") + "\",\"ts_ms\":" + i + "}");
+        }
+
+        for (int i = 0; i < WARMUP_EVENTS; i++) {
+            decoder.decode(events.get(i & 4095), change);
+            applier.apply(change);
+        }
+
+        // Act: the best of a few rounds, as a recompilation during one round can allocate more
+        long threadId = Thread.currentThread().getId();
+        long perEvent = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_EVENTS; i++) {
+                decoder.decode(events.get(i & 4095), change);
+                applier.apply(change);
+            }
+            perEvent = Math.min(perEvent, (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED_EVENTS);
+        }
+
+        // Assert
+        assertTrue(perEvent <= BUDGET_BYTES_PER_EVENT,
+                "decode and apply allocated " + perEvent + " bytes per event, budget " + BUDGET_BYTES_PER_EVENT);
+    }
+
+    /**
+     * Every table exists with key column id; writes succeed without a database
+     */
+    private static class AcceptingJdbcTemplate extends JdbcTemplate {
+
+        private final PreparedStatement statement = noOpStatement();
+
+        @Override
+        public int update(String sql, PreparedStatementSetter pss) {
+            try {
+                pss.setValues(statement);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            return 1;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+            return (T) Integer.valueOf(1);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+            return (List<T>) List.of("id");
+        }
+
+        @Override
+        public List<Map<String, Object>> queryForList(String sql, Object... args) {
+            return List.of();
+        }
+    }
+
+    /**
+     * A PreparedStatement whose methods return null, zero or false without allocating, unlike a mock
+     */
+    private static PreparedStatement noOpStatement() {
+        try {
+            return new ByteBuddy()
+                    .subclass(Object.class)
+                    .implement(PreparedStatement.class)
+                    .method(ElementMatchers.isAbstract())
+                    .intercept(StubMethod.INSTANCE)
+                    .make()
+                    .load(ApplyAllocationTest.class.getClassLoader())
+                    .getLoaded()
+                    .asSubclass(PreparedStatement.class)
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
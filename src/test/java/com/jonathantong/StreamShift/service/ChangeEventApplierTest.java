@@ -0,0 +1,164 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.dependency.ForeignKeyGraph;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.schema.SchemaEvolution;
+import com.jonathantong.StreamShift.tracing.ActivitySummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionManager;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ChangeEventApplierTest {
+
+    private static final ForeignKeyGraph GRAPH = ForeignKeyGraph.of(List.<String[]>of(new String[] {"orders", "customers"}));
+
+    @Test
+    void flush_shouldRewriteEveryRow_whenTheDeferredCommitFails() {
+        // Arrange: MERGE through a real transactional proxy whose first commit fails, as a deferred FK check would
+        RowFingerprintCache fingerprintCache = new RowFingerprintCache(true, 1024, new SimpleMeterRegistry());
+        StagingMergeWriter stagingMergeWriter = mock(StagingMergeWriter.class);
+        List<String> merged = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<TableBatch.Change> changes = invocation.getArgument(2);
+            merged.add(invocation.getArgument(0) + ":" + changes.size());
+            return changes.size();
+        }).when(stagingMergeWriter).merge(anyString(), anyList(), anyList());
+        FailingCommitTransactionManager transactionManager = new FailingCommitTransactionManager(1);
+        DatabaseUpdateService databaseUpdateService = transactional(
+                new DatabaseUpdateService(mock(JdbcTemplate.class), fingerprintCache, stagingMergeWriter), transactionManager);
+
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns(anyString())).thenReturn(List.of("id"));
+        ChangeEventApplier applier = new ChangeEventApplier(databaseUpdateService, schemaMetadataService,
+                new ActivitySummary(0, 0), SchemaEvolution.disabled(), new DependencyScheduler(GRAPH, true),
+                databaseUpdateService, "merge", "");
+        ChangeBatch batch = new ChangeBatch();
+        stage(applier, batch, "orders", 10);
+        stage(applier, batch, "customers", 1);
+
+        // Act
+        applier.flush(batch);
+
+        // Assert: the rolled back rows are merged again in dependency order, not skipped as unchanged
+        assertEquals(1, transactionManager.failedCommits);
+        assertEquals(List.of("orders:1", "customers:1", "customers:1", "orders:1"), merged);
+        RowBuffer order = row(10);
+        assertTrue(fingerprintCache.isUnchanged(fingerprintCache.keyFingerprint("orders", List.of("id"), order),
+                fingerprintCache.rowFingerprint(order)));
+    }
+
+    @Test
+    void awaitWrites_shouldKeepFailedWritesWaiting_whileTheirParentIsMissing() {
+        // Arrange: a pipelined write of an order failed, and its JDBC retry still misses the customer
+        AtomicInteger attempts = new AtomicInteger();
+        Runnable overJdbc = () -> {
+            attempts.incrementAndGet();
+            throw new DataIntegrityViolationException("missing customer", new SQLException("missing customer", "23503"));
+        };
+        TargetWriter targetWriter = mock(TargetWriter.class);
+        doThrow(new FailedWritesException(List.of(new FailedWritesException.FailedWrite("orders", row(10), false,
+                overJdbc, new IllegalStateException("pipelined write failed"))))).when(targetWriter).awaitWrites();
+        ActivitySummary activitySummary = mock(ActivitySummary.class);
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns(anyString())).thenReturn(List.of("id"));
+        ChangeEventApplier applier = new ChangeEventApplier(mock(DatabaseUpdateService.class),
+                schemaMetadataService, activitySummary, SchemaEvolution.disabled(),
+                new DependencyScheduler(GRAPH, false), targetWriter, "row", "");
+        ChangeBatch waiting = new ChangeBatch();
+
+        // Act
+        applier.awaitWrites(waiting, 42);
+
+        // Assert: the order waits for the lane to write it again instead of being dropped
+        assertEquals(1, attempts.get());
+        assertTrue(waiting.contains("orders", row(10)));
+        assertEquals(42, waiting.firstSequence());
+        verify(activitySummary, never()).failed(anyString());
+    }
+
+    private static DatabaseUpdateService transactional(DatabaseUpdateService target, TransactionManager transactionManager) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new TransactionInterceptor(transactionManager, new AnnotationTransactionAttributeSource()));
+        return (DatabaseUpdateService) proxyFactory.getProxy();
+    }
+
+    private static void stage(ChangeEventApplier applier, ChangeBatch batch, String table, int id) {
+        DecodedChange change = new DecodedChange();
+        change.setTableName(table);
+        change.setOperation("c");
+        change.afterBuffer().add("id", id);
+        applier.stage(batch, change, id, ApplyStrategy.MERGE);
+    }
+
+    private static RowBuffer row(int id) {
+        RowBuffer row = new RowBuffer();
+        row.add("id", id);
+        return row;
+    }
+
+    /**
+     * Runs transaction synchronization like a real manager; the first commits fail
+     */
+    private static class FailingCommitTransactionManager extends AbstractPlatformTransactionManager {
+
+        private static final long serialVersionUID = 1L;
+
+        private int commitsToFail;
+        private int failedCommits;
+
+        FailingCommitTransactionManager(int commitsToFail) {
+            this.commitsToFail = commitsToFail;
+        }
+
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+            if (commitsToFail > 0) {
+                commitsToFail--;
+                failedCommits++;
+                throw new TransactionSystemException("insert or update on table \"orders\" violates foreign key constraint");
+            }
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+}
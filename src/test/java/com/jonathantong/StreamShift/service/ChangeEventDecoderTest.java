@@ -0,0 +1,178 @@
+package com.jonathantong.StreamShift.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.jonathantong.StreamShift.format.EventFormat;
+import com.jonathantong.StreamShift.format.EventFormats;
+import com.jonathantong.StreamShift.model.ChangeEvent;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.projection.ProjectionRules;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.SqlTypeValue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class ChangeEventDecoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ChangeEventDecoder decoder = new ChangeEventDecoder(objectMapper);
+    private final ChangeEventApplier applier = new ChangeEventApplier(null, null, null);
+
+    @Test
+    void decode_shouldProduceSameRowsAsTreeConversion() throws Exception {
+        // Arrange
+        String json = "{\"before\":{\"id\":7,\"name\":\"old\",\"score\":1.5},"
+                + "\"after\":{\"id\":7,\"name\":\"new\",\"score\":2.25,\"active\":true,\"deleted\":null,"
+                + "\"big\":12345678901,\"huge\":123456789012345678901234,\"tags\":[1,2],\"meta\":{\"a\":1}},"
+                + "\"source\":{\"version\":\"2.4\",\"db\":\"inventory\",\"schema\":\"inventory\",\"table\":\"customers\"},"
+                + "\"op\":\"u\",\"ts_ms\":1700000000000,\"transaction\":null}";
+        ChangeEvent expected = objectMapper.readValue(json, ChangeEvent.class);
+        DecodedChange change = new DecodedChange();
+
+        // Act
+        boolean decoded = decoder.decode(json, change);
+
+        // Assert
+        assertTrue(decoded);
+        assertEquals("u", change.getOperation());
+        assertEquals("inventory", change.getDatabaseName());
+        assertEquals("customers", change.getTableName());
+        assertEquals(1700000000000L, change.getTimestampMs());
+        assertEquals(applier.convertJsonToMap(expected.getBefore()), change.getBefore().toMap());
+        assertEquals(applier.convertJsonToMap(expected.getAfter()), change.getAfter().toMap());
+    }
+
+    @Test
+    void decode_shouldReuseBuffer_andClearMissingImages() throws Exception {
+        DecodedChange change = new DecodedChange();
+        decoder.decode("{\"before\":{\"id\":1},\"after\":{\"id\":1,\"name\":\"a\"},\"op\":\"u\"}", change);
+
+        decoder.decode("{\"before\":{\"id\":1,\"name\":\"a\"},\"after\":null,\"op\":\"d\"}", change);
+
+        assertEquals("d", change.getOperation());
+        assertNull(change.getAfter());
+        assertEquals(2, change.getBefore().size());
+    }
+
+    @Test
+    void decode_shouldReadJsonWithSchemasSmileAndCbor_intoTheSameChange() throws Exception {
+        // Arrange: the same change, with bytes as base64 text in JSON and as binary elsewhere
+        String row = "{\"id\":7,\"name\":\"new\",\"score\":2.25,\"active\":true,\"deleted\":null,"
+                + "\"big\":12345678901,\"huge\":123456789012345678901234,\"tags\":[1,2],\"photo\":\"AQID\"}";
+        String json = "{\"before\":null,\"after\":" + row + ",\"source\":{\"db\":\"inventory\",\"table\":\"customers\"},"
+                + "\"op\":\"c\",\"ts_ms\":1700000000000}";
+        ObjectNode envelope = (ObjectNode) objectMapper.readTree(json);
+        ObjectNode binary = envelope.deepCopy();
+        ((ObjectNode) binary.get("after")).put("photo", new byte[] {1, 2, 3});
+        byte[] withSchemas = ("{\"schema\":{\"type\":\"struct\",\"fields\":[{\"field\":\"after\"}]},\"payload\":" + json + "}")
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] smile = new ObjectMapper(new SmileFactory()).writeValueAsBytes(binary);
+        byte[] cbor = new ObjectMapper(new CBORFactory()).writeValueAsBytes(binary);
+
+        ChangeEventDecoder formats = new ChangeEventDecoder(objectMapper, ProjectionRules.none(),
+                new EventFormats("content-type", "customers:cbor", "auto"), 1 << 20);
+        DecodedChange expected = new DecodedChange();
+        DecodedChange change = new DecodedChange();
+        assertTrue(decoder.decode(json, expected));
+
+        // Act & Assert: detected, named by header and configured per topic
+        assertTrue(formats.decode(withSchemas, null, change, "dbserver1.inventory.orders"));
+        assertSameChange(expected, change);
+
+        assertTrue(formats.decode(smile, null, change, "dbserver1.inventory.orders"));
+        assertSameChange(expected, change);
+
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("content-type", "application/cbor".getBytes(StandardCharsets.UTF_8));
+        assertTrue(formats.decode(cbor, headers, change, "dbserver1.inventory.orders"));
+        assertSameChange(expected, change);
+
+        assertTrue(formats.decode(cbor, null, change, "dbserver1.inventory.customers"));
+        assertSameChange(expected, change);
+
+        assertEquals(EventFormat.SMILE, EventFormat.detect(smile));
+        assertEquals(EventFormat.CBOR, EventFormat.detect(cbor));
+        assertEquals(EventFormat.JSON, EventFormat.detect(withSchemas));
+        assertFalse(decoder.decode("{\"schema\":{},\"payload\":null}", change));
+    }
+
+    @Test
+    void decode_shouldKeepLargeValuesAsBytes_andBindThemByColumnType() throws Exception {
+        // Arrange: a 64 byte threshold, a JSON document column, base64 bytes and a short string
+        ChangeEventDecoder large = new ChangeEventDecoder(objectMapper, ProjectionRules.none(),
+                EventFormats.detecting(), 64);
+        String document = "{\"title\":\"caf\u00e9 \ud83d\ude00\",\"lines\":\"" + "x".repeat(80) + "\\n\"}";
+        byte[] attachment = new byte[100];
+        for (int i = 0; i < attachment.length; i++) {
+            attachment[i] = (byte) i;
+        }
+        ObjectNode envelope = objectMapper.createObjectNode();
+        ObjectNode after = envelope.putObject("after");
+        after.put("id", 1);
+        after.put("doc", document);
+        after.put("file", Base64.getEncoder().encodeToString(attachment));
+        after.put("name", "short");
+        envelope.put("op", "c");
+        DecodedChange change = new DecodedChange();
+
+        // Act
+        assertTrue(large.decode(objectMapper.writeValueAsBytes(envelope), null, change, "inventory.docs"));
+
+        // Assert: sliced from the record and unescaped where needed
+        Map<String, Object> row = change.getAfter().toMap();
+        LargeValue doc = (LargeValue) row.get("doc");
+        LargeValue file = (LargeValue) row.get("file");
+        assertEquals(document, doc.toString());
+        assertEquals(attachment.length, file.binaryLength());
+        assertArrayEquals(attachment, file.binaryStream().readAllBytes());
+        assertEquals("short", row.get("name"));
+
+        // Binary formats keep large bytes raw
+        ObjectNode binary = envelope.deepCopy();
+        ((ObjectNode) binary.get("after")).put("file", attachment);
+        assertTrue(large.decode(new ObjectMapper(new CBORFactory()).writeValueAsBytes(binary), null, change, null));
+        assertEquals(LargeValue.binary(attachment), change.getAfter().toMap().get("file"));
+
+        // Bound by the column type the writer passes, never by asking the driver
+        PreparedStatement ps = mock(PreparedStatement.class);
+        doc.setTypeValue(ps, 1, SqlTypeValue.TYPE_UNKNOWN, "jsonb");
+        file.setTypeValue(ps, 2, SqlTypeValue.TYPE_UNKNOWN, "bytea");
+        verify(ps).setObject(1, document, Types.OTHER);
+        verify(ps).setBinaryStream(eq(2), any(InputStream.class), eq(attachment.length));
+        verify(ps, never()).getParameterMetaData();
+    }
+
+    @Test
+    void decode_shouldReturnFalse_forJsonNull() throws Exception {
+        assertFalse(decoder.decode("null", new DecodedChange()));
+    }
+
+    private static void assertSameChange(DecodedChange expected, DecodedChange actual) {
+        assertEquals(expected.getOperation(), actual.getOperation());
+        assertEquals(expected.getTableName(), actual.getTableName());
+        assertEquals(expected.getTimestampMs(), actual.getTimestampMs());
+        assertNull(actual.getBefore());
+        Map<String, Object> row = expected.getAfter().toMap();
+        assertEquals(row, actual.getAfter().toMap());
+    }
+}
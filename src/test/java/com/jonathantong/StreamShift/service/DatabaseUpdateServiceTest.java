@@ -1,19 +1,31 @@
 package com.jonathantong.StreamShift.service;
 
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.model.RowBuffer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.Types;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 public class DatabaseUpdateServiceTest {
@@ -21,6 +33,9 @@ public class DatabaseUpdateServiceTest {
     @Mock
     private JdbcTemplate targetJdbcTemplate;
 
+    @Mock
+    private RowFingerprintCache fingerprintCache;
+
     @InjectMocks
     private DatabaseUpdateService databaseUpdateService;
 
@@ -63,4 +78,45 @@ public class DatabaseUpdateServiceTest {
                 eq(expectedArgs) // Verifying the object array is passed
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void upsert_shouldSkipSql_whenRowFingerprintUnchanged() {
+        // Arrange
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", 1);
+        data.put("username", "testuser");
+
+        when(fingerprintCache.isEnabled()).thenReturn(true);
+        when(fingerprintCache.isUnchanged(anyLong(), anyLong())).thenReturn(true);
+
+        // Act
+        databaseUpdateService.upsert("users", data, List.of("id"));
+
+        // Assert
+        verify(targetJdbcTemplate, never()).update(any(String.class), any(Object[].class));
+    }
+
+    @Test
+    void upsert_shouldBindLargeValuesByTheCachedColumnType_withoutParameterMetadata() throws Exception {
+        // Arrange
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getColumnType("docs", "body")).thenReturn("jsonb");
+        DatabaseUpdateService service = new DatabaseUpdateService(targetJdbcTemplate, fingerprintCache, schemaMetadataService);
+        byte[] json = "{\"a\":1}".getBytes(StandardCharsets.UTF_8);
+        RowBuffer row = new RowBuffer();
+        row.add("id", 1);
+        row.add("body", LargeValue.text(json, 0, json.length));
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(targetJdbcTemplate.update(any(String.class), any(PreparedStatementSetter.class))).thenAnswer(invocation -> {
+            invocation.<PreparedStatementSetter>getArgument(1).setValues(ps);
+            return 1;
+        });
+
+        // Act
+        service.upsert("docs", row, List.of("id"));
+
+        // Assert
+        verify(ps).setObject(2, "{\"a\":1}", Types.OTHER);
+        verify(ps, never()).getParameterMetaData();
+    }
+}
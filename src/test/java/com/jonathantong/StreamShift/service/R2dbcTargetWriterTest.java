@@ -0,0 +1,275 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import com.jonathantong.StreamShift.sharding.ShardContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Parameter;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.jdbc.core.JdbcTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class R2dbcTargetWriterTest {
+
+    private static final List<String> ID = List.of("id");
+
+    private final List<SentStatement> sent = new ArrayList<>();
+    private final DatabaseUpdateService databaseUpdateService = spy(new DatabaseUpdateService(mock(JdbcTemplate.class),
+            new RowFingerprintCache(false, 1024, new SimpleMeterRegistry())));
+
+    @AfterEach
+    void tearDown() {
+        ShardContext.current().setShard(0);
+    }
+
+    @Test
+    void upsert_shouldSendWithoutWaiting_andAwaitWritesUntilEveryAnswer() throws Exception {
+        // Arrange
+        R2dbcTargetWriter writer = writer(1, 64);
+
+        // Act
+        writer.upsert("customers", row(1, "Ann"), ID);
+        writer.upsert("customers", row(2, null), ID);
+
+        // Assert
+        assertEquals(2, sent.size());
+        assertEquals(2, writer.inFlight());
+        assertTrue(sent.get(0).sql.contains("VALUES ($1, $2)"), sent.get(0).sql);
+        assertEquals("Ann", sent.get(0).values[1]);
+        assertInstanceOf(Parameter.class, sent.get(1).values[1]);
+
+        // Other threads have no writes of their own to wait for
+        assertTrue(awaitedWithin(CompletableFuture.runAsync(writer::awaitWrites), 5000));
+
+        sent.get(0).answer(1);
+        CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS).execute(() -> sent.get(1).answer(1));
+        long start = System.nanoTime();
+        writer.awaitWrites();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertEquals(0, writer.inFlight());
+    }
+
+    @Test
+    void writes_shouldKeepEachKeyOnOneConnection_andBlockAtThePipelineDepth() throws Exception {
+        // Arrange
+        R2dbcTargetWriter writer = writer(4, 2);
+
+        // Act
+        writer.upsert("customers", row(7, "a"), ID);
+        writer.update("customers", row(7, "b"), ID);
+        CompletableFuture<Void> third = CompletableFuture.runAsync(() -> writer.delete("customers", row(7, null), ID));
+
+        // Assert
+        assertFalse(awaitedWithin(third, 100));
+        assertEquals(2, sent.size());
+        sent.get(0).answer(1);
+        assertTrue(awaitedWithin(third, 5000));
+        assertEquals(3, sent.size());
+        assertSame(sent.get(0).connection, sent.get(1).connection);
+        assertSame(sent.get(0).connection, sent.get(2).connection);
+        assertTrue(sent.get(2).sql.startsWith("DELETE") && sent.get(2).sql.endsWith("$1"), sent.get(2).sql);
+    }
+
+    @Test
+    void writes_shouldGoOverJdbc_forOtherShards() {
+        // Arrange
+        R2dbcTargetWriter writer = writer(1, 64);
+        ShardContext.current().setShard(1);
+
+        // Act
+        writer.upsert("customers", row(1, "Ann"), ID);
+
+        // Assert
+        assertTrue(sent.isEmpty());
+        verify(databaseUpdateService).upsert(eq("customers"), any(RowBuffer.class), eq(ID));
+
+        ShardContext.current().setShard(0);
+        writer.delete("customers", row(1, null), ID);
+        assertEquals(1, sent.size());
+        verify(databaseUpdateService, never()).delete(anyString(), any(RowBuffer.class), anyList());
+    }
+
+    @Test
+    void awaitWrites_shouldHandBackFailedWrites_toBeRetriedOverJdbcOnThePrimary() {
+        // Arrange
+        R2dbcTargetWriter writer = writer(1, 64);
+        writer.upsert("customers", row(1, "Ann"), ID);
+        writer.upsert("customers", row(2, "Bob"), ID);
+        sent.get(0).answer(1);
+        sent.get(1).fail(new IllegalStateException("column \"name\" does not exist"));
+
+        // Act
+        FailedWritesException failure = assertThrows(FailedWritesException.class, writer::awaitWrites);
+        ShardContext.current().setShard(1);
+        failure.getFailures().get(0).retry().run();
+
+        // Assert
+        assertEquals(1, failure.getFailures().size());
+        assertEquals("customers", failure.getFailures().get(0).tableName());
+        verify(databaseUpdateService).upsert(eq("customers"), ArgumentMatchers.<RowBuffer>argThat(row -> Integer.valueOf(2).equals(row.get("id"))), eq(ID));
+        assertEquals(1, ShardContext.current().getShard());
+        // Failures are handed back once
+        ShardContext.current().setShard(0);
+        writer.awaitWrites();
+    }
+
+    @Test
+    void awaitWrites_shouldReplayLaterWritesToAFailedRow_soTheRowEndsAtItsLatestImage() {
+        // Arrange
+        R2dbcTargetWriter writer = writer(1, 64);
+        Map<Object, Object> target = new HashMap<>();
+        doAnswer(invocation -> target.put(invocation.<RowBuffer>getArgument(1).get("id"),
+                invocation.<RowBuffer>getArgument(1).get("name")))
+                .when(databaseUpdateService).update(anyString(), any(RowBuffer.class), anyList());
+        writer.update("customers", row(7, "1"), ID);
+        writer.update("customers", row(7, "2"), ID);
+        writer.update("customers", row(8, "1"), ID);
+
+        // Act: a transient failure of the first image, then the second one answered
+        sent.get(0).fail(new IllegalStateException("deadlock detected"));
+        sent.get(1).answer(1);
+        target.put(7, "2");
+        sent.get(2).answer(1);
+        FailedWritesException failure = assertThrows(FailedWritesException.class, writer::awaitWrites);
+        for (FailedWritesException.FailedWrite write : failure.getFailures()) {
+            write.retry().run();
+        }
+
+        // Assert: the second image is written again after the first, rows without failures are not
+        assertEquals(2, failure.getFailures().size());
+        assertEquals("2", target.get(7));
+        verify(databaseUpdateService, never()).update(anyString(),
+                ArgumentMatchers.<RowBuffer>argThat(row -> Integer.valueOf(8).equals(row.get("id"))), anyList());
+    }
+
+    @Test
+    void writes_shouldBeKeptBack_onceAWriteToTheirRowHasFailed() {
+        // Arrange
+        R2dbcTargetWriter writer = writer(1, 64);
+        writer.upsert("customers", row(7, "1"), ID);
+        sent.get(0).fail(new IllegalStateException("connection reset"));
+
+        // Act
+        writer.upsert("customers", row(7, "2"), ID);
+        writer.upsert("customers", row(8, "1"), ID);
+        FailedWritesException failure = assertThrows(FailedWritesException.class, () -> {
+            sent.get(1).answer(1);
+            writer.awaitWrites();
+        });
+
+        // Assert: only the other row went out; the kept back write follows the failed one
+        assertEquals(2, sent.size());
+        assertEquals(8, sent.get(1).values[0]);
+        assertEquals(2, failure.getFailures().size());
+        failure.getFailures().get(1).retry().run();
+        verify(databaseUpdateService).upsert(eq("customers"),
+                ArgumentMatchers.<RowBuffer>argThat(row -> "2".equals(row.get("name"))), eq(ID));
+        // Nothing is kept back once the failures are handed back
+        writer.upsert("customers", row(7, "3"), ID);
+        assertEquals(3, sent.size());
+    }
+
+    private R2dbcTargetWriter writer(int connections, int pipelineDepth) {
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        doAnswer(invocation -> Mono.just(connection())).when(connectionFactory).create();
+        return new R2dbcTargetWriter(connectionFactory, connections, pipelineDepth, databaseUpdateService,
+                new RowFingerprintCache(false, 1024, new SimpleMeterRegistry()), DependencyScheduler.disabled(),
+                new SimpleMeterRegistry());
+    }
+
+    private Connection connection() {
+        Connection connection = mock(Connection.class);
+        doAnswer(invocation -> {
+            SentStatement statement = new SentStatement(connection, invocation.getArgument(0));
+            return statement.statement;
+        }).when(connection).createStatement(anyString());
+        return connection;
+    }
+
+    private static RowBuffer row(int id, String name) {
+        RowBuffer row = new RowBuffer();
+        row.add("id", id);
+        row.add("name", name);
+        return row;
+    }
+
+    private static boolean awaitedWithin(CompletableFuture<Void> future, long millis) throws Exception {
+        try {
+            future.get(millis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A statement whose result arrives when the test answers it
+     */
+    private final class SentStatement {
+
+        private final Connection connection;
+        private final String sql;
+        private final Object[] values = new Object[8];
+        private final Sinks.One<Result> result = Sinks.one();
+        private final Statement statement = mock(Statement.class);
+
+        SentStatement(Connection connection, String sql) {
+            this.connection = connection;
+            this.sql = sql;
+            doAnswer(invocation -> {
+                values[invocation.<Integer>getArgument(0)] = invocation.getArgument(1);
+                return statement;
+            }).when(statement).bind(anyInt(), any());
+            doAnswer(invocation -> {
+                synchronized (sent) {
+                    sent.add(this);
+                }
+                return result.asMono();
+            }).when(statement).execute();
+        }
+
+        void answer(long rows) {
+            Result answer = mock(Result.class);
+            doReturn(Mono.just(rows)).when(answer).getRowsUpdated();
+            result.tryEmitValue(answer);
+        }
+
+        void fail(Throwable error) {
+            result.tryEmitError(error);
+        }
+    }
+}
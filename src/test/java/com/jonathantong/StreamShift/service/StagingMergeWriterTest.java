@@ -0,0 +1,135 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.model.LargeValue;
+import com.jonathantong.StreamShift.model.RowBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StagingMergeWriterTest {
+
+    @Test
+    void mergeSql_shouldDeleteUpdateAndInsertFromStage() {
+        String sql = StagingMergeWriter.mergeSql("orders", "streamshift_stage_orders",
+                new String[] {"id", "status"}, List.of("id"));
+
+        assertEquals("MERGE INTO \"orders\" AS t USING \"streamshift_stage_orders\" AS s ON t.\"id\" = s.\"id\""
+                + " WHEN MATCHED AND s.\"_streamshift_op\" = 'd' THEN DELETE"
+                + " WHEN MATCHED THEN UPDATE SET \"status\" = s.\"status\""
+                + " WHEN NOT MATCHED AND s.\"_streamshift_op\" = 'u' THEN INSERT (\"id\", \"status\") VALUES (s.\"id\", s.\"status\")",
+                sql);
+    }
+
+    @Test
+    void upsertCteSql_shouldDoNothingOnConflict_forKeyOnlyTables() {
+        String sql = StagingMergeWriter.upsertCteSql("tags", "streamshift_stage_tags",
+                new String[] {"id"}, List.of("id"));
+
+        assertEquals("WITH deleted AS (DELETE FROM \"tags\" AS t USING \"streamshift_stage_tags\" AS s"
+                + " WHERE s.\"_streamshift_op\" = 'd' AND t.\"id\" = s.\"id\")"
+                + " INSERT INTO \"tags\" (\"id\") SELECT s.\"id\" FROM \"streamshift_stage_tags\" AS s"
+                + " WHERE s.\"_streamshift_op\" = 'u' ON CONFLICT (\"id\") DO NOTHING",
+                sql);
+    }
+
+    @Test
+    void stageTableName_shouldStayWithinIdentifierLimit() {
+        String name = StagingMergeWriter.stageTableName("a".repeat(60));
+
+        assertTrue(name.length() <= 63);
+        assertTrue(name.startsWith(StagingMergeWriter.STAGE_PREFIX));
+    }
+
+    @Test
+    void layouts_shouldPutDeletesInFirstUpsertLayout() {
+        TableBatch batch = new TableBatch("orders", ApplyStrategy.MERGE, List.of("id"));
+        batch.add("c", row("id", 1, "status", "new"), 0);
+        batch.add("d", row("id", 2), 1);
+        batch.add("u", row("id", 3, "status", "paid"), 2);
+
+        List<StagingMergeWriter.Layout> layouts = StagingMergeWriter.layouts(batch.getChanges(), List.of("id"));
+
+        assertEquals(1, layouts.size());
+        assertEquals(List.of("id", "status"), Arrays.asList(layouts.get(0).columns));
+        assertEquals(3, layouts.get(0).changes.size());
+    }
+
+    @Test
+    void copyEncoder_shouldWriteBinaryTuples_forSupportedTypes() {
+        CopyEncoder encoder = new CopyEncoder(new String[] {"int4", "text", "timestamp", "bpchar", "int8"});
+        Timestamp createdAt = Timestamp.valueOf(LocalDateTime.of(2000, 1, 1, 0, 0, 1));
+
+        encoder.begin();
+        encoder.row(new Object[] {7, null, createdAt, "u", 42L});
+        encoder.end();
+
+        assertTrue(encoder.isBinary());
+        ByteBuffer bytes = ByteBuffer.wrap(encoder.buffer(), 0, encoder.length());
+        bytes.position(19); // header
+        assertEquals(5, bytes.getShort());
+        assertEquals(4, bytes.getInt());
+        assertEquals(7, bytes.getInt());
+        assertEquals(-1, bytes.getInt());
+        assertEquals(8, bytes.getInt());
+        assertEquals(1_000_000L, bytes.getLong());
+        assertEquals(1, bytes.getInt());
+        assertEquals('u', bytes.get());
+        assertEquals(8, bytes.getInt());
+        assertEquals(42L, bytes.getLong());
+        assertEquals(-1, bytes.getShort());
+        assertFalse(bytes.hasRemaining());
+    }
+
+    @Test
+    void copyEncoder_shouldFallBackToEscapedText_forOtherTypes() {
+        CopyEncoder encoder = new CopyEncoder(new String[] {"numeric", "text", "bool"});
+
+        encoder.begin();
+        encoder.row(new Object[] {"12.50", "a\tb\\c", null});
+        encoder.end();
+
+        assertFalse(encoder.isBinary());
+        assertEquals("12.50\ta\\tb\\\\c\t\\N\n",
+                new String(encoder.buffer(), 0, encoder.length(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void copyEncoder_shouldCopyLargeValuesFromTheirBytes() {
+        byte[] document = "{\"a\":1}".getBytes(StandardCharsets.UTF_8);
+        LargeValue json = LargeValue.text(document, 0, document.length);
+        LargeValue base64 = LargeValue.text("AAEC/w==".getBytes(StandardCharsets.US_ASCII), 0, 8);
+
+        CopyEncoder binary = new CopyEncoder(new String[] {"jsonb", "bytea"});
+        binary.row(new Object[] {json, base64});
+        ByteBuffer bytes = ByteBuffer.wrap(binary.buffer(), 0, binary.length());
+        assertEquals(2, bytes.getShort());
+        assertEquals(document.length + 1, bytes.getInt());
+        assertEquals(1, bytes.get());
+        bytes.position(bytes.position() + document.length);
+        assertEquals(4, bytes.getInt());
+        assertEquals(0x000102FF, bytes.getInt());
+        assertFalse(bytes.hasRemaining());
+
+        CopyEncoder text = new CopyEncoder(new String[] {"numeric", "jsonb", "bytea"});
+        text.row(new Object[] {"1", json, base64});
+        assertEquals("1\t{\"a\":1}\t\\\\x000102ff\n",
+                new String(text.buffer(), 0, text.length(), StandardCharsets.UTF_8));
+    }
+
+    private static RowBuffer row(Object... columnsAndValues) {
+        RowBuffer row = new RowBuffer();
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            row.add((String) columnsAndValues[i], columnsAndValues[i + 1]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,61 @@
+package com.jonathantong.StreamShift.service;
+
+import com.jonathantong.StreamShift.model.RowBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TableBatchTest {
+
+    @Test
+    void add_shouldKeepLastChangePerKey_inFirstSeenOrder() {
+        // Arrange
+        TableBatch batch = new TableBatch("orders", ApplyStrategy.MERGE, List.of("id"));
+        RowBuffer updated = row(1, "paid");
+
+        // Act
+        batch.add("c", row(1, "new"), 0);
+        batch.add("c", row(2, "new"), 1);
+        batch.add("u", updated, 2);
+        batch.add("d", row(2, null), 3);
+
+        // Assert
+        List<TableBatch.Change> changes = batch.getChanges();
+        assertEquals(2, changes.size());
+        assertSame(updated, changes.get(0).getRow());
+        assertEquals(TableBatch.UPSERT, changes.get(0).getOp());
+        assertEquals(2, changes.get(0).getSequence());
+        assertTrue(changes.get(1).isDelete());
+        assertEquals(4, batch.eventCount());
+        assertEquals(2, batch.eventCount('c'));
+    }
+
+    @Test
+    void add_shouldKeyOnEveryKeyColumn() {
+        TableBatch batch = new TableBatch("order_lines", ApplyStrategy.BATCH, List.of("order_id", "line"));
+
+        batch.add("c", compositeRow(1, 1), 0);
+        batch.add("c", compositeRow(1, 2), 1);
+        batch.add("u", compositeRow(1, 1), 2);
+
+        assertEquals(2, batch.getChanges().size());
+    }
+
+    private static RowBuffer row(int id, String status) {
+        RowBuffer row = new RowBuffer();
+        row.add("id", id);
+        row.add("status", status);
+        return row;
+    }
+
+    private static RowBuffer compositeRow(int orderId, int line) {
+        RowBuffer row = new RowBuffer();
+        row.add("order_id", orderId);
+        row.add("line", line);
+        return row;
+    }
+}
@@ -0,0 +1,214 @@
+package com.jonathantong.StreamShift.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.consumer.ChangeEventConsumer;
+import com.jonathantong.StreamShift.dependency.DependencyScheduler;
+import com.jonathantong.StreamShift.fanout.CheckpointStore;
+import com.jonathantong.StreamShift.fanout.FanoutTargets;
+import com.jonathantong.StreamShift.hotkeys.HotKeyTracker;
+import com.jonathantong.StreamShift.memory.MemoryGovernor;
+import com.jonathantong.StreamShift.model.DecodedChange;
+import com.jonathantong.StreamShift.model.ResyncStatus;
+import com.jonathantong.StreamShift.pipeline.ApplyExecutor;
+import com.jonathantong.StreamShift.pipeline.ChangeEventPipeline;
+import com.jonathantong.StreamShift.routing.KeyRouting;
+import com.jonathantong.StreamShift.sharding.ShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListConsumerGroupOffsetsResult;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TableResyncServiceTest {
+
+    private static final String TOPIC = "dbserver1.inventory.customers";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    private final ChangeEventApplier liveApplier = mock(ChangeEventApplier.class);
+    private final ChangeEventPipeline pipeline = new ChangeEventPipeline(true, 16, 1, 2, 1000,
+            "blocking", "sleeping", "sleeping", "blocking", "blocking",
+            new ChangeEventDecoder(new ObjectMapper()), liveApplier, new ApplyExecutor("platform", 2),
+            new ShardRouter(1, null, "hash", ""), new FanoutTargets(1, List.of(), "", "", 0),
+            mock(CheckpointStore.class), HotKeyTracker.disabled(), KeyRouting.valueFirst(),
+            DependencyScheduler.disabled(), MemoryGovernor.unbounded(), new SimpleMeterRegistry());
+
+    @AfterEach
+    void tearDown() {
+        pipeline.stop();
+    }
+
+    @Test
+    void handover_shouldDrainThePipeline_soNoOlderImageOverwritesALiveWrite() throws Exception {
+        // Arrange: versions 0-5 of one row; the live group committed 3, and 3 and 4 are still in the pipeline
+        Map<Object, Integer> target = new ConcurrentHashMap<>();
+        List<Integer> resyncWrites = new CopyOnWriteArrayList<>();
+        CountDownLatch paused = new CountDownLatch(1);
+        CountDownLatch liveWroteLatest = new CountDownLatch(1);
+
+        when(liveApplier.strategyFor("customers")).thenReturn(ApplyStrategy.ROW);
+        doAnswer(invocation -> {
+            // The live lane reaches its in-flight records only once the handover has started
+            paused.await(5, TimeUnit.SECONDS);
+            DecodedChange change = invocation.getArgument(0);
+            int version = (Integer) change.getAfter().get("version");
+            target.put(change.getAfter().get("id"), version);
+            if (version == 4) {
+                liveWroteLatest.countDown();
+            }
+            return null;
+        }).when(liveApplier).apply(any(DecodedChange.class), any(), anyLong());
+        pipeline.start();
+        pipeline.publish(record(3), () -> { });
+        pipeline.publish(record(4), () -> { });
+
+        DatabaseUpdateService databaseUpdateService = mock(DatabaseUpdateService.class);
+        doAnswer(invocation -> {
+            // Without draining, this write would land after the live lane's newer one
+            liveWroteLatest.await(2, TimeUnit.SECONDS);
+            List<Map<String, Object>> rows = invocation.getArgument(1);
+            for (Map<String, Object> row : rows) {
+                int version = (Integer) row.get("version");
+                resyncWrites.add(version);
+                target.put(row.get("id"), version);
+            }
+            return null;
+        }).when(databaseUpdateService).upsertBatch(eq("customers"), anyList(), anyList());
+
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns("customers")).thenReturn(List.of("id"));
+
+        MessageListenerContainer container = mock(MessageListenerContainer.class);
+        doAnswer(invocation -> {
+            paused.countDown();
+            return null;
+        }).when(container).pausePartition(PARTITION);
+        when(container.isPartitionPaused(PARTITION)).thenReturn(true);
+        KafkaListenerEndpointRegistry registry = mock(KafkaListenerEndpointRegistry.class);
+        when(registry.getListenerContainer(ChangeEventConsumer.LISTENER_ID)).thenReturn(container);
+
+        TableResyncService service = resyncService(databaseUpdateService, schemaMetadataService, registry, 3);
+
+        // Act
+        ResyncStatus status = service.start("customers", null, 0L);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (status.isActive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Assert
+        assertEquals(ResyncStatus.State.COMPLETED, status.getState(), String.valueOf(status.getError()));
+        assertEquals(4, target.get(1), "the newest image applied by either side must win");
+        assertFalse(resyncWrites.contains(5), "records past the live position are left to the live consumer");
+        assertTrue(resyncWrites.contains(4), "the resync stops at the position the pipeline acknowledged");
+    }
+
+    @Test
+    void resolveTopic_shouldPickTheTopicTheLiveListenerReads_whenRepartitioning() {
+        // Arrange: the CDC topic and its repartitioned copy both exist
+        pipeline.start();
+        TableResyncService service = resyncService(mock(DatabaseUpdateService.class), mock(SchemaMetadataService.class),
+                mock(KafkaListenerEndpointRegistry.class), 0);
+        MockConsumer<String, byte[]> lookup = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        lookup.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+        lookup.updatePartitions("streamshift.repartitioned.customers",
+                List.of(new PartitionInfo("streamshift.repartitioned.customers", 0, null, null, null)));
+        ConsumerFactory<String, byte[]> consumerFactory = consumerFactory(service);
+        when(consumerFactory.createConsumer(anyString(), anyString(), isNull())).thenReturn(lookup);
+        ReflectionTestUtils.setField(service, "topicPattern", "streamshift\\.repartitioned\\..*");
+
+        // Act
+        String topic = service.resolveTopic("customers");
+
+        // Assert
+        assertEquals("streamshift.repartitioned.customers", topic);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConsumerFactory<String, byte[]> consumerFactory(TableResyncService service) {
+        return (ConsumerFactory<String, byte[]>) ReflectionTestUtils.getField(service, "consumerFactory");
+    }
+
+    private TableResyncService resyncService(DatabaseUpdateService databaseUpdateService,
+                                             SchemaMetadataService schemaMetadataService,
+                                             KafkaListenerEndpointRegistry registry, long committed) {
+        MockConsumer<String, byte[]> lookup = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        lookup.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+
+        MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+        consumer.updateEndOffsets(Map.of(PARTITION, 6L));
+        consumer.schedulePollTask(() -> {
+            for (int version = 0; version <= 5; version++) {
+                consumer.addRecord(record(version));
+            }
+        });
+
+        @SuppressWarnings("unchecked")
+        ConsumerFactory<String, byte[]> consumerFactory = mock(ConsumerFactory.class);
+        when(consumerFactory.createConsumer(anyString(), anyString(), isNull())).thenReturn(lookup);
+        when(consumerFactory.createConsumer(anyString(), anyString(), isNull(), any(Properties.class))).thenReturn(consumer);
+
+        AdminClient admin = mock(AdminClient.class);
+        ListConsumerGroupOffsetsResult offsets = mock(ListConsumerGroupOffsetsResult.class);
+        when(offsets.partitionsToOffsetAndMetadata())
+                .thenReturn(KafkaFuture.completedFuture(Map.of(PARTITION, new OffsetAndMetadata(committed))));
+        when(admin.listConsumerGroupOffsets(anyString())).thenReturn(offsets);
+
+        TableResyncService service = new TableResyncService(consumerFactory, registry,
+                new ChangeEventDecoder(new ObjectMapper()), schemaMetadataService, databaseUpdateService,
+                new RowFingerprintCache(false, 16, new SimpleMeterRegistry()), new ShardRouter(1, null, "hash", ""),
+                new FanoutTargets(1, List.of(), "", "", 0), pipeline) {
+            @Override
+            AdminClient createAdmin() {
+                return admin;
+            }
+        };
+        ReflectionTestUtils.setField(service, "topicPattern", "dbserver1\\.inventory\\..*");
+        ReflectionTestUtils.setField(service, "liveGroupId", "streamshift-consumer-group");
+        ReflectionTestUtils.setField(service, "maxPollRecords", 500);
+        ReflectionTestUtils.setField(service, "handoverLag", 1000L);
+        ReflectionTestUtils.setField(service, "handoverTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(service, "liveOffsetsIntervalMs", 5000L);
+        return service;
+    }
+
+    private static ConsumerRecord<String, byte[]> record(int version) {
+        String value = "{\"op\":\"u\",\"source\":{\"db\":\"inventory\",\"table\":\"customers\"},"
+                + "\"after\":{\"id\":1,\"version\":" + version + "}}";
+        return new ConsumerRecord<>(TOPIC, 0, version, "{\"id\":1}", value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,88 @@
+package com.jonathantong.StreamShift.sharding;
+
+import com.jonathantong.StreamShift.service.SchemaMetadataService;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ShardRouterTest {
+
+    @Test
+    void shardFor_shouldPlaceRowsByPrimaryKey_perTableFunction() {
+        // Arrange
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns("customers")).thenReturn(List.of("id"));
+        when(schemaMetadataService.getPrimaryKeyColumns("orders")).thenReturn(List.of("id"));
+        when(schemaMetadataService.getPrimaryKeyColumns("audit_log")).thenReturn(List.of());
+        ShardRouter router = new ShardRouter(4, schemaMetadataService, "hash", "orders:modulo,countries:shard-2");
+
+        // Act & Assert
+        assertEquals(router.shardFor("customers", row(1001)), router.shardFor("customers", row(1001L)),
+                "int and long keys of the same value must land on the same shard");
+        assertEquals(3, router.shardFor("orders", row(10003)));
+        assertEquals(2, router.shardFor("countries", row(7)));
+        assertEquals(0, router.shardFor("audit_log", row(5)));
+    }
+
+    @Test
+    void shardFor_shouldReadKeyColumnsFromShardZero_andKeepTheCallersShard() {
+        // Arrange
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        List<Integer> readFrom = new ArrayList<>();
+        when(schemaMetadataService.getPrimaryKeyColumns("customers")).thenAnswer(invocation -> {
+            readFrom.add(ShardContext.current().getShard());
+            return List.of("id");
+        });
+        ShardRouter router = new ShardRouter(4, schemaMetadataService, "hash", "");
+        ShardContext.current().setShard(3);
+
+        try {
+            // Act
+            router.shardFor("customers", row(1001));
+
+            // Assert
+            assertEquals(List.of(0), readFrom);
+            assertEquals(3, ShardContext.current().getShard());
+        } finally {
+            ShardContext.current().setShard(0);
+        }
+    }
+
+    @Test
+    void hash_shouldSpreadSequentialKeysOverEveryShard() {
+        SchemaMetadataService schemaMetadataService = mock(SchemaMetadataService.class);
+        when(schemaMetadataService.getPrimaryKeyColumns("customers")).thenReturn(List.of("id"));
+        ShardRouter router = new ShardRouter(4, schemaMetadataService, "hash", "");
+
+        int[] rows = new int[4];
+        for (int id = 0; id < 4000; id++) {
+            rows[router.shardFor("customers", row(id))]++;
+        }
+
+        for (int shard = 0; shard < rows.length; shard++) {
+            assertTrue(rows[shard] > 800 && rows[shard] < 1200, "shard " + shard + " got " + rows[shard] + " rows");
+        }
+    }
+
+    @Test
+    void constructor_shouldRejectTablesPinnedToMissingShards() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ShardRouter(2, null, "hash", "countries:shard-2"));
+    }
+
+    private static Map<String, Object> row(Object id) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("name", "row " + id);
+        return row;
+    }
+}
@@ -0,0 +1,85 @@
+package com.jonathantong.StreamShift.tracing;
+
+import com.jonathantong.StreamShift.cache.RowFingerprintCache;
+import com.jonathantong.StreamShift.service.DatabaseUpdateService;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ChangeEventTracingTest {
+
+    @Mock
+    private JdbcTemplate targetJdbcTemplate;
+
+    @Mock
+    private RowFingerprintCache fingerprintCache;
+
+    @InjectMocks
+    private DatabaseUpdateService databaseUpdateService;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void sqlExecution_shouldCarryRecordOfCurrentThread_whenRecordingEnabled() throws Exception {
+        when(targetJdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
+        TraceContext.current()
+                .record("dbserver1.inventory.customers", 3, 42L, 512)
+                .change("customers", "u");
+
+        Path file = tempDir.resolve("trace.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("streamshift.SqlExecution").withThreshold(Duration.ZERO);
+            recording.start();
+            databaseUpdateService.upsert("customers", Map.of("id", 7, "email", "a@b.c"), List.of("id"));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("customers", event.getString("table"));
+        assertEquals("u", event.getString("operation"));
+        assertEquals("UPSERT", event.getString("statement"));
+        assertEquals(3, event.getInt("partition"));
+        assertEquals(42L, event.getLong("offset"));
+        assertEquals(512L, event.getLong("bytes"));
+        assertEquals(1, event.getInt("rows"));
+    }
+
+    @Test
+    void sqlExecution_shouldNotBeRecorded_unlessEnabledByProfile() throws Exception {
+        when(targetJdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
+
+        Path file = tempDir.resolve("default.jfr");
+        try (Recording recording = new Recording()) {
+            recording.start();
+            databaseUpdateService.upsert("customers", Map.of("id", 7), List.of("id"));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        assertEquals(0, RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().startsWith("streamshift."))
+                .count());
+    }
+}